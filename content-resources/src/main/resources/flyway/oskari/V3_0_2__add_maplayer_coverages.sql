@@ -0,0 +1 @@
+ALTER TABLE oskari_maplayer ADD COLUMN coverages text DEFAULT '{}'::text;
@@ -3,6 +3,7 @@ package fi.nls.oskari.control.admin;
 import fi.nls.oskari.annotation.OskariActionRoute;
 import fi.nls.oskari.cache.Cache;
 import fi.nls.oskari.cache.CacheManager;
+import fi.nls.oskari.cache.CacheStats;
 import fi.nls.oskari.control.ActionDeniedException;
 import fi.nls.oskari.control.ActionException;
 import fi.nls.oskari.control.ActionParameters;
@@ -16,6 +17,7 @@ import org.json.JSONArray;
 import org.json.JSONObject;
 
 import java.util.Date;
+import java.util.Map;
 import java.util.Set;
 
 @OskariActionRoute("Cache")
@@ -28,9 +30,12 @@ public class CacheHandler extends RestActionHandler {
         final JSONObject response = new JSONObject();
         final JSONArray list = new JSONArray();
         Set<String> cacheNames = CacheManager.getCacheNames();
+        Map<String, CacheStats> stats = CacheManager.getCacheStats();
         for (String name : cacheNames) {
             Cache cache = CacheManager.getCache(name);
-            list.put(getCacheJSON(cache));
+            JSONObject json = getCacheJSON(cache);
+            JSONHelper.putValue(json, "stats", getStatsJSON(stats.get(name)));
+            list.put(json);
         }
         JSONHelper.putValue(response, "caches", list);
         JSONHelper.putValue(response, "timestamp", new Date());
@@ -56,6 +61,22 @@ public class CacheHandler extends RestActionHandler {
         JSONHelper.putValue(json, "limit", cache.getLimit());
         JSONHelper.putValue(json, "expiration", cache.getExpiration() / 1000);
         JSONHelper.putValue(json, "secondsToExpire", cache.getTimeToExpirationMs() / 1000);
+        if (cache.isWeighted()) {
+            JSONHelper.putValue(json, "bytes", cache.getWeight());
+            JSONHelper.putValue(json, "maxBytes", cache.getMaxWeight());
+        }
+        return json;
+    }
+
+    private JSONObject getStatsJSON(CacheStats stats) {
+        final JSONObject json = new JSONObject();
+        if (stats == null) {
+            return json;
+        }
+        JSONHelper.putValue(json, "hits", stats.getHitCount());
+        JSONHelper.putValue(json, "misses", stats.getMissCount());
+        JSONHelper.putValue(json, "evictions", stats.getEvictionCount());
+        JSONHelper.putValue(json, "hitRate", stats.getHitRate());
         return json;
     }
 
@@ -1,7 +1,7 @@
 package fi.nls.oskari.control.admin;
 
 import fi.nls.oskari.annotation.OskariActionRoute;
-import fi.nls.oskari.cache.CacheManager;
+import fi.nls.oskari.cache.TileStoreManager;
 import fi.nls.oskari.control.ActionDeniedException;
 import fi.nls.oskari.control.ActionException;
 import fi.nls.oskari.control.ActionParameters;
@@ -33,6 +33,7 @@ import org.oskari.maplayer.model.MapLayer;
 import org.oskari.maplayer.model.MapLayerAdminInput;
 import org.oskari.maplayer.model.MapLayerAdminOutput;
 import org.oskari.log.AuditLog;
+import org.oskari.service.wfs.client.OskariWFSFormatRegistry;
 
 import java.time.OffsetDateTime;
 import java.util.*;
@@ -66,10 +67,6 @@ public class LayerAdminHandler extends AbstractLayerAdminHandler {
         super.init();
     }
 
-    private void flushLayerListCache() {
-        CacheManager.getCache(GetMapLayerGroupsHandler.CACHE_NAME).flush(true);
-    }
-
     private VectorStyleService getVectorStyleService() {
         return OskariComponentManager.getComponentOfType(VectorStyleService.class);
     }
@@ -116,6 +113,9 @@ public class LayerAdminHandler extends AbstractLayerAdminHandler {
                 .withParam("name", ml.getName());
 
         if (isExisting) {
+            // tiles rendered with the previous layer configuration are no longer valid
+            TileStoreManager.invalidateLayer(ml.getId());
+            OskariWFSFormatRegistry.reset(ml.getId());
             audit.updated(AuditLog.ResourceType.MAPLAYER);
         } else {
             audit.added(AuditLog.ResourceType.MAPLAYER);
@@ -126,7 +126,9 @@ public class LayerAdminHandler extends AbstractLayerAdminHandler {
             // NOTE! only tell if permissions failed, this probably needs some refactoring to be useful
             output.setWarn(KEY_PERMISSIONS_FAIL);
         }
-        flushLayerListCache();
+        // permissions are saved with the layer
+        GetMapLayerGroupsHandler.flushLayers(Collections.singletonList(ml));
+        GetMapLayerGroupsHandler.flushPermissions();
         writeResponse(params, output);
     }
 
@@ -136,10 +138,11 @@ public class LayerAdminHandler extends AbstractLayerAdminHandler {
         final OskariLayer ml = getMapLayer(params.getUser(), id);
         MapLayerAdminOutput output = getLayerForEdit(params.getUser(), ml);
         try {
-            cleanupLayerReferences(id);
+            List<OskariLayer> modified = cleanupLayerReferences(id);
             mapLayerService.delete(id);
 
             MapLayerPermissionsHelper.removePermissions(id);
+            TileStoreManager.invalidateLayer(id);
 
             AuditLog.user(params.getClientIp(), params.getUser())
                     .withParam("id", ml.getId())
@@ -149,7 +152,9 @@ public class LayerAdminHandler extends AbstractLayerAdminHandler {
                     .deleted(AuditLog.ResourceType.MAPLAYER);
 
             writeResponse(params, output);
-            flushLayerListCache();
+            modified.add(ml);
+            GetMapLayerGroupsHandler.flushLayers(modified);
+            GetMapLayerGroupsHandler.flushPermissions();
         } catch (Exception e) {
             throw new ActionException("Couldn't delete map layer - id:" + id, e);
         }
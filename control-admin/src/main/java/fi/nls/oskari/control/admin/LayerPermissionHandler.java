@@ -1,7 +1,6 @@
 package fi.nls.oskari.control.admin;
 
 import fi.nls.oskari.annotation.OskariActionRoute;
-import fi.nls.oskari.cache.CacheManager;
 import fi.nls.oskari.control.ActionException;
 import fi.nls.oskari.control.ActionParameters;
 import fi.nls.oskari.control.ActionParamsException;
@@ -177,7 +176,7 @@ public class LayerPermissionHandler extends AbstractLayerAdminHandler {
     }
 
     private void flushLayerListCache() {
-        CacheManager.getCache(GetMapLayerGroupsHandler.CACHE_NAME).flush(true);
+        GetMapLayerGroupsHandler.flushPermissions();
     }
 
     private JSONArray parseJSONArray(final String jsonArray) throws ActionParamsException {
@@ -13,8 +13,10 @@ import fi.nls.oskari.control.*;
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
 import fi.nls.oskari.util.JSONHelper;
+import fi.nls.oskari.util.PooledHttpClient;
 import fi.nls.oskari.util.ResponseHelper;
 import org.json.JSONObject;
+import org.oskari.service.wfs.client.OskariWFSFormatRegistry;
 
 import java.io.StringWriter;
 import java.util.concurrent.TimeUnit;
@@ -69,9 +71,30 @@ public class MetricsHandler extends RestActionHandler {
             LOG.error(e, "Error writing thread state metrics");
         }
 
+        // WFS layers that respond with GML even if JSON is requested
+        JSONHelper.putValue(metricsJSON, "wfs.formatFallbacks", new JSONObject(OskariWFSFormatRegistry.getFallbackCounts()));
+
+        // outbound requests per host
+        JSONHelper.putValue(metricsJSON, "http.hosts", getHostStats());
+
         ResponseHelper.writeResponse(params, metricsJSON);
     }
 
+    private JSONObject getHostStats() {
+        JSONObject hosts = new JSONObject();
+        PooledHttpClient.getHostStats().forEach((host, stats) -> {
+            JSONObject json = new JSONObject();
+            JSONHelper.putValue(json, "inFlight", stats.getInFlight());
+            JSONHelper.putValue(json, "requests", stats.getRequestCount());
+            JSONHelper.putValue(json, "failed", stats.getFailedCount());
+            JSONHelper.putValue(json, "rejected", stats.getRejectedCount());
+            JSONHelper.putValue(json, "queueTimeMs", stats.getQueueTimeMs());
+            JSONHelper.putValue(json, "bytesRead", stats.getBytesRead());
+            JSONHelper.putValue(hosts, host, json);
+        });
+        return hosts;
+    }
+
 
     @Override
     public void preProcess(ActionParameters params) throws ActionException {
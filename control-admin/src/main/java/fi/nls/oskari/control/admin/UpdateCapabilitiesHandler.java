@@ -6,6 +6,7 @@ import java.util.Set;
 import java.util.stream.Collectors;
 
 import fi.nls.oskari.control.*;
+import fi.nls.oskari.control.layer.GetMapLayerGroupsHandler;
 import fi.nls.oskari.util.PropertyUtil;
 import org.oskari.capabilities.CapabilitiesService;
 import org.oskari.capabilities.CapabilitiesUpdateResult;
@@ -81,11 +82,13 @@ public class UpdateCapabilitiesHandler extends RestActionHandler {
                 .map(l -> l.getLayerId())
                 .collect(Collectors.toList());
 
-        for (OskariLayer layer : layers) {
-            if (!updatedLayers.contains("" + layer.getId())) {
-                continue;
-            }
-            layerService.update(layer);
+        List<OskariLayer> layersToSave = layers.stream()
+                .filter(layer -> updatedLayers.contains("" + layer.getId()))
+                .collect(Collectors.toList());
+        layerService.updateCapabilities(layersToSave, Collections.emptyList());
+        CapabilitiesService.capabilitiesSaved(layers, result);
+        GetMapLayerGroupsHandler.flushLayers(layersToSave);
+        for (OskariLayer layer : layersToSave) {
             AuditLog.user(params.getClientIp(), params.getUser())
                     .withParam("id", layer.getId())
                     .withParam("name", layer.getName(PropertyUtil.getDefaultLanguage()))
@@ -14,17 +14,49 @@ import fi.nls.oskari.map.data.service.GetGeoPointDataService;
 import fi.nls.oskari.map.layer.OskariLayerService;
 import fi.nls.oskari.service.OskariComponentManager;
 import fi.nls.oskari.util.ConversionHelper;
+import fi.nls.oskari.util.PropertyUtil;
 import fi.nls.oskari.util.ResponseHelper;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.oskari.permissions.PermissionService;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
 import static fi.nls.oskari.control.ActionConstants.*;
 
+/**
+ * Queries feature info for the requested layers. Layers are queried concurrently:
+ * <pre>
+ * # max number of layer queries running at the same time for all requests,
+ * # when every thread is busy the layers are queried in the request thread
+ * gfi.threads=64
+ * # max number of layers queried at the same time for a single request
+ * gfi.threads.request=4
+ * # max milliseconds to wait for all the layers of a request, layers that didn't respond by then are omitted
+ * gfi.timeout=15000
+ * # read timeout in milliseconds for a single layer (capped to the time left of gfi.timeout)
+ * gfi.timeout.read=15000
+ * </pre>
+ * Results are returned in the order the layers were requested.
+ */
 @OskariActionRoute("GetFeatureInfoWMS")
 public class GetGeoPointDataHandler extends ActionHandler {
     private PermissionHelper permissionHelper;
+    private ExecutorService executor;
+    private int requestThreads;
+    private long timeout;
+    private int readTimeout;
     private final GetGeoPointDataService geoPointService = new GetGeoPointDataService();
 
     private final Logger log = LogFactory.getLogger(GetGeoPointDataHandler.class);
@@ -43,6 +75,24 @@ public class GetGeoPointDataHandler extends ActionHandler {
         permissionHelper = new PermissionHelper(
                 OskariComponentManager.getComponentOfType(OskariLayerService.class),
                 OskariComponentManager.getComponentOfType(PermissionService.class));
+        initExecutor();
+    }
+
+    void initExecutor() {
+        int threads = Math.max(1, PropertyUtil.getOptional("gfi.threads", 64));
+        // no queue: a query never waits for a thread, the request thread runs it if the pool is busy
+        executor = new ThreadPoolExecutor(0, threads, 60, TimeUnit.SECONDS, new SynchronousQueue<>(),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        requestThreads = Math.max(1, PropertyUtil.getOptional("gfi.threads.request", 4));
+        timeout = PropertyUtil.getOptional("gfi.timeout", 15000);
+        readTimeout = PropertyUtil.getOptional("gfi.timeout.read", (int) timeout);
+    }
+
+    @Override
+    public void teardown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
     }
 
     @Override
@@ -56,7 +106,7 @@ public class GetGeoPointDataHandler extends ActionHandler {
         final double lon = ConversionHelper.getDouble(params.getHttpParam(PARAM_LON), -1);
         final int zoom = ConversionHelper.getInt(params.getHttpParam(PARAM_ZOOM), 0);
 
-        final JSONArray data = new JSONArray();
+        final List<LayerQuery> queries = new ArrayList<>(layerIdsArr.length);
         final String srs = params.getHttpParam(PARAM_SRS, "EPSG:3067");
 
         for (String id : layerIdsArr) {
@@ -91,18 +141,20 @@ public class GetGeoPointDataHandler extends ActionHandler {
                 gfiParams.setZoom(zoom);
                 gfiParams.setAdditionalParams(allLayerAdditionalParams.optJSONObject(id));
 
-                final JSONObject response = geoPointService.getWMSFeatureInfo(gfiParams);
-                if (response != null) {
-                    data.put(response);
-                }
+                queries.add(new LayerQuery(layer, readTimeout -> {
+                    gfiParams.setReadTimeout(readTimeout);
+                    return geoPointService.getWMSFeatureInfo(gfiParams);
+                }));
             } else if (OskariLayer.TYPE_ARCGIS93.equals(layerType)) {
-                final JSONObject response = geoPointService.getRESTFeatureInfo((GFIRestQueryParams) gfiParams);
-                if (response != null) {
-                    data.put(response);
-                }
+                queries.add(new LayerQuery(layer, readTimeout -> {
+                    gfiParams.setReadTimeout(readTimeout);
+                    return geoPointService.getRESTFeatureInfo((GFIRestQueryParams) gfiParams);
+                }));
             }
         }
 
+        final JSONArray data = getFeatureInfo(queries);
+
         try {
             final JSONObject rootJson = new JSONObject();
             rootJson.put("data", data);
@@ -113,6 +165,75 @@ public class GetGeoPointDataHandler extends ActionHandler {
         }
     }
 
+    /**
+     * Runs at most gfi.threads.request queries of the request at the same time and waits for them until
+     * gfi.timeout has passed since the call. Queries not started by then are skipped.
+     * @return responses in the same order as the queries
+     */
+    JSONArray getFeatureInfo(List<LayerQuery> queries) throws ActionException {
+        final JSONArray data = new JSONArray();
+        if (queries.isEmpty()) {
+            return data;
+        }
+        final long deadline = System.currentTimeMillis() + timeout;
+        final List<CompletableFuture<JSONObject>> responses = new ArrayList<>(queries.size());
+        for (int i = 0; i < queries.size(); i++) {
+            responses.add(new CompletableFuture<>());
+        }
+        // workers take the next query of this request until all are done or the deadline is reached
+        final AtomicInteger next = new AtomicInteger();
+        final Runnable worker = () -> {
+            int i;
+            while ((i = next.getAndIncrement()) < queries.size()) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return;
+                }
+                try {
+                    responses.get(i).complete(queries.get(i).query.apply((int) Math.min(readTimeout, remaining)));
+                } catch (Exception e) {
+                    responses.get(i).completeExceptionally(e);
+                }
+            }
+        };
+        final int workers = Math.min(requestThreads, queries.size());
+        for (int i = 0; i < workers; i++) {
+            executor.execute(worker);
+        }
+        for (int i = 0; i < queries.size(); i++) {
+            final OskariLayer layer = queries.get(i).layer;
+            try {
+                final long remaining = Math.max(0, deadline - System.currentTimeMillis());
+                final JSONObject result = responses.get(i).get(remaining, TimeUnit.MILLISECONDS);
+                if (result != null) {
+                    data.put(result);
+                }
+            } catch (TimeoutException e) {
+                log.info("Feature info query for layer", layer.getId(), "(" + layer.getName() + ")",
+                        "timed out after", timeout, "ms");
+            } catch (ExecutionException e) {
+                log.warn(e.getCause(), "Feature info query failed for layer", layer.getId(), "(" + layer.getName() + ")");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ActionException("Interrupted while waiting for feature info", e);
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Feature info query for a layer, called with the read timeout in milliseconds to use
+     */
+    static class LayerQuery {
+        private final OskariLayer layer;
+        private final IntFunction<JSONObject> query;
+
+        LayerQuery(OskariLayer layer, IntFunction<JSONObject> query) {
+            this.layer = layer;
+            this.query = query;
+        }
+    }
+
     private GFIRequestParams getParams(String layerType) {
         if (OskariLayer.TYPE_WMS.equals(layerType)) {
             return new GFIRequestParams();
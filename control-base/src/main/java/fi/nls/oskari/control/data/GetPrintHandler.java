@@ -1,6 +1,7 @@
 package fi.nls.oskari.control.data;
 
 import fi.nls.oskari.annotation.OskariActionRoute;
+import fi.nls.oskari.control.ActionDeniedException;
 import fi.nls.oskari.control.ActionException;
 import fi.nls.oskari.control.ActionParameters;
 import fi.nls.oskari.control.ActionParamsException;
@@ -13,12 +14,14 @@ import fi.nls.oskari.service.ServiceException;
 import fi.nls.oskari.util.ConversionHelper;
 import fi.nls.oskari.util.JSONHelper;
 import fi.nls.oskari.util.ResponseHelper;
-import org.apache.pdfbox.pdmodel.PDDocument;
+import jakarta.servlet.http.HttpServletResponse;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.geotools.api.referencing.FactoryException;
 import org.oskari.print.PrintService;
+import org.oskari.print.job.PrintJob;
+import org.oskari.print.job.PrintJobQueue;
 import org.oskari.print.request.PrintFormat;
 import org.oskari.print.request.PrintLayer;
 import org.oskari.print.request.PrintRequest;
@@ -26,15 +29,19 @@ import org.oskari.print.request.PrintTile;
 import org.oskari.service.user.UserLayerService;
 import org.oskari.service.wfs.client.OskariWFSClient;
 
-import javax.imageio.ImageIO;
-import java.awt.image.BufferedImage;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 
+/**
+ * Renders a print of the map as PDF or PNG. By default the print is returned in the response. With async=true
+ * the print is queued and the response has the id and status of the print job (see PrintJobQueue). The status can
+ * be polled with jobId=[id] and the print can be downloaded with jobId=[id]&download=true once the status is "done".
+ */
 @OskariActionRoute("GetPrint")
 public class GetPrintHandler extends AbstractWFSFeaturesHandler {
 
@@ -64,6 +71,10 @@ public class GetPrintHandler extends AbstractWFSFeaturesHandler {
 
     private static final String PARM_COORDINATE_INFO = "coordinateInfo";
 
+    private static final String PARM_ASYNC = "async";
+    private static final String PARM_JOB_ID = "jobId";
+    private static final String PARM_DOWNLOAD = "download";
+
     private static final String ALLOWED_FORMATS = Arrays.toString(new String[] {
             PrintFormat.PDF.contentType, PrintFormat.PNG.contentType
     });
@@ -85,6 +96,7 @@ public class GetPrintHandler extends AbstractWFSFeaturesHandler {
     private static final int MARGIN_HEIGHT = 15 * 2;
 
     private PrintService printService;
+    private PrintJobQueue jobQueue;
 
     public static int mmToPx(int mm) {
         return (int) Math.round((OGC_DPI * mm) / MM_PER_INCH);
@@ -97,6 +109,18 @@ public class GetPrintHandler extends AbstractWFSFeaturesHandler {
         if (printService == null) {
             printService = new PrintService(featureClient);
         }
+        if (jobQueue == null) {
+            jobQueue = new PrintJobQueue(printService);
+        }
+    }
+
+    @Override
+    public void teardown() {
+        super.teardown();
+        if (jobQueue != null) {
+            jobQueue.shutdown();
+            jobQueue = null;
+        }
     }
 
     @Override
@@ -106,22 +130,81 @@ public class GetPrintHandler extends AbstractWFSFeaturesHandler {
     }
 
     public void handleAction(ActionParameters params) throws ActionException {
+        String jobId = params.getHttpParam(PARM_JOB_ID);
+        if (jobId != null) {
+            handleJob(jobId, params);
+            return;
+        }
         PrintRequest pr = createPrintRequest(params);
         for (PrintLayer layer : pr.getLayers()) {
             layerAccessHandlers.forEach(handler -> handler.handle(layer.getOskariLayer(), pr.getUser()));
         }
-        switch (pr.getFormat()) {
-        case PDF:
-            handlePDF(pr, params);
-            break;
-        case PNG:
-            handlePNG(pr, params);
-            break;
-        default:
+        if (pr.getFormat() != PrintFormat.PDF && pr.getFormat() != PrintFormat.PNG) {
             throw new ActionParamsException(String.format(
                     "Invalid value for key '%s'. Allowed values are: %s",
                     PARM_FORMAT, ALLOWED_FORMATS));
         }
+        if (params.getHttpParam(PARM_ASYNC, false)) {
+            try {
+                PrintJob job = jobQueue.submit(pr, getJobOwner(params.getUser()));
+                ResponseHelper.writeResponse(params, getJobStatus(job));
+            } catch (ServiceException e) {
+                throw new ActionException(e.getMessage(), e);
+            }
+            return;
+        }
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            printService.print(pr, baos);
+            ResponseHelper.writeResponse(params, 200, pr.getFormat().contentType, baos);
+        } catch (IOException | ServiceException e) {
+            throw new ActionException("Failed to create " + pr.getFormat(), e);
+        }
+    }
+
+    private void handleJob(String jobId, ActionParameters params) throws ActionException {
+        PrintJob job = jobQueue.getJob(jobId);
+        if (job == null) {
+            throw new ActionParamsException("Print job not found or it has expired");
+        }
+        if (!job.getOwner().equals(getJobOwner(params.getUser()))) {
+            throw new ActionDeniedException("Print job belongs to another user");
+        }
+        if (!params.getHttpParam(PARM_DOWNLOAD, false)) {
+            ResponseHelper.writeResponse(params, getJobStatus(job));
+            return;
+        }
+        if (job.getStatus() != PrintJob.Status.DONE) {
+            throw new ActionParamsException("Print is not available, status: " + getStatusName(job));
+        }
+        HttpServletResponse response = params.getResponse();
+        response.setStatus(200);
+        response.setContentType(job.getFormat().contentType);
+        try (OutputStream out = response.getOutputStream()) {
+            jobQueue.writeResult(job, out);
+        } catch (IOException e) {
+            throw new ActionException("Failed to write print", e);
+        }
+    }
+
+    private static String getJobOwner(User user) {
+        // guests share the owner, the random job id is enough to separate their prints
+        return user == null || user.isGuest() ? "" : user.getUuid();
+    }
+
+    private static String getStatusName(PrintJob job) {
+        return job.getStatus().name().toLowerCase();
+    }
+
+    private static JSONObject getJobStatus(PrintJob job) {
+        JSONObject json = new JSONObject();
+        JSONHelper.putValue(json, "id", job.getId());
+        JSONHelper.putValue(json, "status", getStatusName(job));
+        JSONHelper.putValue(json, "format", job.getFormat().contentType);
+        if (job.getError() != null) {
+            JSONHelper.putValue(json, "error", job.getError());
+        }
+        return json;
     }
 
     private PrintRequest createPrintRequest(ActionParameters params)
@@ -436,29 +519,6 @@ public class GetPrintHandler extends AbstractWFSFeaturesHandler {
         return arr;
     }
 
-    private void handlePNG(PrintRequest pr, ActionParameters params) throws ActionException {
-        try {
-            BufferedImage bi = printService.getPNG(pr);
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            ImageIO.write(bi, PrintFormat.PNG.fileExtension, baos);
-            ResponseHelper.writeResponse(params, 200, PrintFormat.PNG.contentType, baos);
-        } catch (IOException | ServiceException e) {
-            throw new ActionException("Failed to create PNG", e);
-        }
-    }
-
-    private void handlePDF(PrintRequest pr, ActionParameters params) throws ActionException {
-        try (PDDocument doc = new PDDocument()) {
-            printService.getPDF(pr, doc);
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            doc.save(baos);
-
-            ResponseHelper.writeResponse(params, 200, PrintFormat.PDF.contentType, baos);
-        } catch (IOException | ServiceException e) {
-            throw new ActionException("Failed to create PDF", e);
-        }
-    }
-
     private static class LayerProperties {
 
         private final String id;
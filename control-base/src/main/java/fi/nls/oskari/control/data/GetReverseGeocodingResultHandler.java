@@ -55,6 +55,12 @@ public class GetReverseGeocodingResultHandler extends ActionHandler {
         }
     }
 
+    @Override
+    public void teardown() {
+        // channel searches run on a pool shared by all SearchServiceImpl instances
+        SearchServiceImpl.shutdownExecutor();
+    }
+
 
     public void handleAction(final ActionParameters params) throws ActionException {
         final double lon = params.getRequiredParamDouble(PARAM_LON);
@@ -36,6 +36,12 @@ public class GetSearchResultHandler extends ActionHandler {
         channels = PropertyUtil.getCommaSeparatedList("actionhandler.GetSearchResult.channels");
     }
 
+    @Override
+    public void teardown() {
+        // channel searches run on a pool shared by all SearchServiceImpl instances
+        SearchServiceImpl.shutdownExecutor();
+    }
+
 
     public void handleAction(final ActionParameters params) throws ActionException {
         final String search = params.getHttpParam(PARAM_SEARCH_KEY, params.getHttpParam(PARAM_SEARCH_KEY_ALT));
@@ -76,15 +76,15 @@ public class GetLayerCapabilitiesHandler extends ActionHandler {
             return layer.getCapabilities().toString();
         }
         try {
-            String capsJSON = layer.getCapabilities().toString();
-            LayerCapabilitiesWMTS caps = CapabilitiesService.fromJSON(layer.getCapabilities().toString(), OskariLayer.TYPE_WMTS);
+            LayerCapabilitiesWMTS caps = CapabilitiesService.getLayerCapabilities(layer);
             TileMatrixLink link = caps.getTileMatrixLinks().stream()
                     .filter(l -> crs.equals(l.getTileMatrixSet().getShortCrs()))
                     .findFirst()
                     .orElseThrow(() -> new ActionParamsException("No tilematrix matching srs: " + crs));
 
-            // Make a copy so we don't mutate layer in cache
-            JSONObject modifiedCapabilities = new JSONObject(capsJSON);
+            // Make a (shallow) copy so we don't mutate layer in cache
+            JSONObject capsJSON = layer.getCapabilities();
+            JSONObject modifiedCapabilities = new JSONObject(capsJSON, JSONObject.getNames(capsJSON));
             // remove "tileMatrixLinks" (with all matrices) that is replaced with "tileMatrixSet" (just for current projection)
             modifiedCapabilities.remove("tileMatrixLinks");
             modifiedCapabilities.put("tileMatrixSet", link.getTileMatrixSet().getAsJSON());
@@ -3,8 +3,6 @@ package fi.nls.oskari.control.layer;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import fi.nls.oskari.annotation.OskariActionRoute;
-import fi.nls.oskari.cache.Cache;
-import fi.nls.oskari.cache.CacheManager;
 import fi.nls.oskari.control.*;
 import fi.nls.oskari.domain.map.OskariLayer;
 import fi.nls.oskari.log.LogFactory;
@@ -13,6 +11,7 @@ import fi.nls.oskari.map.layer.formatters.LayerJSONFormatterVectorTile;
 import fi.nls.oskari.service.OskariComponentManager;
 import fi.nls.oskari.util.IOHelper;
 import fi.nls.oskari.util.JSONHelper;
+import fi.nls.oskari.util.PooledHttpClient;
 import fi.nls.oskari.util.PropertyUtil;
 
 import fi.nls.oskari.util.ResponseHelper;
@@ -28,7 +27,11 @@ import org.oskari.service.util.ServiceFactory;
 
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
+import java.net.http.HttpRequest;
 import java.util.*;
 
 import fi.nls.oskari.service.capabilities.CapabilitiesConstants;
@@ -44,13 +47,21 @@ public class GetLayerTileHandler extends ActionHandler {
     private static final String LEGEND = "legend";
     private static final String NAME = "name";
     private static final List<String> RESERVED_PARAMETERS = Arrays.asList(new String[]{KEY_ID, ActionControl.PARAM_ROUTE, LEGEND});
+    // only used with oskari.trustAllHosts=true or oskari.http.pool.enabled=false. The shared PooledHttpClient
+    // opens connections with oskari.connection.timeout
     private static final int TIMEOUT_CONNECTION = PropertyUtil.getOptional("GetLayerTile.timeout.connection", 1000);
+    // max time to wait for the response headers and for each read of the tile
     private static final int TIMEOUT_READ = PropertyUtil.getOptional("GetLayerTile.timeout.read", 5000);
     private static final boolean GATHER_METRICS = PropertyUtil.getOptional("GetLayerTile.metrics", true);
     private static final String METRICS_PREFIX = "Oskari.GetLayerTile";
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_CONTENT_LENGTH = "Content-Length";
+    private static final List<String> CONDITIONAL_REQUEST_HEADERS = Arrays.asList(HEADER_IF_NONE_MATCH, "If-Modified-Since");
+    private static final List<String> PASSTHROUGH_RESPONSE_HEADERS = Arrays.asList(HEADER_ETAG, "Last-Modified", "Cache-Control", "Expires");
     private PermissionHelper permissionHelper;
     private Collection<LayerAccessHandler> layerAccessHandlers;
-    private Cache<String> cache_WMTS_URL;
+    private ProxyTileCache tileCache;
 
     // WMTS rest layers params
     private static final String KEY_STYLE = "STYLE";
@@ -67,7 +78,15 @@ public class GetLayerTileHandler extends ActionHandler {
 
         Map<String, LayerAccessHandler> handlerComponents = OskariComponentManager.getComponentsOfType(LayerAccessHandler.class);
         this.layerAccessHandlers = handlerComponents.values();
-        cache_WMTS_URL = CacheManager.getCache(GetLayerTileHandler.class.getSimpleName() + "_WMTS_URL");
+        tileCache = new ProxyTileCache();
+    }
+
+    @Override
+    public void teardown() {
+        super.teardown();
+        if (tileCache != null) {
+            tileCache.shutdown();
+        }
     }
 
     /**
@@ -106,24 +125,132 @@ public class GetLayerTileHandler extends ActionHandler {
             final com.codahale.metrics.Timer timer = metrics.timer(METRICS_PREFIX + "." + layerId);
             actionTimer = timer.time();
         }
-        // TODO: we should handle redirects here or in IOHelper or start using a lib that handles 301/302 properly
+        final String cacheLayerId = Integer.toString(layerId);
+        // the pooled client can't skip hostname verification (oskari.trustAllHosts) -> proxy without caching
+        final boolean pooled = IOHelper.usePooledClient();
+        final ProxyTileCache.Settings cacheSettings = !pooled || doOutPut || params.getHttpParam(LEGEND, false) ? null : ProxyTileCache.getSettings(layer);
+        final String tileKey = cacheSettings == null ? null : ProxyTileCache.getTileKey(layer, getUrlParams(params.getRequest()));
+        if (tileKey != null) {
+            ProxyTileCache.CachedTile cached = tileCache.get(cacheLayerId, tileKey);
+            if (cached != null) {
+                layerAccessHandlers.forEach(handler -> handler.handle(layer, params.getUser()));
+                boolean stale = cached.isStale(cacheSettings);
+                if (stale) {
+                    tileCache.revalidate(cacheLayerId, tileKey, cached, cacheSettings, getRequestBuilder(url, layer, null));
+                }
+                if (GATHER_METRICS) {
+                    metrics.meter(METRICS_PREFIX + (stale ? ".cache.stale" : ".cache.hit")).mark();
+                }
+                try {
+                    writeTile(params, cached);
+                } catch (IOException e) {
+                    throw new ActionCommonException("Couldn't write tile", e);
+                } finally {
+                    if (actionTimer != null) {
+                        actionTimer.stop();
+                    }
+                }
+                return;
+            }
+            if (GATHER_METRICS) {
+                metrics.meter(METRICS_PREFIX + ".cache.miss").mark();
+            }
+        }
+        if (!pooled) {
+            try {
+                proxyWithConnection(params, layer, url, httpMethod, postParams);
+            } finally {
+                if (actionTimer != null) {
+                    actionTimer.stop();
+                }
+            }
+            return;
+        }
+        final HttpRequest.Builder requestBuilder = getRequestBuilder(url, layer, postParams);
+        if (tileKey == null) {
+            // the client's validators are only forwarded when the tile isn't cached here
+            copyConditionalHeaders(params.getRequest(), requestBuilder);
+        }
+        final HttpRequest request = requestBuilder.build();
+
+        layerAccessHandlers.forEach(handler -> handler.handle(layer, params.getUser()));
+
+        try (PooledHttpClient.Response con = PooledHttpClient.send(request)) {
+            final HttpServletResponse response = params.getResponse();
+            final int responseCode = con.getStatusCode();
+            if (responseCode == HttpURLConnection.HTTP_NOT_FOUND) {
+                // prevent excessive logging by handling a common case where service responds with 404
+                response.sendError(HttpServletResponse.SC_NOT_FOUND);
+                LOG.debug("URL reported 404:", url);
+                return;
+            }
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                copyHeaders(con, response);
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+            final String contentType = Optional.ofNullable(con.getHeader(IOHelper.HEADER_CONTENTTYPE)).orElse("").toLowerCase();
+            if(responseCode != HttpURLConnection.HTTP_OK || !isContentTypeOK(contentType)) {
+                LOG.warn("URL", url, "returned HTTP response code", responseCode,
+                        "with content-type:", contentType);
+                String msg = IOHelper.readString(con.getBody());
+                LOG.info("Response was:", msg);
+                throw new ActionParamsException("Problematic response from actual service");
+            }
+            if (tileKey != null) {
+                writeTile(params, tileCache.put(cacheLayerId, tileKey, con, contentType, cacheSettings));
+                return;
+            }
+            copyHeaders(con, response);
+            String etag = con.getHeader(HEADER_ETAG);
+            if (etag != null && etag.equals(params.getRequest().getHeader(HEADER_IF_NONE_MATCH))) {
+                // service doesn't support conditional requests, but the client already has the tile
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+            // stream the image tile
+            response.setContentType(contentType);
+            String contentLength = con.getHeader(HEADER_CONTENT_LENGTH);
+            if (contentLength != null) {
+                response.setHeader(HEADER_CONTENT_LENGTH, contentLength);
+            }
+            try (OutputStream out = response.getOutputStream()) {
+                PooledHttpClient.transfer(con.getBody(), out);
+            }
+        } catch(ActionException e) {
+            // just throw it as is if we already handled it
+            throw e;
+        } catch (Exception e) {
+            LOG.debug("Url in proxy error was:", url);
+            throw new ActionCommonException("Couldn't proxy request to actual service: " +  e.getMessage(), e);
+        } finally {
+            if (actionTimer != null) {
+                actionTimer.stop();
+            }
+        }
+    }
+
+    /**
+     * Proxies the request with HttpURLConnection so oskari.trustAllHosts can be applied
+     */
+    private void proxyWithConnection(final ActionParameters params, final OskariLayer layer, final String url,
+                                     final String httpMethod, final String postParams) throws ActionException {
         HttpURLConnection con = getConnection(url, layer);
 
         layerAccessHandlers.forEach(handler -> handler.handle(layer, params.getUser()));
 
         try {
             con.setRequestMethod(httpMethod);
-            con.setDoOutput(doOutPut);
+            con.setDoOutput(postParams != null);
             con.setConnectTimeout(TIMEOUT_CONNECTION);
             con.setReadTimeout(TIMEOUT_READ);
             con.setDoInput(true);
-            con.setFollowRedirects(true);
             con.setUseCaches(false);
             // tell the service who is making the requests
             IOHelper.addIdentifierHeaders(con);
             con.connect();
 
-            if (doOutPut) {
+            if (postParams != null) {
                 IOHelper.writeToConnection(con, postParams);
             }
 
@@ -134,8 +261,8 @@ public class GetLayerTileHandler extends ActionHandler {
                 LOG.debug("URL reported 404:", url);
                 return;
             }
-            final String contentType = con.getContentType().toLowerCase();
-            if(responseCode != HttpURLConnection.HTTP_OK || !isContentTypeOK(contentType)) {
+            final String contentType = Optional.ofNullable(con.getContentType()).orElse("").toLowerCase();
+            if (responseCode != HttpURLConnection.HTTP_OK || !isContentTypeOK(contentType)) {
                 LOG.warn("URL", url, "returned HTTP response code", responseCode,
                         "with message", con.getResponseMessage(), "and content-type:", contentType);
                 String msg = IOHelper.readString(con);
@@ -143,13 +270,12 @@ public class GetLayerTileHandler extends ActionHandler {
                 throw new ActionParamsException("Problematic response from actual service");
             }
 
-            // read the image tile
-            final byte[] presponse = IOHelper.readBytes(con);
+            // stream the image tile
             final HttpServletResponse response = params.getResponse();
             response.setContentType(contentType);
-            response.getOutputStream().write(presponse, 0, presponse.length);
-            response.getOutputStream().flush();
-            response.getOutputStream().close();
+            try (InputStream in = con.getInputStream(); OutputStream out = response.getOutputStream()) {
+                PooledHttpClient.transfer(in, out);
+            }
         } catch(ActionException e) {
             // just throw it as is if we already handled it
             throw e;
@@ -157,16 +283,56 @@ public class GetLayerTileHandler extends ActionHandler {
             LOG.debug("Url in proxy error was:", url);
             throw new ActionCommonException("Couldn't proxy request to actual service: " +  e.getMessage(), e);
         } finally {
-            if (actionTimer != null) {
-                actionTimer.stop();
-            }
-            if (con != null) {
-                con.disconnect();
-            }
+            con.disconnect();
         }
     }
 
-    private boolean isContentTypeOK(String contentType) {
+    private HttpURLConnection getConnection(final String url, final OskariLayer layer)
+            throws ActionException {
+        try {
+            String urlWithExtraParams = IOHelper.constructUrl(url, JSONHelper.getObjectAsMap(layer.getParams()));
+            LOG.debug("Getting layer tile from url:", urlWithExtraParams);
+            return IOHelper.getConnection(urlWithExtraParams, layer.getUsername(), layer.getPassword());
+        } catch (Exception e) {
+            throw new ActionException("Couldn't get connection to service", e);
+        }
+    }
+
+    /**
+     * Passes the caching headers from the service to the client
+     */
+    private void copyHeaders(PooledHttpClient.Response con, HttpServletResponse response) {
+        for (String header : PASSTHROUGH_RESPONSE_HEADERS) {
+            setHeader(response, header, con.getHeader(header));
+        }
+    }
+
+    /**
+     * Writes a tile from the cache or 304 if the client already has it
+     */
+    private void writeTile(ActionParameters params, ProxyTileCache.CachedTile tile) throws IOException {
+        final HttpServletResponse response = params.getResponse();
+        setHeader(response, HEADER_ETAG, tile.etag);
+        setHeader(response, "Last-Modified", tile.lastModified);
+        setHeader(response, "Cache-Control", tile.cacheControl);
+        if (tile.etag != null && tile.etag.equals(params.getRequest().getHeader(HEADER_IF_NONE_MATCH))) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        response.setContentType(tile.contentType);
+        response.setContentLength(tile.getLength());
+        try (OutputStream out = response.getOutputStream()) {
+            tile.writeTo(out);
+        }
+    }
+
+    private static void setHeader(HttpServletResponse response, String header, String value) {
+        if (value != null) {
+            response.setHeader(header, value);
+        }
+    }
+
+    static boolean isContentTypeOK(String contentType) {
         return contentType.startsWith("image/")
                 || contentType.startsWith("application/octet-stream")
                 || contentType.startsWith("application/vnd.mapbox-vector-tile");
@@ -212,24 +378,14 @@ public class GetLayerTileHandler extends ActionHandler {
     }
 
     private String getWMTSUrl(OskariLayer layer) {
-        String cacheKey = "" + layer.getId();
-        String resourceUrl = cache_WMTS_URL.get(cacheKey);
-        if (resourceUrl != null) {
-            // empty means we parsed and there was no resource url
-            return resourceUrl;
-        }
-        LayerCapabilitiesWMTS caps = CapabilitiesService.fromJSON(layer.getCapabilities().toString(), OskariLayer.TYPE_WMTS);
-        ResourceUrl url = caps.getResourceUrl("tile");
-        String valueToCache = "";
-        if (url != null) {
-            valueToCache = url.getTemplate();
-        }
-        if (valueToCache == null) {
-            // just in case we have something wonky going on in the capabilities
-            valueToCache = "";
+        // parsed once per capabilities update and cached with the layer
+        LayerCapabilitiesWMTS caps = CapabilitiesService.getLayerCapabilities(layer);
+        ResourceUrl url = caps == null ? null : caps.getResourceUrl("tile");
+        if (url == null || url.getTemplate() == null) {
+            // empty means there was no resource url
+            return "";
         }
-        cache_WMTS_URL.put(cacheKey, valueToCache);
-        return valueToCache;
+        return url.getTemplate();
     }
 
     private Map<String, String> getUrlParams(HttpServletRequest httpRequest) {
@@ -288,22 +444,41 @@ public class GetLayerTileHandler extends ActionHandler {
         return lurl;
     }
     /**
-     * Creates connection
+     * Creates request to the service
      * @param url URL (with params) to call
      * @param layer layer
-     * @return connection
+     * @param postParams payload for POST request, null for GET
+     * @return request builder
      * @throws ActionException
      */
-    private HttpURLConnection getConnection(final String url, final OskariLayer layer)
+    private HttpRequest.Builder getRequestBuilder(final String url, final OskariLayer layer, final String postParams)
             throws ActionException {
         try {
-            final String username = layer.getUsername();
-            final String password = layer.getPassword();
             String urlWithExtraParams = IOHelper.constructUrl(url, JSONHelper.getObjectAsMap(layer.getParams()));
             LOG.debug("Getting layer tile from url:", urlWithExtraParams);
-            return IOHelper.getConnection(urlWithExtraParams, username, password);
+            HttpRequest.Builder builder = PooledHttpClient.newRequest(urlWithExtraParams,
+                    layer.getUsername(), layer.getPassword(), TIMEOUT_READ);
+            if (postParams != null) {
+                builder.header(IOHelper.HEADER_CONTENTTYPE, IOHelper.CONTENTTYPE_FORM_URLENCODED);
+                builder.POST(HttpRequest.BodyPublishers.ofString(postParams));
+            } else {
+                builder.GET();
+            }
+            return builder;
         } catch (Exception e) {
             throw new ActionException("Couldn't get connection to service", e);
         }
     }
+
+    /**
+     * Forwards the conditional headers from the client so the service can respond with 304
+     */
+    private void copyConditionalHeaders(final HttpServletRequest httpRequest, final HttpRequest.Builder builder) {
+        for (String header : CONDITIONAL_REQUEST_HEADERS) {
+            String value = httpRequest.getHeader(header);
+            if (value != null) {
+                builder.header(header, value);
+            }
+        }
+    }
 }
@@ -7,13 +7,14 @@ import static fi.nls.oskari.control.ActionConstants.PARAM_ID;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 import fi.nls.oskari.cache.Cache;
-import fi.nls.oskari.cache.CacheManager;
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
 import fi.nls.oskari.map.layer.DataProviderService;
+import fi.nls.oskari.map.layer.LayerListCache;
 import fi.nls.oskari.map.layer.OskariLayerService;
 import fi.nls.oskari.map.layer.formatters.LayerJSONFormatter;
 import fi.nls.oskari.service.OskariComponentManager;
@@ -23,6 +24,10 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import org.oskari.permissions.PermissionService;
+import org.oskari.permissions.model.PermissionType;
+import org.oskari.permissions.model.Resource;
+import org.oskari.permissions.model.ResourceType;
 import org.oskari.service.maplayer.OskariMapLayerGroupService;
 import fi.mml.map.mapwindow.util.OskariLayerWorker;
 import fi.nls.oskari.annotation.OskariActionRoute;
@@ -40,11 +45,16 @@ import org.oskari.service.util.ServiceFactory;
 
 /**
  * Get all map layer groups registered in Oskari database
+ *
+ * The response is assembled from cached parts:
+ * - JSON for each layer (without permissions) per language, CRS and forceProxy flag, see flushLayers()
+ * - layers the user roles can view and their permissions JSON per set of roles, see flushPermissions()
+ * The assembled response for the whole listing is cached as well.
  */
 @OskariActionRoute("GetHierarchicalMapLayerGroups")
 public class GetMapLayerGroupsHandler extends ActionHandler {
 
-    public static final String CACHE_NAME = "LayerList";
+    public static final String CACHE_NAME = LayerListCache.CACHE_NAME;
     private static final String KEY_GROUPS = "groups";
     private static final String KEY_PROVIDERS = "providers";
     private static final String KEY_LAYERS = "layers";
@@ -59,12 +69,17 @@ public class GetMapLayerGroupsHandler extends ActionHandler {
             OskariLayer.TYPE_ARCGIS93,
             OskariLayer.TYPE_VECTOR_TILE);
 
-    private static final Cache<String> cache = CacheManager.getCache(CACHE_NAME);
+    private static final Cache<String> cache = LayerListCache.getListCache();
+    // layer id -> JSON fragments of the layer
+    private static final Cache<LayerFragments> layerCache = LayerListCache.getLayerCache();
+    // sorted role ids -> permissions of the roles
+    private static final Cache<RolePermissions> permissionsCache = LayerListCache.getPermissionsCache();
 
     private OskariLayerService layerService;
     private OskariMapLayerGroupService groupService;
     private OskariLayerGroupLinkService linkService;
     private DataProviderService dataProviderService;
+    private PermissionService permissionService;
 
     public void setLayerService(OskariLayerService service) {
         this.layerService = service;
@@ -81,6 +96,25 @@ public class GetMapLayerGroupsHandler extends ActionHandler {
         this.dataProviderService = service;
     }
 
+    public void setPermissionService(PermissionService service) {
+        this.permissionService = service;
+    }
+
+    /**
+     * Removes cached JSON of the layers and the cached listings. Call when layers are modified.
+     * @see LayerListCache#flushLayers(Collection)
+     */
+    public static void flushLayers(Collection<OskariLayer> layers) {
+        LayerListCache.flushLayers(layers);
+    }
+
+    /**
+     * Removes cached layer permissions and the cached listings. Call when layer permissions are modified.
+     */
+    public static void flushPermissions() {
+        LayerListCache.flushPermissions();
+    }
+
     @Override
     public void init() {
         // setup services if they haven't been initialized
@@ -96,6 +130,9 @@ public class GetMapLayerGroupsHandler extends ActionHandler {
         if (dataProviderService == null) {
             setDataProviderService(OskariComponentManager.getComponentOfType(DataProviderService.class));
         }
+        if (permissionService == null) {
+            setPermissionService(OskariComponentManager.getComponentOfType(PermissionService.class));
+        }
     }
 
     @Override
@@ -131,8 +168,6 @@ public class GetMapLayerGroupsHandler extends ActionHandler {
     }
 
     public String getList(User user, String lang, String crs, String requestedIds, boolean forceProxy, boolean isSecure) throws ActionException {
-        final boolean isPublished = false;
-
         Map<Integer, List<MaplayerGroup>> groupsByParentId = groupService.findAll().stream()
                 .collect(Collectors.groupingBy(MaplayerGroup::getParentId));
 
@@ -147,14 +182,39 @@ public class GetMapLayerGroupsHandler extends ActionHandler {
                     .forEach(layer -> layer.addAttribute("forceProxy", true));
         }
 
+        RolePermissions permissions = getRolePermissions(user);
+        String variant = getLayerVariant(lang, crs, forceProxy, isSecure);
+        StringBuilder layersJSON = new StringBuilder();
+        Set<Integer> providerIds = new HashSet<>();
+        int count = 0;
+        for (OskariLayer layer : layers) {
+            if (layer.isInternal() || !(layer.isSublayer() || permissions.canView(layer.getId()))) {
+                continue;
+            }
+            LayerFragment fragment = getLayerFragment(layer, variant, lang, crs, isSecure);
+            if (fragment.json == null) {
+                continue;
+            }
+            if (layersJSON.length() > 0) {
+                layersJSON.append(',');
+            }
+            fragment.appendWithPermissions(layersJSON, permissions.getPermissionsJSON(layer.getId()));
+            providerIds.add(fragment.dataProviderId);
+            count++;
+        }
+        LOG.debug("Returning", count, "/", layers.size(), "layers");
+
         int[] sortedLayerIds = layers.stream().mapToInt(OskariLayer::getId).toArray();
         Arrays.sort(sortedLayerIds);
         try {
-            // getListOfMapLayers checks permissions
-            JSONObject response = OskariLayerWorker.getListOfMapLayers(layers, user, lang, crs, isPublished, isSecure);
+            JSONObject response = new JSONObject();
             response.put(KEY_GROUPS, getGroupJSON(groupsByParentId, linksByGroupId, sortedLayerIds, -1, lang));
-            response.put(KEY_PROVIDERS, getProvidersJSON(lang, getProviderIds(response, user)));
-            return response.toString();
+            // don't filter providers based on layers for admin, given them all so editing works
+            response.put(KEY_PROVIDERS, getProvidersJSON(lang, user != null && user.isAdmin() ? null : providerIds));
+            // the layers are written as is to skip parsing the cached JSON
+            String rest = response.toString();
+            return "{\"" + OskariLayerWorker.KEY_LAYERS + "\":[" + layersJSON + "]"
+                    + (rest.length() > 2 ? "," + rest.substring(1) : "}");
         } catch (JSONException e) {
             throw new ActionException("Failed to add groups", e);
         }
@@ -217,24 +277,6 @@ public class GetMapLayerGroupsHandler extends ActionHandler {
         return json;
     }
 
-    /**
-     * Constructs a set of dataprovider ids that are used in the layers that will be returned to the user.
-     * FIXME: This is terrible (looping through layers as json). We need to refactor how we write this stuff for the frontend...
-     * @param response
-     * @return
-     */
-    private Set<Integer> getProviderIds(JSONObject response, User user) {
-        if (user != null && user.isAdmin()) {
-            // don't filter providers based on layers, given them all for admin so editing works
-            return null;
-        }
-        Set<Integer> providerIds = new HashSet<>();
-        JSONArray layers = response.optJSONArray(OskariLayerWorker.KEY_LAYERS);
-        for (int i = 0; i < layers.length(); i++) {
-            providerIds.add(layers.optJSONObject(i).optInt(LayerJSONFormatter.KEY_DATA_PROVIDER_ID, -1));
-        }
-        return providerIds;
-    }
     /**
      * Constructs an object that only has provider mapping for ids included in usedProviders parameter.
      * @param language
@@ -275,6 +317,61 @@ public class GetMapLayerGroupsHandler extends ActionHandler {
         return Arrays.binarySearch(sortedLayerIds, layerId) >= 0;
     }
 
+    private LayerFragment getLayerFragment(OskariLayer layer, String variant, String lang, String crs, boolean isSecure) {
+        String layerKey = Integer.toString(layer.getId());
+        LayerFragments fragments = layerCache.get(layerKey);
+        if (fragments == null) {
+            fragments = new LayerFragments();
+            layerCache.put(layerKey, fragments);
+        }
+        LayerFragment fragment = fragments.variants.get(variant);
+        if (fragment == null) {
+            fragment = createLayerFragment(layer, lang, crs, isSecure);
+            fragments.variants.put(variant, fragment);
+        }
+        return fragment;
+    }
+
+    private LayerFragment createLayerFragment(OskariLayer layer, String lang, String crs, boolean isSecure) {
+        try {
+            JSONObject json = OskariLayerWorker.getLayerJSON(layer, lang, isSecure, crs);
+            if (json != null) {
+                return new LayerFragment(json.toString(), json.optInt(LayerJSONFormatter.KEY_DATA_PROVIDER_ID, -1));
+            }
+        } catch (Exception ex) {
+            LOG.error(ex);
+        }
+        return new LayerFragment(null, -1);
+    }
+
+    private RolePermissions getRolePermissions(User user) {
+        String key = getUserRolesKey(user);
+        RolePermissions permissions = permissionsCache.get(key);
+        if (permissions != null) {
+            return permissions;
+        }
+        permissions = new RolePermissions();
+        // many layers share the same permissions
+        Map<String, String> distinct = new HashMap<>();
+        for (Resource resource : permissionService.findResourcesByUser(user, ResourceType.maplayer)) {
+            int layerId = ConversionHelper.getInt(resource.getMapping(), -1);
+            if (layerId < 0) {
+                continue;
+            }
+            if (resource.hasPermission(user, PermissionType.VIEW_LAYER)) {
+                permissions.viewable.set(layerId);
+            }
+            String json = OskariLayerWorker.getPermissions(user, resource).toString();
+            permissions.permissions.put(layerId, distinct.computeIfAbsent(json, k -> k));
+        }
+        permissionsCache.put(key, permissions);
+        return permissions;
+    }
+
+    private String getLayerVariant(String lang, String crs, boolean forceProxy, boolean isSecure) {
+        return lang + "_" + crs + "_" + forceProxy + "_" + isSecure;
+    }
+
     private String getCacheKey(User user, String lang, String crs, boolean forceProxy) {
         return "layers_"
                 + lang + "_"
@@ -290,4 +387,47 @@ public class GetMapLayerGroupsHandler extends ActionHandler {
                 .collect(Collectors.joining("_"));
     }
 
+    /**
+     * JSON fragments of a single layer by language/projection etc
+     */
+    private static class LayerFragments {
+        private final Map<String, LayerFragment> variants = new ConcurrentHashMap<>();
+    }
+
+    private static class LayerFragment {
+        // null if the layer couldn't be rendered
+        private final String json;
+        private final int dataProviderId;
+
+        private LayerFragment(String json, int dataProviderId) {
+            this.json = json;
+            this.dataProviderId = dataProviderId;
+        }
+
+        private void appendWithPermissions(StringBuilder buf, String permissions) {
+            // json is an object, insert permissions before the closing brace
+            int end = json.lastIndexOf('}');
+            buf.append(json, 0, end);
+            if (end > 1) {
+                buf.append(',');
+            }
+            buf.append("\"permissions\":").append(permissions).append('}');
+        }
+    }
+
+    /**
+     * Layers a set of roles can view and the permissions JSON of the layers
+     */
+    private static class RolePermissions {
+        private final BitSet viewable = new BitSet();
+        private final Map<Integer, String> permissions = new HashMap<>();
+
+        private boolean canView(int layerId) {
+            return layerId >= 0 && viewable.get(layerId);
+        }
+
+        private String getPermissionsJSON(int layerId) {
+            return permissions.getOrDefault(layerId, "{}");
+        }
+    }
 }
@@ -0,0 +1,413 @@
+package fi.nls.oskari.control.layer;
+
+import fi.nls.oskari.cache.TileStore;
+import fi.nls.oskari.cache.TileStoreManager;
+import fi.nls.oskari.domain.map.OskariLayer;
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.util.PooledHttpClient;
+import fi.nls.oskari.util.PropertyUtil;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Opt-in cache for tiles proxied by GetLayerTile. Enabled per layer with layer attributes:
+ * <pre>
+ * { "proxyTileCache": { "ttl": 3600, "staleWhileRevalidate": 86400 } }
+ * </pre>
+ * This is a separate attribute from "tileCache" used by vector tile layers (GetWFSVectorTile) to override the
+ * time to keep tiles that are always cached, the proxy cache is only used when the attribute is present.
+ * Tiles younger than [ttl] seconds are served from the cache. Older tiles are served for [staleWhileRevalidate]
+ * seconds more while the tile is refreshed from the service in the background (with a conditional request when the
+ * service gave an ETag or Last-Modified header). Tiles the service marks as no-store or private aren't cached.
+ *
+ * WMTS tiles are keyed by TileMatrixSet, TileMatrix, TileRow and TileCol (+ style and format) and WMS GetMap
+ * requests by their normalized parameters so fixed-grid WMS tiles are found regardless of parameter order or case.
+ * The tiles are stored in the "proxy" TileStore so a memory and a disk tier can be configured with:
+ * <pre>
+ * oskari.tilestore.proxy.dir=/var/cache/oskari/proxy
+ * oskari.tilestore.proxy.tiered=true
+ * </pre>
+ * Revalidations are run by a small pool with a bounded queue. When the queue is full new revalidations are skipped,
+ * the stale tile is served as is and the tile is revalidated on a later request:
+ * <pre>
+ * GetLayerTile.cache.revalidateThreads=2
+ * GetLayerTile.cache.revalidateQueue=100
+ * </pre>
+ */
+class ProxyTileCache {
+
+    private static final Logger LOG = LogFactory.getLogger(ProxyTileCache.class);
+
+    static final String TILE_STORE_NAME = "proxy";
+    static final String KEY_PROXY_TILE_CACHE = "proxyTileCache";
+    static final String KEY_TTL = "ttl";
+    static final String KEY_STALE_WHILE_REVALIDATE = "staleWhileRevalidate";
+    private static final long DEFAULT_TTL_SECONDS = PropertyUtil.getOptional("GetLayerTile.cache.ttl", 3600L);
+    private static final int REVALIDATE_THREADS = PropertyUtil.getOptional("GetLayerTile.cache.revalidateThreads", 2);
+    private static final int REVALIDATE_QUEUE = PropertyUtil.getOptional("GetLayerTile.cache.revalidateQueue", 100);
+
+    private static final String HEADER_CACHE_CONTROL = "Cache-Control";
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final int FORMAT_VERSION = 1;
+
+    private final TileStore store;
+    private final ExecutorService revalidator;
+    private final Set<String> revalidating = ConcurrentHashMap.newKeySet();
+
+    ProxyTileCache() {
+        this(TileStoreManager.getStore(TILE_STORE_NAME), createRevalidator(REVALIDATE_THREADS, REVALIDATE_QUEUE));
+    }
+
+    ProxyTileCache(TileStore store, ExecutorService revalidator) {
+        this.store = store;
+        this.revalidator = revalidator;
+    }
+
+    /**
+     * @return pool of daemon threads that rejects new tasks when the queue is full
+     */
+    static ExecutorService createRevalidator(int threads, int queueSize) {
+        AtomicInteger threadCount = new AtomicInteger();
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), r -> {
+                    Thread t = new Thread(r, "proxy-tile-revalidate-" + threadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+    }
+
+    /**
+     * Stops the background revalidations
+     */
+    void shutdown() {
+        revalidator.shutdownNow();
+    }
+
+    /**
+     * @return cache settings for the layer or null if caching isn't enabled for it
+     */
+    static Settings getSettings(OskariLayer layer) {
+        JSONObject attributes = layer.getAttributes();
+        JSONObject tileCache = attributes == null ? null : attributes.optJSONObject(KEY_PROXY_TILE_CACHE);
+        if (tileCache == null) {
+            return null;
+        }
+        long ttl = tileCache.optLong(KEY_TTL, DEFAULT_TTL_SECONDS) * 1000L;
+        long stale = tileCache.optLong(KEY_STALE_WHILE_REVALIDATE, 0) * 1000L;
+        if (ttl <= 0) {
+            return null;
+        }
+        return new Settings(ttl, Math.max(0, stale));
+    }
+
+    /**
+     * @param params request parameters sent to the service
+     * @return key for the tile or null if the request isn't a cacheable tile request
+     */
+    static String getTileKey(OskariLayer layer, Map<String, String> params) {
+        Map<String, String> normalized = new TreeMap<>();
+        params.forEach((key, value) -> normalized.put(key.toUpperCase(Locale.ROOT), value));
+        if (OskariLayer.TYPE_WMTS.equalsIgnoreCase(layer.getType())) {
+            return getWMTSKey(normalized);
+        }
+        if (OskariLayer.TYPE_WMS.equalsIgnoreCase(layer.getType())) {
+            return getWMSKey(normalized);
+        }
+        return null;
+    }
+
+    private static String getWMTSKey(Map<String, String> params) {
+        String[] parts = {
+                params.get("TILEMATRIXSET"), params.get("TILEMATRIX"), params.get("TILEROW"), params.get("TILECOL"),
+                params.getOrDefault("STYLE", ""), params.getOrDefault("FORMAT", "")
+        };
+        StringBuilder key = new StringBuilder("wmts");
+        for (String part : parts) {
+            if (part == null) {
+                return null;
+            }
+            // parts are used as directory names by the file system store
+            key.append('/').append(part.replace('/', '_'));
+        }
+        return key.toString();
+    }
+
+    private static String getWMSKey(Map<String, String> params) {
+        if (!"GetMap".equalsIgnoreCase(params.get("REQUEST"))
+                || params.get("BBOX") == null || params.get("WIDTH") == null || params.get("HEIGHT") == null) {
+            return null;
+        }
+        StringBuilder normalized = new StringBuilder();
+        for (Map.Entry<String, String> entry : params.entrySet()) {
+            String value = entry.getValue();
+            if ("BBOX".equals(entry.getKey())) {
+                value = normalizeBBOX(value);
+                if (value == null) {
+                    return null;
+                }
+            }
+            normalized.append(entry.getKey()).append('=').append(value).append('&');
+        }
+        String crs = params.getOrDefault("CRS", params.getOrDefault("SRS", "_"));
+        return "wms/" + crs.replace('/', '_') + '/' + sha256(normalized.toString());
+    }
+
+    /**
+     * Formats the coordinates consistently so "0,0,1.0,1" and "0.0,0.0,1,1" result in the same key
+     */
+    private static String normalizeBBOX(String bbox) {
+        String[] coords = bbox.split(",");
+        if (coords.length != 4) {
+            return null;
+        }
+        StringBuilder normalized = new StringBuilder();
+        try {
+            for (String coord : coords) {
+                normalized.append(Double.parseDouble(coord.trim())).append(',');
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return normalized.toString();
+    }
+
+    private static String sha256(String value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return cached tile (possibly stale) or null if there's no usable tile in the cache
+     */
+    CachedTile get(String layerId, String tileKey) {
+        byte[] stored = store.get(layerId, tileKey);
+        if (stored == null) {
+            return null;
+        }
+        try {
+            return CachedTile.decode(stored);
+        } catch (IOException e) {
+            LOG.debug("Couldn't read cached tile:", layerId, tileKey, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Reads the response body and stores the tile if the service allows caching it
+     * @return the tile read from the response
+     */
+    CachedTile put(String layerId, String tileKey, PooledHttpClient.Response response, String contentType, Settings settings)
+            throws IOException {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        PooledHttpClient.transfer(response.getBody(), data);
+        CachedTile tile = new CachedTile(System.currentTimeMillis(), contentType,
+                response.getHeader(HEADER_ETAG), response.getHeader(HEADER_LAST_MODIFIED),
+                response.getHeader(HEADER_CACHE_CONTROL), data.toByteArray());
+        if (isCacheable(tile.cacheControl)) {
+            store(layerId, tileKey, tile, settings);
+        }
+        return tile;
+    }
+
+    private void store(String layerId, String tileKey, CachedTile tile, Settings settings) {
+        try {
+            store.put(layerId, tileKey, tile.encode(), settings.ttlMs + settings.staleMs);
+        } catch (IOException e) {
+            LOG.debug("Couldn't store tile:", layerId, tileKey, e.getMessage());
+        }
+    }
+
+    private static boolean isCacheable(String cacheControl) {
+        if (cacheControl == null) {
+            return true;
+        }
+        String value = cacheControl.toLowerCase(Locale.ROOT);
+        return !value.contains("no-store") && !value.contains("private");
+    }
+
+    /**
+     * Refreshes the tile in the background unless it's being refreshed already
+     * @param request request for the tile, validators of the cached tile are added to it
+     */
+    void revalidate(String layerId, String tileKey, CachedTile cached, Settings settings, HttpRequest.Builder request) {
+        String key = layerId + '/' + tileKey;
+        if (!revalidating.add(key)) {
+            return;
+        }
+        try {
+            revalidator.execute(() -> {
+                try {
+                    refresh(layerId, tileKey, cached, settings, request);
+                } catch (Exception e) {
+                    LOG.debug("Couldn't revalidate tile:", key, e.getMessage());
+                } finally {
+                    revalidating.remove(key);
+                }
+            });
+        } catch (RuntimeException e) {
+            // queue is full (or shutting down) -> skip, the stale tile is revalidated on a later request
+            revalidating.remove(key);
+            LOG.debug("Couldn't schedule revalidation for tile:", key, e.getMessage());
+        }
+    }
+
+    private void refresh(String layerId, String tileKey, CachedTile cached, Settings settings,
+                         HttpRequest.Builder builder) throws IOException {
+        if (cached.etag != null) {
+            builder.header("If-None-Match", cached.etag);
+        } else if (cached.lastModified != null) {
+            builder.header("If-Modified-Since", cached.lastModified);
+        }
+        try (PooledHttpClient.Response response = PooledHttpClient.send(builder.build())) {
+            int status = response.getStatusCode();
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                store(layerId, tileKey, cached.refreshed(System.currentTimeMillis()), settings);
+                return;
+            }
+            String contentType = response.getHeader("Content-Type");
+            if (status != HttpURLConnection.HTTP_OK || contentType == null || !GetLayerTileHandler.isContentTypeOK(contentType.toLowerCase())) {
+                // keep serving the stale tile until it expires
+                LOG.debug("Revalidation returned", status, "with content-type", contentType, "for tile:", tileKey);
+                return;
+            }
+            put(layerId, tileKey, response, contentType.toLowerCase(), settings);
+        }
+    }
+
+    static class Settings {
+        final long ttlMs;
+        final long staleMs;
+
+        Settings(long ttlMs, long staleMs) {
+            this.ttlMs = ttlMs;
+            this.staleMs = staleMs;
+        }
+    }
+
+    /**
+     * Tile bytes with the metadata needed to answer conditional requests and to revalidate the tile.
+     * Stored as a single blob so any TileStore can be used.
+     */
+    static class CachedTile {
+        final long storedAt;
+        final String contentType;
+        final String etag;
+        final String lastModified;
+        final String cacheControl;
+        private final byte[] data;
+        private final int offset;
+
+        CachedTile(long storedAt, String contentType, String etag, String lastModified, String cacheControl, byte[] data) {
+            this(storedAt, contentType, etag, lastModified, cacheControl, data, 0);
+        }
+
+        private CachedTile(long storedAt, String contentType, String etag, String lastModified, String cacheControl,
+                           byte[] data, int offset) {
+            this.storedAt = storedAt;
+            this.contentType = contentType;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.cacheControl = cacheControl;
+            this.data = data;
+            this.offset = offset;
+        }
+
+        boolean isStale(Settings settings) {
+            return System.currentTimeMillis() - storedAt > settings.ttlMs;
+        }
+
+        int getLength() {
+            return data.length - offset;
+        }
+
+        void writeTo(OutputStream out) throws IOException {
+            out.write(data, offset, getLength());
+        }
+
+        CachedTile refreshed(long time) {
+            return new CachedTile(time, contentType, etag, lastModified, cacheControl, data, offset);
+        }
+
+        byte[] encode() throws IOException {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(getLength() + 256);
+            try (DataOutputStream out = new DataOutputStream(baos)) {
+                out.writeByte(FORMAT_VERSION);
+                out.writeLong(storedAt);
+                writeString(out, contentType);
+                writeString(out, etag);
+                writeString(out, lastModified);
+                writeString(out, cacheControl);
+                writeTo(out);
+            }
+            return baos.toByteArray();
+        }
+
+        static CachedTile decode(byte[] stored) throws IOException {
+            CountingInputStream counter = new CountingInputStream(stored);
+            DataInputStream in = new DataInputStream(counter);
+            if (in.readByte() != FORMAT_VERSION) {
+                throw new IOException("Unknown format");
+            }
+            long storedAt = in.readLong();
+            String contentType = readString(in);
+            String etag = readString(in);
+            String lastModified = readString(in);
+            String cacheControl = readString(in);
+            // the tile bytes are referenced instead of copied
+            return new CachedTile(storedAt, contentType, etag, lastModified, cacheControl, stored, counter.position);
+        }
+
+        private static void writeString(DataOutputStream out, String value) throws IOException {
+            out.writeBoolean(value != null);
+            if (value != null) {
+                out.writeUTF(value);
+            }
+        }
+
+        private static String readString(DataInputStream in) throws IOException {
+            return in.readBoolean() ? in.readUTF() : null;
+        }
+    }
+
+    private static class CountingInputStream extends InputStream {
+        private final byte[] data;
+        private int position;
+
+        CountingInputStream(byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public int read() {
+            return position < data.length ? data[position++] & 0xFF : -1;
+        }
+    }
+}
@@ -11,7 +11,6 @@ import fi.nls.oskari.domain.map.wfs.WFSLayerAttributes;
 import fi.nls.oskari.domain.map.wfs.WFSLayerOptions;
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
-import fi.nls.oskari.map.geometry.WKTHelper;
 import fi.nls.oskari.map.layer.OskariLayerService;
 import fi.nls.oskari.map.layer.formatters.LayerJSONFormatter;
 import fi.nls.oskari.map.style.VectorStyleHelper;
@@ -101,7 +100,7 @@ public class DescribeLayerHandler extends RestActionHandler {
         output.name = layer.getName(lang);
         JSONObject attributes = layer.getAttributes();
         if (!attributes.optBoolean(LayerJSONFormatter.KEY_ATTRIBUTE_IGNORE_COVERAGE, false)) {
-            output.coverage = getCoverageWKT(layer.getGeometry(), crs);
+            output.coverage = LayerJSONFormatter.getLayerCoverageWKT(layer, crs);
         }
         if (VectorStyleHelper.isVectorLayer(layer)) {
             output.styles = getVectorStyles(params, layerId);
@@ -118,7 +117,7 @@ public class DescribeLayerHandler extends RestActionHandler {
     private void setDetailsForWFS (LayerExtendedOutput output, OskariLayer layer, String lang) {
         // UserDataLayers are handled in frontend by WFS plugin and embedded myplaces is using WFS type
         // so LayerJSONFormatterUSERDATA gathers values from options and attributes in same way than this
-        LayerCapabilitiesWFS caps = CapabilitiesService.fromJSON(layer.getCapabilities().toString(), layer.getType());
+        LayerCapabilitiesWFS caps = CapabilitiesService.getLayerCapabilities(layer);
         WFSLayerAttributes attr = new WFSLayerAttributes(layer.getAttributes());
         WFSLayerOptions opts = new WFSLayerOptions(layer.getOptions());
         output.properties = getProperties(caps, attr, lang);
@@ -216,31 +215,17 @@ public class DescribeLayerHandler extends RestActionHandler {
         return styles;
     }
 
-    // value will be not added if transform failed, that's ok since client can't handle it if it's in unknown projection
-    private String getCoverageWKT(final String wktWGS84, final String mapSRS) {
-        if (wktWGS84 == null || wktWGS84.isEmpty() || mapSRS == null || mapSRS.isEmpty()) {
-            return null;
-        }
-        try {
-            // WTK is saved as EPSG:4326 in database
-            return WKTHelper.transformLayerCoverage(wktWGS84, mapSRS);
-        } catch (Exception ex) {
-            LOG.debug("Error transforming coverage to", mapSRS, "from", wktWGS84);
-        }
-        return null;
-    }
-
     private Map<String, Object> getCapabilitiesJSON(OskariLayer layer, String crs) throws ActionException {
         if (!OskariLayer.TYPE_WMTS.equals(layer.getType())) {
             return JSONHelper.getObjectAsMap(layer.getCapabilities());
         }
         try {
-            String capsJSON = layer.getCapabilities().toString();
-            LayerCapabilitiesWMTS caps = CapabilitiesService.fromJSON(layer.getCapabilities().toString(), OskariLayer.TYPE_WMTS);
+            LayerCapabilitiesWMTS caps = CapabilitiesService.getLayerCapabilities(layer);
             TileMatrixLink link = determineTileMatrix(caps, crs);
 
-            // Make a copy so we don't mutate layer in cache
-            JSONObject modifiedCapabilities = new JSONObject(capsJSON);
+            // Make a (shallow) copy so we don't mutate layer in cache
+            JSONObject capsJSON = layer.getCapabilities();
+            JSONObject modifiedCapabilities = new JSONObject(capsJSON, JSONObject.getNames(capsJSON));
             // remove "tileMatrixLinks" (with all matrices) that is replaced with "tileMatrixSet" (just for current projection)
             modifiedCapabilities.remove("tileMatrixLinks");
             modifiedCapabilities.put("tileMatrixSet", link.getTileMatrixSet().getAsJSON());
@@ -0,0 +1,133 @@
+package fi.nls.oskari.control.data;
+
+import fi.nls.oskari.domain.map.OskariLayer;
+import fi.nls.oskari.util.PropertyUtil;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+public class GetGeoPointDataHandlerTest {
+
+    private final GetGeoPointDataHandler handler = new GetGeoPointDataHandler();
+
+    @AfterEach
+    public void tearDown() {
+        handler.teardown();
+        PropertyUtil.clearProperties();
+    }
+
+    private static GetGeoPointDataHandler.LayerQuery query(int layerId, IntFunction<JSONObject> query) {
+        OskariLayer layer = new OskariLayer();
+        layer.setId(layerId);
+        layer.setName("layer" + layerId);
+        return new GetGeoPointDataHandler.LayerQuery(layer, query);
+    }
+
+    private static JSONObject result(int layerId) {
+        JSONObject json = new JSONObject();
+        json.put("layerId", layerId);
+        return json;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    public void testLayersOfRequestAreQueriedConcurrently() throws Exception {
+        PropertyUtil.addProperty("gfi.threads.request", "2");
+        handler.initExecutor();
+
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        // the first two queries only complete when both are running at the same time
+        CountDownLatch firstTwoStarted = new CountDownLatch(2);
+        List<GetGeoPointDataHandler.LayerQuery> queries = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            final int layerId = i;
+            queries.add(query(layerId, readTimeout -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                if (layerId < 2) {
+                    firstTwoStarted.countDown();
+                    await(firstTwoStarted);
+                }
+                running.decrementAndGet();
+                return result(layerId);
+            }));
+        }
+        JSONArray data = handler.getFeatureInfo(queries);
+
+        Assertions.assertEquals(0, firstTwoStarted.getCount(), "Two layers should be queried at the same time");
+        Assertions.assertEquals(2, maxRunning.get(), "No more than gfi.threads.request layers should be queried at once");
+        Assertions.assertEquals(6, data.length());
+    }
+
+    @Test
+    public void testResultsKeepRequestedLayerOrder() throws Exception {
+        PropertyUtil.addProperty("gfi.threads.request", "3");
+        handler.initExecutor();
+
+        // the first layer responds last
+        CountDownLatch othersDone = new CountDownLatch(2);
+        List<GetGeoPointDataHandler.LayerQuery> queries = new ArrayList<>();
+        queries.add(query(10, readTimeout -> {
+            await(othersDone);
+            return result(10);
+        }));
+        queries.add(query(20, readTimeout -> {
+            othersDone.countDown();
+            return result(20);
+        }));
+        queries.add(query(30, readTimeout -> {
+            othersDone.countDown();
+            return result(30);
+        }));
+        JSONArray data = handler.getFeatureInfo(queries);
+
+        Assertions.assertEquals(3, data.length());
+        Assertions.assertEquals(10, data.getJSONObject(0).getInt("layerId"));
+        Assertions.assertEquals(20, data.getJSONObject(1).getInt("layerId"));
+        Assertions.assertEquals(30, data.getJSONObject(2).getInt("layerId"));
+    }
+
+    @Test
+    public void testSlowLayerIsOmittedAfterTimeout() throws Exception {
+        PropertyUtil.addProperty("gfi.timeout", "200");
+        PropertyUtil.addProperty("gfi.timeout.read", "1000");
+        handler.initExecutor();
+
+        AtomicInteger givenReadTimeout = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        List<GetGeoPointDataHandler.LayerQuery> queries = new ArrayList<>();
+        queries.add(query(1, readTimeout -> {
+            givenReadTimeout.set(readTimeout);
+            await(release);
+            return result(1);
+        }));
+        queries.add(query(2, readTimeout -> result(2)));
+        queries.add(query(3, readTimeout -> {
+            throw new RuntimeException("Service error");
+        }));
+        try {
+            JSONArray data = handler.getFeatureInfo(queries);
+            Assertions.assertEquals(1, data.length(), "Only the layer that responded in time should be included");
+            Assertions.assertEquals(2, data.getJSONObject(0).getInt("layerId"));
+            Assertions.assertTrue(givenReadTimeout.get() <= 200, "Read timeout should be capped to the request deadline");
+        } finally {
+            release.countDown();
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package fi.nls.oskari.control.layer;
+
+import fi.mml.map.mapwindow.util.OskariLayerWorker;
+import fi.nls.oskari.domain.map.DataProvider;
+import fi.nls.oskari.domain.map.MaplayerGroup;
+import fi.nls.oskari.domain.map.OskariLayer;
+import fi.nls.oskari.map.layer.DataProviderService;
+import fi.nls.oskari.map.layer.OskariLayerService;
+import fi.nls.oskari.map.layer.formatters.LayerJSONFormatter;
+import fi.nls.oskari.map.layer.group.link.OskariLayerGroupLink;
+import fi.nls.oskari.map.layer.group.link.OskariLayerGroupLinkService;
+import fi.nls.oskari.util.PropertyUtil;
+import fi.nls.test.control.JSONActionRouteTest;
+import fi.nls.test.util.TestHelper;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.oskari.permissions.PermissionService;
+import org.oskari.permissions.model.Permission;
+import org.oskari.permissions.model.PermissionExternalType;
+import org.oskari.permissions.model.PermissionSet;
+import org.oskari.permissions.model.PermissionType;
+import org.oskari.permissions.model.Resource;
+import org.oskari.permissions.model.ResourceType;
+import org.oskari.service.maplayer.OskariMapLayerGroupService;
+import org.oskari.user.Role;
+import org.oskari.user.User;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Checks that the listing assembled from cached JSON fragments matches the listing created with OskariLayerWorker
+ */
+public class GetMapLayerGroupsHandlerTest extends JSONActionRouteTest {
+
+    private static final String CRS = "EPSG:3067";
+    private static final long OTHER_ROLE_ID = 5;
+
+    private final GetMapLayerGroupsHandler handler = new GetMapLayerGroupsHandler();
+    private final List<OskariLayer> layers = new ArrayList<>();
+    private final List<Resource> resources = new ArrayList<>();
+    private final List<DataProvider> providers = new ArrayList<>();
+    private final List<MaplayerGroup> groups = new ArrayList<>();
+    private final List<OskariLayerGroupLink> links = new ArrayList<>();
+
+    @BeforeAll
+    public static void setup() throws Exception {
+        // OskariLayerWorker initializes its services with the default datasource
+        TestHelper.registerTestDataSource();
+        assumeTrue(TestHelper.dbAvailable());
+    }
+
+    @AfterAll
+    public static void teardown() {
+        TestHelper.teardown();
+    }
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        PropertyUtil.addProperty("oskari.user.service", "fi.nls.oskari.service.DummyUserService", true);
+
+        OskariLayerService layerService = mock(OskariLayerService.class);
+        doAnswer(i -> new ArrayList<>(layers)).when(layerService).findAll();
+        OskariMapLayerGroupService groupService = mock(OskariMapLayerGroupService.class);
+        doAnswer(i -> new ArrayList<>(groups)).when(groupService).findAll();
+        OskariLayerGroupLinkService linkService = mock(OskariLayerGroupLinkService.class);
+        doAnswer(i -> new ArrayList<>(links)).when(linkService).findAll();
+        DataProviderService dataProviderService = mock(DataProviderService.class);
+        doAnswer(i -> new ArrayList<>(providers)).when(dataProviderService).findAll();
+        PermissionService permissionService = mock(PermissionService.class);
+        doAnswer(i -> new ArrayList<>(resources)).when(permissionService)
+                .findResourcesByUser(any(User.class), eq(ResourceType.maplayer));
+
+        handler.setLayerService(layerService);
+        handler.setGroupService(groupService);
+        handler.setLinkService(linkService);
+        handler.setDataProviderService(dataProviderService);
+        handler.setPermissionService(permissionService);
+        handler.init();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        GetMapLayerGroupsHandler.flushLayers(layers);
+        GetMapLayerGroupsHandler.flushPermissions();
+        PropertyUtil.clearProperties();
+    }
+
+    private void addTestData() {
+        DataProvider provider1 = createProvider(10);
+        DataProvider provider2 = createProvider(20);
+        DataProvider provider3 = createProvider(30);
+        // not used by any layer
+        createProvider(40);
+
+        OskariLayer publishable = createLayer(1, provider1);
+        addPermissions(publishable, 1, PermissionType.VIEW_LAYER, PermissionType.PUBLISH, PermissionType.DOWNLOAD);
+        addPermissions(publishable, OTHER_ROLE_ID, PermissionType.VIEW_LAYER);
+
+        OskariLayer viewOnly = createLayer(2, provider2);
+        addPermissions(viewOnly, 1, PermissionType.VIEW_LAYER);
+
+        // no resource -> not listed
+        createLayer(3, provider3);
+
+        OskariLayer internal = createLayer(4, provider3);
+        internal.setInternal(true);
+        addPermissions(internal, 1, PermissionType.VIEW_LAYER);
+
+        OskariLayer editable = createLayer(5, provider1);
+        addPermissions(editable, 1, PermissionType.VIEW_LAYER, PermissionType.EDIT_LAYER);
+
+        MaplayerGroup group = new MaplayerGroup();
+        group.setId(1);
+        group.setParentId(-1);
+        group.setName("en", "Group");
+        groups.add(group);
+        links.add(createLink(1, 1, 2));
+        links.add(createLink(3, 1, 1));
+    }
+
+    private DataProvider createProvider(int id) {
+        DataProvider provider = new DataProvider();
+        provider.setId(id);
+        provider.setName("en", "Provider " + id);
+        providers.add(provider);
+        return provider;
+    }
+
+    private OskariLayer createLayer(int id, DataProvider provider) {
+        OskariLayer layer = new OskariLayer();
+        layer.setId(id);
+        layer.setType(OskariLayer.TYPE_WMS);
+        layer.setUrl("https://example.com/wms");
+        layer.setName("layer" + id);
+        layer.setName("en", "Layer \"" + id + "\"");
+        layer.addDataprovider(provider);
+        layers.add(layer);
+        return layer;
+    }
+
+    private void addPermissions(OskariLayer layer, long roleId, PermissionType... types) {
+        Resource resource = resources.stream()
+                .filter(r -> r.getMapping().equals(Integer.toString(layer.getId())))
+                .findFirst()
+                .orElseGet(() -> {
+                    Resource r = new Resource();
+                    r.setType(ResourceType.maplayer);
+                    r.setMapping(Integer.toString(layer.getId()));
+                    resources.add(r);
+                    return r;
+                });
+        for (PermissionType type : types) {
+            Permission permission = new Permission();
+            permission.setType(type);
+            permission.setExternalType(PermissionExternalType.ROLE);
+            permission.setExternalId((int) roleId);
+            resource.addPermission(permission);
+        }
+    }
+
+    private OskariLayerGroupLink createLink(int layerId, int groupId, int orderNumber) {
+        OskariLayerGroupLink link = new OskariLayerGroupLink();
+        link.setLayerId(layerId);
+        link.setGroupId(groupId);
+        link.setOrderNumber(orderNumber);
+        return link;
+    }
+
+    private User getOtherRoleUser() {
+        User user = new User();
+        user.setId(456);
+        user.addRole(OTHER_ROLE_ID, "Other");
+        return user;
+    }
+
+    private User getRealAdminUser() {
+        User user = getLoggedInUser();
+        user.addRole(Role.getAdminRole());
+        return user;
+    }
+
+    /**
+     * Compares the listing to the one created with OskariLayerWorker
+     * @return the listing
+     */
+    private JSONObject assertSameAsLayerWorker(User user) throws Exception {
+        String list = handler.getList(user, "en", CRS, null, false, false);
+        JSONObject response = new JSONObject(list);
+
+        JSONArray expected = OskariLayerWorker.getListOfMapLayers(layers, user, "en", false, CRS, false,
+                new PermissionSet(resources)).getJSONArray(OskariLayerWorker.KEY_LAYERS);
+        JSONArray actual = response.getJSONArray(OskariLayerWorker.KEY_LAYERS);
+        Assertions.assertTrue(expected.similar(actual), "Expected layers " + expected + " but got " + actual);
+
+        Set<String> expectedProviders = new HashSet<>();
+        if (user.isAdmin()) {
+            providers.forEach(p -> expectedProviders.add(Integer.toString(p.getId())));
+        } else {
+            for (int i = 0; i < expected.length(); i++) {
+                expectedProviders.add(expected.getJSONObject(i).optString(LayerJSONFormatter.KEY_DATA_PROVIDER_ID));
+            }
+        }
+        JSONObject actualProviders = response.getJSONObject("providers");
+        Assertions.assertEquals(expectedProviders, actualProviders.keySet());
+        return response;
+    }
+
+    private static Set<Integer> getLayerIds(JSONObject response) {
+        Set<Integer> ids = new HashSet<>();
+        JSONArray list = response.getJSONArray(OskariLayerWorker.KEY_LAYERS);
+        for (int i = 0; i < list.length(); i++) {
+            ids.add(list.getJSONObject(i).getInt("id"));
+        }
+        return ids;
+    }
+
+    @Test
+    public void testLoggedInUser() throws Exception {
+        addTestData();
+        JSONObject response = assertSameAsLayerWorker(getLoggedInUser());
+        Assertions.assertEquals(new HashSet<>(List.of(1, 2, 5)), getLayerIds(response));
+        Assertions.assertEquals(1, response.getJSONArray("groups").length());
+    }
+
+    @Test
+    public void testOtherRole() throws Exception {
+        addTestData();
+        JSONObject response = assertSameAsLayerWorker(getOtherRoleUser());
+        Assertions.assertEquals(Collections.singleton(1), getLayerIds(response));
+    }
+
+    @Test
+    public void testGuestUser() throws Exception {
+        addTestData();
+        JSONObject response = assertSameAsLayerWorker(getGuestUser());
+        Assertions.assertTrue(response.getJSONArray(OskariLayerWorker.KEY_LAYERS).isEmpty());
+        Assertions.assertTrue(response.getJSONObject("providers").isEmpty());
+    }
+
+    @Test
+    public void testAdminUser() throws Exception {
+        addTestData();
+        JSONObject response = assertSameAsLayerWorker(getRealAdminUser());
+        Assertions.assertEquals(providers.size(), response.getJSONObject("providers").length(),
+                "Admin should get all providers");
+    }
+
+    @Test
+    public void testNoLayers() throws Exception {
+        String list = handler.getList(getLoggedInUser(), "en", CRS, null, false, false);
+        Assertions.assertTrue(new JSONObject("{\"layers\":[],\"providers\":{}}").similar(new JSONObject(list)), list);
+        assertSameAsLayerWorker(getLoggedInUser());
+        assertSameAsLayerWorker(getRealAdminUser());
+    }
+
+    @Test
+    public void testFlush() throws Exception {
+        addTestData();
+        User user = getLoggedInUser();
+        assertSameAsLayerWorker(user);
+
+        // new permission is listed after flushing the permissions
+        addPermissions(layers.get(1), 1, PermissionType.DOWNLOAD);
+        GetMapLayerGroupsHandler.flushPermissions();
+        JSONObject response = assertSameAsLayerWorker(user);
+        Assertions.assertTrue(response.getJSONArray(OskariLayerWorker.KEY_LAYERS).toString().contains(PermissionType.DOWNLOAD.getJsonKey()));
+
+        // modified layer is listed after flushing it
+        OskariLayer layer = layers.get(0);
+        layer.setName("en", "Modified");
+        GetMapLayerGroupsHandler.flushLayers(Collections.singletonList(layer));
+        response = assertSameAsLayerWorker(user);
+        Assertions.assertTrue(response.toString().contains("Modified"));
+    }
+}
@@ -0,0 +1,138 @@
+package fi.nls.oskari.control.layer;
+
+import fi.nls.oskari.cache.MemoryTileStore;
+import fi.nls.oskari.domain.map.OskariLayer;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class ProxyTileCacheTest {
+
+    private OskariLayer getLayer(String type) {
+        OskariLayer layer = new OskariLayer();
+        layer.setId(1);
+        layer.setType(type);
+        return layer;
+    }
+
+    @Test
+    public void testWMTSKey() {
+        Map<String, String> params = new HashMap<>();
+        params.put("TileMatrixSet", "ETRS-TM35FIN");
+        params.put("TileMatrix", "5");
+        params.put("TileRow", "10");
+        params.put("TileCol", "12");
+        params.put("format", "image/png");
+        Assertions.assertEquals("wmts/ETRS-TM35FIN/5/10/12//image_png",
+                ProxyTileCache.getTileKey(getLayer(OskariLayer.TYPE_WMTS), params));
+
+        params.remove("TileRow");
+        Assertions.assertNull(ProxyTileCache.getTileKey(getLayer(OskariLayer.TYPE_WMTS), params), "Not a tile request");
+    }
+
+    @Test
+    public void testWMSKeyIsNormalized() {
+        Map<String, String> params = new HashMap<>();
+        params.put("REQUEST", "GetMap");
+        params.put("LAYERS", "test");
+        params.put("BBOX", "0,0,1000,1000");
+        params.put("WIDTH", "256");
+        params.put("HEIGHT", "256");
+        params.put("SRS", "EPSG:3067");
+
+        Map<String, String> other = new HashMap<>();
+        other.put("request", "GetMap");
+        other.put("layers", "test");
+        other.put("bbox", "0.0,0,1000.0,1000");
+        other.put("width", "256");
+        other.put("height", "256");
+        other.put("srs", "EPSG:3067");
+
+        OskariLayer layer = getLayer(OskariLayer.TYPE_WMS);
+        String key = ProxyTileCache.getTileKey(layer, params);
+        Assertions.assertNotNull(key);
+        Assertions.assertTrue(key.startsWith("wms/EPSG:3067/"));
+        Assertions.assertEquals(key, ProxyTileCache.getTileKey(layer, other));
+
+        params.put("REQUEST", "GetFeatureInfo");
+        Assertions.assertNull(ProxyTileCache.getTileKey(layer, params), "Only GetMap is cached");
+    }
+
+    @Test
+    public void testSettings() {
+        OskariLayer layer = getLayer(OskariLayer.TYPE_WMTS);
+        Assertions.assertNull(ProxyTileCache.getSettings(layer), "Cache is opt-in");
+
+        JSONObject attributes = new JSONObject();
+        // vector tile cache settings don't enable the proxy cache
+        attributes.put("tileCache", new JSONObject().put(ProxyTileCache.KEY_TTL, 60));
+        layer.setAttributes(attributes);
+        Assertions.assertNull(ProxyTileCache.getSettings(layer), "Cache is opt-in");
+
+        attributes.put(ProxyTileCache.KEY_PROXY_TILE_CACHE, new JSONObject()
+                .put(ProxyTileCache.KEY_TTL, 60)
+                .put(ProxyTileCache.KEY_STALE_WHILE_REVALIDATE, 120));
+        layer.setAttributes(attributes);
+        ProxyTileCache.Settings settings = ProxyTileCache.getSettings(layer);
+        Assertions.assertEquals(60_000L, settings.ttlMs);
+        Assertions.assertEquals(120_000L, settings.staleMs);
+    }
+
+    @Test
+    public void testCachedTileRoundTrip() throws Exception {
+        ProxyTileCache.CachedTile tile = new ProxyTileCache.CachedTile(System.currentTimeMillis(), "image/png",
+                "\"abc\"", null, "max-age=60", new byte[] { 1, 2, 3 });
+        MemoryTileStore store = new MemoryTileStore();
+        store.put("1", "wmts/0/0/0", tile.encode(), 60_000L);
+        ProxyTileCache cache = new ProxyTileCache(store, Executors.newSingleThreadExecutor());
+
+        ProxyTileCache.CachedTile cached = cache.get("1", "wmts/0/0/0");
+        Assertions.assertEquals("image/png", cached.contentType);
+        Assertions.assertEquals("\"abc\"", cached.etag);
+        Assertions.assertNull(cached.lastModified);
+        Assertions.assertEquals("max-age=60", cached.cacheControl);
+        Assertions.assertEquals(3, cached.getLength());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        cached.writeTo(out);
+        Assertions.assertArrayEquals(new byte[] { 1, 2, 3 }, out.toByteArray());
+
+        Assertions.assertFalse(cached.isStale(new ProxyTileCache.Settings(60_000L, 0)));
+        Assertions.assertTrue(cached.isStale(new ProxyTileCache.Settings(-1, 0)));
+    }
+
+    @Test
+    public void testRevalidationsAreSkippedWhenQueueIsFull() throws Exception {
+        ExecutorService revalidator = ProxyTileCache.createRevalidator(1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            Assertions.assertTrue(revalidator.submit(() -> Thread.currentThread().isDaemon()).get());
+            revalidator.execute(() -> {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException ignored) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            revalidator.execute(() -> {});
+
+            ProxyTileCache.CachedTile tile = new ProxyTileCache.CachedTile(0L, "image/png", null, null, null, new byte[0]);
+            ProxyTileCache cache = new ProxyTileCache(new MemoryTileStore(), revalidator);
+            // doesn't block or throw when the queue is full
+            cache.revalidate("1", "wmts/0/0/0", tile, new ProxyTileCache.Settings(1000L, 1000L),
+                    HttpRequest.newBuilder(URI.create("http://localhost/")));
+        } finally {
+            release.countDown();
+            revalidator.shutdownNow();
+        }
+    }
+}
@@ -2,7 +2,12 @@ package org.oskari.control.mvt;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
 
 import fi.nls.oskari.control.feature.AbstractWFSFeaturesHandler;
 import fi.nls.oskari.control.view.modifier.bundle.BundleHandler;
@@ -28,8 +33,9 @@ import org.locationtech.jts.geom.MultiPoint;
 import org.locationtech.jts.geom.Point;
 
 import fi.nls.oskari.annotation.OskariActionRoute;
-import fi.nls.oskari.cache.CacheManager;
-import fi.nls.oskari.cache.ComputeOnceCache;
+import fi.nls.oskari.cache.DistributedComputeOnce;
+import fi.nls.oskari.cache.TileStore;
+import fi.nls.oskari.cache.TileStoreManager;
 import fi.nls.oskari.control.ActionCommonException;
 import fi.nls.oskari.control.ActionConstants;
 import fi.nls.oskari.control.ActionException;
@@ -37,18 +43,27 @@ import fi.nls.oskari.control.ActionParameters;
 import fi.nls.oskari.control.ActionParamsException;
 
 import fi.nls.oskari.domain.map.OskariLayer;
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
 import fi.nls.oskari.service.ServiceRuntimeException;
 import fi.nls.oskari.util.IOHelper;
+import fi.nls.oskari.util.PropertyUtil;
 import fi.nls.oskari.util.ResponseHelper;
+import fi.nls.oskari.util.TileResponseHelper;
+import org.json.JSONObject;
 import org.oskari.service.mvt.WFSTileGridProperties;
 
 @OskariActionRoute("GetWFSVectorTile")
 public class GetWFSVectorTileHandler extends AbstractWFSFeaturesHandler {
 
-    protected static final String MVT_CONTENT_TYPE = "application/vnd.mapbox-vector-tile";
+    private static final Logger LOG = LogFactory.getLogger(GetWFSVectorTileHandler.class);
+
+    protected static final String MVT_CONTENT_TYPE = TileResponseHelper.MVT_CONTENT_TYPE;
     protected static final String PARAM_Z = "z";
     protected static final String PARAM_X = "x";
     protected static final String PARAM_Y = "y";
+    // set when some of the features for the tile couldn't be loaded
+    protected static final String HEADER_INCOMPLETE = "X-Oskari-Incomplete";
 
     // Resolution (metres per px) we are aiming for with the WFS requests
     // This value is used to find the zoom level that is closest to the resolution specified here
@@ -57,29 +72,42 @@ public class GetWFSVectorTileHandler extends AbstractWFSFeaturesHandler {
 
     private static final int DEFAULT_CACHE_ZOOM_LEVEL = 8;
     private static final int MIN_ZOOM_OVER_CACHE_ZOOM = 1;
-    private static final Map<String, WFSTileGrid> KNOWN_TILE_GRIDS;
-    static {
-        KNOWN_TILE_GRIDS = new HashMap<>();
-        KNOWN_TILE_GRIDS.put("EPSG:3067", new WFSTileGrid(new double[] { -548576, 6291456, -548576 + (8192*256), 6291456 + (8192*256) }, 15));
-        KNOWN_TILE_GRIDS.put("EPSG:3857", new WFSTileGrid(new double[] { -20037508.3427892, -20037508.3427892, 20037508.3427892, 20037508.3427892 }, 18));
-    }
+    private static final Map<String, WFSTileGrid> KNOWN_TILE_GRIDS = WFSTileGridProperties.KNOWN_TILE_GRIDS;
 
     private static final int TILE_EXTENT = 4096;
     private static final int TILE_BUFFER = 256;
     private static final int TILE_BUFFER_POINT = 1024;
 
-    private static final int CACHE_LIMIT = 256;
-    private static final long CACHE_EXPIRATION = TimeUnit.MINUTES.toMillis(5);
-
-    private ComputeOnceCache<byte[]> tileCache;
+    // tiles are stored in a TileStore configured with oskari.tilestore.mvt.* properties
+    public static final String TILE_STORE_NAME = "mvt";
+    // layer attributes can override the time to keep tiles with { "tileCache": { "ttl": [seconds] } }
+    public static final String KEY_TILE_CACHE = "tileCache";
+    public static final String KEY_TILE_CACHE_TTL = "ttl";
+    private static final String PROPERTY_TILE_TTL = "oskari.mvt.tile.ttl";
+    private static final long DEFAULT_TILE_TTL = TimeUnit.MINUTES.toMillis(5);
+    // max time to wait for all the WFS requests of a tile, after this the tile is created with what we have
+    private static final String PROPERTY_TILE_TIMEOUT = "oskari.mvt.tile.timeoutms";
+    private static final int DEFAULT_TILE_TIMEOUT = 20000;
+    private static final String ERR_TILE_TIMEOUT = "Loading features for tile timed out";
+
+    private TileStore tileStore;
+    // concurrent requests for the same tile only create and store it once
+    private DistributedComputeOnce<Tile> singleFlight;
+    private long defaultTileTTL;
+    private long tileTimeout;
     private WFSTileGridProperties tileGridProperties;
     private Map<String, Integer> cacheZLevels;
 
     @Override
     public void init() {
         super.init();
-        tileCache = CacheManager.getCache(getClass().getName(),
-                () -> new ComputeOnceCache<>(CACHE_LIMIT, CACHE_EXPIRATION));
+        tileStore = TileStoreManager.getStore(TILE_STORE_NAME);
+        // incomplete tiles are not shared, other nodes try to load the missing features themselves
+        singleFlight = new DistributedComputeOnce<>(TILE_STORE_NAME,
+                tile -> tile.complete ? tile.data : null,
+                data -> new Tile(data, true));
+        defaultTileTTL = PropertyUtil.getOptional(PROPERTY_TILE_TTL, DEFAULT_TILE_TTL / 1000L) * 1000L;
+        tileTimeout = PropertyUtil.getOptional(PROPERTY_TILE_TIMEOUT, DEFAULT_TILE_TIMEOUT);
         tileGridProperties = new WFSTileGridProperties();
         cacheZLevels = new HashMap<>();
         final Map<String, BundleHandler> handlers = ViewModifierManager.getModifiersOfType(BundleHandler.class);
@@ -118,21 +146,57 @@ public class GetWFSVectorTileHandler extends AbstractWFSFeaturesHandler {
             throw new ActionParamsException("Invalid srs!");
         }
 
-        final String cacheKey = getCacheKey(id, srs, z, x, y);
-        final byte[] resp;
+        final boolean isUserContent = contentProcessor.isPresent() && contentProcessor.get().isUserContentLayer(id);
+        final String tileKey = getTileKey(srs, z, x, y);
+        // Don't cache user content tiles
+        if (!isUserContent && TileResponseHelper.writeStoredMVT(tileStore, id, tileKey, params.getResponse())) {
+            return;
+        }
+        final Tile resp;
         try {
-            if (contentProcessor.isPresent() && contentProcessor.get().isUserContentLayer(id)) {
-                // Don't cache user content tiles
+            if (isUserContent) {
                 resp = createTile(id, layer, crs, grid, targetZ, z, x, y, contentProcessor);
             } else {
-                resp = tileCache.get(cacheKey, __ -> createTile(id, layer, crs, grid, targetZ, z, x, y, contentProcessor));
+                resp = getTile(id, tileKey, layer, () -> createTile(id, layer, crs, grid, targetZ, z, x, y, contentProcessor));
             }
         } catch (Exception e) {
             throw new ActionCommonException(e.getMessage(), e);
         }
-        params.getResponse().addHeader("Access-Control-Allow-Origin", "*");
-        params.getResponse().addHeader("Content-Encoding", "gzip");
-        ResponseHelper.writeResponse(params, 200, MVT_CONTENT_TYPE, resp);
+        TileResponseHelper.addMVTHeaders(params.getResponse());
+        if (!resp.complete) {
+            params.getResponse().addHeader(HEADER_INCOMPLETE, "true");
+            params.getResponse().addHeader("Access-Control-Expose-Headers", HEADER_INCOMPLETE);
+        }
+        ResponseHelper.writeResponse(params, 200, MVT_CONTENT_TYPE, resp.data);
+    }
+
+    /**
+     * Creates the tile or waits for a concurrent request creating the same tile and saves it to the tile store.
+     * With oskari.singleflight.mvt.distributed=true the tile is also only created on one cluster node,
+     * the others store the shared tile.
+     */
+    private Tile getTile(String id, String tileKey, OskariLayer layer, Supplier<Tile> creator) {
+        return singleFlight.get(id + "/" + tileKey, () -> {
+            // Re-check the store - maybe someone just completed this
+            byte[] stored = tileStore.get(id, tileKey);
+            if (stored != null) {
+                return new Tile(stored, true, true);
+            }
+            return creator.get();
+        }, tile -> {
+            // don't store incomplete tiles so the missing features are loaded on next request
+            if (tile.complete && !tile.stored) {
+                tileStore.put(id, tileKey, tile.data, getTileTTL(layer));
+            }
+        });
+    }
+
+    protected long getTileTTL(OskariLayer layer) {
+        JSONObject tileCache = layer.getAttributes().optJSONObject(KEY_TILE_CACHE);
+        if (tileCache == null || !tileCache.has(KEY_TILE_CACHE_TTL)) {
+            return defaultTileTTL;
+        }
+        return tileCache.optLong(KEY_TILE_CACHE_TTL) * 1000L;
     }
 
     private void setGridToModifiers (WFSVectorLayerPluginViewModifier handler, String srsName, WFSTileGrid grid) {
@@ -198,24 +262,36 @@ public class GetWFSVectorTileHandler extends AbstractWFSFeaturesHandler {
         return resolution * 1000 / 0.28; // OGC WMTS 0.28 mm/px
     }
 
-    private String getCacheKey(String id, String srs, int z, int x, int y) {
-        return "WFS_" + id + "_" + srs + "_" + z + "_" + x + "_" + y;
+    private String getTileKey(String srs, int z, int x, int y) {
+        return srs.toUpperCase() + "/" + z + "/" + x + "/" + y;
     }
 
     /**
-     * Creates the actual MVT tile
+     * Creates the actual MVT tile. The features for the tile are loaded concurrently and the tile is created
+     * with the features that could be loaded within the timeout.
      * @return an MVT tile as a GZipped byte array
      * @throws ActionException
      */
-    private byte[] createTile(String id, OskariLayer layer, CoordinateReferenceSystem crs,
+    private Tile createTile(String id, OskariLayer layer, CoordinateReferenceSystem crs,
             WFSTileGrid grid, int targetZ, int z, int x, int y,
             Optional<UserLayerService> contentProcessor) {
         List<TileCoord> tilesToLoad = getTilesToLoad(targetZ, z, x, y);
 
-        DefaultFeatureCollection sfc = new DefaultFeatureCollection();
+        List<CompletableFuture<SimpleFeatureCollection>> requests = new ArrayList<>(tilesToLoad.size());
         for (TileCoord tile : tilesToLoad) {
-            SimpleFeatureCollection tileFeatures = getFeatures(id, layer, crs, grid, tile, contentProcessor);
-            sfc.addAll(tileFeatures);
+            requests.add(getFeatures(id, layer, crs, grid, tile, contentProcessor));
+        }
+        TileFeatures features = loadFeatures(requests, tileTimeout);
+        DefaultFeatureCollection sfc = features.getFeatures();
+
+        int loaded = features.getLoadedCount();
+        if (loaded == 0) {
+            // nothing to show -> report the error
+            throw getError(requests);
+        }
+        boolean complete = loaded == requests.size();
+        if (!complete) {
+            LOG.info("Features loaded for", loaded, "/", requests.size(), "areas of tile", z, x, y, "on layer:", id);
         }
 
         String mvtLayer = layer.getName();
@@ -225,12 +301,54 @@ public class GetWFSVectorTileHandler extends AbstractWFSFeaturesHandler {
 
         byte[] encoded = SimpleFeaturesMVTEncoder.encodeToByteArray(sfc, mvtLayer, bbox, extent, buffer);
         try {
-            return IOHelper.gzip(encoded).toByteArray();
+            return new Tile(IOHelper.gzip(encoded).toByteArray(), complete);
         } catch (IOException e) {
             throw new ServiceRuntimeException("Unexpected IOException occured");
         }
     }
 
+    /**
+     * Merges the features as the requests complete and waits until all of them are merged or the timeout has passed.
+     * Waits for the merging stages instead of the requests so features of a request that completed just before
+     * the timeout aren't dropped while they are being merged.
+     */
+    static TileFeatures loadFeatures(List<CompletableFuture<SimpleFeatureCollection>> requests, long timeoutMs) {
+        TileFeatures features = new TileFeatures();
+        List<CompletableFuture<Void>> merged = new ArrayList<>(requests.size());
+        for (CompletableFuture<SimpleFeatureCollection> request : requests) {
+            merged.add(request.thenAccept(features::add));
+        }
+        waitFor(merged, timeoutMs);
+        features.close();
+        return features;
+    }
+
+    private static void waitFor(List<CompletableFuture<Void>> stages, long timeoutMs) {
+        try {
+            CompletableFuture.allOf(stages.toArray(new CompletableFuture[0]))
+                    .get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            // timed out or some of the requests failed -> handled by caller
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceRuntimeException(ERR_TILE_TIMEOUT, e);
+        }
+    }
+
+    private RuntimeException getError(List<CompletableFuture<SimpleFeatureCollection>> requests) {
+        for (CompletableFuture<SimpleFeatureCollection> request : requests) {
+            if (request.isCompletedExceptionally()) {
+                try {
+                    request.join();
+                } catch (CompletionException e) {
+                    Throwable cause = e.getCause();
+                    return cause instanceof RuntimeException ? (RuntimeException) cause : e;
+                }
+            }
+        }
+        return new ServiceRuntimeException(ERR_TILE_TIMEOUT);
+    }
+
     protected static List<TileCoord> getTilesToLoad(int targetZ, int z, int x, int y) {
         int x1;
         int y1;
@@ -281,13 +399,13 @@ public class GetWFSVectorTileHandler extends AbstractWFSFeaturesHandler {
         return wfsTiles;
     }
 
-    private SimpleFeatureCollection getFeatures(String id, OskariLayer layer,
+    private CompletableFuture<SimpleFeatureCollection> getFeatures(String id, OskariLayer layer,
             CoordinateReferenceSystem crs, WFSTileGrid grid, TileCoord tile,
             Optional<UserLayerService> processor) {
         double[] box = grid.getTileExtent(tile);
         Envelope envelope = new Envelope(box[0], box[2], box[1], box[3]);
         ReferencedEnvelope bbox = new ReferencedEnvelope(envelope, crs);
-        return featureClient.getFeatures(id, layer, bbox, crs, processor);
+        return featureClient.getFeaturesAsync(id, layer, bbox, crs, processor);
     }
 
     private boolean isOnlyPointFeatures(SimpleFeatureCollection sfc) {
@@ -322,4 +440,56 @@ public class GetWFSVectorTileHandler extends AbstractWFSFeaturesHandler {
         return true;
     }
 
+    /**
+     * Encoded tile and info if all the features could be loaded for it
+     */
+    private static class Tile {
+        private final byte[] data;
+        private final boolean complete;
+        // read from the tile store, no need to store it again
+        private final boolean stored;
+
+        private Tile(byte[] data, boolean complete) {
+            this(data, complete, false);
+        }
+
+        private Tile(byte[] data, boolean complete, boolean stored) {
+            this.data = data;
+            this.complete = complete;
+            this.stored = stored;
+        }
+    }
+
+    /**
+     * Collects features from concurrent requests. Features arriving after close() are ignored so
+     * requests completing after the timeout can't modify the collection while it's being encoded.
+     */
+    static class TileFeatures {
+        private final DefaultFeatureCollection features = new DefaultFeatureCollection();
+        private boolean closed = false;
+        private int loadedCount = 0;
+
+        private synchronized void add(SimpleFeatureCollection fc) {
+            if (!closed) {
+                features.addAll(fc);
+                loadedCount++;
+            }
+        }
+
+        synchronized int getLoadedCount() {
+            return loadedCount;
+        }
+
+        /**
+         * Features of requests completing after close are ignored
+         */
+        private synchronized void close() {
+            closed = true;
+        }
+
+        synchronized DefaultFeatureCollection getFeatures() {
+            return features;
+        }
+    }
+
 }
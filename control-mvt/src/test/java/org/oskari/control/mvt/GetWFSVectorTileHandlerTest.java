@@ -1,12 +1,23 @@
 package org.oskari.control.mvt;
 
+import org.geotools.api.feature.simple.SimpleFeatureType;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.feature.DefaultFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Point;
 import org.oskari.service.mvt.TileCoord;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
 
 public class GetWFSVectorTileHandlerTest {
 
@@ -127,4 +138,51 @@ public class GetWFSVectorTileHandlerTest {
         }
     }
 
+
+    private static SimpleFeatureCollection getFeatures(String id) {
+        SimpleFeatureTypeBuilder typeBuilder = new SimpleFeatureTypeBuilder();
+        typeBuilder.setName("test");
+        typeBuilder.add("geometry", Point.class);
+        SimpleFeatureType type = typeBuilder.buildFeatureType();
+        SimpleFeatureBuilder builder = new SimpleFeatureBuilder(type);
+        builder.set("geometry", new GeometryFactory().createPoint(new Coordinate(0, 0)));
+        DefaultFeatureCollection fc = new DefaultFeatureCollection();
+        fc.add(builder.buildFeature(id));
+        return fc;
+    }
+
+    @Test
+    public void testLoadFeaturesIncludesRequestCompletingBeforeWait() throws Exception {
+        for (int i = 0; i < 200; i++) {
+            CompletableFuture<SimpleFeatureCollection> done = CompletableFuture.completedFuture(getFeatures("a" + i));
+            CompletableFuture<SimpleFeatureCollection> late = new CompletableFuture<>();
+            CountDownLatch waiting = new CountDownLatch(1);
+            SimpleFeatureCollection lateFeatures = getFeatures("b" + i);
+            Thread loader = new Thread(() -> {
+                try {
+                    waiting.await();
+                } catch (InterruptedException ignored) {}
+                late.complete(lateFeatures);
+            });
+            loader.start();
+            waiting.countDown();
+            GetWFSVectorTileHandler.TileFeatures features =
+                    GetWFSVectorTileHandler.loadFeatures(Arrays.asList(done, late), 5000);
+            loader.join();
+            Assertions.assertEquals(2, features.getLoadedCount(), "Both requests should be merged");
+            Assertions.assertEquals(2, features.getFeatures().size());
+        }
+    }
+
+    @Test
+    public void testLoadFeaturesTimeout() {
+        CompletableFuture<SimpleFeatureCollection> done = CompletableFuture.completedFuture(getFeatures("a"));
+        CompletableFuture<SimpleFeatureCollection> never = new CompletableFuture<>();
+        GetWFSVectorTileHandler.TileFeatures features =
+                GetWFSVectorTileHandler.loadFeatures(Arrays.asList(done, never), 50);
+        Assertions.assertEquals(1, features.getLoadedCount());
+        // completing after the timeout doesn't modify the collection that is being encoded
+        never.complete(getFeatures("b"));
+        Assertions.assertEquals(1, features.getFeatures().size());
+    }
 }
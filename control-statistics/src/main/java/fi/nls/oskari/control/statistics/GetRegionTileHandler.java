@@ -0,0 +1,198 @@
+package fi.nls.oskari.control.statistics;
+
+import fi.nls.oskari.annotation.OskariActionRoute;
+import fi.nls.oskari.cache.Cache;
+import fi.nls.oskari.cache.CacheManager;
+import fi.nls.oskari.cache.TileStore;
+import fi.nls.oskari.cache.TileStoreManager;
+import fi.nls.oskari.control.*;
+import fi.nls.oskari.control.statistics.db.RegionSet;
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.service.OskariComponentManager;
+import fi.nls.oskari.service.ServiceException;
+import fi.nls.oskari.service.ServiceRuntimeException;
+import fi.nls.oskari.util.IOHelper;
+import fi.nls.oskari.util.PropertyUtil;
+import fi.nls.oskari.util.ResponseHelper;
+import fi.nls.oskari.util.TileResponseHelper;
+import org.geotools.api.geometry.MismatchedDimensionException;
+import org.geotools.api.referencing.FactoryException;
+import org.geotools.api.referencing.operation.TransformException;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.oskari.service.mvt.SimpleFeaturesMVTEncoder;
+import org.oskari.service.mvt.TileCoord;
+import org.oskari.service.mvt.WFSTileGrid;
+import org.oskari.service.mvt.WFSTileGridProperties;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Returns the regions of a region set as a gzipped Mapbox vector tile. The regions are simplified for the
+ * resolution of the zoom level so borders shared by neighbouring regions stay matching (see RegionCoverage).
+ * Features have the same "id" and "name" properties as the GeoJSON features returned by GetRegions which
+ * remains available for clients that need the full geometries.
+ *
+ * Parameters: regionset, srs, z, x, y. Tile grids are the same as with GetWFSVectorTile.
+ */
+@OskariActionRoute("GetRegionTile")
+public class GetRegionTileHandler extends ActionHandler {
+
+    private static final Logger LOG = LogFactory.getLogger(GetRegionTileHandler.class);
+
+    protected static final String MVT_CONTENT_TYPE = TileResponseHelper.MVT_CONTENT_TYPE;
+    protected static final String PARAM_REGIONSET = "regionset";
+    protected static final String PARAM_Z = "z";
+    protected static final String PARAM_X = "x";
+    protected static final String PARAM_Y = "y";
+    private static final String MVT_LAYER = "regions";
+
+    private static final int TILE_EXTENT = 4096;
+    private static final int TILE_BUFFER = 256;
+    // simplification tolerance as pixels on the zoom level, small enough not to be visible on the map
+    private static final double TOLERANCE_PX = 1;
+
+    // tiles are stored in a TileStore configured with oskari.tilestore.regions.* properties
+    public static final String TILE_STORE_NAME = "regions";
+    private static final String PROPERTY_TILE_TTL = "oskari.statistics.regions.tile.ttl";
+    private static final long DEFAULT_TILE_TTL = TimeUnit.DAYS.toMillis(1);
+
+    static final String CACHE_NAME_COVERAGE = GetRegionTileHandler.class.getName() + ".coverage";
+    private static final String CACHE_NAME_SIMPLIFIED = GetRegionTileHandler.class.getName() + ".simplified";
+
+    private RegionSetService service;
+    private TileStore tileStore;
+    private WFSTileGridProperties tileGridProperties;
+    private long tileTTL;
+    // full resolution regions per region set and srs
+    private Cache<RegionCoverage> coverages;
+    // simplified regions per region set, srs and zoom level
+    private Cache<SimpleFeatureCollection> simplified;
+
+    public void setRegionsetService(final RegionSetService service) {
+        this.service = service;
+    }
+
+    public void setTileStore(final TileStore tileStore) {
+        this.tileStore = tileStore;
+    }
+
+    @Override
+    public void init() {
+        if (service == null) {
+            setRegionsetService(OskariComponentManager.getComponentOfType(RegionSetService.class));
+        }
+        if (tileStore == null) {
+            setTileStore(TileStoreManager.getStore(TILE_STORE_NAME));
+        }
+        tileGridProperties = new WFSTileGridProperties();
+        tileTTL = PropertyUtil.getOptional(PROPERTY_TILE_TTL, DEFAULT_TILE_TTL / 1000L) * 1000L;
+        coverages = CacheManager.getCache(CACHE_NAME_COVERAGE, () -> {
+            Cache<RegionCoverage> cache = new Cache<>();
+            cache.setLimit(20);
+            cache.setExpiration(DEFAULT_TILE_TTL);
+            return cache;
+        });
+        simplified = CacheManager.getCache(CACHE_NAME_SIMPLIFIED, () -> {
+            Cache<SimpleFeatureCollection> cache = new Cache<>();
+            cache.setLimit(100);
+            cache.setExpiration(DEFAULT_TILE_TTL);
+            return cache;
+        });
+    }
+
+    @Override
+    public void handleAction(ActionParameters params) throws ActionException {
+        final int regionsetId = params.getRequiredParamInt(PARAM_REGIONSET);
+        final String srs = params.getRequiredParam(ActionConstants.PARAM_SRS).toUpperCase();
+        final int z = params.getRequiredParamInt(PARAM_Z);
+        final int x = params.getRequiredParamInt(PARAM_X);
+        final int y = params.getRequiredParamInt(PARAM_Y);
+
+        final WFSTileGrid grid = tileGridProperties.getTileGridOrDefault(srs);
+        validateTile(grid, z, x, y);
+
+        final RegionSet regionset = service.getRegionSet(regionsetId);
+        if (regionset == null) {
+            throw new ActionParamsException("Regionset not found");
+        }
+
+        final String storeId = Long.toString(regionset.getId());
+        final String tileKey = srs + "/" + z + "/" + x + "/" + y;
+        if (TileResponseHelper.writeStoredMVT(tileStore, storeId, tileKey, params.getResponse())) {
+            return;
+        }
+
+        final byte[] tile = createTile(regionset, srs, grid, z, x, y);
+        tileStore.put(storeId, tileKey, tile, tileTTL);
+        TileResponseHelper.addMVTHeaders(params.getResponse());
+        ResponseHelper.writeResponse(params, 200, MVT_CONTENT_TYPE, tile);
+    }
+
+    private void validateTile(WFSTileGrid grid, int z, int x, int y) throws ActionParamsException {
+        if (grid == null) {
+            throw new ActionParamsException("Unknown srs");
+        }
+        if (z < 0 || x < 0 || y < 0) {
+            throw new ActionParamsException("z, x and y must be non-negative");
+        }
+        if (z > grid.getMaxZoom()) {
+            throw new ActionParamsException("z must be <= " + grid.getMaxZoom());
+        }
+        int matrixWidthHeight = WFSTileGrid.getMatrixSize(z);
+        if (x >= matrixWidthHeight || y >= matrixWidthHeight) {
+            throw new ActionParamsException("x and y must be < " + matrixWidthHeight + " (z = " + z + ")");
+        }
+    }
+
+    /**
+     * @return an MVT tile as a GZipped byte array
+     */
+    private byte[] createTile(RegionSet regionset, String srs, WFSTileGrid grid, int z, int x, int y)
+            throws ActionException {
+        SimpleFeatureCollection regions = getSimplifiedRegions(regionset, srs, grid, z);
+        double[] bbox = grid.getTileExtent(new TileCoord(z, x, y));
+        byte[] encoded = SimpleFeaturesMVTEncoder.encodeToByteArray(regions, MVT_LAYER, bbox, TILE_EXTENT, TILE_BUFFER);
+        try {
+            return IOHelper.gzip(encoded).toByteArray();
+        } catch (IOException e) {
+            throw new ServiceRuntimeException("Unexpected IOException occured");
+        }
+    }
+
+    private SimpleFeatureCollection getSimplifiedRegions(RegionSet regionset, String srs, WFSTileGrid grid, int z)
+            throws ActionException {
+        final String cacheKey = regionset.getId() + ":" + srs + ":" + z;
+        SimpleFeatureCollection regions = simplified.get(cacheKey);
+        if (regions == null) {
+            regions = getCoverage(regionset, srs).simplify(grid.getResolutionForZ(z) * TOLERANCE_PX);
+            simplified.put(cacheKey, regions);
+        }
+        return regions;
+    }
+
+    private RegionCoverage getCoverage(RegionSet regionset, String srs) throws ActionException {
+        final String cacheKey = regionset.getId() + ":" + srs;
+        RegionCoverage coverage = coverages.get(cacheKey);
+        if (coverage != null) {
+            return coverage;
+        }
+        try {
+            coverage = RegionCoverage.create(regionset, srs);
+        } catch (IOException e) {
+            throw new ActionException("Couldn't connect to regionset provider.", e);
+        } catch (ServiceException e) {
+            throw new ActionException("Regionset provider misconfiguration.", e);
+        } catch (ServiceRuntimeException e) {
+            throw new ActionException("Regionset provider returned unexpected response.", e);
+        } catch (FactoryException | MismatchedDimensionException e) {
+            throw new ActionException("Failed to create transformation", e);
+        } catch (TransformException e) {
+            throw new ActionException("Failed to perform transformation", e);
+        }
+        coverages.put(cacheKey, coverage);
+        return coverage;
+    }
+
+}
@@ -0,0 +1,147 @@
+package fi.nls.oskari.control.statistics;
+
+import fi.nls.oskari.cache.CacheManager;
+import fi.nls.oskari.cache.MemoryTileStore;
+import fi.nls.oskari.control.ActionConstants;
+import fi.nls.oskari.control.ActionParameters;
+import fi.nls.oskari.control.statistics.db.RegionSet;
+import fi.nls.oskari.util.TileResponseHelper;
+import fi.nls.test.control.JSONActionRouteTest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.io.WKTReader;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class GetRegionTileHandlerTest extends JSONActionRouteTest {
+
+    private static final String TILE_KEY = "EPSG:3067/0/0/0";
+    private static final String REGION = "POLYGON ((300000 6800000, 400000 6800000, 400000 6900000, 300000 6900000, 300000 6800000))";
+
+    private GetRegionTileHandler handler;
+    private TestTileStore tileStore;
+
+    /**
+     * Fails reading the tiles when failReads is set
+     */
+    private static class TestTileStore extends MemoryTileStore {
+        private boolean failReads;
+
+        @Override
+        public InputStream open(String layerId, String tileKey) throws IOException {
+            InputStream tile = super.open(layerId, tileKey);
+            if (tile == null || !failReads) {
+                return tile;
+            }
+            return new InputStream() {
+                @Override
+                public int read() throws IOException {
+                    throw new IOException("Disk error");
+                }
+            };
+        }
+    }
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        RegionSet regionset = new RegionSet();
+        regionset.setId(1);
+        RegionSetService service = mock(RegionSetService.class);
+        doReturn(regionset).when(service).getRegionSet(1);
+
+        // regions are read from the cache instead of the regionset service
+        RegionCoverage coverage = new RegionCoverage(Arrays.asList("1"), Arrays.asList("Region"),
+                Arrays.asList(new WKTReader().read(REGION)));
+        CacheManager.getCache(GetRegionTileHandler.CACHE_NAME_COVERAGE).put("1:EPSG:3067", coverage);
+
+        tileStore = new TestTileStore();
+        handler = new GetRegionTileHandler();
+        handler.setRegionsetService(service);
+        handler.setTileStore(tileStore);
+        handler.init();
+    }
+
+    private ActionParameters createTileParams(ByteArrayOutputStream out) {
+        Map<String, String> params = new HashMap<>();
+        params.put(GetRegionTileHandler.PARAM_REGIONSET, "1");
+        params.put(ActionConstants.PARAM_SRS, "EPSG:3067");
+        params.put(GetRegionTileHandler.PARAM_Z, "0");
+        params.put(GetRegionTileHandler.PARAM_X, "0");
+        params.put(GetRegionTileHandler.PARAM_Y, "0");
+        ActionParameters actionParams = createActionParams(params);
+        actionParams.setResponse(mockHttpServletResponse(out));
+        return actionParams;
+    }
+
+    private static void assertGzipped(byte[] tile) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(tile))) {
+            Assertions.assertTrue(in.readAllBytes().length > 0, "Tile should have content");
+        }
+    }
+
+    @Test
+    public void testTileIsCreatedAndStored() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ActionParameters params = createTileParams(out);
+        handler.handleAction(params);
+
+        assertGzipped(out.toByteArray());
+        Assertions.assertArrayEquals(out.toByteArray(), tileStore.get("1", TILE_KEY), "Created tile should be stored");
+        HttpServletResponse response = params.getResponse();
+        verify(response).setContentType(TileResponseHelper.MVT_CONTENT_TYPE);
+        verify(response).setHeader("Content-Encoding", "gzip");
+        verify(response, never()).reset();
+        verify(response, never()).resetBuffer();
+    }
+
+    @Test
+    public void testStoredTileIsWritten() throws Exception {
+        byte[] stored = new byte[] { 1, 2, 3 };
+        tileStore.put("1", TILE_KEY, stored, 60_000L);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ActionParameters params = createTileParams(out);
+        handler.handleAction(params);
+
+        Assertions.assertArrayEquals(stored, out.toByteArray());
+        HttpServletResponse response = params.getResponse();
+        verify(response).setStatus(200);
+        verify(response).setContentType(TileResponseHelper.MVT_CONTENT_TYPE);
+        verify(response).setHeader("Content-Encoding", "gzip");
+    }
+
+    @Test
+    public void testFailedReadCreatesTile() throws Exception {
+        tileStore.put("1", TILE_KEY, new byte[] { 1, 2, 3 }, 60_000L);
+        tileStore.failReads = true;
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ActionParameters params = createTileParams(out);
+        HttpServletResponse response = params.getResponse();
+        doReturn(false).when(response).isCommitted();
+        handler.handleAction(params);
+
+        assertGzipped(out.toByteArray());
+        verify(response).resetBuffer();
+        verify(response, never()).reset();
+        verify(response, times(2)).setHeader("Content-Encoding", "gzip");
+        verify(response, never()).addHeader(anyString(), any());
+    }
+}
@@ -100,6 +100,18 @@ public class GeoJSONReader2 {
         return toFeature(json, new SimpleFeatureBuilder(schema), transform);
     }
 
+    /**
+     * Reuses the builder between features, the builder is reset before building the feature
+     */
+    public static SimpleFeature toFeature(Map<String, Object> json, SimpleFeatureBuilder builder) {
+        try {
+            return toFeature(json, builder, null);
+        } catch (MismatchedDimensionException | TransformException ignore) {
+            // These can't occur because we don't transform anything
+            throw new RuntimeException("Something bad happened");
+        }
+    }
+
     @SuppressWarnings("unchecked")
     private static SimpleFeature toFeature(Map<String, Object> json, SimpleFeatureBuilder builder,
             MathTransform transform) throws MismatchedDimensionException, TransformException {
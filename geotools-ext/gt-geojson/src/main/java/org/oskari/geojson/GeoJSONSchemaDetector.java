@@ -33,11 +33,7 @@ public class GeoJSONSchemaDetector {
         // Map feature.geometry fields to JTS Geometries
         replaceGeometry(json, GeoJSONReader2::toGeometry);
 
-        if (ignoreGeometriesUnderProperties) {
-            replaceMapProperties(json, propertyValue -> isGeometry(propertyValue) ? null : propertyValue);
-        } else {
-            replaceMapProperties(json, propertyValue -> propertyToGeometry(propertyValue).orElse(propertyValue));
-        }
+        replaceMapProperties(json, getPropertyMapper(ignoreGeometriesUnderProperties));
 
         Map<String, Class<?>> bindings = new HashMap<>();
         String type = GeoJSONUtil.getString(json, GeoJSON.TYPE);
@@ -55,6 +51,89 @@ public class GeoJSONSchemaDetector {
             throw new IllegalArgumentException("Invalid type");
         }
 
+        return toSchema(bindings, crs);
+    }
+
+    /**
+     * Detects the schema from features that have been run through prepareFeature().
+     * Used when features are read one by one from a stream and the schema is detected from a sample of them.
+     */
+    public static SimpleFeatureType getSchema(List<Map<String, Object>> preparedFeatures, CoordinateReferenceSystem crs) {
+        return toSchema(getBindings(preparedFeatures), crs);
+    }
+
+    /**
+     * @return attribute types of features that have been run through prepareFeature()
+     */
+    static Map<String, Class<?>> getBindings(List<Map<String, Object>> preparedFeatures) {
+        Map<String, Class<?>> bindings = new HashMap<>();
+        for (Map<String, Object> feature : preparedFeatures) {
+            addAttributes(feature, bindings);
+        }
+        return bindings;
+    }
+
+    /**
+     * Updates bindings with a prepared feature that wasn't part of the sample the bindings were detected from.
+     * Attributes that the sample didn't have are added and types are widened when the feature has values that
+     * don't fit them, like they would have been if the feature was part of the sample.
+     * @return true if any attributes were added or changed
+     */
+    static boolean updateBindings(Map<String, Object> preparedFeature, Map<String, Class<?>> bindings) {
+        if (fits(preparedFeature.get(GeoJSON.GEOMETRY), bindings.get(GeoJSONUtil.DEFAULT_GEOMETRY_ATTRIBUTE_NAME))) {
+            Map<String, Object> properties = GeoJSONUtil.getMap(preparedFeature, GeoJSON.PROPERTIES);
+            if (properties == null || properties.entrySet().stream()
+                    .allMatch(e -> GeoJSONUtil.DEFAULT_GEOMETRY_ATTRIBUTE_NAME.equals(e.getKey())
+                            || fits(e.getValue(), bindings.get(e.getKey())))) {
+                return false;
+            }
+        }
+        Map<String, Class<?>> updated = new HashMap<>(bindings);
+        addAttributes(preparedFeature, updated);
+        if (updated.equals(bindings)) {
+            return false;
+        }
+        bindings.putAll(updated);
+        return true;
+    }
+
+    /**
+     * @return true if the value doesn't require adding or widening the binding, see getOverrideType()
+     */
+    private static boolean fits(Object value, Class<?> binding) {
+        if (value == null) {
+            return true;
+        }
+        if (binding == null) {
+            // new attribute
+            return false;
+        }
+        if (binding == String.class || binding.isInstance(value)) {
+            return true;
+        }
+        if (value instanceof Number) {
+            return binding == Double.class || (binding == Long.class && isIntegral(value.getClass()));
+        }
+        return false;
+    }
+
+    /**
+     * Maps feature.geometry and GeoJSON geometries under feature.properties of a single feature to JTS Geometries.
+     * Modifies the input like getSchema() does for a whole FeatureCollection.
+     */
+    public static void prepareFeature(Map<String, Object> feature, boolean ignoreGeometriesUnderProperties) {
+        replaceGeometryFeature(feature, GeoJSONReader2::toGeometry);
+        replaceMapPropertiesFeature(feature, getPropertyMapper(ignoreGeometriesUnderProperties));
+    }
+
+    private static Function<Map<String, Object>, Object> getPropertyMapper(boolean ignoreGeometriesUnderProperties) {
+        if (ignoreGeometriesUnderProperties) {
+            return propertyValue -> isGeometry(propertyValue) ? null : propertyValue;
+        }
+        return propertyValue -> propertyToGeometry(propertyValue).orElse(propertyValue);
+    }
+
+    static SimpleFeatureType toSchema(Map<String, Class<?>> bindings, CoordinateReferenceSystem crs) {
         if (bindings.isEmpty()) {
             // Empty FeatureCollection
             return null;
@@ -207,11 +286,20 @@ public class GeoJSONSchemaDetector {
         return false;
     }
 
-    // TODO: Improve me
+    /**
+     * @return type that can hold values of both types or null if the stored type can be kept
+     */
     private static Class<?> getOverrideType(Class<?> currentClass, Class<?> storedClass) {
-        boolean isCurrentNumber = currentClass.isAssignableFrom(Number.class);
-        boolean isStoredNumber = storedClass.isAssignableFrom(Number.class);
+        if (storedClass == String.class) {
+            return null;
+        }
+        boolean isCurrentNumber = Number.class.isAssignableFrom(currentClass);
+        boolean isStoredNumber = Number.class.isAssignableFrom(storedClass);
         if (isCurrentNumber && isStoredNumber) {
+            if (isIntegral(currentClass) && isIntegral(storedClass)) {
+                // Int and Long for example
+                return storedClass == Long.class ? null : Long.class;
+            }
             // Int and Double for example
             // => Just widen to Double
             if (storedClass == Double.class) {
@@ -220,13 +308,12 @@ public class GeoJSONSchemaDetector {
             }
             return Double.class;
         }
-        if (isStoredNumber) {
-            // Stored is a number but current isn't
-            // It's hopefully a String, let's use that
-            return currentClass;
-        }
+        // Number and String, Boolean and String etc => String can hold them all
+        return String.class;
+    }
 
-        return null;
+    private static boolean isIntegral(Class<?> c) {
+        return c == Integer.class || c == Long.class || c == Short.class || c == Byte.class;
     }
 
     /**
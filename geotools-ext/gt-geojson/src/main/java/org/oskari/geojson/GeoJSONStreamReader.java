@@ -0,0 +1,138 @@
+package org.oskari.geojson;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.geotools.api.feature.simple.SimpleFeature;
+import org.geotools.api.feature.simple.SimpleFeatureType;
+import org.geotools.api.referencing.crs.CoordinateReferenceSystem;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.store.EmptyFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Reads a GeoJSON FeatureCollection from an InputStream one feature at a time using Jacksons streaming JsonParser.
+ * Unlike parsing the whole document to a Map<String, Object> and then converting it with GeoJSONReader2 only one
+ * feature at a time exists as a Map, everything else is already converted to SimpleFeatures.
+ *
+ * The schema is detected from a sample of the first features (sampleSize). If a later feature has properties that
+ * the sample didn't have or values that don't fit the type detected for the property (for example a string after
+ * integers) the schema is updated like it would have been if the feature was part of the sample and the features
+ * read so far are converted to the new schema.
+ */
+public class GeoJSONStreamReader {
+
+    public static final int DEFAULT_SCHEMA_SAMPLE_SIZE = 100;
+
+    private static final ObjectMapper OM = new ObjectMapper();
+    private static final TypeReference<HashMap<String, Object>> TYPE_REF = new TypeReference<HashMap<String, Object>>() {};
+
+    public static SimpleFeatureCollection read(InputStream in, CoordinateReferenceSystem crs,
+            boolean ignoreGeometriesUnderProperties) throws IOException {
+        return read(in, crs, ignoreGeometriesUnderProperties, DEFAULT_SCHEMA_SAMPLE_SIZE);
+    }
+
+    /**
+     * @param in stream to read, closed after reading
+     * @param crs coordinate reference system of the geometries
+     * @param ignoreGeometriesUnderProperties true to drop GeoJSON geometries found under feature.properties
+     * @param sampleSize number of features to detect the schema from
+     * @throws IllegalArgumentException if the stream doesn't contain a GeoJSON FeatureCollection
+     */
+    public static SimpleFeatureCollection read(InputStream in, CoordinateReferenceSystem crs,
+            boolean ignoreGeometriesUnderProperties, int sampleSize) throws IOException {
+        try (JsonParser parser = OM.getFactory().createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IllegalArgumentException("Expected a JSON object");
+            }
+            String type = null;
+            SimpleFeatureCollection fc = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (GeoJSON.TYPE.equals(field)) {
+                    type = parser.getValueAsString();
+                } else if (GeoJSON.FEATURES.equals(field) && value == JsonToken.START_ARRAY) {
+                    fc = readFeatures(parser, crs, ignoreGeometriesUnderProperties, Math.max(1, sampleSize));
+                } else {
+                    // crs, bbox, numberMatched etc
+                    parser.skipChildren();
+                }
+            }
+            if (!GeoJSON.FEATURE_COLLECTION.equals(type)) {
+                throw new IllegalArgumentException("type was not " + GeoJSON.FEATURE_COLLECTION);
+            }
+            if (fc == null) {
+                throw new IllegalArgumentException("Missing " + GeoJSON.FEATURES);
+            }
+            return fc;
+        }
+    }
+
+    private static SimpleFeatureCollection readFeatures(JsonParser parser, CoordinateReferenceSystem crs,
+            boolean ignoreGeometriesUnderProperties, int sampleSize) throws IOException {
+        List<Map<String, Object>> sample = new ArrayList<>();
+        List<SimpleFeature> features = new ArrayList<>();
+        Map<String, Class<?>> bindings = null;
+        SimpleFeatureBuilder builder = null;
+
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            Map<String, Object> feature = parser.readValueAs(TYPE_REF);
+            GeoJSONSchemaDetector.prepareFeature(feature, ignoreGeometriesUnderProperties);
+            if (builder != null) {
+                if (GeoJSONSchemaDetector.updateBindings(feature, bindings)) {
+                    builder = new SimpleFeatureBuilder(GeoJSONSchemaDetector.toSchema(bindings, crs));
+                    retypeAll(features, builder);
+                }
+                features.add(GeoJSONReader2.toFeature(feature, builder));
+                continue;
+            }
+            sample.add(feature);
+            if (sample.size() >= sampleSize) {
+                bindings = GeoJSONSchemaDetector.getBindings(sample);
+                builder = new SimpleFeatureBuilder(GeoJSONSchemaDetector.toSchema(bindings, crs));
+                addAll(sample, builder, features);
+                sample.clear();
+            }
+        }
+        if (parser.currentToken() != JsonToken.END_ARRAY) {
+            throw new IllegalArgumentException("Expected " + GeoJSON.FEATURES + " to contain only objects");
+        }
+
+        if (builder == null) {
+            // less features than the sample size
+            SimpleFeatureType schema = GeoJSONSchemaDetector.getSchema(sample, crs);
+            if (sample.isEmpty()) {
+                return new EmptyFeatureCollection(schema);
+            }
+            builder = new SimpleFeatureBuilder(schema);
+            addAll(sample, builder, features);
+        }
+        return new GeoJSONFeatureCollection(features, builder.getFeatureType());
+    }
+
+    /**
+     * Converts the features to the schema of the builder, values are converted to the widened types and
+     * added attributes are left empty
+     */
+    private static void retypeAll(List<SimpleFeature> features, SimpleFeatureBuilder builder) {
+        for (int i = 0; i < features.size(); i++) {
+            features.set(i, SimpleFeatureBuilder.retype(features.get(i), builder));
+        }
+    }
+
+    private static void addAll(List<Map<String, Object>> json, SimpleFeatureBuilder builder, List<SimpleFeature> features) {
+        for (Map<String, Object> feature : json) {
+            features.add(GeoJSONReader2.toFeature(feature, builder));
+        }
+    }
+}
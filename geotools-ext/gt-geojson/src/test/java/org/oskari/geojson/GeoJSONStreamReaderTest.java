@@ -0,0 +1,139 @@
+package org.oskari.geojson;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.geotools.api.feature.simple.SimpleFeature;
+import org.geotools.api.referencing.crs.CoordinateReferenceSystem;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.referencing.CRS;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.MultiPoint;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.io.WKTReader;
+
+public class GeoJSONStreamReaderTest {
+
+    private InputStream getResource(String res) {
+        return getClass().getResourceAsStream(res);
+    }
+
+    @Test
+    public void testComplexProperties() throws Exception {
+        CoordinateReferenceSystem crs84 = CRS.decode("EPSG:4326", true);
+        SimpleFeatureCollection fc = GeoJSONStreamReader.read(getResource("featureCollectionComplex.json"), crs84, true);
+        Assertions.assertEquals(2, fc.size());
+        try (SimpleFeatureIterator it = fc.features()) {
+            SimpleFeature f1 = it.next();
+            Assertions.assertEquals("P_10000001", f1.getID());
+            Assertions.assertEquals(10000001, f1.getAttribute("placeId"));
+            Assertions.assertEquals("M3233D4", f1.getAttribute("tm35MapSheet"));
+            Geometry expected = new WKTReader().read("POINT (21.3587384 61.3939013)");
+            Assertions.assertEquals(expected, f1.getDefaultGeometry());
+            Assertions.assertEquals("P_10000002", it.next().getID());
+        }
+    }
+
+    @Test
+    public void testSchemaFromSample() throws Exception {
+        CoordinateReferenceSystem crs84 = CRS.decode("EPSG:4326", true);
+        String json = "{\"features\":["
+                + "{\"type\":\"Feature\",\"id\":\"a\",\"geometry\":{\"type\":\"Point\",\"coordinates\":[1,2]},\"properties\":{\"name\":\"first\"}},"
+                + "{\"type\":\"Feature\",\"id\":\"b\",\"geometry\":{\"type\":\"Point\",\"coordinates\":[3,4]},\"properties\":{\"name\":\"second\",\"extra\":1}}"
+                + "],\"numberMatched\":2,\"type\":\"FeatureCollection\"}";
+        SimpleFeatureCollection fc = GeoJSONStreamReader.read(
+                new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), crs84, true, 1);
+        Assertions.assertEquals(2, fc.size());
+        try (SimpleFeatureIterator it = fc.features()) {
+            Assertions.assertEquals("first", it.next().getAttribute("name"));
+            Assertions.assertEquals("second", it.next().getAttribute("name"));
+        }
+    }
+
+    @Test
+    public void testPropertyAddedAfterSample() throws Exception {
+        CoordinateReferenceSystem crs84 = CRS.decode("EPSG:4326", true);
+        String json = "{\"type\":\"FeatureCollection\",\"features\":["
+                + "{\"type\":\"Feature\",\"id\":\"a\",\"geometry\":null,\"properties\":{\"name\":\"first\"}},"
+                + "{\"type\":\"Feature\",\"id\":\"b\",\"geometry\":{\"type\":\"Point\",\"coordinates\":[3,4]},\"properties\":{\"name\":\"second\",\"extra\":1}},"
+                + "{\"type\":\"Feature\",\"id\":\"c\",\"geometry\":null,\"properties\":{\"name\":\"third\"}}"
+                + "]}";
+        SimpleFeatureCollection fc = GeoJSONStreamReader.read(
+                new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), crs84, true, 1);
+        Assertions.assertEquals(3, fc.size());
+        Assertions.assertEquals(Integer.class, fc.getSchema().getDescriptor("extra").getType().getBinding());
+        Assertions.assertEquals(Point.class, fc.getSchema().getGeometryDescriptor().getType().getBinding());
+        try (SimpleFeatureIterator it = fc.features()) {
+            SimpleFeature a = it.next();
+            Assertions.assertEquals("first", a.getAttribute("name"));
+            Assertions.assertNull(a.getAttribute("extra"));
+            Assertions.assertNull(a.getDefaultGeometry());
+            SimpleFeature b = it.next();
+            Assertions.assertEquals("second", b.getAttribute("name"));
+            Assertions.assertEquals(1, b.getAttribute("extra"));
+            Assertions.assertEquals(new WKTReader().read("POINT (3 4)"), b.getDefaultGeometry());
+            SimpleFeature c = it.next();
+            Assertions.assertEquals("third", c.getAttribute("name"));
+            Assertions.assertNull(c.getAttribute("extra"));
+        }
+    }
+
+    @Test
+    public void testTypeIsWidenedAfterSample() throws Exception {
+        CoordinateReferenceSystem crs84 = CRS.decode("EPSG:4326", true);
+        String json = "{\"type\":\"FeatureCollection\",\"features\":["
+                + "{\"type\":\"Feature\",\"id\":\"a\",\"geometry\":{\"type\":\"Point\",\"coordinates\":[1,2]},\"properties\":{\"code\":1,\"value\":1}},"
+                + "{\"type\":\"Feature\",\"id\":\"b\",\"geometry\":{\"type\":\"Point\",\"coordinates\":[3,4]},\"properties\":{\"code\":\"A1\",\"value\":2}},"
+                + "{\"type\":\"Feature\",\"id\":\"c\",\"geometry\":{\"type\":\"MultiPoint\",\"coordinates\":[[5,6]]},\"properties\":{\"code\":3,\"value\":2.5}}"
+                + "]}";
+        SimpleFeatureCollection fc = GeoJSONStreamReader.read(
+                new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), crs84, true, 1);
+        Assertions.assertEquals(String.class, fc.getSchema().getDescriptor("code").getType().getBinding());
+        Assertions.assertEquals(Double.class, fc.getSchema().getDescriptor("value").getType().getBinding());
+        Assertions.assertEquals(MultiPoint.class, fc.getSchema().getGeometryDescriptor().getType().getBinding());
+        try (SimpleFeatureIterator it = fc.features()) {
+            SimpleFeature a = it.next();
+            Assertions.assertEquals("a", a.getID());
+            Assertions.assertEquals("1", a.getAttribute("code"));
+            Assertions.assertEquals(1.0, a.getAttribute("value"));
+            SimpleFeature b = it.next();
+            Assertions.assertEquals("A1", b.getAttribute("code"));
+            SimpleFeature c = it.next();
+            Assertions.assertEquals("3", c.getAttribute("code"));
+            Assertions.assertEquals(2.5, c.getAttribute("value"));
+        }
+    }
+
+    @Test
+    public void testTypeIsWidenedInSample() throws Exception {
+        CoordinateReferenceSystem crs84 = CRS.decode("EPSG:4326", true);
+        String json = "{\"type\":\"FeatureCollection\",\"features\":["
+                + "{\"type\":\"Feature\",\"id\":\"a\",\"geometry\":null,\"properties\":{\"code\":1}},"
+                + "{\"type\":\"Feature\",\"id\":\"b\",\"geometry\":null,\"properties\":{\"code\":\"A1\"}}"
+                + "]}";
+        SimpleFeatureCollection fc = GeoJSONStreamReader.read(
+                new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), crs84, true);
+        Assertions.assertEquals(String.class, fc.getSchema().getDescriptor("code").getType().getBinding());
+        try (SimpleFeatureIterator it = fc.features()) {
+            Assertions.assertEquals("1", it.next().getAttribute("code"));
+            Assertions.assertEquals("A1", it.next().getAttribute("code"));
+        }
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        CoordinateReferenceSystem crs84 = CRS.decode("EPSG:4326", true);
+        SimpleFeatureCollection fc = GeoJSONStreamReader.read(getResource("featureCollectionEmpty.json"), crs84, true);
+        Assertions.assertTrue(fc.isEmpty());
+    }
+
+    @Test
+    public void testNotFeatureCollection() {
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> GeoJSONStreamReader.read(getResource("point.json"), CRS.decode("EPSG:4326", true), true));
+    }
+}
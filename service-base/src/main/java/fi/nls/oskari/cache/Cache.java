@@ -5,27 +5,40 @@ import fi.nls.oskari.log.Logger;
 import fi.nls.oskari.util.PropertyUtil;
 import org.oskari.cluster.ClusterManager;
 
-import java.util.Queue;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Objects;
 import java.util.Set;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ConcurrentNavigableMap;
-import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Simple generic in memory cache
+ * Simple generic in memory cache.
+ *
+ * By default the cache holds a limited amount of items and the whole cache is flushed when it expires.
+ * Setting a Weigher switches the cache to a byte budget mode where:
+ * - the cache is bounded by the total weight of the items instead of the amount of items
+ * - each item expires on its own after the expiration time
+ * - items are evicted with segmented LRU so items that are requested more than once are kept over one-off items
  */
 public class Cache<T> {
 
     public static final String PROPERTY_LIMIT_PREFIX = "oskari.cache.limit.";
+    public static final String PROPERTY_MAX_BYTES_PREFIX = "oskari.cache.maxbytes.";
 
     private static final Logger LOG = LogFactory.getLogger(Cache.class);
 
     protected static final String CLUSTER_CMD_FLUSH = "FLUSH";
     protected static final String CLUSTER_CMD_REMOVE_PREFIX = "REM: ";
 
-    // the items are sorted by key.compare(key) -> we should map the String to a "CacheKey" which compares insertion time
-    private final ConcurrentNavigableMap<String,T> items = new ConcurrentSkipListMap<>();
-    private final Queue<String> keys = new ConcurrentLinkedQueue<>();
+    // Items are read without locking. Modifications lock the insertion order so it stays in sync with the items.
+    private final ConcurrentHashMap<String, Item<T>> items = new ConcurrentHashMap<>();
+    // insertion order of the items for evicting the oldest one, the items are linked to each other so
+    // adding, removing and evicting are O(1)
+    private final Object orderLock = new Object();
+    private Item<T> oldest;
+    private Item<T> newest;
     private volatile int limit = 1000;
     private volatile long expiration = 30L * 60L * 1000L;
     private volatile long lastFlush = currentTime();
@@ -33,6 +46,15 @@ public class Cache<T> {
     private boolean cacheSizeConfigured = false;
     private boolean cacheMissDebugEnabled = false;
 
+    // byte budget mode, used when a weigher has been set
+    private volatile Weigher<T> weigher;
+    private volatile SegmentedLruEntries<T> weightedItems;
+    private long configuredMaxBytes = -1;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
     public void setCacheMissDebugEnabled(boolean enabled) {
         cacheMissDebugEnabled = enabled;
     }
@@ -49,6 +71,10 @@ public class Cache<T> {
             cacheSizeConfigured = true;
             limit = configuredLimit;
         }
+        configuredMaxBytes = PropertyUtil.getOptional(getMaxBytesPropertyName(), -1L);
+        if (configuredMaxBytes != -1 && weightedItems != null) {
+            weightedItems.setMaxWeight(configuredMaxBytes);
+        }
         LOG.debug("Is clustered env:", ClusterManager.isClustered());
         if (ClusterManager.isClustered()) {
             LOG.info("Cluster aware cache:", getName());
@@ -62,6 +88,51 @@ public class Cache<T> {
         return PROPERTY_LIMIT_PREFIX + getName();
     }
 
+    private String getMaxBytesPropertyName() {
+        return PROPERTY_MAX_BYTES_PREFIX + getName();
+    }
+
+    /**
+     * Switches the cache to byte budget mode. Any items already in cache are removed.
+     * The budget can be overridden with property "oskari.cache.maxbytes.[cache name]".
+     * @param weigher calculates the size of an item
+     * @param maxBytes maximum total size of the items in cache
+     */
+    public synchronized void setWeigher(Weigher<T> weigher, long maxBytes) {
+        Objects.requireNonNull(weigher);
+        long budget = configuredMaxBytes != -1 ? configuredMaxBytes : maxBytes;
+        this.weigher = weigher;
+        this.weightedItems = new SegmentedLruEntries<>(budget, key -> evictionCount.incrementAndGet());
+        clearItems();
+    }
+
+    /**
+     * @return true if the cache is bounded by a byte budget instead of amount of items
+     */
+    public boolean isWeighted() {
+        return weightedItems != null;
+    }
+
+    /**
+     * @return total weight of the items in cache or -1 if the cache isn't weighted
+     */
+    public long getWeight() {
+        SegmentedLruEntries<T> weighted = weightedItems;
+        return weighted == null ? -1 : weighted.getWeight();
+    }
+
+    /**
+     * @return the byte budget for the cache or -1 if the cache isn't weighted
+     */
+    public long getMaxWeight() {
+        SegmentedLruEntries<T> weighted = weightedItems;
+        return weighted == null ? -1 : weighted.getMaxWeight();
+    }
+
+    public CacheStats getStats() {
+        return new CacheStats(hitCount.get(), missCount.get(), evictionCount.get());
+    }
+
     public int getLimit() {
         return limit;
     }
@@ -92,19 +163,29 @@ public class Cache<T> {
      * @return
      */
     public long getSize() {
+        SegmentedLruEntries<T> weighted = weightedItems;
+        if (weighted != null) {
+            return weighted.size();
+        }
         return items.size();
     }
 
     /**
-     * Returns keys for cached items
+     * Returns a snapshot of the keys for cached items sorted by key.
+     * For weighted caches the keys are in LRU order, least recently used first.
      * @return
      */
     public Set<String> getKeys() {
-        return items.keySet();
+        SegmentedLruEntries<T> weighted = weightedItems;
+        if (weighted != null) {
+            return new LinkedHashSet<>(weighted.keys());
+        }
+        return Collections.unmodifiableSet(new TreeSet<>(items.keySet()));
     }
 
     /**
      * Time to hold items in cache. Defaults to 30 minutes.
+     * For weighted caches this is the time to hold each item.
      * @param expiration in milliseconds
      */
     public void setExpiration(long expiration) {
@@ -116,9 +197,27 @@ public class Cache<T> {
     }
 
     public T get(final String name) {
+        return get(name, true);
+    }
+
+    /**
+     * @param recordStats false to skip hit/miss counters, used for re-checking an item that was just missed
+     */
+    protected T get(final String name, final boolean recordStats) {
         flush(false);
-        T value = items.get(name);
+        T value;
+        SegmentedLruEntries<T> weighted = weightedItems;
+        if (weighted != null) {
+            SegmentedLruEntries.Entry<T> entry = weighted.get(name, currentTime());
+            value = entry == null ? null : entry.value;
+        } else {
+            Item<T> item = items.get(name);
+            value = item == null ? null : item.value;
+        }
 
+        if (recordStats) {
+            (value == null ? missCount : hitCount).incrementAndGet();
+        }
         if(cacheMissDebugEnabled && value == null) {
             LOG.debug("Cache", getName(), "miss for name", name);
         }
@@ -137,8 +236,21 @@ public class Cache<T> {
             // the whole cache had expired
             return null;
         }
-        T value = items.remove(name);
-        keys.remove(name);
+        T value;
+        SegmentedLruEntries<T> weighted = weightedItems;
+        if (weighted != null) {
+            SegmentedLruEntries.Entry<T> entry = weighted.remove(name);
+            value = entry == null ? null : entry.value;
+        } else {
+            Item<T> item;
+            synchronized (orderLock) {
+                item = items.remove(name);
+                if (item != null) {
+                    unlink(item);
+                }
+            }
+            value = item == null ? null : item.value;
+        }
         LOG.debug("Removed cached item:", name, getName());
         return value;
     }
@@ -150,28 +262,123 @@ public class Cache<T> {
             remove(name);
             return false;
         }
-        final boolean overflowing = (items.size() >= limit);
+        SegmentedLruEntries<T> weighted = weightedItems;
+        if (weighted != null) {
+            return putWeighted(weighted, name, item);
+        }
+        final Item<T> added = new Item<>(name, item);
+        final Item<T> existing;
+        final boolean overflowing;
+        synchronized (orderLock) {
+            existing = items.put(name, added);
+            if (existing != null) {
+                // an updated item moves to the end of the queue
+                unlink(existing);
+            }
+            link(added);
+            overflowing = evictOverLimit();
+        }
         if (overflowing) {
-            // limit reached - remove oldest object
             LOG.warn("Cache", getName(), "overflowing! Limit is", limit);
             LOG.info("Configure larger limit for cache by setting the property:", getLimitPropertyName());
-            final String key = keys.poll();
-            if(key != null) {
-                items.remove(key);
-            }
         }
-        T existing = items.put(name, item);
         if (existing != null) {
             // if we had it in cache, notify cluster it was updated
             notifyRemoval(name);
-            // also remove it from queue so its not there twice
-            keys.remove(name);
         }
-        keys.add(name);
         LOG.debug("Cached item:", name, getName());
         return overflowing;
     }
 
+    /**
+     * Removes the oldest items until the cache is within limit. Called while holding orderLock.
+     * @return true if items were removed
+     */
+    private boolean evictOverLimit() {
+        boolean evicted = false;
+        while (items.size() > limit && oldest != null) {
+            Item<T> item = oldest;
+            unlink(item);
+            items.remove(item.key, item);
+            evictionCount.incrementAndGet();
+            evicted = true;
+        }
+        return evicted;
+    }
+
+    /**
+     * Adds the item as the newest one. Called while holding orderLock.
+     */
+    private void link(Item<T> item) {
+        item.prev = newest;
+        if (newest == null) {
+            oldest = item;
+        } else {
+            newest.next = item;
+        }
+        newest = item;
+    }
+
+    /**
+     * Removes the item from the insertion order. Called while holding orderLock.
+     */
+    private void unlink(Item<T> item) {
+        if (item.prev == null) {
+            oldest = item.next;
+        } else {
+            item.prev.next = item.next;
+        }
+        if (item.next == null) {
+            newest = item.prev;
+        } else {
+            item.next.prev = item.prev;
+        }
+        item.prev = null;
+        item.next = null;
+    }
+
+    private void clearItems() {
+        synchronized (orderLock) {
+            items.clear();
+            oldest = null;
+            newest = null;
+        }
+    }
+
+    private boolean putWeighted(SegmentedLruEntries<T> weighted, final String name, final T item) {
+        long weight = weigher.weigh(name, item);
+        SegmentedLruEntries.Entry<T> entry = new SegmentedLruEntries.Entry<>(name, item, weight, currentTime() + expiration);
+        SegmentedLruEntries.PutResult result = weighted.put(entry);
+        if (result.replaced) {
+            // if we had it in cache, notify cluster it was updated
+            notifyRemoval(name);
+        }
+        boolean overflowing = result.evicted;
+        if (overflowing) {
+            LOG.debug("Cache", getName(), "evicted items to make room. Budget is", weighted.getMaxWeight(), "bytes");
+        }
+        LOG.debug("Cached item:", name, getName(), "weight:", weight);
+        return overflowing;
+    }
+
+    /**
+     * Re-calculates the weight of an item that has been modified in place (f.ex. more data has been added to it).
+     * Unlike put() this doesn't notify the cluster as the item wasn't replaced. Does nothing if the cache
+     * isn't weighted or the item isn't in cache.
+     * @return true if other items had to be evicted to make room
+     */
+    public boolean updateWeight(final String name) {
+        SegmentedLruEntries<T> weighted = weightedItems;
+        if (weighted == null) {
+            return false;
+        }
+        boolean overflowing = weighted.updateWeight(name, weigher);
+        if (overflowing) {
+            LOG.debug("Cache", getName(), "evicted items to make room. Budget is", weighted.getMaxWeight(), "bytes");
+        }
+        return overflowing;
+    }
+
     public boolean flush(final boolean force) {
         boolean flushed = flushSilent(force);
         if (force) {
@@ -185,11 +392,25 @@ public class Cache<T> {
 
     protected boolean flushSilent(final boolean force) {
         final long now = currentTime();
+        SegmentedLruEntries<T> weighted = weightedItems;
+        if (weighted != null) {
+            // items expire individually, just clean up expired ones every now and then
+            if (force) {
+                LOG.info("Flushing cache! Cache:", getName(), "Forced: ", force, getName());
+                weighted.clear();
+                lastFlush = now;
+                return true;
+            }
+            if (isTimeToFlush(now)) {
+                lastFlush = now;
+                weighted.removeExpired(now);
+            }
+            return false;
+        }
         if (force || isTimeToFlush(now)) {
             // flushCache
             LOG.info("Flushing cache! Cache:", getName(), "Forced: ", force, getName());
-            items.clear();
-            keys.clear();
+            clearItems();
             lastFlush = now;
             return true;
         }
@@ -208,6 +429,19 @@ public class Cache<T> {
         return System.nanoTime() / 1000000L;
     }
 
+    private static class Item<T> {
+        private final String key;
+        private final T value;
+        // neighbours in the insertion order, guarded by orderLock
+        private Item<T> prev;
+        private Item<T> next;
+
+        private Item(String key, T value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
     /* ************************************************
      * Cluster env methods
      * ************************************************
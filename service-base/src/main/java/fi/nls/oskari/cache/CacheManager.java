@@ -1,7 +1,9 @@
 package fi.nls.oskari.cache;
 
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.function.Supplier;
@@ -69,6 +71,16 @@ public class CacheManager {
         return CACHE_STORE.keySet();
     }
 
+    /**
+     * Returns hit, miss and eviction counters for registered caches
+     * @return stats mapped by cache name
+     */
+    public static Map<String, CacheStats> getCacheStats() {
+        Map<String, CacheStats> stats = new TreeMap<>();
+        CACHE_STORE.forEach((name, cache) -> stats.put(name, cache.getStats()));
+        return stats;
+    }
+
     /**
      * @deprecated to be removed, use {@link #getCache(String)}
      *
@@ -33,7 +33,7 @@ public class ComputeOnceCache<T> extends Cache<T> {
             // Re-check the cache - maybe someone just completed this
             // and executed the if (b.get()) {}-block after we
             // had already finished the first cache.get(key) call;
-            T val = super.get(k);
+            T val = super.get(k, false);
             if (val != null) {
                 return val;
             }
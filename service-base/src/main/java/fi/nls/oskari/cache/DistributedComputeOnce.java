@@ -0,0 +1,225 @@
+package fi.nls.oskari.cache;
+
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.service.ServiceRuntimeException;
+import fi.nls.oskari.util.PropertyUtil;
+import org.oskari.cluster.ClusterManager;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Makes sure a value is only computed once even if it's requested concurrently. Within a JVM concurrent requests
+ * for the same key wait for the first one like with ComputeOnceCache.
+ *
+ * In a clustered environment the computation can optionally be shared between the nodes:
+ * <pre>
+ * oskari.singleflight.[name].distributed=true
+ * oskari.singleflight.[name].lockms=30000
+ * oskari.singleflight.[name].ttl=60
+ * </pre>
+ * The first node takes a short-lived lock in Redis for the key, computes the value and publishes the result bytes
+ * to Redis for [ttl] seconds. The other nodes wait for a notification through ClusterManager (max [lockms]) and read
+ * the shared value. If Redis can't be reached or the value doesn't appear the value is computed locally.
+ *
+ * Values aren't cached here, this only coordinates the computation. Store the value in a cache/TileStore as usual.
+ */
+public class DistributedComputeOnce<T> {
+
+    private static final Logger LOG = LogFactory.getLogger(DistributedComputeOnce.class);
+
+    public static final String PROPERTY_PREFIX = "oskari.singleflight.";
+    protected static final String CLUSTER_FUNCTIONALITY = "singleflight";
+    protected static final String CLUSTER_CHANNEL = "done";
+    private static final String KEY_PREFIX = "oskari_singleflight_";
+    private static final String LOCK_SUFFIX = "_lock";
+
+    // nodes waiting for another node to complete the computation, keyed by Redis key
+    private static final ConcurrentHashMap<String, CompletableFuture<Void>> WAITING = new ConcurrentHashMap<>();
+    private static volatile boolean clusterListenerAdded = false;
+
+    private final String name;
+    private final Function<T, byte[]> serializer;
+    private final Function<byte[], T> deserializer;
+    private final boolean distributed;
+    private final long lockMs;
+    private final int ttlSeconds;
+    private final ConcurrentHashMap<String, CompletableFuture<T>> inProgress = new ConcurrentHashMap<>();
+
+    /**
+     * @param name used for configuration and to separate keys in Redis
+     * @param serializer converts the value to bytes for sharing it with other nodes, returning null skips
+     *                   sharing the value (for example a partial result that others should compute themselves)
+     * @param deserializer converts the shared bytes back to a value
+     */
+    public DistributedComputeOnce(String name, Function<T, byte[]> serializer, Function<byte[], T> deserializer) {
+        this.name = name;
+        this.serializer = serializer;
+        this.deserializer = deserializer;
+        this.distributed = ClusterManager.isClustered()
+                && PropertyUtil.getOptional(PROPERTY_PREFIX + name + ".distributed", false);
+        this.lockMs = PropertyUtil.getOptional(PROPERTY_PREFIX + name + ".lockms", 30000L);
+        this.ttlSeconds = PropertyUtil.getOptional(PROPERTY_PREFIX + name + ".ttl", 60);
+        if (distributed) {
+            addClusterListener();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isDistributed() {
+        return distributed;
+    }
+
+    /**
+     * Computes the value or waits for a concurrent computation of the same key (on this or another node)
+     */
+    public T get(final String key, final Supplier<T> computation) {
+        return get(key, computation, null);
+    }
+
+    /**
+     * Like get(key, computation) but the one request on this node that computed the value or read it from another
+     * node also passes the value to onValue before the concurrent requests get it. Use it to store the value so it's
+     * only stored once per node.
+     */
+    public T get(final String key, final Supplier<T> computation, final Consumer<T> onValue) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        CompletableFuture<T> existing = inProgress.putIfAbsent(key, result);
+        if (existing != null) {
+            return waitForInProgress(key, existing);
+        }
+        try {
+            T value = distributed ? computeShared(key, computation) : computation.get();
+            if (onValue != null) {
+                onValue.accept(value);
+            }
+            result.complete(value);
+            return value;
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+            throw e;
+        } finally {
+            inProgress.remove(key, result);
+        }
+    }
+
+    /**
+     * Waits for the computation of the key that was already in progress on this node
+     */
+    protected T waitForInProgress(String key, CompletableFuture<T> computation) {
+        return join(computation);
+    }
+
+    private T computeShared(String key, Supplier<T> computation) {
+        final String redisKey = KEY_PREFIX + name + "_" + key;
+        final byte[] redisKeyBytes = redisKey.getBytes(StandardCharsets.UTF_8);
+        T shared = getShared(redisKeyBytes);
+        if (shared != null) {
+            return shared;
+        }
+        // register before trying the lock so the notification can't be missed
+        CompletableFuture<Void> notification = new CompletableFuture<>();
+        WAITING.put(redisKey, notification);
+        try {
+            final String lockKey = redisKey + LOCK_SUFFIX;
+            final String owner = UUID.randomUUID().toString();
+            Boolean locked = JedisManager.setIfAbsent(lockKey, owner, lockMs);
+            if (locked == null) {
+                LOG.debug("Redis not available, computing", redisKey, "locally");
+                return computation.get();
+            }
+            if (locked) {
+                return computeAndPublish(redisKey, redisKeyBytes, lockKey, owner, computation);
+            }
+            // another node is computing the value, it might have been published already
+            shared = getShared(redisKeyBytes);
+            if (shared != null) {
+                return shared;
+            }
+            waitFor(notification);
+            shared = getShared(redisKeyBytes);
+            if (shared != null) {
+                return shared;
+            }
+            LOG.debug("Shared value for", redisKey, "not available, computing locally");
+            return computation.get();
+        } finally {
+            WAITING.remove(redisKey, notification);
+        }
+    }
+
+    private T computeAndPublish(String redisKey, byte[] redisKeyBytes, String lockKey, String owner, Supplier<T> computation) {
+        try {
+            T value = computation.get();
+            byte[] bytes = value == null ? null : serializer.apply(value);
+            if (bytes != null) {
+                JedisManager.setex(redisKeyBytes, ttlSeconds, bytes);
+            }
+            return value;
+        } finally {
+            JedisManager.delIfEquals(lockKey, owner);
+            // notify others even if the computation failed so they don't need to wait for the lock to expire
+            ClusterManager.getClientFor(CLUSTER_FUNCTIONALITY).sendMessage(CLUSTER_CHANNEL, redisKey);
+        }
+    }
+
+    private T getShared(byte[] redisKey) {
+        byte[] bytes = JedisManager.get(redisKey);
+        if (bytes == null) {
+            return null;
+        }
+        return deserializer.apply(bytes);
+    }
+
+    private void waitFor(CompletableFuture<Void> notification) {
+        try {
+            notification.get(lockMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            // check the shared value anyway
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceRuntimeException("Interrupted while waiting for shared value", e);
+        }
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new ServiceRuntimeException("Computation failed", e.getCause());
+        }
+    }
+
+    protected static void onComputed(String redisKey) {
+        CompletableFuture<Void> waiting = WAITING.get(redisKey);
+        if (waiting != null) {
+            waiting.complete(null);
+        }
+    }
+
+    private static synchronized void addClusterListener() {
+        if (clusterListenerAdded) {
+            return;
+        }
+        ClusterManager
+                .getClientFor(CLUSTER_FUNCTIONALITY)
+                .addListener(CLUSTER_CHANNEL, DistributedComputeOnce::onComputed);
+        clusterListenerAdded = true;
+    }
+}
@@ -0,0 +1,324 @@
+package fi.nls.oskari.cache;
+
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.service.ServiceRuntimeException;
+import fi.nls.oskari.util.PropertyUtil;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * TileStore that writes tiles to the local filesystem using a [dir]/[layerId]/[tileKey] layout, where tileKey is
+ * typically something like srs/z/x/y. The tiles survive restarts and the total size on disk is bounded by a byte budget.
+ * Configure with:
+ * <pre>
+ * oskari.tilestore.[name].dir=/var/cache/oskari/tiles
+ * oskari.tilestore.[name].maxbytes=1073741824
+ * </pre>
+ * The expiration time of a tile is written as the last modified time of the file. The files are listed once on
+ * startup and after that the store keeps track of the size and expiration time of the tiles in memory.
+ * When the budget is exceeded the tiles expiring first are removed until the store is under 90% of the budget.
+ */
+public class FileSystemTileStore extends TileStore {
+
+    private static final Logger LOG = LogFactory.getLogger(FileSystemTileStore.class);
+
+    public static final long DEFAULT_MAX_BYTES = 1024L * 1024L * 1024L;
+    private static final String TILE_SUFFIX = ".tile";
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private Path root;
+    private long maxBytes = DEFAULT_MAX_BYTES;
+    private final AtomicLong sizeBytes = new AtomicLong();
+    private final AtomicBoolean evicting = new AtomicBoolean(false);
+    // stored tiles, byExpiration is modified only within compute() of tiles for the same file
+    private final ConcurrentHashMap<Path, StoredTile> tiles = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListSet<StoredTile> byExpiration = new ConcurrentSkipListSet<>(
+            Comparator.comparingLong((StoredTile t) -> t.expires).thenComparing(t -> t.file));
+
+    public FileSystemTileStore() {
+    }
+
+    public FileSystemTileStore(Path root, long maxBytes) {
+        this.root = root;
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public void setName(String name) {
+        super.setName(name);
+        String dir = PropertyUtil.getOptional(getPropertyName("dir"));
+        if (dir != null) {
+            root = Paths.get(dir);
+        }
+        maxBytes = PropertyUtil.getOptional(getPropertyName("maxbytes"), maxBytes);
+        if (root == null) {
+            throw new ServiceRuntimeException("Directory not configured for tile store. Set property: " + getPropertyName("dir"));
+        }
+        init();
+    }
+
+    /**
+     * Creates the root directory and reads the tiles already stored
+     */
+    public void init() {
+        try {
+            Files.createDirectories(root);
+            tiles.clear();
+            byExpiration.clear();
+            sizeBytes.set(0);
+            readTiles();
+            LOG.info("Tile store", getName(), "using", root, "- size:", sizeBytes.get(), "/", maxBytes, "bytes");
+        } catch (IOException e) {
+            throw new ServiceRuntimeException("Couldn't initialize tile store in " + root, e);
+        }
+    }
+
+    @Override
+    public byte[] get(String layerId, String tileKey) {
+        Path file = getFile(layerId, tileKey);
+        if (file == null || !isValid(file)) {
+            return null;
+        }
+        try {
+            return Files.readAllBytes(file);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            LOG.warn("Couldn't read tile:", file, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Opens the file without reading it to heap
+     */
+    @Override
+    public InputStream open(String layerId, String tileKey) throws IOException {
+        Path file = getFile(layerId, tileKey);
+        if (file == null || !isValid(file)) {
+            return null;
+        }
+        try {
+            // FileInputStream so callers can transfer the tile from its channel
+            return new FileInputStream(file.toFile());
+        } catch (FileNotFoundException e) {
+            // removed after the check
+            return null;
+        }
+    }
+
+    @Override
+    public void put(String layerId, String tileKey, byte[] tile, long ttlMs) {
+        Path file = getFile(layerId, tileKey);
+        if (file == null || tile == null || tile.length > maxBytes) {
+            return;
+        }
+        try {
+            Files.createDirectories(file.getParent());
+            Path tmp = Files.createTempFile(file.getParent(), null, TMP_SUFFIX);
+            Files.write(tmp, tile);
+            long expires = System.currentTimeMillis() + ttlMs;
+            Files.setLastModifiedTime(tmp, FileTime.fromMillis(expires));
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            track(new StoredTile(file, tile.length, expires));
+        } catch (IOException e) {
+            LOG.warn("Couldn't write tile:", file, e.getMessage());
+            return;
+        }
+        if (sizeBytes.get() > maxBytes) {
+            evict();
+        }
+    }
+
+    @Override
+    public void invalidateLayer(String layerId) {
+        deleteRecursively(root.resolve(encode(layerId)));
+    }
+
+    @Override
+    public void clear() {
+        try (Stream<Path> layers = Files.list(root)) {
+            layers.forEach(this::deleteRecursively);
+        } catch (IOException e) {
+            LOG.warn("Couldn't clear tile store:", root, e.getMessage());
+        }
+    }
+
+    @Override
+    public long getSizeBytes() {
+        return sizeBytes.get();
+    }
+
+    @Override
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    protected void evict() {
+        if (!evicting.compareAndSet(false, true)) {
+            // someone else is already making room
+            return;
+        }
+        try {
+            long target = (long) (maxBytes * 0.9);
+            for (StoredTile tile : byExpiration) {
+                if (sizeBytes.get() <= target) {
+                    break;
+                }
+                delete(tile.file);
+            }
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    private void track(StoredTile tile) {
+        tiles.compute(tile.file, (file, previous) -> {
+            if (previous != null) {
+                byExpiration.remove(previous);
+                sizeBytes.addAndGet(-previous.size);
+            }
+            byExpiration.add(tile);
+            sizeBytes.addAndGet(tile.size);
+            return tile;
+        });
+    }
+
+    private void untrack(Path file) {
+        tiles.computeIfPresent(file, (f, previous) -> {
+            byExpiration.remove(previous);
+            sizeBytes.addAndGet(-previous.size);
+            return null;
+        });
+    }
+
+    private boolean isValid(Path file) {
+        long expires = getExpires(file);
+        if (expires < 0) {
+            return false;
+        }
+        if (expires < System.currentTimeMillis()) {
+            delete(file);
+            return false;
+        }
+        return true;
+    }
+
+    private Path getFile(String layerId, String tileKey) {
+        if (layerId == null || tileKey == null || root == null) {
+            return null;
+        }
+        Path path = root.resolve(encode(layerId));
+        for (String part : tileKey.split("/", -1)) {
+            path = path.resolve(encode(part));
+        }
+        return path.resolveSibling(path.getFileName() + TILE_SUFFIX);
+    }
+
+    /**
+     * Encodes the path part so it can't be used to escape the root directory and different parts never map to
+     * the same file name. Characters other than letters, digits, '_', '-' and '.' are percent-encoded as UTF-8
+     * bytes. Parts consisting only of dots are encoded completely and an empty part is written as "%".
+     */
+    protected static String encode(String part) {
+        if (part.isEmpty()) {
+            return "%";
+        }
+        boolean onlyDots = part.chars().allMatch(c -> c == '.');
+        StringBuilder encoded = new StringBuilder(part.length());
+        for (byte b : part.getBytes(StandardCharsets.UTF_8)) {
+            char c = (char) (b & 0xFF);
+            boolean safe = (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')
+                    || c == '_' || c == '-' || (c == '.' && !onlyDots);
+            if (safe) {
+                encoded.append(c);
+            } else {
+                encoded.append('%').append(Character.toUpperCase(Character.forDigit(c >> 4, 16)))
+                        .append(Character.toUpperCase(Character.forDigit(c & 0xF, 16)));
+            }
+        }
+        return encoded.toString();
+    }
+
+    private static long getExpires(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOG.debug("Couldn't remove tile:", file, e.getMessage());
+        }
+        untrack(file);
+    }
+
+    private void readTiles() throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(TMP_SUFFIX)) {
+                    // leftovers from an interrupted write
+                    delete(file);
+                } else if (name.endsWith(TILE_SUFFIX)) {
+                    track(new StoredTile(file, attrs.size(), attrs.lastModifiedTime().toMillis()));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void deleteRecursively(Path dir) {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try {
+            Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    delete(file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path d, IOException exc) throws IOException {
+                    Files.deleteIfExists(d);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            LOG.warn("Couldn't remove all tiles from:", dir, e.getMessage());
+        }
+    }
+
+    private static class StoredTile {
+        private final Path file;
+        private final long size;
+        private final long expires;
+
+        private StoredTile(Path file, long size, long expires) {
+            this.file = file;
+            this.size = size;
+            this.expires = expires;
+        }
+    }
+}
@@ -7,6 +7,7 @@ import fi.nls.oskari.util.ConversionHelper;
 import fi.nls.oskari.util.PropertyUtil;
 import redis.clients.jedis.*;
 import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.params.SetParams;
 
 import java.util.Collections;
 import java.util.Set;
@@ -30,6 +31,8 @@ public class JedisManager {
     private static final String KEY_REDIS_PORT = "redis.port";
     private static final String KEY_REDIS_POOL_SIZE = "redis.pool.size";
     private static Boolean isClustered = null;
+    private static final String SCRIPT_DEL_IF_EQUALS =
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end";
 
     /**
      * Blocking construction of instances from other classes by making constructor private
@@ -538,6 +541,54 @@ public class JedisManager {
         return null;
     }
 
+    /**
+     * Thread-safe SET NX PX for Redis. Sets the value only if the key doesn't exist, usable as a short-lived lock.
+     *
+     * @param key
+     * @param value identifies the owner of the lock, used when releasing it
+     * @param ttlMs time in milliseconds after the key expires
+     * @return true if the value was set, false if the key already existed or null when Redis couldn't be reached
+     */
+    public static Boolean setIfAbsent(String key, String value, long ttlMs) {
+        try (Jedis jedis = instance.getJedis()) {
+            if (jedis == null) {
+                return null;
+            }
+            return "OK".equals(jedis.set(key, value, SetParams.setParams().nx().px(ttlMs)));
+        } catch(JedisConnectionException e) {
+            log.error("Failed to set", key);
+            return null;
+        } catch (Exception e) {
+            log.error("Setting", key, "to Redis failed:", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Thread-safe DEL for Redis that only removes the key if it still has the given value.
+     * Used to release a lock created with setIfAbsent() without removing a lock someone else has acquired after
+     * the original one expired.
+     *
+     * @param key
+     * @param value
+     * @return true if the key was removed
+     */
+    public static boolean delIfEquals(String key, String value) {
+        try (Jedis jedis = instance.getJedis()) {
+            if (jedis == null) {
+                return false;
+            }
+            Object removed = jedis.eval(SCRIPT_DEL_IF_EQUALS, Collections.singletonList(key), Collections.singletonList(value));
+            return removed instanceof Long && (Long) removed > 0;
+        } catch(JedisConnectionException e) {
+            log.error("Failed to delete", key);
+            return false;
+        } catch (Exception e) {
+            log.error("Deleting", key, "failed miserably");
+            return false;
+        }
+    }
+
     /**
      * Thread-safe PUBLISH
      *
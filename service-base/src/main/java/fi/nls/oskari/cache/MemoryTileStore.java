@@ -0,0 +1,142 @@
+package fi.nls.oskari.cache;
+
+import fi.nls.oskari.util.PropertyUtil;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * In memory TileStore with least recently used eviction. The capacity is bounded by the total amount of tile bytes
+ * instead of the amount of tiles. Configure with:
+ * <pre>
+ * oskari.tilestore.[name].maxbytes=67108864
+ * </pre>
+ */
+public class MemoryTileStore extends TileStore {
+
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024L * 1024L;
+
+    private static final char KEY_SEPARATOR = '/';
+
+    // access ordered so iteration starts from the least recently used tile
+    private final LinkedHashMap<String, StoredTile> tiles = new LinkedHashMap<>(256, 0.75f, true);
+    private long sizeBytes = 0;
+    private long maxBytes = DEFAULT_MAX_BYTES;
+
+    private static class StoredTile {
+        private final byte[] data;
+        private final long expires;
+
+        private StoredTile(byte[] data, long expires) {
+            this.data = data;
+            this.expires = expires;
+        }
+    }
+
+    @Override
+    public void setName(String name) {
+        super.setName(name);
+        maxBytes = PropertyUtil.getOptional(getPropertyName("maxbytes"), DEFAULT_MAX_BYTES);
+    }
+
+    public void setMaxBytes(long maxBytes) {
+        synchronized (tiles) {
+            this.maxBytes = maxBytes;
+            evict();
+        }
+    }
+
+    @Override
+    public byte[] get(String layerId, String tileKey) {
+        String key = getKey(layerId, tileKey);
+        synchronized (tiles) {
+            StoredTile tile = tiles.get(key);
+            if (tile == null) {
+                return null;
+            }
+            if (tile.expires < System.currentTimeMillis()) {
+                remove(key);
+                return null;
+            }
+            return tile.data;
+        }
+    }
+
+    @Override
+    public void put(String layerId, String tileKey, byte[] tile, long ttlMs) {
+        if (tile == null || tile.length > maxBytes) {
+            return;
+        }
+        String key = getKey(layerId, tileKey);
+        StoredTile stored = new StoredTile(tile, System.currentTimeMillis() + ttlMs);
+        synchronized (tiles) {
+            StoredTile existing = tiles.put(key, stored);
+            if (existing != null) {
+                sizeBytes -= existing.data.length;
+            }
+            sizeBytes += tile.length;
+            evict();
+        }
+    }
+
+    @Override
+    public void invalidateLayer(String layerId) {
+        String prefix = layerId + KEY_SEPARATOR;
+        synchronized (tiles) {
+            Iterator<Map.Entry<String, StoredTile>> it = tiles.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, StoredTile> entry = it.next();
+                if (entry.getKey().startsWith(prefix)) {
+                    sizeBytes -= entry.getValue().data.length;
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        synchronized (tiles) {
+            tiles.clear();
+            sizeBytes = 0;
+        }
+    }
+
+    @Override
+    public long getSizeBytes() {
+        synchronized (tiles) {
+            return sizeBytes;
+        }
+    }
+
+    @Override
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public int getTileCount() {
+        synchronized (tiles) {
+            return tiles.size();
+        }
+    }
+
+    private void remove(String key) {
+        StoredTile removed = tiles.remove(key);
+        if (removed != null) {
+            sizeBytes -= removed.data.length;
+        }
+    }
+
+    private void evict() {
+        Iterator<StoredTile> it = tiles.values().iterator();
+        while (sizeBytes > maxBytes && it.hasNext()) {
+            sizeBytes -= it.next().data.length;
+            it.remove();
+        }
+    }
+
+    private static String getKey(String layerId, String tileKey) {
+        return layerId + KEY_SEPARATOR + tileKey;
+    }
+}
@@ -0,0 +1,345 @@
+package fi.nls.oskari.cache;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Segmented LRU storage used by Cache when a Weigher has been set. Entries are first added to a probation segment
+ * and promoted to a protected segment when they are requested again. Entries only requested once are evicted first
+ * so a burst of one-off entries (like a panned map requesting new areas) doesn't flush out the frequently used ones.
+ * The protected segment may use 80% of the byte budget, the rest is for probation.
+ *
+ * Each entry has its own expiration time instead of expiring the whole cache at once.
+ *
+ * Reads don't take the lock: entries are looked up from a concurrent map and the access is recorded in a read
+ * buffer. The buffered accesses are applied to the LRU order in batches by whichever thread gets the lock (a reader
+ * when the buffer fills up or any writer). If the buffer is full the access is dropped, the LRU order is a hint
+ * so losing some accesses under heavy contention is fine. Modifications are O(1) except the removal of expired
+ * or evicted entries.
+ */
+class SegmentedLruEntries<T> {
+
+    private static final double PROTECTED_RATIO = 0.8;
+    private static final int READ_BUFFER_SIZE = 256;
+    private static final int READ_BUFFER_DRAIN_THRESHOLD = 64;
+
+    static class Entry<T> {
+        final String key;
+        final T value;
+        final long weight;
+        final long expires;
+
+        Entry(String key, T value, long weight, long expires) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+            this.expires = expires;
+        }
+    }
+
+    interface EvictionListener {
+        void evicted(String key);
+    }
+
+    static class PutResult {
+        // an entry with the same key was replaced
+        final boolean replaced;
+        // other entries had to be evicted to make room
+        final boolean evicted;
+
+        PutResult(boolean replaced, boolean evicted) {
+            this.replaced = replaced;
+            this.evicted = evicted;
+        }
+    }
+
+    // all current entries, used for lock-free reads
+    private final ConcurrentHashMap<String, Entry<T>> data = new ConcurrentHashMap<>();
+    private final ArrayBlockingQueue<Entry<T>> readBuffer = new ArrayBlockingQueue<>(READ_BUFFER_SIZE);
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // guarded by lock. Access ordered maps -> iteration starts from the least recently used entry
+    private final LinkedHashMap<String, Entry<T>> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, Entry<T>> protectedEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private long probationWeight = 0;
+    private long protectedWeight = 0;
+    private volatile long maxWeight;
+    private final EvictionListener listener;
+
+    SegmentedLruEntries(long maxWeight, EvictionListener listener) {
+        this.maxWeight = maxWeight;
+        this.listener = listener;
+    }
+
+    void setMaxWeight(long maxWeight) {
+        lock.lock();
+        try {
+            drainReadBuffer();
+            this.maxWeight = maxWeight;
+            evict();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getMaxWeight() {
+        return maxWeight;
+    }
+
+    Entry<T> get(String key, long now) {
+        Entry<T> entry = data.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expires < now) {
+            // clean up if nobody else is busy with the lock, otherwise leave it for removeExpired()
+            if (lock.tryLock()) {
+                try {
+                    removeIfCurrent(entry);
+                } finally {
+                    lock.unlock();
+                }
+            }
+            return null;
+        }
+        readBuffer.offer(entry);
+        if (readBuffer.size() >= READ_BUFFER_DRAIN_THRESHOLD && lock.tryLock()) {
+            try {
+                drainReadBuffer();
+            } finally {
+                lock.unlock();
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Replaces an entry with the same key and adds the new one in a single operation so concurrent readers and
+     * writers never see the key missing in between.
+     */
+    PutResult put(Entry<T> entry) {
+        lock.lock();
+        try {
+            drainReadBuffer();
+            // data is replaced instead of removed so lock-free readers see either the old or the new entry
+            boolean replaced = removeFromSegments(entry.key) != null;
+            if (entry.weight > maxWeight) {
+                // would flush the whole cache - don't store it
+                data.remove(entry.key);
+                return new PutResult(replaced, true);
+            }
+            probation.put(entry.key, entry);
+            probationWeight += entry.weight;
+            data.put(entry.key, entry);
+            return new PutResult(replaced, evict());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Re-calculates the weight of an entry whose value has been modified in place. The entry keeps its
+     * position in the LRU order and its expiration time.
+     * @return true if other entries had to be evicted to make room for the grown entry
+     */
+    boolean updateWeight(String key, Weigher<T> weigher) {
+        lock.lock();
+        try {
+            drainReadBuffer();
+            Entry<T> current = data.get(key);
+            if (current == null) {
+                return false;
+            }
+            Entry<T> updated = new Entry<>(key, current.value, weigher.weigh(key, current.value), current.expires);
+            if (updated.weight > maxWeight) {
+                removeLocked(key);
+                listener.evicted(key);
+                return true;
+            }
+            long diff = updated.weight - current.weight;
+            if (probation.containsKey(key)) {
+                probation.put(key, updated);
+                probationWeight += diff;
+            } else {
+                protectedEntries.put(key, updated);
+                protectedWeight += diff;
+                demoteOverflow();
+            }
+            data.put(key, updated);
+            return evict();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    Entry<T> remove(String key) {
+        lock.lock();
+        try {
+            drainReadBuffer();
+            return removeLocked(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void clear() {
+        lock.lock();
+        try {
+            readBuffer.clear();
+            data.clear();
+            probation.clear();
+            protectedEntries.clear();
+            probationWeight = 0;
+            protectedWeight = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int size() {
+        return data.size();
+    }
+
+    long getWeight() {
+        lock.lock();
+        try {
+            return probationWeight + protectedWeight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    List<String> keys() {
+        lock.lock();
+        try {
+            drainReadBuffer();
+            List<String> keys = new ArrayList<>(probation.size() + protectedEntries.size());
+            keys.addAll(probation.keySet());
+            keys.addAll(protectedEntries.keySet());
+            return keys;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes expired entries. Called periodically by the cache so expired entries don't hold memory until evicted.
+     */
+    void removeExpired(long now) {
+        lock.lock();
+        try {
+            drainReadBuffer();
+            probationWeight -= removeExpired(probation, now);
+            protectedWeight -= removeExpired(protectedEntries, now);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long removeExpired(Map<String, Entry<T>> segment, long now) {
+        long removed = 0;
+        Iterator<Entry<T>> it = segment.values().iterator();
+        while (it.hasNext()) {
+            Entry<T> entry = it.next();
+            if (entry.expires < now) {
+                removed += entry.weight;
+                it.remove();
+                data.remove(entry.key, entry);
+            }
+        }
+        return removed;
+    }
+
+    private Entry<T> removeLocked(String key) {
+        data.remove(key);
+        return removeFromSegments(key);
+    }
+
+    private Entry<T> removeFromSegments(String key) {
+        Entry<T> entry = probation.remove(key);
+        if (entry != null) {
+            probationWeight -= entry.weight;
+            return entry;
+        }
+        entry = protectedEntries.remove(key);
+        if (entry != null) {
+            protectedWeight -= entry.weight;
+        }
+        return entry;
+    }
+
+    private void removeIfCurrent(Entry<T> entry) {
+        if (data.get(entry.key) == entry) {
+            removeLocked(entry.key);
+        }
+    }
+
+    /**
+     * Applies the buffered reads to the LRU order: entries in probation are promoted, entries in the
+     * protected segment move to the most recently used end.
+     */
+    private void drainReadBuffer() {
+        Entry<T> entry;
+        boolean promoted = false;
+        while ((entry = readBuffer.poll()) != null) {
+            if (protectedEntries.get(entry.key) == entry) {
+                // get() on access ordered map moves it to the end
+                continue;
+            }
+            if (probation.get(entry.key) != entry) {
+                // removed or replaced after it was read
+                continue;
+            }
+            probation.remove(entry.key);
+            probationWeight -= entry.weight;
+            protectedEntries.put(entry.key, entry);
+            protectedWeight += entry.weight;
+            promoted = true;
+        }
+        if (promoted) {
+            demoteOverflow();
+        }
+    }
+
+    private void demoteOverflow() {
+        long protectedMax = (long) (maxWeight * PROTECTED_RATIO);
+        Iterator<Entry<T>> it = protectedEntries.values().iterator();
+        while (protectedWeight > protectedMax && it.hasNext()) {
+            Entry<T> entry = it.next();
+            it.remove();
+            protectedWeight -= entry.weight;
+            probation.put(entry.key, entry);
+            probationWeight += entry.weight;
+        }
+    }
+
+    private boolean evict() {
+        boolean evicted = false;
+        Iterator<Entry<T>> it = probation.values().iterator();
+        while (probationWeight + protectedWeight > maxWeight && it.hasNext()) {
+            Entry<T> entry = it.next();
+            it.remove();
+            probationWeight -= entry.weight;
+            data.remove(entry.key, entry);
+            listener.evicted(entry.key);
+            evicted = true;
+        }
+        // probation is empty but protected entries alone are over the budget
+        it = protectedEntries.values().iterator();
+        while (probationWeight + protectedWeight > maxWeight && it.hasNext()) {
+            Entry<T> entry = it.next();
+            it.remove();
+            protectedWeight -= entry.weight;
+            data.remove(entry.key, entry);
+            listener.evicted(entry.key);
+            evicted = true;
+        }
+        return evicted;
+    }
+}
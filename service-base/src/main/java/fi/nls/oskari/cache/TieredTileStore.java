@@ -0,0 +1,113 @@
+package fi.nls.oskari.cache;
+
+import fi.nls.oskari.util.PropertyUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * TileStore with a small in memory tier in front of a file system tier. Tiles are written to both tiers and tiles
+ * read from disk are promoted to memory. Configure with:
+ * <pre>
+ * oskari.tilestore.[name].dir=/var/cache/oskari/tiles
+ * oskari.tilestore.[name].maxbytes=1073741824
+ * oskari.tilestore.[name].tiered=true
+ * oskari.tilestore.[name].memory.maxbytes=67108864
+ * # max seconds to keep a tile in memory
+ * oskari.tilestore.[name].memory.ttl=60
+ * </pre>
+ * The disk tier doesn't tell how long a tile is still valid so promoted tiles (and tiles in general) are kept in
+ * memory for max [memory.ttl] seconds.
+ */
+public class TieredTileStore extends TileStore {
+
+    public static final long DEFAULT_MEMORY_TTL_MS = 60_000L;
+    private static final String MEMORY_SUFFIX = ".memory";
+
+    private final MemoryTileStore memory;
+    private final TileStore disk;
+    private long memoryTtlMs = DEFAULT_MEMORY_TTL_MS;
+
+    public TieredTileStore() {
+        this(new MemoryTileStore(), new FileSystemTileStore());
+    }
+
+    public TieredTileStore(MemoryTileStore memory, TileStore disk) {
+        this.memory = memory;
+        this.disk = disk;
+    }
+
+    @Override
+    public void setName(String name) {
+        super.setName(name);
+        memory.setName(name + MEMORY_SUFFIX);
+        disk.setName(name);
+        memoryTtlMs = PropertyUtil.getOptional(getPropertyName("memory.ttl"), DEFAULT_MEMORY_TTL_MS / 1000L) * 1000L;
+    }
+
+    public void setMemoryTtlMs(long memoryTtlMs) {
+        this.memoryTtlMs = memoryTtlMs;
+    }
+
+    @Override
+    public byte[] get(String layerId, String tileKey) {
+        byte[] tile = memory.get(layerId, tileKey);
+        if (tile != null) {
+            return tile;
+        }
+        tile = disk.get(layerId, tileKey);
+        if (tile != null) {
+            memory.put(layerId, tileKey, tile, memoryTtlMs);
+        }
+        return tile;
+    }
+
+    /**
+     * Reads from memory if available, otherwise directly from disk without promoting the tile
+     */
+    @Override
+    public InputStream open(String layerId, String tileKey) throws IOException {
+        byte[] tile = memory.get(layerId, tileKey);
+        if (tile != null) {
+            return new ByteArrayInputStream(tile);
+        }
+        return disk.open(layerId, tileKey);
+    }
+
+    @Override
+    public void put(String layerId, String tileKey, byte[] tile, long ttlMs) {
+        disk.put(layerId, tileKey, tile, ttlMs);
+        memory.put(layerId, tileKey, tile, Math.min(ttlMs, memoryTtlMs));
+    }
+
+    @Override
+    public void invalidateLayer(String layerId) {
+        memory.invalidateLayer(layerId);
+        disk.invalidateLayer(layerId);
+    }
+
+    @Override
+    public void clear() {
+        memory.clear();
+        disk.clear();
+    }
+
+    @Override
+    public long getSizeBytes() {
+        return disk.getSizeBytes();
+    }
+
+    @Override
+    public long getMaxBytes() {
+        return disk.getMaxBytes();
+    }
+
+    public TileStore getMemoryTier() {
+        return memory;
+    }
+
+    public TileStore getDiskTier() {
+        return disk;
+    }
+}
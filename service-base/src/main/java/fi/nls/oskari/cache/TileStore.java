@@ -0,0 +1,86 @@
+package fi.nls.oskari.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Storage for pre-rendered tiles that is keyed by layer id and a tile key (like "EPSG_3067/8/12/34").
+ * Implementations are created and shared through TileStoreManager.
+ * The tile bytes are stored as is so the caller decides the encoding (gzipped MVT, png etc).
+ */
+public abstract class TileStore {
+
+    public static final String PROPERTY_PREFIX = "oskari.tilestore.";
+
+    private String name;
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Called by TileStoreManager after constructor
+     * @param name name of the store
+     */
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns the property name for configuring this store, e.g. oskari.tilestore.[name].maxbytes
+     */
+    protected String getPropertyName(String key) {
+        return PROPERTY_PREFIX + getName() + "." + key;
+    }
+
+    /**
+     * Returns the tile or null if it's not stored or has expired
+     * @param layerId layer the tile belongs to
+     * @param tileKey key for the tile within the layer
+     * @return tile bytes or null
+     */
+    public abstract byte[] get(String layerId, String tileKey);
+
+    /**
+     * Opens the stored tile for reading if one is available so callers can check the tile exists before
+     * writing anything to the response.
+     * Implementations should override this if they can read the tile without copying it to heap. Implementations
+     * that store tiles as files should return a FileInputStream so callers can transfer the tile from its channel.
+     * @return stream of the tile bytes (closed by the caller) or null if the tile is not stored or has expired
+     */
+    public InputStream open(String layerId, String tileKey) throws IOException {
+        byte[] tile = get(layerId, tileKey);
+        return tile == null ? null : new ByteArrayInputStream(tile);
+    }
+
+    /**
+     * Stores a tile
+     * @param layerId layer the tile belongs to
+     * @param tileKey key for the tile within the layer
+     * @param tile the tile bytes
+     * @param ttlMs how long the tile is valid in milliseconds
+     */
+    public abstract void put(String layerId, String tileKey, byte[] tile, long ttlMs);
+
+    /**
+     * Removes all tiles for given layer
+     */
+    public abstract void invalidateLayer(String layerId);
+
+    /**
+     * Removes all tiles from the store
+     */
+    public abstract void clear();
+
+    /**
+     * @return amount of bytes currently stored
+     */
+    public abstract long getSizeBytes();
+
+    /**
+     * @return maximum amount of bytes to store before evicting tiles
+     */
+    public abstract long getMaxBytes();
+
+}
@@ -0,0 +1,114 @@
+package fi.nls.oskari.cache;
+
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.util.PropertyUtil;
+import org.oskari.cluster.ClusterManager;
+
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Factory for shared TileStores. The implementation is selected by properties:
+ * <pre>
+ * # custom implementation, must extend TileStore and have a no-args constructor
+ * oskari.tilestore.[name].class=my.custom.TileStore
+ * # or use FileSystemTileStore by configuring a directory
+ * oskari.tilestore.[name].dir=/var/cache/oskari/tiles
+ * # with an in memory tier in front of the directory (see TieredTileStore)
+ * oskari.tilestore.[name].tiered=true
+ * </pre>
+ * Defaults to MemoryTileStore when neither is configured.
+ *
+ * Tiles for a layer can be invalidated on all stores with invalidateLayer(). In a clustered environment the
+ * invalidation is also sent to the other nodes.
+ */
+public class TileStoreManager {
+
+    private static final Logger LOG = LogFactory.getLogger(TileStoreManager.class);
+    private static final ConcurrentMap<String, TileStore> STORES = new ConcurrentHashMap<>();
+
+    protected static final String CLUSTER_FUNCTIONALITY = "tilestore";
+    protected static final String CLUSTER_CHANNEL = "invalidate";
+    private static volatile boolean clusterListenerAdded = false;
+
+    /**
+     * Returns a store matching the name or creates one based on configuration if it doesn't exist.
+     */
+    public static TileStore getStore(final String name) {
+        Objects.requireNonNull(name);
+        return STORES.computeIfAbsent(name, TileStoreManager::createStore);
+    }
+
+    /**
+     * Returns names of registered stores
+     */
+    public static Set<String> getStoreNames() {
+        return STORES.keySet();
+    }
+
+    /**
+     * Removes all tiles of the layer from every store (and on other cluster nodes)
+     * @param layerId id of the layer that was modified or removed
+     */
+    public static void invalidateLayer(final String layerId) {
+        invalidateLayerSilent(layerId);
+        if (ClusterManager.isClustered()) {
+            ClusterManager
+                    .getClientFor(CLUSTER_FUNCTIONALITY)
+                    .sendMessage(CLUSTER_CHANNEL, layerId);
+        }
+    }
+
+    public static void invalidateLayer(final int layerId) {
+        invalidateLayer(Integer.toString(layerId));
+    }
+
+    protected static void invalidateLayerSilent(final String layerId) {
+        if (layerId == null) {
+            return;
+        }
+        for (TileStore store : STORES.values()) {
+            LOG.debug("Invalidating tiles for layer:", layerId, "in store:", store.getName());
+            store.invalidateLayer(layerId);
+        }
+    }
+
+    private static TileStore createStore(final String name) {
+        TileStore store = instantiate(name);
+        store.setName(name);
+        addClusterListener();
+        return store;
+    }
+
+    private static TileStore instantiate(final String name) {
+        String className = PropertyUtil.getOptional(TileStore.PROPERTY_PREFIX + name + ".class");
+        if (className != null) {
+            try {
+                return (TileStore) Class.forName(className).getDeclaredConstructor().newInstance();
+            } catch (Exception e) {
+                LOG.error(e, "Couldn't create tile store:", className, "- using in memory store for", name);
+                return new MemoryTileStore();
+            }
+        }
+        if (PropertyUtil.getOptional(TileStore.PROPERTY_PREFIX + name + ".dir") != null) {
+            if (PropertyUtil.getOptional(TileStore.PROPERTY_PREFIX + name + ".tiered", false)) {
+                return new TieredTileStore();
+            }
+            return new FileSystemTileStore();
+        }
+        return new MemoryTileStore();
+    }
+
+    private static synchronized void addClusterListener() {
+        if (clusterListenerAdded || !ClusterManager.isClustered()) {
+            return;
+        }
+        ClusterManager
+                .getClientFor(CLUSTER_FUNCTIONALITY)
+                .addListener(CLUSTER_CHANNEL, TileStoreManager::invalidateLayerSilent);
+        clusterListenerAdded = true;
+    }
+}
@@ -0,0 +1,10 @@
+package fi.nls.oskari.cache;
+
+/**
+ * Calculates the (approximate) size of a cached value in bytes. Setting a Weigher on a Cache makes it bounded by a
+ * byte budget instead of the amount of items.
+ */
+@FunctionalInterface
+public interface Weigher<T> {
+    long weigh(String key, T value);
+}
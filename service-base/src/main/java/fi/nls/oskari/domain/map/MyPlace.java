@@ -16,6 +16,8 @@ public class MyPlace {
     private Geometry geometry;
 
     private String wkt;
+    // geometry as WKB when read for rendering (see ST_AsBinary in the mapper)
+    private byte[] wkb;
 
     private int databaseSRID;
     private OffsetDateTime created;
@@ -101,6 +103,14 @@ public class MyPlace {
         this.wkt = wkt;
     }
 
+    public byte[] getWkb() {
+        return wkb;
+    }
+
+    public void setWkb(byte[] wkb) {
+        this.wkb = wkb;
+    }
+
     public int getApplicationSRID() {
         return this.geometry.getSRID();
     }
@@ -6,6 +6,7 @@ import fi.nls.oskari.util.PropertyUtil;
 import org.json.JSONObject;
 
 import java.util.*;
+import java.util.function.Function;
 
 public class OskariLayer extends JSONLocalizedNameAndTitle implements Comparable<OskariLayer> {
 
@@ -55,6 +56,8 @@ public class OskariLayer extends JSONLocalizedNameAndTitle implements Comparable
     private JSONObject options = new JSONObject();
     private JSONObject attributes = new JSONObject();
     private JSONObject capabilities = new JSONObject();
+    // coverage precomputed for system projections, see LayerJSONFormatter.setLayerCoverages()
+    private JSONObject coverages = new JSONObject();
 
     private boolean realtime = false;
     private int refreshRate;
@@ -78,6 +81,8 @@ public class OskariLayer extends JSONLocalizedNameAndTitle implements Comparable
 
     private Date capabilitiesLastUpdated;
     private int capabilitiesUpdateRateSec;
+    // typed view of capabilities, only valid for the capabilities JSON and type it was parsed from
+    private transient volatile ParsedCapabilities parsedCapabilities;
 
     public boolean isCollection() {
         return TYPE_COLLECTION.equals(type);
@@ -377,6 +382,37 @@ public class OskariLayer extends JSONLocalizedNameAndTitle implements Comparable
         this.capabilities = capabilities;
     }
 
+    public JSONObject getCoverages() {
+        return coverages;
+    }
+
+    public void setCoverages(JSONObject coverages) {
+        this.coverages = coverages;
+    }
+
+    /**
+     * Returns a parsed view of the capabilities JSON. The parser is only called once per capabilities
+     * JSON and layer type and the result is kept with the layer so a layer cached by the layer service
+     * carries its parsed capabilities. The result is shared between callers and must not be modified.
+     * Setting new capabilities (or type) makes the next call parse again, modifying the JSON object
+     * returned by getCapabilities() in place does not.
+     * The result is remembered per result class so callers asking for a different view don't get each
+     * other's results.
+     * @param resultType class of the parsed view, a previous result of another class is not reused
+     * @param parser creates the view from the capabilities JSON, the value is passed as is (might be null)
+     */
+    public <T> T getParsedCapabilities(Class<T> resultType, Function<JSONObject, ? extends T> parser) {
+        JSONObject source = capabilities;
+        String sourceType = type;
+        ParsedCapabilities parsed = parsedCapabilities;
+        if (parsed == null || parsed.source != source || !Objects.equals(parsed.type, sourceType)
+                || parsed.resultType != resultType) {
+            parsed = new ParsedCapabilities(source, sourceType, resultType, parser.apply(source));
+            parsedCapabilities = parsed;
+        }
+        return resultType.cast(parsed.value);
+    }
+
     public String getGfiType() {
         return gfiType;
     }
@@ -481,4 +517,17 @@ public class OskariLayer extends JSONLocalizedNameAndTitle implements Comparable
         this.capabilitiesUpdateRateSec = capabilitiesUpdateRateSec;
     }
 
+    private static final class ParsedCapabilities {
+        private final JSONObject source;
+        private final String type;
+        private final Class<?> resultType;
+        private final Object value;
+
+        private ParsedCapabilities(JSONObject source, String type, Class<?> resultType, Object value) {
+            this.source = source;
+            this.type = type;
+            this.resultType = resultType;
+            this.value = value;
+        }
+    }
 }
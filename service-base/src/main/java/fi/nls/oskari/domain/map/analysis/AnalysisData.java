@@ -34,6 +34,8 @@ public class AnalysisData {
     private OffsetDateTime d4;
 
     private String wkt;
+    // geometry as WKB when read for rendering (see ST_AsBinary in the mapper)
+    private byte[] wkb;
 
     private Geometry geometry;
 
@@ -235,6 +237,14 @@ public class AnalysisData {
         this.wkt = wkt;
     }
 
+    public byte[] getWkb() {
+        return wkb;
+    }
+
+    public void setWkb(byte[] wkb) {
+        this.wkb = wkb;
+    }
+
     public Geometry getGeometry() {
         return geometry;
     }
@@ -15,6 +15,7 @@ import java.security.cert.X509Certificate;
 import java.util.*;
 import java.util.stream.Collectors;
 import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
 import java.util.zip.GZIPOutputStream;
 import java.util.AbstractMap.SimpleImmutableEntry;
 
@@ -46,6 +47,7 @@ public class IOHelper {
     public static final String CONTENT_TYPE_GEOJSON = "application/geo+json";
     public static final String CONTENT_TYPE_XML = "application/xml";
     public static final String ENCODING_GZIP = "gzip";
+    public static final String ENCODING_DEFLATE = "deflate";
     private static final Logger log = LogFactory.getLogger(IOHelper.class);
 
     private static SSLSocketFactory TRUSTED_FACTORY;
@@ -58,12 +60,20 @@ public class IOHelper {
     public static int getReadTimeoutMs() {
         return PropertyUtil.getOptional("oskari.read.timeout", 60000);
     }
-    private static boolean getTrustAllCerts() {
+    static boolean getTrustAllCerts() {
         return "true".equals(PropertyUtil.getOptional("oskari.trustAllCerts"));
     }
     private static boolean getTrustAllHosts() {
         return "true".equals(PropertyUtil.getOptional("oskari.trustAllHosts"));
     }
+    /**
+     * Requests are sent with the shared PooledHttpClient: getURL() uses it directly and getConnection() returns
+     * a connection backed by it. The pooled client can't skip hostname verification so oskari.trustAllHosts=true
+     * uses HttpURLConnection instead. Can be disabled with oskari.http.pool.enabled=false
+     */
+    public static boolean usePooledClient() {
+        return PropertyUtil.getOptional("oskari.http.pool.enabled", true) && !getTrustAllHosts();
+    }
     public static String getMyDomain() {
         return PropertyUtil.get("oskari.domain", "http://localhost:8080");
     }
@@ -103,15 +113,23 @@ public class IOHelper {
      * @throws IOException
      */
     public static String readString(HttpURLConnection conn) throws IOException {
+        acceptCompression(conn);
+        return readString(conn, DEFAULT_CHARSET);
+    }
+
+    /**
+     * Asks the service to compress the response if the request hasn't been sent yet.
+     * Responses are decompressed when read with readString(), readBytes(), readBytesTo() or getResponseStream().
+     */
+    private static void acceptCompression(HttpURLConnection conn) {
         try {
             // addRequestProperty() will not overwrite if something else has been set so it's safe here
-            conn.addRequestProperty(HEADER_ACCEPT_ENCODING, ENCODING_GZIP);
+            conn.addRequestProperty(HEADER_ACCEPT_ENCODING, ENCODING_GZIP + ", " + ENCODING_DEFLATE);
         } catch (IllegalStateException ignored) {
             log.ignore("Tried to add gzip header but connection was opened already so we are too late", ignored);
             // too late to add headers, something was posted as payload already.
             // Just skip and move on to reading the response
         }
-        return readString(conn, DEFAULT_CHARSET);
     }
     /**
      * Reads the InputStream of HttpURLConnection and converts its contents to a string using given charset
@@ -122,7 +140,7 @@ public class IOHelper {
      */
     public static String readString(HttpURLConnection conn, final String charset) throws IOException {
         try (InputStream in = conn.getInputStream()) {
-            try (InputStream inner = isResponseGZIPd(conn) ? new GZIPInputStream(in) : in) {
+            try (InputStream inner = decode(conn, in)) {
                 return readString(inner, charset);
             }
         }
@@ -202,8 +220,9 @@ public class IOHelper {
      * @throws IOException
      */
     public static byte[] readBytes(HttpURLConnection conn) throws IOException {
+        acceptCompression(conn);
         try (InputStream in = conn.getInputStream()) {
-            try (InputStream inner = isResponseGZIPd(conn) ? new GZIPInputStream(in) : in) {
+            try (InputStream inner = decode(conn, in)) {
                 return readBytes(inner);
             }
         }
@@ -215,15 +234,33 @@ public class IOHelper {
      * @throws IOException
      */
     public static void readBytesTo(HttpURLConnection conn, OutputStream out) throws IOException {
+        acceptCompression(conn);
         try (InputStream in = conn.getInputStream()) {
-            try (InputStream inner = isResponseGZIPd(conn) ? new GZIPInputStream(in) : in) {
+            try (InputStream inner = decode(conn, in)) {
                 copy(inner, out);
             }
         }
     }
 
-    private static boolean isResponseGZIPd(HttpURLConnection conn) {
-        return ENCODING_GZIP.equals(conn.getContentEncoding());
+    /**
+     * Returns the InputStream of HttpURLConnection for reading the response as a stream.
+     * Decompresses the stream if the response is gzipped or deflated. The caller is responsible for closing the stream.
+     * @param conn used to get inputstream and detect possible gzip encoding
+     * @throws IOException
+     */
+    public static InputStream getResponseStream(HttpURLConnection conn) throws IOException {
+        return decode(conn, conn.getInputStream());
+    }
+
+    private static InputStream decode(HttpURLConnection conn, InputStream in) throws IOException {
+        final String encoding = conn.getContentEncoding();
+        if (ENCODING_GZIP.equalsIgnoreCase(encoding)) {
+            return new GZIPInputStream(in);
+        }
+        if (ENCODING_DEFLATE.equalsIgnoreCase(encoding)) {
+            return new InflaterInputStream(in);
+        }
+        return in;
     }
 
     /**
@@ -335,13 +372,17 @@ public class IOHelper {
     }
 
     /**
-     * Opens a HttpURLConnection to given url
+     * Opens a HttpURLConnection to given url. The request is sent with PooledHttpClient (see usePooledClient())
+     * so redirects are followed and the slot for the host is released when the response body is read or closed
+     * or the connection is disconnected.
      */
     public static HttpURLConnection getConnection(final String pUrl)
             throws IOException {
         log.debug("Opening connection to", pUrl);
         final URL url = new URL(pUrl);
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        final String protocol = url.getProtocol();
+        final boolean pooled = usePooledClient() && ("http".equals(protocol) || "https".equals(protocol));
+        HttpURLConnection conn = pooled ? new PooledHttpURLConnection(url) : (HttpURLConnection) url.openConnection();
         conn.setConnectTimeout(getConnectionTimeoutMs());
         conn.setReadTimeout(getReadTimeoutMs());
         conn.setInstanceFollowRedirects(true);
@@ -385,15 +426,18 @@ public class IOHelper {
         return conn;
     }
 
+    @Deprecated
     public static HttpURLConnection followRedirect(HttpURLConnection conn, int redirectLatch) throws IOException {
         return followRedirect(conn, null, null, null, null, redirectLatch);
     }
 
+    @Deprecated
     public static HttpURLConnection followRedirect(HttpURLConnection conn,
             String user, String pass, int redirectLatch) throws IOException {
         return followRedirect(conn, user, pass, null, null, redirectLatch);
     }
 
+    @Deprecated
     public static HttpURLConnection followRedirect(HttpURLConnection conn,
             String user, String pass, Map<String, String> query, int redirectLatch) throws IOException {
         return followRedirect(conn, user, pass, query, null, redirectLatch);
@@ -402,6 +446,7 @@ public class IOHelper {
     /**
      * Follows redirects on the response. Follows the redirect-chain up to redirectLatch times, if
      * redirectLatch reaches 0 we fail with an IOException (avoid a->b->a->b... loops etc)
+     * @deprecated connections from getConnection() follow redirects (including http to https) without this
      *
      * @param conn HttpURLConnection waiting for a response that might be a redirect response
      * @param user optional username for basic auth
@@ -412,6 +457,7 @@ public class IOHelper {
      * @return HttpURLConnection that is not a redirect response
      * @throws IOException if one occurs naturally of if redirectLatch reaches 0
      */
+    @Deprecated
     public static HttpURLConnection followRedirect(HttpURLConnection conn,
             String user, String pass, Map<String, String> query,
             Map<String, String> headers, int redirectLatch) throws IOException {
@@ -501,7 +547,7 @@ public class IOHelper {
      */
     public static void setupBasicAuth(final HttpURLConnection con,final String userName, final String password) {
         if (userName != null && !userName.isEmpty()) {
-            final String encoded = encode64(userName + ':' + password);
+            final String encoded = encode64(userName + ':' + (password == null ? "" : password));
             con.setRequestProperty(HEADER_AUTHORIZATION, "Basic " + encoded.replaceAll("\r", "").replaceAll("\n", ""));
         }
     }
@@ -591,6 +637,9 @@ public class IOHelper {
      */
     public static String getURL(final String pUrl,
                                 final Map<String, String> headers, final String charset) throws IOException {
+        if (usePooledClient()) {
+            return PooledHttpClient.getString(pUrl, null, null, headers, charset);
+        }
         final HttpURLConnection con = getConnection(pUrl);
         return getURL(con, headers, charset);
     }
@@ -653,6 +702,9 @@ public class IOHelper {
      */
     public static String getURL(final String pUrl,final String userName, final String password,
                                 final Map<String, String> headers, final String charset) throws IOException {
+        if (usePooledClient()) {
+            return PooledHttpClient.getString(pUrl, userName, password, headers, charset);
+        }
         final HttpURLConnection con = getConnection(pUrl, userName, password);
         final int responseCode = con.getResponseCode();
         // Unauthorized
@@ -864,33 +916,40 @@ public class IOHelper {
     }
     private static SSLSocketFactory getTrustedFactory() throws IOException {
         if (TRUSTED_FACTORY == null) {
-            final TrustManager[] trustAllCerts = new TrustManager[] { new X509TrustManager() {
+            TRUSTED_FACTORY = getTrustAllContext().getSocketFactory();
+        }
 
-                public X509Certificate[] getAcceptedIssuers() {
-                    return new X509Certificate[0];
-                }
+        return TRUSTED_FACTORY;
+    }
 
-                public void checkClientTrusted(X509Certificate[] chain, String authType) {
-                    // Intentionally left blank
-                }
+    /**
+     * SSLContext that accepts any certificate (for oskari.trustAllCerts=true)
+     */
+    static SSLContext getTrustAllContext() throws IOException {
+        final TrustManager[] trustAllCerts = new TrustManager[] { new X509TrustManager() {
 
-                public void checkServerTrusted(X509Certificate[] chain, String authType) {
-                    // Intentionally left blank
-                }
-            } };
-            try {
-                SSLContext context = SSLContext.getInstance("TLS");
-                context.init(null, trustAllCerts, new SecureRandom());
-                TRUSTED_FACTORY = context.getSocketFactory();
-            } catch (Exception e) {
-                IOException ioException = new IOException(
-                        "Security exception configuring SSL context");
-                ioException.initCause(e);
-                throw ioException;
+            public X509Certificate[] getAcceptedIssuers() {
+                return new X509Certificate[0];
             }
-        }
 
-        return TRUSTED_FACTORY;
+            public void checkClientTrusted(X509Certificate[] chain, String authType) {
+                // Intentionally left blank
+            }
+
+            public void checkServerTrusted(X509Certificate[] chain, String authType) {
+                // Intentionally left blank
+            }
+        } };
+        try {
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(null, trustAllCerts, new SecureRandom());
+            return context;
+        } catch (Exception e) {
+            IOException ioException = new IOException(
+                    "Security exception configuring SSL context");
+            ioException.initCause(e);
+            throw ioException;
+        }
     }
 
     private static HostnameVerifier getTrustedVerifier() {
@@ -0,0 +1,491 @@
+package fi.nls.oskari.util;
+
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.Charset;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Shared HTTP client for outbound requests. Unlike HttpURLConnection based requests in IOHelper
+ * the connections are kept alive and reused between requests. HTTP/2 can be enabled with oskari.http.pool.http2=true
+ * (requests to the same host are then multiplexed over one connection). It's off by default since for http:// urls
+ * the client would try an h2c upgrade that some legacy services don't handle. The number of concurrent requests to a
+ * single host is limited so a slow service can't tie up every request thread:
+ * <pre>
+ * oskari.http.pool.maxPerHost=20
+ * oskari.http.pool.acquireTimeout=5000
+ * oskari.http.pool.http2=false
+ * </pre>
+ * Responses must be closed to release the slot for the host. The request timeout is also used as the read timeout
+ * for the body: if no data is received within the timeout the body is closed and reading it throws a
+ * SocketTimeoutException (the timeout of HttpRequest only covers the response headers).
+ * Follows redirects (except https to http) and honors oskari.trustAllCerts. Requests accept gzip and deflate
+ * encoded responses and the body is decoded transparently. Request counts, queue time and bytes transferred
+ * are collected per host (see getHostStats()).
+ */
+public class PooledHttpClient {
+
+    private static final Logger LOG = LogFactory.getLogger(PooledHttpClient.class);
+
+    public static final int BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_PER_HOST = PropertyUtil.getOptional("oskari.http.pool.maxPerHost", 20);
+    private static final long ACQUIRE_TIMEOUT_MS = PropertyUtil.getOptional("oskari.http.pool.acquireTimeout", 5000L);
+    private static final boolean HTTP2 = PropertyUtil.getOptional("oskari.http.pool.http2", false);
+    private static final String ACCEPT_ENCODING = "gzip, deflate";
+    private static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+    private static final String HEADER_CONTENT_LENGTH = "Content-Length";
+
+    // one buffer per request thread instead of allocating one for each response
+    private static final ThreadLocal<byte[]> BUFFER = ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+    private static final ConcurrentMap<String, Host> HOSTS = new ConcurrentHashMap<>();
+    // closes response bodies that haven't received data within the read timeout
+    private static final ScheduledExecutorService READ_TIMEOUTS = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "oskari-http-read-timeout");
+        t.setDaemon(true);
+        return t;
+    });
+    private static volatile HttpClient client;
+
+    private PooledHttpClient() {}
+
+    public static HttpClient getClient() {
+        if (client == null) {
+            synchronized (PooledHttpClient.class) {
+                if (client == null) {
+                    client = createClient();
+                }
+            }
+        }
+        return client;
+    }
+
+    private static HttpClient createClient() {
+        HttpClient.Builder builder = HttpClient.newBuilder()
+                .version(HTTP2 ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(Duration.ofMillis(IOHelper.getConnectionTimeoutMs()));
+        if (IOHelper.getTrustAllCerts()) {
+            try {
+                builder.sslContext(IOHelper.getTrustAllContext());
+            } catch (IOException e) {
+                LOG.warn(e, "Couldn't setup trust all certs for pooled client");
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Request builder with identifier headers, compression negotiation and basic auth (if user name is given)
+     * @param url url to request
+     * @param user optional user name for basic auth
+     * @param pass password for basic auth
+     * @param timeoutMs max time to wait for the response headers and for each read of the body
+     */
+    public static HttpRequest.Builder newRequest(String url, String user, String pass, int timeoutMs) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url))
+                .timeout(Duration.ofMillis(timeoutMs))
+                .header(IOHelper.HEADER_USERAGENT, IOHelper.getUserAgent())
+                .header(IOHelper.HEADER_REFERER, IOHelper.getMyDomain())
+                .header(IOHelper.HEADER_ACCEPT_ENCODING, ACCEPT_ENCODING);
+        if (user != null && !user.isEmpty()) {
+            builder.header(IOHelper.HEADER_AUTHORIZATION, "Basic " + IOHelper.encode64(user + ':' + (pass == null ? "" : pass)));
+        }
+        return builder;
+    }
+
+    /**
+     * Sends the request once there's a free slot for the host. The body is streamed so the response must be closed.
+     */
+    public static Response send(HttpRequest request) throws IOException {
+        Host host = HOSTS.computeIfAbsent(getHostKey(request.uri()), k -> new Host());
+        long queued = System.nanoTime();
+        try {
+            if (!host.permits.tryAcquire(ACQUIRE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                host.stats.rejected.increment();
+                throw new IOException("Too many concurrent requests to " + request.uri().getHost());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for connection", e);
+        }
+        host.stats.started(System.nanoTime() - queued);
+        try {
+            return new Response(getClient().send(request, HttpResponse.BodyHandlers.ofInputStream()), host);
+        } catch (InterruptedException e) {
+            host.release(true);
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for response", e);
+        } catch (IOException | RuntimeException e) {
+            host.release(true);
+            throw e;
+        }
+    }
+
+    /**
+     * Sends a GET request and reads the response as a String
+     * @param url url to request
+     * @param user optional user name for basic auth
+     * @param pass password for basic auth
+     * @param headers optional request headers
+     * @param charset charset to read the response with
+     * @return response body
+     * @throws IOException if the request fails or the service responds with other than 2xx status code
+     */
+    public static String getString(String url, String user, String pass,
+                                   Map<String, String> headers, String charset) throws IOException {
+        HttpRequest.Builder builder = newRequest(url, user, pass, IOHelper.getReadTimeoutMs());
+        if (headers != null) {
+            headers.forEach((name, value) -> {
+                if (name != null && value != null) {
+                    builder.setHeader(name, value);
+                }
+            });
+        }
+        try (Response response = send(builder.GET().build())) {
+            int status = response.getStatusCode();
+            if (status == 401) {
+                throw new IOException("Unauthorized");
+            }
+            if (status < 200 || status >= 300) {
+                throw new IOException("Server returned HTTP response code: " + status + " for URL: " + url);
+            }
+            return IOHelper.readString(response.getBody(), Charset.forName(charset));
+        }
+    }
+
+    /**
+     * Copies the stream using a pooled buffer
+     * @return number of bytes copied
+     */
+    public static long transfer(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = BUFFER.get();
+        long total = 0;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+            total += read;
+        }
+        return total;
+    }
+
+    /**
+     * @return number of requests currently in progress for the host of the url
+     */
+    public static int getActiveRequests(String url) {
+        Host host = HOSTS.get(getHostKey(URI.create(url)));
+        return host == null ? 0 : host.stats.getInFlight();
+    }
+
+    /**
+     * @return statistics for each host requests have been sent to keyed by scheme://host:port
+     */
+    public static Map<String, HostStats> getHostStats() {
+        Map<String, HostStats> stats = new ConcurrentHashMap<>();
+        HOSTS.forEach((key, host) -> stats.put(key, host.stats));
+        return Collections.unmodifiableMap(stats);
+    }
+
+    private static String getHostKey(URI uri) {
+        return uri.getScheme() + "://" + uri.getHost() + ':' + uri.getPort();
+    }
+
+    private static class Host {
+        private final Semaphore permits = new Semaphore(MAX_PER_HOST);
+        private final HostStats stats = new HostStats();
+
+        private void release(boolean failed) {
+            stats.finished(failed);
+            permits.release();
+        }
+    }
+
+    /**
+     * Request statistics for a single host
+     */
+    public static class HostStats {
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+        private final LongAdder queueTimeNanos = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+
+        private void started(long queueNanos) {
+            inFlight.incrementAndGet();
+            requests.increment();
+            queueTimeNanos.add(queueNanos);
+        }
+
+        private void finished(boolean error) {
+            inFlight.decrementAndGet();
+            if (error) {
+                failed.increment();
+            }
+        }
+
+        /**
+         * @return requests waiting for a response or reading the response body
+         */
+        public int getInFlight() {
+            return inFlight.get();
+        }
+
+        public long getRequestCount() {
+            return requests.sum();
+        }
+
+        /**
+         * @return requests that failed without a response
+         */
+        public long getFailedCount() {
+            return failed.sum();
+        }
+
+        /**
+         * @return requests that didn't get a slot within oskari.http.pool.acquireTimeout
+         */
+        public long getRejectedCount() {
+            return rejected.sum();
+        }
+
+        /**
+         * @return total time requests have waited for a free slot for the host
+         */
+        public long getQueueTimeMs() {
+            return TimeUnit.NANOSECONDS.toMillis(queueTimeNanos.sum());
+        }
+
+        /**
+         * @return bytes read from response bodies as transferred (before decompression)
+         */
+        public long getBytesRead() {
+            return bytes.sum();
+        }
+    }
+
+    public static class Response implements AutoCloseable {
+        private final HttpResponse<InputStream> response;
+        private final Host host;
+        private final String encoding;
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+        private final AtomicBoolean released = new AtomicBoolean(false);
+        private final long readTimeoutNanos;
+        // like the read timeout of a socket the timeout only applies while the caller is waiting for data
+        private volatile boolean reading;
+        private volatile long readStarted;
+        private volatile boolean timedOut;
+        private volatile ScheduledFuture<?> readTimeout;
+        private InputStream body;
+
+        private Response(HttpResponse<InputStream> response, Host host) {
+            this.response = response;
+            this.host = host;
+            this.encoding = response.headers().firstValue(HEADER_CONTENT_ENCODING)
+                    .map(String::toLowerCase).orElse(null);
+            this.readTimeoutNanos = response.request().timeout().map(Duration::toNanos).orElse(0L);
+            if (readTimeoutNanos > 0 && hasBody()) {
+                readTimeout = READ_TIMEOUTS.schedule(this::checkReadTimeout, readTimeoutNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        private void checkReadTimeout() {
+            if (released.get()) {
+                return;
+            }
+            long waited = reading ? System.nanoTime() - readStarted : 0;
+            if (waited < readTimeoutNanos) {
+                readTimeout = READ_TIMEOUTS.schedule(this::checkReadTimeout, readTimeoutNanos - waited, TimeUnit.NANOSECONDS);
+                return;
+            }
+            LOG.info("Read timed out, closing response from:", response.uri().getHost());
+            timedOut = true;
+            try {
+                // unblocks a thread waiting for data, the slot is released when the caller closes the response
+                response.body().close();
+            } catch (IOException e) {
+                LOG.debug("Error closing response:", e.getMessage());
+            }
+        }
+
+        public int getStatusCode() {
+            return response.statusCode();
+        }
+
+        /**
+         * Content-Encoding and Content-Length are not returned for compressed responses since getBody()
+         * returns the decoded body.
+         * @return first value of the header or null if the response doesn't have it
+         */
+        public String getHeader(String name) {
+            if (isDecoded() && (HEADER_CONTENT_ENCODING.equalsIgnoreCase(name) || HEADER_CONTENT_LENGTH.equalsIgnoreCase(name))) {
+                return null;
+            }
+            return response.headers().firstValue(name).orElse(null);
+        }
+
+        /**
+         * Like getHeader() Content-Encoding and Content-Length are left out for decoded responses.
+         * @return response headers with case-insensitive names
+         */
+        public Map<String, List<String>> getHeaders() {
+            Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            response.headers().map().forEach((name, values) -> {
+                if (getHeader(name) != null) {
+                    headers.put(name, values);
+                }
+            });
+            return Collections.unmodifiableMap(headers);
+        }
+
+        /**
+         * @return url of the response, differs from the requested one if the request was redirected
+         */
+        public URL getURL() throws MalformedURLException {
+            return response.uri().toURL();
+        }
+
+        /**
+         * @return response body, decompressed if the service responded with gzip or deflate encoding
+         */
+        public InputStream getBody() throws IOException {
+            if (body == null) {
+                InputStream in = new BodyInputStream(response.body());
+                if (!hasBody()) {
+                    body = in;
+                } else if (IOHelper.ENCODING_GZIP.equals(encoding)) {
+                    body = new GZIPInputStream(in, BUFFER_SIZE);
+                } else if ("deflate".equals(encoding)) {
+                    body = new InflaterInputStream(in);
+                } else {
+                    body = in;
+                }
+            }
+            return body;
+        }
+
+        private boolean isDecoded() {
+            return hasBody() && (IOHelper.ENCODING_GZIP.equals(encoding) || "deflate".equals(encoding));
+        }
+
+        private boolean hasBody() {
+            int status = getStatusCode();
+            return status != 204 && status != 304 && !"HEAD".equals(response.request().method());
+        }
+
+        @Override
+        public void close() {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                response.body().close();
+            } catch (IOException e) {
+                LOG.debug("Error closing response:", e.getMessage());
+            } finally {
+                release();
+            }
+        }
+
+        /**
+         * Releases the slot for the host without closing the body. Used when the body has been read to the end
+         * so the reader can still get the end of stream from it until it's closed.
+         */
+        void release() {
+            if (!released.compareAndSet(false, true)) {
+                return;
+            }
+            ScheduledFuture<?> timeout = readTimeout;
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+            host.release(false);
+        }
+
+        /**
+         * Counts the bytes read for the host and keeps track of reads in progress for the read timeout
+         */
+        private class BodyInputStream extends FilterInputStream {
+
+            private BodyInputStream(InputStream in) {
+                super(in);
+            }
+
+            @Override
+            public int read() throws IOException {
+                beforeRead();
+                int b;
+                try {
+                    b = super.read();
+                } catch (IOException e) {
+                    throw timedOut ? timeoutException() : e;
+                } finally {
+                    reading = false;
+                }
+                afterRead(b == -1 ? 0 : 1);
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                beforeRead();
+                int read;
+                try {
+                    read = super.read(b, off, len);
+                } catch (IOException e) {
+                    throw timedOut ? timeoutException() : e;
+                } finally {
+                    reading = false;
+                }
+                afterRead(read);
+                return read;
+            }
+
+            private void beforeRead() {
+                readStarted = System.nanoTime();
+                reading = true;
+            }
+
+            private void afterRead(int bytes) throws SocketTimeoutException {
+                if (timedOut) {
+                    // body was closed by the timeout -> don't return a truncated body as complete
+                    throw timeoutException();
+                }
+                if (bytes > 0) {
+                    host.stats.bytes.add(bytes);
+                }
+            }
+
+            private SocketTimeoutException timeoutException() {
+                return new SocketTimeoutException("Read timed out: " + response.uri().getHost());
+            }
+        }
+    }
+}
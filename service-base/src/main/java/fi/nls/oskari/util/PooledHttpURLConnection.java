@@ -0,0 +1,263 @@
+package fi.nls.oskari.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ref.Cleaner;
+import java.net.HttpURLConnection;
+import java.net.ProtocolException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.http.HttpRequest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * HttpURLConnection that sends the request with PooledHttpClient so code written against HttpURLConnection
+ * (IOHelper.getConnection() and the helpers taking a connection) gets pooled connections and per-host metrics.
+ * The request is sent when the response is first accessed. Request body written to getOutputStream() is buffered
+ * and sent with the request.
+ *
+ * The per-host slot is released when the response body is read to the end or closed or when disconnect() is called.
+ * The body is only closed by closing it or calling disconnect().
+ * Redirects are always followed by the client and the connect timeout of the client is used
+ * (oskari.connection.timeout). The read timeout of the connection is used as the timeout for the response headers
+ * and for each read of the body.
+ */
+class PooledHttpURLConnection extends HttpURLConnection {
+
+    private static final Cleaner CLEANER = Cleaner.create();
+    // HttpClient sets these itself and throws if they're given
+    private static final Set<String> RESTRICTED_HEADERS = Set.of("connection", "content-length", "expect", "host", "upgrade");
+
+    private final Map<String, List<String>> requestHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    private ByteArrayOutputStream requestBody;
+    private PooledHttpClient.Response response;
+    private Map<String, List<String>> responseHeaders;
+    private InputStream body;
+
+    PooledHttpURLConnection(URL url) {
+        super(url);
+    }
+
+    @Override
+    public void connect() {
+        // like HttpURLConnection the request is sent when the response is needed
+        connected = true;
+    }
+
+    @Override
+    public void disconnect() {
+        if (response != null) {
+            response.close();
+        }
+    }
+
+    @Override
+    public boolean usingProxy() {
+        return false;
+    }
+
+    @Override
+    public void setRequestProperty(String key, String value) {
+        checkNotConnected(key);
+        List<String> values = new ArrayList<>(1);
+        values.add(value);
+        requestHeaders.put(key, values);
+    }
+
+    @Override
+    public void addRequestProperty(String key, String value) {
+        checkNotConnected(key);
+        requestHeaders.computeIfAbsent(key, k -> new ArrayList<>(1)).add(value);
+    }
+
+    @Override
+    public String getRequestProperty(String key) {
+        List<String> values = key == null ? null : requestHeaders.get(key);
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+
+    @Override
+    public Map<String, List<String>> getRequestProperties() {
+        return Collections.unmodifiableMap(requestHeaders);
+    }
+
+    private void checkNotConnected(String key) {
+        if (connected) {
+            throw new IllegalStateException("Already connected");
+        }
+        if (key == null) {
+            throw new NullPointerException("key is null");
+        }
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        if (!doOutput) {
+            throw new ProtocolException("cannot write to a URLConnection if doOutput=false - call setDoOutput(true)");
+        }
+        if (response != null) {
+            throw new ProtocolException("Cannot write output after reading input.");
+        }
+        if ("GET".equals(method)) {
+            method = "POST";
+        }
+        connected = true;
+        if (requestBody == null) {
+            requestBody = new ByteArrayOutputStream();
+        }
+        return requestBody;
+    }
+
+    @Override
+    public int getResponseCode() throws IOException {
+        return getResponse().getStatusCode();
+    }
+
+    @Override
+    public String getResponseMessage() {
+        // HttpClient doesn't expose the reason phrase
+        return null;
+    }
+
+    @Override
+    public String getHeaderField(String name) {
+        List<String> values = name == null ? null : getResponseHeaders().get(name);
+        return values == null || values.isEmpty() ? null : values.get(values.size() - 1);
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaderFields() {
+        return getResponseHeaders();
+    }
+
+    private Map<String, List<String>> getResponseHeaders() {
+        try {
+            getResponse();
+        } catch (IOException e) {
+            return Collections.emptyMap();
+        }
+        return responseHeaders;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        int status = getResponseCode();
+        if (status >= 400) {
+            String msg = "Server returned HTTP response code: " + status + " for URL: " + url;
+            throw status == 404 || status == 410 ? new FileNotFoundException(url.toString()) : new IOException(msg);
+        }
+        return getBody();
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+        try {
+            return getResponseCode() >= 400 ? getBody() : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private InputStream getBody() throws IOException {
+        if (body == null) {
+            body = new ResponseInputStream(getResponse().getBody());
+        }
+        return body;
+    }
+
+    private PooledHttpClient.Response getResponse() throws IOException {
+        if (response != null) {
+            return response;
+        }
+        connected = true;
+        int timeout = getReadTimeout() > 0 ? getReadTimeout() : IOHelper.getReadTimeoutMs();
+        HttpRequest.Builder builder;
+        try {
+            builder = PooledHttpClient.newRequest(url.toURI().toString(), null, null, timeout);
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            throw new IOException("Invalid URL: " + url, e);
+        }
+        requestHeaders.forEach((name, values) -> {
+            if (RESTRICTED_HEADERS.contains(name.toLowerCase())) {
+                return;
+            }
+            // replace the defaults of the pooled client (like Accept-Encoding) with the ones given
+            builder.setHeader(name, values.get(0));
+            for (int i = 1; i < values.size(); i++) {
+                builder.header(name, values.get(i));
+            }
+        });
+        HttpRequest.BodyPublisher publisher = requestBody == null
+                ? HttpRequest.BodyPublishers.noBody()
+                : HttpRequest.BodyPublishers.ofByteArray(requestBody.toByteArray());
+        PooledHttpClient.Response res = PooledHttpClient.send(builder.method(method, publisher).build());
+        // release the slot if the caller drops the connection without reading or closing the response
+        CLEANER.register(this, res::close);
+        response = res;
+        responseHeaders = res.getHeaders();
+        url = res.getURL();
+        return res;
+    }
+
+    /**
+     * Releases the slot for the host when the body has been read to the end and closes the response when the
+     * stream is closed. Keeps the connection reachable while the stream is in use so the cleaner doesn't close
+     * the response under the reader.
+     */
+    private class ResponseInputStream extends FilterInputStream {
+
+        // the body is left open at the end so reads after it keep returning -1 like on other streams
+        private boolean eof;
+
+        private ResponseInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (eof) {
+                return -1;
+            }
+            int b = super.read();
+            if (b == -1) {
+                endOfStream();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (eof) {
+                return -1;
+            }
+            int read = super.read(b, off, len);
+            if (read == -1) {
+                endOfStream();
+            }
+            return read;
+        }
+
+        private void endOfStream() {
+            eof = true;
+            response.release();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                disconnect();
+            }
+        }
+    }
+}
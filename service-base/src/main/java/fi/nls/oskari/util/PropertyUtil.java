@@ -178,6 +178,11 @@ public class PropertyUtil {
         return ConversionHelper.getInt(prop, defaultValue);
     }
 
+    public static long getOptional(final String propertyName, final long defaultValue) {
+        final String prop = getOptional(propertyName);
+        return ConversionHelper.getLong(prop, defaultValue);
+    }
+
     public static double getOptional(final String propertyName, final double defaultValue) {
         final String prop = getOptional(propertyName);
         return ConversionHelper.getDouble(prop, defaultValue);
@@ -7,10 +7,14 @@ import org.w3c.dom.ls.DOMImplementationLS;
 import org.w3c.dom.ls.LSSerializer;
 
 import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.FactoryConfigurationError;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.TransformerFactoryConfigurationError;
@@ -25,6 +29,14 @@ import java.util.stream.Stream;
 public class XmlHelper {
 
     private static final Logger LOGGER = LogFactory.getLogger(XmlHelper.class);
+    // builders are not thread-safe, only used for creating empty documents for streamed elements
+    private static final ThreadLocal<DocumentBuilder> FRAGMENT_BUILDER = ThreadLocal.withInitial(() -> {
+        try {
+            return newDocumentBuilderFactory(false).newDocumentBuilder();
+        } catch (ParserConfigurationException e) {
+            throw new IllegalStateException("Unable to create DocumentBuilder", e);
+        }
+    });
 
     public static Element parseXML(final String xml) {
         return parseXML(xml, false);
@@ -57,6 +69,136 @@ public class XmlHelper {
         return parseXML(xml, false);
     }
 
+    /**
+     * Obtain a new namespace aware XMLInputFactory with DTDs and external entities disabled.
+     * @return New instance of XMLInputFactory
+     */
+    public static XMLInputFactory newXMLInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return factory;
+    }
+
+    /**
+     * Moves the reader to the next child element of the current element
+     * @param reader positioned on a START_ELEMENT or inside the parent element. On START_DOCUMENT moves to the root element.
+     * @return true if the reader is on the START_ELEMENT of a child, false if it's on the END_ELEMENT of the parent
+     */
+    public static boolean nextChildElement(XMLStreamReader reader) throws XMLStreamException {
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                return true;
+            }
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Skips the current element and its children
+     * @param reader positioned on a START_ELEMENT, left on the matching END_ELEMENT
+     */
+    public static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    /**
+     * Reads the current element and its children as a DOM element. The element is built like parseXML() builds it
+     * without namespace awareness so the other helpers in this class work the same way with it. Namespace
+     * declarations of the element are included as xmlns attributes.
+     * @param reader positioned on a START_ELEMENT, left on the matching END_ELEMENT
+     * @return the element as the document element of a new document
+     */
+    public static Element readElement(XMLStreamReader reader) throws XMLStreamException {
+        Element root = readStartElement(reader);
+        readChildren(reader, root);
+        return root;
+    }
+
+    /**
+     * Reads the start tag of the current element as a DOM element without reading any of the children
+     * @param reader positioned on a START_ELEMENT, position is not changed
+     * @return the element as the document element of a new document
+     */
+    public static Element readStartElement(XMLStreamReader reader) {
+        Document doc = FRAGMENT_BUILDER.get().newDocument();
+        Element root = createElement(doc, reader);
+        doc.appendChild(root);
+        return root;
+    }
+
+    /**
+     * Reads the current child element of the reader and appends it to the given parent
+     * @param reader positioned on a START_ELEMENT, left on the matching END_ELEMENT
+     * @param parent to append the element to
+     */
+    public static void appendElement(XMLStreamReader reader, Element parent) throws XMLStreamException {
+        Element el = createElement(parent.getOwnerDocument(), reader);
+        parent.appendChild(el);
+        readChildren(reader, el);
+    }
+
+    private static void readChildren(XMLStreamReader reader, Element parent) throws XMLStreamException {
+        Document doc = parent.getOwnerDocument();
+        Node current = parent;
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    Element el = createElement(doc, reader);
+                    current.appendChild(el);
+                    current = el;
+                    depth++;
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    current = current.getParentNode();
+                    depth--;
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    current.appendChild(doc.createTextNode(reader.getText()));
+                    break;
+                default:
+                    // comments and processing instructions are not needed
+            }
+        }
+    }
+
+    private static Element createElement(Document doc, XMLStreamReader reader) {
+        Element el = doc.createElement(getQualifiedName(reader.getPrefix(), reader.getLocalName()));
+        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+            String prefix = reader.getNamespacePrefix(i);
+            el.setAttribute(prefix == null || prefix.isEmpty() ? "xmlns" : "xmlns:" + prefix, reader.getNamespaceURI(i));
+        }
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            el.setAttribute(getQualifiedName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i)),
+                    reader.getAttributeValue(i));
+        }
+        return el;
+    }
+
+    private static String getQualifiedName(String prefix, String localName) {
+        if (prefix == null || prefix.isEmpty()) {
+            return localName;
+        }
+        return prefix + ":" + localName;
+    }
+
     public static Stream<Element> getChildElements(final Element elem, final String localName) {
         if (elem == null) {
             return Stream.empty();
@@ -0,0 +1,100 @@
+package fi.nls.oskari.cache;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures Cache throughput under contention and compares it with the previous implementation:
+ * - baseline: the Cache before the O(1) bookkeeping (see BaselineCache)
+ * - current: the item limited Cache
+ * - weighted: the Cache in byte budget mode
+ * The workload is 80% reads, 15% overwrites and 5% removals over a cache that is full.
+ *
+ * Not part of the test suite. Run the main method from the IDE or with:
+ * <pre>
+ * mvn -pl service-base test-compile exec:java -Dexec.mainClass=fi.nls.oskari.cache.CacheBenchmark -Dexec.classpathScope=test
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CacheBenchmark {
+
+    @Param({ "1000", "10000" })
+    public int size;
+
+    @Param({ "baseline", "current", "weighted" })
+    public String impl;
+
+    private String[] keys;
+    private Cache<String> cache;
+    private BaselineCache<String> baseline;
+
+    @Setup
+    public void setup() {
+        keys = new String[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = "layer_" + i;
+        }
+        if ("baseline".equals(impl)) {
+            baseline = new BaselineCache<>();
+            baseline.setLimit(size);
+            for (String key : keys) {
+                baseline.put(key, key);
+            }
+            return;
+        }
+        cache = new Cache<>();
+        cache.setLimit(size);
+        if ("weighted".equals(impl)) {
+            cache.setWeigher((key, value) -> value.length(), size * 16L);
+        }
+        for (String key : keys) {
+            cache.put(key, key);
+        }
+    }
+
+    @Benchmark
+    public void readWriteRemove(Blackhole bh) {
+        String key = keys[ThreadLocalRandom.current().nextInt(size)];
+        int op = ThreadLocalRandom.current().nextInt(100);
+        if (baseline != null) {
+            if (op < 80) {
+                bh.consume(baseline.get(key));
+            } else if (op < 95) {
+                bh.consume(baseline.put(key, key));
+            } else {
+                bh.consume(baseline.remove(key));
+                baseline.put(key, key);
+            }
+            return;
+        }
+        if (op < 80) {
+            bh.consume(cache.get(key));
+        } else if (op < 95) {
+            bh.consume(cache.put(key, key));
+        } else {
+            bh.consume(cache.remove(key));
+            cache.put(key, key);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        for (int threads : new int[] { 8, 32, 64 }) {
+            Options opt = new OptionsBuilder()
+                    .include(CacheBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .build();
+            new Runner(opt).run();
+        }
+    }
+}
@@ -6,6 +6,11 @@ import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Simple tests for cache.
  */
@@ -68,6 +73,61 @@ public class CacheTest {
         Assertions.assertEquals(limit, cache.getSize(), "Cache size should be " + limit);
     }
 
+    @Test
+    public void testKeysAreSorted() {
+        Cache<String> cache = CacheManager.getCache("KeysAreSorted");
+        cache.put("b", "2");
+        cache.put("c", "3");
+        cache.put("a", "1");
+        Assertions.assertEquals(Arrays.asList("a", "b", "c"), new ArrayList<>(cache.getKeys()));
+    }
+
+    @Test
+    public void testUpdatedItemIsEvictedLast() {
+        Cache<String> cache = CacheManager.getCache("UpdatedItemIsEvictedLast");
+        cache.setLimit(3);
+        cache.put("first", "1");
+        cache.put("second", "2");
+        cache.put("third", "3");
+        // moves to the end of the queue
+        cache.put("first", "updated");
+        cache.put("fourth", "4");
+        Assertions.assertNull(cache.get("second"), "Oldest item should be evicted");
+        Assertions.assertEquals("updated", cache.get("first"));
+        Assertions.assertEquals(3, cache.getSize());
+    }
+
+    @Test
+    public void testConcurrentPutsStayWithinLimit() throws Exception {
+        final Cache<String> cache = CacheManager.getCache("ConcurrentPuts");
+        cache.setLimit(100);
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            final int seed = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 20000; i++) {
+                    String key = "key" + ((i * 31 + seed) % 300);
+                    if (i % 7 == 0) {
+                        cache.remove(key);
+                    } else if (i % 3 == 0) {
+                        cache.put(key, key);
+                    } else {
+                        cache.get(key);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assertions.assertTrue(cache.getSize() <= 100, "Cache should stay within limit");
+        // every remaining item can still be evicted
+        cache.setLimit(0);
+        cache.put("last", "last");
+        Assertions.assertEquals(0, cache.getSize(), "All items should be evictable");
+    }
+
     @Test
     public void testExpiration() {
         final String cacheName = "Expiration";
@@ -78,4 +138,145 @@ public class CacheTest {
         Assertions.assertTrue(cache.isTimeToFlush(last + expiration + 10), "Cache lastFlush + expiration + 10 should be cleared for flush");
     }
 
+    @Test
+    public void testWeightedBudget() {
+        final Cache<String> cache = CacheManager.getCache("WeightedBudget");
+        cache.setWeigher((key, value) -> value.length(), 100);
+        Assertions.assertTrue(cache.isWeighted());
+        for (int i = 0; i < 20; i++) {
+            cache.put("test" + i, "0123456789");
+        }
+        Assertions.assertEquals(100, cache.getWeight(), "Cache should be filled up to budget");
+        Assertions.assertEquals(10, cache.getSize());
+        Assertions.assertNull(cache.get("test0"), "Oldest items should be evicted");
+        Assertions.assertNotNull(cache.get("test19"));
+
+        CacheStats stats = cache.getStats();
+        Assertions.assertEquals(10, stats.getEvictionCount());
+        Assertions.assertEquals(1, stats.getHitCount());
+        Assertions.assertEquals(1, stats.getMissCount());
+        Assertions.assertEquals(stats.getEvictionCount(),
+                CacheManager.getCacheStats().get("WeightedBudget").getEvictionCount());
+    }
+
+    @Test
+    public void testWeightedKeepsFrequentlyUsed() {
+        final Cache<String> cache = CacheManager.getCache("WeightedFrequent");
+        cache.setWeigher((key, value) -> value.length(), 100);
+        cache.put("frequent", "0123456789");
+        cache.get("frequent");
+        // a burst of one-off items shouldn't evict the item that has been requested again
+        for (int i = 0; i < 50; i++) {
+            cache.put("oneoff" + i, "0123456789");
+        }
+        Assertions.assertNotNull(cache.get("frequent"));
+    }
+
+    @Test
+    public void testWeightedConcurrentReadsAndWrites() throws Exception {
+        final Cache<String> cache = CacheManager.getCache("WeightedConcurrent");
+        cache.setWeigher((key, value) -> value.length(), 1000);
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            final int seed = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 20000; i++) {
+                    String key = "key" + ((i * 31 + seed) % 300);
+                    if (i % 5 == 0) {
+                        cache.put(key, "0123456789");
+                    } else {
+                        cache.get(key);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assertions.assertTrue(cache.getWeight() <= 1000, "Cache should stay within budget");
+        Assertions.assertEquals(cache.getSize() * 10, cache.getWeight(), "Weight should match the stored items");
+        Assertions.assertEquals(cache.getSize(), cache.getKeys().size());
+    }
+
+    @Test
+    public void testWeightedReplaceIsAtomic() throws Exception {
+        final Cache<String> cache = CacheManager.getCache("WeightedReplace");
+        cache.setWeigher((key, value) -> value.length(), 1000);
+        cache.put("key", "0");
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final AtomicInteger misses = new AtomicInteger();
+        Thread reader = new Thread(() -> {
+            while (!done.get()) {
+                if (cache.get("key") == null) {
+                    misses.incrementAndGet();
+                }
+            }
+        });
+        reader.start();
+        for (int i = 0; i < 20000; i++) {
+            cache.put("key", Integer.toString(i % 10));
+        }
+        done.set(true);
+        reader.join();
+        Assertions.assertEquals(0, misses.get(), "Replaced item should never be missing");
+        Assertions.assertEquals(1, cache.getWeight());
+    }
+
+    @Test
+    public void testWeightedUpdateWeight() {
+        final Cache<StringBuilder> cache = CacheManager.getCache("WeightedUpdateWeight");
+        cache.setWeigher((key, value) -> value.length(), 100);
+        final StringBuilder modified = new StringBuilder("0123456789");
+        cache.put("modified", modified);
+        cache.put("other", new StringBuilder("0123456789"));
+        Assertions.assertEquals(20, cache.getWeight());
+
+        modified.append("0123456789");
+        Assertions.assertFalse(cache.updateWeight("modified"));
+        Assertions.assertEquals(30, cache.getWeight());
+        Assertions.assertSame(modified, cache.get("modified"));
+
+        // grown over the budget -> other items are evicted
+        modified.append("0123456789".repeat(8));
+        Assertions.assertTrue(cache.updateWeight("modified"));
+        Assertions.assertEquals(100, cache.getWeight());
+        Assertions.assertNull(cache.get("other"));
+        Assertions.assertFalse(cache.updateWeight("missing"));
+    }
+
+    @Test
+    public void testWeightedPropertyOverridesBudget() throws Exception {
+        final String cacheName = "WeightedProperty";
+        PropertyUtil.addProperty(Cache.PROPERTY_MAX_BYTES_PREFIX + cacheName, "20");
+        final Cache<String> cache = CacheManager.getCache(cacheName, () -> {
+            Cache<String> c = new Cache<>();
+            c.setWeigher((key, value) -> value.length(), 100);
+            return c;
+        });
+        Assertions.assertEquals(20, cache.getMaxWeight());
+        Assertions.assertTrue(cache.put("test1", "012345678901234567890"), "Too large item isn't stored");
+        Assertions.assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void testWeightedExpiration() throws Exception {
+        final Cache<String> cache = CacheManager.getCache("WeightedExpiration");
+        cache.setWeigher((key, value) -> value.length(), 100);
+        cache.setExpiration(1);
+        cache.put("test", "value");
+        Thread.sleep(5);
+        Assertions.assertNull(cache.get("test"), "Item should have expired");
+        Assertions.assertEquals(0, cache.getWeight());
+    }
+
+    @Test
+    public void testComputeOnceStats() {
+        final ComputeOnceCache<String> cache = CacheManager.getCache("ComputeOnceStats", () -> new ComputeOnceCache<>(10));
+        cache.get("test", key -> "value");
+        cache.get("test", key -> "value");
+        Assertions.assertEquals(1, cache.getStats().getMissCount());
+        Assertions.assertEquals(1, cache.getStats().getHitCount());
+    }
+
 }
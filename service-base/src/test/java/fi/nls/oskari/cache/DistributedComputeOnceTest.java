@@ -0,0 +1,120 @@
+package fi.nls.oskari.cache;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class DistributedComputeOnceTest {
+
+    private DistributedComputeOnce<String> create() {
+        return create(new CountDownLatch(0));
+    }
+
+    /**
+     * @param joined counted down when a request starts waiting for a computation in progress
+     */
+    private DistributedComputeOnce<String> create(CountDownLatch joined) {
+        return new DistributedComputeOnce<>("DistributedComputeOnceTest",
+                s -> s.getBytes(StandardCharsets.UTF_8),
+                b -> new String(b, StandardCharsets.UTF_8)) {
+            @Override
+            protected String waitForInProgress(String key, CompletableFuture<String> computation) {
+                joined.countDown();
+                return super.waitForInProgress(key, computation);
+            }
+        };
+    }
+
+    @Test
+    public void testLocalOnlyWithoutCluster() {
+        Assertions.assertFalse(create().isDistributed(), "Should fall back to local mode without Redis");
+    }
+
+    @Test
+    public void testConcurrentRequestsComputeOnce() throws Exception {
+        CountDownLatch joined = new CountDownLatch(3);
+        DistributedComputeOnce<String> singleFlight = create(joined);
+        AtomicInteger computations = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            results.add(executor.submit(() -> singleFlight.get("key", () -> {
+                computations.incrementAndGet();
+                started.countDown();
+                await(release);
+                return "value";
+            })));
+            started.await(5, TimeUnit.SECONDS);
+            for (int i = 0; i < 3; i++) {
+                results.add(executor.submit(() -> singleFlight.get("key", () -> {
+                    computations.incrementAndGet();
+                    return "other";
+                })));
+            }
+            // complete the computation once the other requests are waiting for it
+            Assertions.assertTrue(joined.await(5, TimeUnit.SECONDS), "Requests should wait for the computation");
+            release.countDown();
+            for (Future<String> result : results) {
+                Assertions.assertEquals("value", result.get(5, TimeUnit.SECONDS));
+            }
+            Assertions.assertEquals(1, computations.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testValueIsPassedOnceBeforeWaitingRequests() throws Exception {
+        CountDownLatch joined = new CountDownLatch(1);
+        DistributedComputeOnce<String> singleFlight = create(joined);
+        List<String> passed = new ArrayList<>();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> first = executor.submit(() -> singleFlight.get("key", () -> {
+                started.countDown();
+                await(release);
+                return "value";
+            }, passed::add));
+            started.await(5, TimeUnit.SECONDS);
+            Future<String> second = executor.submit(() -> singleFlight.get("key", () -> "other", passed::add));
+            Assertions.assertTrue(joined.await(5, TimeUnit.SECONDS), "Request should wait for the computation");
+            release.countDown();
+            Assertions.assertEquals("value", first.get(5, TimeUnit.SECONDS));
+            Assertions.assertEquals("value", second.get(5, TimeUnit.SECONDS));
+            Assertions.assertEquals(List.of("value"), passed);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testErrorIsPropagatedAndNotRemembered() {
+        DistributedComputeOnce<String> singleFlight = create();
+        Assertions.assertThrows(IllegalStateException.class, () -> singleFlight.get("key", () -> {
+            throw new IllegalStateException("fail");
+        }));
+        Assertions.assertEquals("value", singleFlight.get("key", () -> "value"));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package fi.nls.oskari.cache;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.file.Path;
+
+public class TileStoreTest {
+
+    private static final long TTL = 60_000L;
+
+    @TempDir
+    Path tmp;
+
+    @Test
+    public void testFileSystemStore() throws Exception {
+        FileSystemTileStore store = new FileSystemTileStore(tmp, 1024);
+        store.init();
+        Assertions.assertNull(store.get("1", "EPSG_3067/8/1/2"), "Nothing stored yet");
+
+        byte[] tile = new byte[] { 1, 2, 3 };
+        store.put("1", "EPSG:3067/8/1/2", tile, TTL);
+        Assertions.assertArrayEquals(tile, store.get("1", "EPSG:3067/8/1/2"));
+        Assertions.assertEquals(3, store.getSizeBytes());
+
+        try (InputStream in = store.open("1", "EPSG:3067/8/1/2")) {
+            Assertions.assertTrue(in instanceof FileInputStream, "Stored file can be transferred from its channel");
+            Assertions.assertArrayEquals(tile, in.readAllBytes());
+        }
+        Assertions.assertNull(store.open("1", "EPSG:3067/8/1/3"), "Tile not stored");
+
+        // tiles survive restart
+        FileSystemTileStore reopened = new FileSystemTileStore(tmp, 1024);
+        reopened.init();
+        Assertions.assertEquals(3, reopened.getSizeBytes());
+        Assertions.assertArrayEquals(tile, reopened.get("1", "EPSG:3067/8/1/2"));
+
+        store.invalidateLayer("1");
+        Assertions.assertNull(store.get("1", "EPSG:3067/8/1/2"), "Layer invalidated");
+        Assertions.assertEquals(0, store.getSizeBytes());
+    }
+
+    @Test
+    public void testFileSystemStoreExpiration() {
+        FileSystemTileStore store = new FileSystemTileStore(tmp, 1024);
+        store.init();
+        store.put("1", "0/0/0", new byte[] { 1 }, -1000);
+        Assertions.assertNull(store.get("1", "0/0/0"), "Tile should have expired");
+        Assertions.assertEquals(0, store.getSizeBytes());
+    }
+
+    @Test
+    public void testFileSystemStoreBudget() {
+        FileSystemTileStore store = new FileSystemTileStore(tmp, 100);
+        store.init();
+        for (int i = 0; i < 20; i++) {
+            store.put("1", "0/0/" + i, new byte[10], TTL + i * 1000L);
+        }
+        Assertions.assertTrue(store.getSizeBytes() <= 100, "Store should stay within budget");
+        Assertions.assertNull(store.get("1", "0/0/0"), "Tiles expiring first are evicted");
+        Assertions.assertNotNull(store.get("1", "0/0/19"), "Latest tile is kept");
+    }
+
+    @Test
+    public void testFileSystemStorePathEscape() {
+        FileSystemTileStore store = new FileSystemTileStore(tmp.resolve("store"), 1024);
+        store.init();
+        store.put("..", "../../x", new byte[] { 1 }, TTL);
+        Assertions.assertFalse(tmp.resolve("x.tile").toFile().exists(), "Should not write outside root");
+        Assertions.assertNotNull(store.get("..", "../../x"));
+    }
+
+    @Test
+    public void testFileSystemStoreKeysDontCollide() {
+        FileSystemTileStore store = new FileSystemTileStore(tmp, 1024);
+        store.init();
+        String[] keys = { "..", "_", ".", "%", "", "a.b", "a_b", "a:b", "a%3Ab", "\u00e4" };
+        for (int i = 0; i < keys.length; i++) {
+            store.put(keys[i], "0/" + keys[i] + "/0", new byte[] { (byte) i }, TTL);
+        }
+        for (int i = 0; i < keys.length; i++) {
+            Assertions.assertArrayEquals(new byte[] { (byte) i }, store.get(keys[i], "0/" + keys[i] + "/0"), "Tile for: " + keys[i]);
+        }
+        Assertions.assertEquals(keys.length, store.getSizeBytes());
+    }
+
+    @Test
+    public void testFileSystemStoreSizeTracking() {
+        FileSystemTileStore store = new FileSystemTileStore(tmp, 1024);
+        store.init();
+        store.put("1", "0/0/0", new byte[10], TTL);
+        store.put("1", "0/0/0", new byte[20], TTL);
+        store.put("2", "0/0/0", new byte[5], TTL);
+        Assertions.assertEquals(25, store.getSizeBytes(), "Replaced tile should only be counted once");
+        store.invalidateLayer("1");
+        Assertions.assertEquals(5, store.getSizeBytes());
+        store.clear();
+        Assertions.assertEquals(0, store.getSizeBytes());
+    }
+
+    @Test
+    public void testMemoryStoreBudget() {
+        MemoryTileStore store = new MemoryTileStore();
+        store.setMaxBytes(100);
+        for (int i = 0; i < 20; i++) {
+            store.put("1", "0/0/" + i, new byte[10], TTL);
+        }
+        Assertions.assertEquals(100, store.getSizeBytes());
+        Assertions.assertEquals(10, store.getTileCount());
+        Assertions.assertNull(store.get("1", "0/0/0"), "Least recently used tiles are evicted");
+
+        store.put("2", "0/0/0", new byte[10], TTL);
+        store.invalidateLayer("1");
+        Assertions.assertEquals(10, store.getSizeBytes());
+        Assertions.assertNotNull(store.get("2", "0/0/0"));
+    }
+
+    @Test
+    public void testTieredStore() throws Exception {
+        FileSystemTileStore disk = new FileSystemTileStore(tmp, 1024);
+        disk.init();
+        MemoryTileStore memory = new MemoryTileStore();
+        TieredTileStore store = new TieredTileStore(memory, disk);
+
+        byte[] tile = new byte[] { 1, 2, 3 };
+        store.put("1", "0/0/0", tile, TTL);
+        Assertions.assertArrayEquals(tile, memory.get("1", "0/0/0"));
+        Assertions.assertArrayEquals(tile, disk.get("1", "0/0/0"));
+
+        memory.clear();
+        Assertions.assertArrayEquals(tile, store.get("1", "0/0/0"), "Read from disk tier");
+        Assertions.assertArrayEquals(tile, memory.get("1", "0/0/0"), "Tile promoted to memory tier");
+
+        store.invalidateLayer("1");
+        Assertions.assertNull(store.get("1", "0/0/0"));
+        Assertions.assertEquals(0, memory.getSizeBytes());
+        Assertions.assertEquals(0, disk.getSizeBytes());
+    }
+
+    @Test
+    public void testManagerInvalidatesAllStores() {
+        TileStore first = TileStoreManager.getStore("TileStoreTestFirst");
+        TileStore second = TileStoreManager.getStore("TileStoreTestSecond");
+        Assertions.assertTrue(first instanceof MemoryTileStore, "Defaults to memory store");
+        first.put("5", "0/0/0", new byte[] { 1 }, TTL);
+        second.put("5", "0/0/0", new byte[] { 1 }, TTL);
+        second.put("6", "0/0/0", new byte[] { 1 }, TTL);
+
+        TileStoreManager.invalidateLayer(5);
+        Assertions.assertNull(first.get("5", "0/0/0"));
+        Assertions.assertNull(second.get("5", "0/0/0"));
+        Assertions.assertNotNull(second.get("6", "0/0/0"));
+    }
+}
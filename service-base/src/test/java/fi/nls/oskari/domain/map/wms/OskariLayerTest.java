@@ -2,6 +2,7 @@ package fi.nls.oskari.domain.map.wms;
 
 import fi.nls.oskari.domain.map.OskariLayer;
 import fi.nls.oskari.util.PropertyUtil;
+import org.json.JSONObject;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
@@ -83,4 +84,19 @@ public class OskariLayerTest {
         Assertions.assertEquals(proxyUrl, layer.getUrl(true), "Secure url should be '" + proxyUrl + "' if url is '" + url + "'");
 
     }
+
+    @Test
+    public void testParsedCapabilitiesAreKeptPerResultClass() {
+        OskariLayer layer = new OskariLayer();
+        layer.setCapabilities(new JSONObject("{\"foo\":\"bar\"}"));
+        String str = layer.getParsedCapabilities(String.class, json -> json.optString("foo"));
+        Assertions.assertEquals("bar", str);
+        Assertions.assertSame(str, layer.getParsedCapabilities(String.class, json -> "not called"), "Should reuse parsed value");
+
+        Integer length = layer.getParsedCapabilities(Integer.class, json -> json.optString("foo").length());
+        Assertions.assertEquals(3, length, "Another result class should be parsed again");
+
+        layer.setCapabilities(new JSONObject("{\"foo\":\"changed\"}"));
+        Assertions.assertEquals(7, layer.getParsedCapabilities(Integer.class, json -> json.optString("foo").length()));
+    }
 }
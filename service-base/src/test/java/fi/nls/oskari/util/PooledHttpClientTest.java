@@ -0,0 +1,214 @@
+package fi.nls.oskari.util;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.FileNotFoundException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PooledHttpClientTest {
+
+    private HttpServer server;
+    private String url;
+    private final CountDownLatch stalled = new CountDownLatch(1);
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/tile", exchange -> {
+            if ("abc".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+            byte[] body = exchange.getRequestHeaders().getFirst(IOHelper.HEADER_USERAGENT).getBytes();
+            exchange.getResponseHeaders().add("ETag", "abc");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.createContext("/gzip", exchange -> {
+            byte[] body = IOHelper.gzip("compressed".getBytes()).toByteArray();
+            exchange.getResponseHeaders().add("Content-Encoding", IOHelper.ENCODING_GZIP);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.createContext("/redirect", exchange -> {
+            exchange.getResponseHeaders().add("Location", "/gzip");
+            exchange.sendResponseHeaders(302, -1);
+            exchange.close();
+        });
+        server.createContext("/echo", exchange -> {
+            byte[] body = IOHelper.readBytes(exchange.getRequestBody());
+            String auth = exchange.getRequestHeaders().getFirst(IOHelper.HEADER_AUTHORIZATION);
+            exchange.getResponseHeaders().add("X-Method", exchange.getRequestMethod());
+            exchange.getResponseHeaders().add("X-Auth", auth == null ? "" : auth);
+            exchange.sendResponseHeaders(body.length == 0 ? 404 : 200, body.length == 0 ? -1 : body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.createContext("/stall", exchange -> {
+            exchange.sendResponseHeaders(200, 100);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(new byte[10]);
+                out.flush();
+                // rest of the body never arrives
+                stalled.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        // handlers run on their own threads so the stalled response doesn't block the others
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        url = "http://localhost:" + server.getAddress().getPort() + "/tile";
+    }
+
+    @AfterEach
+    public void tearDown() {
+        stalled.countDown();
+        server.stop(0);
+    }
+
+    @Test
+    public void testSend() throws Exception {
+        try (PooledHttpClient.Response response = PooledHttpClient.send(
+                PooledHttpClient.newRequest(url, null, null, 1000).build())) {
+            assertEquals(200, response.getStatusCode());
+            assertEquals("abc", response.getHeader("ETag"));
+            assertNull(response.getHeader("Last-Modified"));
+            assertEquals(1, PooledHttpClient.getActiveRequests(url));
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            PooledHttpClient.transfer(response.getBody(), out);
+            assertEquals(IOHelper.getUserAgent(), out.toString());
+        }
+        assertEquals(0, PooledHttpClient.getActiveRequests(url), "Closing the response should release the slot");
+    }
+
+    @Test
+    public void testConditionalRequest() throws Exception {
+        try (PooledHttpClient.Response response = PooledHttpClient.send(
+                PooledHttpClient.newRequest(url, null, null, 1000).header("If-None-Match", "abc").build())) {
+            assertEquals(304, response.getStatusCode());
+        }
+    }
+
+    @Test
+    public void testCompressedResponse() throws Exception {
+        String gzipUrl = url.replace("/tile", "/gzip");
+        try (PooledHttpClient.Response response = PooledHttpClient.send(
+                PooledHttpClient.newRequest(gzipUrl, null, null, 1000).build())) {
+            assertNull(response.getHeader("Content-Encoding"), "Body is decoded so encoding shouldn't be passed on");
+            assertEquals("compressed", IOHelper.readString(response.getBody()));
+        }
+    }
+
+    @Test
+    public void testGetStringFollowsRedirect() throws Exception {
+        String redirectUrl = url.replace("/tile", "/redirect");
+        long bytesBefore = getBytesRead();
+        assertEquals("compressed", PooledHttpClient.getString(redirectUrl, null, null, Collections.emptyMap(), IOHelper.CHARSET_UTF8));
+        assertTrue(getBytesRead() > bytesBefore, "Bytes read should be counted for the host");
+        assertEquals(0, PooledHttpClient.getActiveRequests(redirectUrl));
+    }
+
+    private long getBytesRead() {
+        PooledHttpClient.HostStats stats = PooledHttpClient.getHostStats().get("http://localhost:" + server.getAddress().getPort());
+        return stats == null ? 0 : stats.getBytesRead();
+    }
+
+    @Test
+    public void testStalledBodyTimesOut() throws Exception {
+        String stallUrl = url.replace("/tile", "/stall");
+        long start = System.currentTimeMillis();
+        try (PooledHttpClient.Response response = PooledHttpClient.send(
+                PooledHttpClient.newRequest(stallUrl, null, null, 500).build())) {
+            assertEquals(200, response.getStatusCode());
+            InputStream body = response.getBody();
+            assertThrows(SocketTimeoutException.class, () -> PooledHttpClient.transfer(body, new ByteArrayOutputStream()));
+        }
+        assertTrue(System.currentTimeMillis() - start < 5000, "Read should time out instead of waiting for the body");
+        assertEquals(0, PooledHttpClient.getActiveRequests(stallUrl));
+    }
+
+    @Test
+    public void testTransferLargerThanBuffer() throws Exception {
+        byte[] data = new byte[PooledHttpClient.BUFFER_SIZE * 3 + 5];
+        Arrays.fill(data, (byte) 7);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(data.length, PooledHttpClient.transfer(new ByteArrayInputStream(data), out));
+        assertArrayEquals(data, out.toByteArray());
+    }
+
+    @Test
+    public void testBasicAuthWithoutPassword() {
+        String auth = PooledHttpClient.newRequest(url, "user", null, 1000).build()
+                .headers().firstValue(IOHelper.HEADER_AUTHORIZATION).orElse(null);
+        assertEquals("Basic " + IOHelper.encode64("user:"), auth);
+    }
+
+    @Test
+    public void testConnectionIsPooled() throws Exception {
+        String gzipUrl = url.replace("/tile", "/redirect");
+        long requestsBefore = getRequestCount();
+        HttpURLConnection conn = IOHelper.getConnection(gzipUrl);
+        assertFalse(conn.getClass() == HttpURLConnection.class);
+        assertEquals(200, conn.getResponseCode());
+        assertTrue(conn.getURL().toString().endsWith("/gzip"), "Redirect should be followed");
+        assertNull(conn.getContentEncoding(), "Body is decoded so encoding shouldn't be passed on");
+        assertEquals("compressed", IOHelper.readString(conn));
+        assertEquals(requestsBefore + 1, getRequestCount(), "Request should be counted for the host");
+        assertEquals(0, PooledHttpClient.getActiveRequests(gzipUrl), "Reading the body should release the slot");
+    }
+
+    @Test
+    public void testConnectionPost() throws Exception {
+        String echoUrl = url.replace("/tile", "/echo");
+        HttpURLConnection conn = IOHelper.getConnection(echoUrl, "user", "pass");
+        IOHelper.writeToConnection(conn, "payload");
+        assertEquals(200, conn.getResponseCode());
+        assertEquals("POST", conn.getHeaderField("X-Method"));
+        assertEquals("Basic " + IOHelper.encode64("user:pass"), conn.getHeaderField("x-auth"));
+        assertEquals("payload", IOHelper.readString(conn.getInputStream()));
+        assertEquals(0, PooledHttpClient.getActiveRequests(echoUrl));
+    }
+
+    @Test
+    public void testConnectionErrorStatus() throws Exception {
+        String echoUrl = url.replace("/tile", "/echo");
+        HttpURLConnection conn = IOHelper.getConnection(echoUrl);
+        assertEquals(404, conn.getResponseCode());
+        assertThrows(FileNotFoundException.class, conn::getInputStream);
+        conn.disconnect();
+        assertEquals(0, PooledHttpClient.getActiveRequests(echoUrl), "Disconnect should release the slot");
+    }
+
+    private long getRequestCount() {
+        PooledHttpClient.HostStats stats = PooledHttpClient.getHostStats().get("http://localhost:" + server.getAddress().getPort());
+        return stats == null ? 0 : stats.getRequestCount();
+    }
+}
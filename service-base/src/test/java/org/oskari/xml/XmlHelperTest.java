@@ -7,6 +7,8 @@ import org.junit.jupiter.api.Test;
 import org.w3c.dom.Element;
 
 import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLStreamReader;
+import java.io.StringReader;
 import java.util.Map;
 import java.util.stream.Collectors;
 
@@ -92,4 +94,29 @@ public class XmlHelperTest {
         Element elem = XmlHelper.parseXML(xml);
         Assertions.assertNotNull(elem, "All good, didn't throw exception");
     }
+
+    @Test
+    public void testStreamedElements() throws Exception {
+        String xml = "<!DOCTYPE WMT_MS_Capabilities SYSTEM \"https://fake.address/WMS_MS_Capabilities.dtd\">" +
+                "<wfs:test xmlns:wfs=\"http://www.opengis.net/wfs\"><skipped><case/></skipped>" +
+                "<wfs:case xmlns:stat=\"http://stat.fi\" name=\"my test\"><wfs:value>testing</wfs:value><!-- comment --></wfs:case></wfs:test>";
+        XMLStreamReader reader = XmlHelper.newXMLInputFactory().createXMLStreamReader(new StringReader(xml));
+        Assertions.assertTrue(XmlHelper.nextChildElement(reader), "Should find the root element");
+        Assertions.assertEquals("test", reader.getLocalName());
+
+        Assertions.assertTrue(XmlHelper.nextChildElement(reader));
+        Assertions.assertEquals("skipped", reader.getLocalName());
+        XmlHelper.skipElement(reader);
+
+        Assertions.assertTrue(XmlHelper.nextChildElement(reader));
+        Element caseElem = XmlHelper.readElement(reader);
+        Assertions.assertEquals("case", XmlHelper.getLocalName(caseElem));
+        Assertions.assertEquals("testing", XmlHelper.getChildValue(caseElem, "value"));
+        Map<String, String> attrs = XmlHelper.getAttributesAsMap(caseElem);
+        Assertions.assertEquals("my test", attrs.get("name"));
+        Assertions.assertEquals("http://stat.fi", attrs.get("stat"), "Namespace declarations should be included like in parseXML()");
+
+        Assertions.assertFalse(XmlHelper.nextChildElement(reader), "Should be at the end of the root element");
+        Assertions.assertEquals("test", reader.getLocalName());
+    }
 }
@@ -11,6 +11,7 @@ import fi.nls.oskari.annotation.Oskari;
 import fi.nls.oskari.domain.map.OskariLayer;
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.map.layer.LayerListCache;
 import fi.nls.oskari.map.layer.OskariLayerService;
 import fi.nls.oskari.map.layer.OskariLayerServiceMybatisImpl;
 import fi.nls.oskari.map.view.ViewService;
@@ -61,17 +62,24 @@ public class UpdateCapabilitiesJob extends ScheduledJob {
                 .collect(Collectors.toList());
 
         List<CapabilitiesUpdateResult> result = CapabilitiesService.updateCapabilities(layersToUpdate, systemCRSs);
-        List<String> updatedLayers = result.stream()
-                .filter(res -> res.getErrorMessage() == null)
+        Set<String> changedLayers = result.stream()
+                .filter(res -> res.getErrorMessage() == null && res.isChanged())
                 .map(l -> l.getLayerId())
-                .collect(Collectors.toList());
+                .collect(Collectors.toSet());
+        Set<String> unchangedLayers = result.stream()
+                .filter(res -> res.getErrorMessage() == null && !res.isChanged())
+                .map(l -> l.getLayerId())
+                .collect(Collectors.toSet());
 
-        for (OskariLayer layer : layersToUpdate) {
-            if (!updatedLayers.contains("" + layer.getId())) {
-                continue;
-            }
-            layerService.update(layer);
-        }
+        Map<Boolean, List<OskariLayer>> layers = layersToUpdate.stream()
+                .filter(layer -> changedLayers.contains("" + layer.getId()) || unchangedLayers.contains("" + layer.getId()))
+                .collect(Collectors.partitioningBy(layer -> changedLayers.contains("" + layer.getId())));
+        layerService.updateCapabilities(layers.get(true), layers.get(false));
+        CapabilitiesService.capabilitiesSaved(layersToUpdate, result);
+        // cached layer listing has the JSON created from the previous capabilities
+        LayerListCache.flushLayers(layers.get(true));
+        LOG.info("UpdateCapabilitiesJob done. Updated:", changedLayers.size(), "unchanged:", unchangedLayers.size(),
+                "failed:", result.size() - changedLayers.size() - unchangedLayers.size());
     }
 
     protected static boolean shouldUpdate(OskariLayer layer) {
@@ -8,20 +8,56 @@ import fi.nls.oskari.service.ServiceUnauthorizedException;
 import fi.nls.oskari.util.IOHelper;
 import fi.nls.oskari.util.PropertyUtil;
 
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HexFormat;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 public abstract class CapabilitiesParser extends OskariComponent {
 
     // timeout capabilities request after 30 seconds (configurable)
     private static final int TIMEOUT_MS = PropertyUtil.getOptional("capabilities.timeout", 30) * 1000;
     private static final Cache<RawCapabilitiesResponse> XML_CACHE = CacheManager.getCache(CapabilitiesParser.class.getName());
+    // larger documents are not cached, they are parsed while they are read from the service
+    private static final int CACHE_MAX_DOCUMENT_BYTES = PropertyUtil.getOptional("capabilities.cache.maxbytes", 5 * 1024 * 1024);
+    // validators of previously fetched documents for conditional requests
+    private static final Map<String, CompletableFuture<Void>> IN_PROGRESS = new ConcurrentHashMap<>();
+    private static final Cache<Validators> VALIDATORS = CacheManager.getCache(CapabilitiesParser.class.getName() + ".validators");
+    // validators of checked documents waiting for the layers to be saved
+    private static final Cache<Validators> PENDING_VALIDATORS = CacheManager.getCache(CapabilitiesParser.class.getName() + ".validators.pending");
     static {
         // 10minutes
         XML_CACHE.setExpiration(10L * 60L * 1000L);
-        // we don't need to have a large cache since the layers from same domain _should_ be queried sequentially/in a row.
-        XML_CACHE.setLimit(10);
+        // layers from the same service are queried in a row, but services can be updated concurrently
+        XML_CACHE.setLimit(PropertyUtil.getOptional("capabilities.cache.size", 32));
+        // the update job runs daily by default so keep the validators for a week
+        VALIDATORS.setExpiration(PropertyUtil.getOptional("capabilities.validators.ttl", 7L * 24L * 60L * 60L) * 1000L);
+        VALIDATORS.setLimit(5000);
+        PENDING_VALIDATORS.setExpiration(24L * 60L * 60L * 1000L);
+        PENDING_VALIDATORS.setLimit(5000);
+    }
+
+    private static class Validators {
+        private final String etag;
+        private final String lastModified;
+        private final String digest;
+
+        private Validators(String etag, String lastModified, String digest) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.digest = digest;
+        }
     }
 
     /**
@@ -33,6 +69,19 @@ public abstract class CapabilitiesParser extends OskariComponent {
      */
     public abstract Map<String, LayerCapabilities> getLayersFromService(ServiceConnectInfo src) throws IOException, ServiceException;
 
+    /**
+     * Returns layer capabilities for the requested layers. Parsers that can stream the capabilities document override
+     * this to skip other layers and stop parsing once the requested layers are found. The base method parses all layers.
+     * @param src connection info to the service
+     * @param layerNames names of the layers to return, null for all layers
+     * @return capabilities for the requested layers that were found, might include other layers as well
+     * @throws IOException
+     * @throws ServiceException
+     */
+    public Map<String, LayerCapabilities> getLayersFromService(ServiceConnectInfo src, Set<String> layerNames) throws IOException, ServiceException {
+        return getLayersFromService(src);
+    }
+
     /**
      * For WMS and WMTS it's more efficient to parse the layers as a group from the same service.
      * For WFS it's more efficient to only parse layers that we are interested in/have saved on the database since
@@ -72,10 +121,96 @@ public abstract class CapabilitiesParser extends OskariComponent {
         if (layer == null || layer.isEmpty()) {
             throw new ServiceException("No layer specified");
         }
-        Map<String, LayerCapabilities> layers = getLayersFromService(src);
+        Map<String, LayerCapabilities> layers = getLayersFromService(src, Collections.singleton(layer));
         return layers.get(layer);
     }
 
+    /**
+     * Checks if the capabilities document of the service has changed since it was previously checked. Uses
+     * conditional GET when the service provides ETag or Last-Modified headers and compares a digest of the document
+     * when it doesn't. A changed document is cached so parsing it doesn't require another request.
+     * Parsers that don't support this always return true.
+     * The document is compared to the one recorded with capabilitiesSaved() so a service is checked against the
+     * capabilities that were actually saved.
+     * @param src connection info to the service
+     * @return false if the document hasn't changed
+     */
+    public boolean isCapabilitiesModified(ServiceConnectInfo src) throws IOException, ServiceException {
+        return true;
+    }
+
+    /**
+     * Called after layers of the service have been updated and saved so the document checked by
+     * isCapabilitiesModified() can be used as the baseline for the next check.
+     * @param src connection info to the service
+     */
+    public void capabilitiesSaved(ServiceConnectInfo src) {
+        // conditional updates not supported by default
+    }
+
+    @FunctionalInterface
+    protected interface ResponseParser<T> {
+        T parse(RawCapabilitiesResponse response) throws IOException, ServiceException;
+    }
+
+    /**
+     * Parses the capabilities while the document is read from the service instead of reading the whole document to
+     * memory first. Uses the cached document if there is one. The document is cached for the next request if it's
+     * smaller than capabilities.cache.maxbytes: the rest of the document is read even if the parser stops early
+     * (like WFS when the requested feature types have been found).
+     * Only one request per document is made at a time, concurrent calls (layers of the same service being updated
+     * in parallel) wait for it and parse the cached document. They only make their own request if the document
+     * couldn't be cached.
+     * @param parser reads the document from RawCapabilitiesResponse.getInputStream()
+     */
+    protected <T> T parseCapabilities(String capabilitiesUrl, String user, String pass, String expectedContentType,
+                                      ResponseParser<T> parser) throws IOException, ServiceException {
+        String cacheKey = capabilitiesUrl + "_" + user;
+        RawCapabilitiesResponse cached = XML_CACHE.get(cacheKey);
+        if (cached != null) {
+            return parser.parse(cached);
+        }
+        CompletableFuture<Void> fetch = new CompletableFuture<>();
+        CompletableFuture<Void> existing = IN_PROGRESS.putIfAbsent(cacheKey, fetch);
+        if (existing != null) {
+            existing.join();
+            cached = XML_CACHE.get(cacheKey);
+            if (cached != null) {
+                return parser.parse(cached);
+            }
+            return fetchAndParse(cacheKey, capabilitiesUrl, user, pass, expectedContentType, parser);
+        }
+        try {
+            // the previous request might have completed after the cache was checked
+            cached = XML_CACHE.get(cacheKey);
+            if (cached != null) {
+                return parser.parse(cached);
+            }
+            return fetchAndParse(cacheKey, capabilitiesUrl, user, pass, expectedContentType, parser);
+        } finally {
+            IN_PROGRESS.remove(cacheKey, fetch);
+            fetch.complete(null);
+        }
+    }
+
+    private <T> T fetchAndParse(String cacheKey, String capabilitiesUrl, String user, String pass, String expectedContentType,
+                                ResponseParser<T> parser) throws IOException, ServiceException {
+        HttpURLConnection conn = connect(capabilitiesUrl, user, pass, expectedContentType, null);
+        try (CachingInputStream in = new CachingInputStream(IOHelper.getResponseStream(conn), CACHE_MAX_DOCUMENT_BYTES)) {
+            RawCapabilitiesResponse response = createResponse(conn);
+            response.setResponse(in, response.getEncoding());
+            T result = parser.parse(response);
+            in.drain();
+            byte[] document = in.getDocument();
+            if (document != null) {
+                RawCapabilitiesResponse complete = createResponse(conn);
+                complete.setResponse(document, complete.getEncoding());
+                XML_CACHE.put(cacheKey, complete);
+            }
+            return result;
+        }
+    }
+
     /**
      * Returns raw capabilities from the service as is.
      * @param capabilitiesUrl full url to the capabilties document
@@ -92,12 +227,72 @@ public abstract class CapabilitiesParser extends OskariComponent {
         if (response != null) {
             return response;
         }
+        HttpURLConnection conn = connect(capabilitiesUrl, user, pass, expectedContentType, null);
+        response = createResponse(conn);
+        response.setResponse(IOHelper.readBytes(conn), response.getEncoding());
+        if (response.getResponse().length <= CACHE_MAX_DOCUMENT_BYTES) {
+            XML_CACHE.put(cacheKey, response);
+        }
+        return response;
+    }
+
+    /**
+     * @see #isCapabilitiesModified(ServiceConnectInfo)
+     */
+    protected boolean fetchIfModified(String capabilitiesUrl, String user, String pass, String expectedContentType) throws IOException, ServiceException {
+        String cacheKey = capabilitiesUrl + "_" + user;
+        Validators previous = VALIDATORS.get(cacheKey);
+        HttpURLConnection conn = connect(capabilitiesUrl, user, pass, expectedContentType, previous);
+        if (conn == null) {
+            return false;
+        }
+        RawCapabilitiesResponse response = createResponse(conn);
+        MessageDigest md = getMessageDigest();
+        // the digest is calculated while reading so only documents small enough for the cache are kept in memory
+        try (CachingInputStream in = new CachingInputStream(
+                new DigestInputStream(IOHelper.getResponseStream(conn), md), CACHE_MAX_DOCUMENT_BYTES)) {
+            in.transferTo(OutputStream.nullOutputStream());
+            byte[] document = in.getDocument();
+            if (document != null) {
+                response.setResponse(document, response.getEncoding());
+                XML_CACHE.put(cacheKey, response);
+            }
+        }
+        String digest = HexFormat.of().formatHex(md.digest());
+        // recorded with validatorsSaved() once the layers have been saved
+        PENDING_VALIDATORS.put(cacheKey, new Validators(response.getEtag(), response.getLastModified(), digest));
+        return previous == null || !digest.equals(previous.digest);
+    }
+
+    /**
+     * Records the validators of the document checked with fetchIfModified() for the next check
+     * @see #capabilitiesSaved(ServiceConnectInfo)
+     */
+    protected void validatorsSaved(String capabilitiesUrl, String user) {
+        String cacheKey = capabilitiesUrl + "_" + user;
+        Validators validators = PENDING_VALIDATORS.remove(cacheKey);
+        if (validators != null) {
+            VALIDATORS.put(cacheKey, validators);
+        }
+    }
+
+    /**
+     * @return the connection or null if the service responded with 304 Not Modified
+     */
+    private HttpURLConnection connect(String capabilitiesUrl, String user, String pass, String expectedContentType, Validators validators) throws IOException, ServiceException {
         HttpURLConnection conn = IOHelper.getConnection(capabilitiesUrl, user, pass);
         IOHelper.addIdentifierHeaders(conn);
-        conn = IOHelper.followRedirect(conn, user, pass, 5);
+        if (validators != null && validators.etag != null) {
+            conn.setRequestProperty("If-None-Match", validators.etag);
+        } else if (validators != null && validators.lastModified != null) {
+            conn.setRequestProperty("If-Modified-Since", validators.lastModified);
+        }
         conn.setReadTimeout(TIMEOUT_MS);
 
         int sc = conn.getResponseCode();
+        if (sc == HttpURLConnection.HTTP_NOT_MODIFIED && validators != null) {
+            return null;
+        }
         if (sc == HttpURLConnection.HTTP_FORBIDDEN || sc == HttpURLConnection.HTTP_UNAUTHORIZED) {
             throw new ServiceUnauthorizedException("Wrong credentials for service on " + capabilitiesUrl);
         }
@@ -110,11 +305,99 @@ public abstract class CapabilitiesParser extends OskariComponent {
         if (contentType != null && expectedContentType != null && contentType.toLowerCase().indexOf(expectedContentType) == -1) {
             throw new ServiceException("Unexpected Content-Type: " + contentType + " from: " + capabilitiesUrl);
         }
-        response = new RawCapabilitiesResponse(conn.getURL().toString());
-        response.setContentType(contentType);
-        String encoding = IOHelper.getCharset(conn);
-        response.setResponse(IOHelper.readBytes(conn), encoding);
-        XML_CACHE.put(cacheKey, response);
+        return conn;
+    }
+
+    /**
+     * @return response with the headers of the connection, the document is not read
+     */
+    private static RawCapabilitiesResponse createResponse(HttpURLConnection conn) {
+        RawCapabilitiesResponse response = new RawCapabilitiesResponse(conn.getURL().toString());
+        response.setContentType(conn.getContentType());
+        response.setEtag(conn.getHeaderField("ETag"));
+        response.setLastModified(conn.getHeaderField("Last-Modified"));
+        response.setResponse((byte[]) null, IOHelper.getCharset(conn));
         return response;
     }
+
+    private static MessageDigest getMessageDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Keeps a copy of the data read through it as long as it's smaller than the limit
+     */
+    static class CachingInputStream extends FilterInputStream {
+        private final int maxBytes;
+        private ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        private boolean eof;
+
+        CachingInputStream(InputStream in, int maxBytes) {
+            super(in);
+            this.maxBytes = maxBytes;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b == -1) {
+                eof = true;
+            } else if (copy != null) {
+                copy.write(b);
+                checkSize();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read == -1) {
+                eof = true;
+            } else if (copy != null) {
+                copy.write(b, off, read);
+                checkSize();
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // skipped bytes are not copied
+            copy = null;
+            return super.skip(n);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void checkSize() {
+            if (copy.size() > maxBytes) {
+                copy = null;
+            }
+        }
+
+        /**
+         * Reads the rest of the stream while it's small enough to be copied
+         */
+        void drain() throws IOException {
+            byte[] buffer = new byte[8192];
+            while (copy != null && !eof) {
+                read(buffer, 0, buffer.length);
+            }
+        }
+
+        /**
+         * @return the data or null if the stream wasn't read to the end or the data was larger than the limit
+         */
+        byte[] getDocument() {
+            return eof && copy != null ? copy.toByteArray() : null;
+        }
+    }
 }
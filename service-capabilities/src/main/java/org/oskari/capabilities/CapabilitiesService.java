@@ -16,8 +16,6 @@ import java.io.IOException;
 import java.util.*;
 import java.util.stream.Collectors;
 
-import static java.util.stream.Collectors.groupingBy;
-
 public class CapabilitiesService {
     private static final Logger LOG = LogFactory.getLogger(CapabilitiesService.class);
     private static final ObjectMapper MAPPER = new ObjectMapper();
@@ -41,6 +39,23 @@ public class CapabilitiesService {
         return parser.getLayersFromService(connectInfo);
     }
 
+    /**
+     * Returns layer capabilities for the requested layers from the service.
+     * @param connectInfo
+     * @param layerNames names of the layers to return, null for all layers
+     * @return capabilities for the requested layers that were found, might include other layers as well
+     * @throws IOException
+     * @throws ServiceException
+     */
+    public static Map<String, LayerCapabilities> getLayersFromService(ServiceConnectInfo connectInfo, Set<String> layerNames) throws IOException, ServiceException {
+        String layerType = connectInfo.getType();
+        CapabilitiesParser parser = getParser(layerType);
+        if (parser == null) {
+            throw new ServiceException("Unrecognized type: " + layerType);
+        }
+        return parser.getLayersFromService(connectInfo, layerNames);
+    }
+
     /**
      * Returns a single layer capabilities from the service.
      * @param connectInfo
@@ -87,63 +102,39 @@ public class CapabilitiesService {
 
     /**
      * Updates capabilities for a collection of layers. This is optimized for mass update so we don't query the same
-     * capabilities for each layer.
+     * capabilities for each layer and services are queried concurrently (see CapabilitiesUpdater for configuration).
+     * Only modifies the objects. Saving the modified layers to database is not done by this method.
      * @param layers
      * @param systemCRSs
      * @return
      */
     public static List<CapabilitiesUpdateResult> updateCapabilities(List<OskariLayer> layers, Set<String> systemCRSs) {
-        List<CapabilitiesUpdateResult> results = new ArrayList<>(layers.size());
-
-        Map<ServiceConnectInfo, List<OskariLayer>> layersByUTV = layers.stream()
-                .filter(layer -> {
-                    boolean hasParser = getParser(layer.getType()) != null;
-                    if (!hasParser) {
-                        results.add(CapabilitiesUpdateResult.err(layer, CapabilitiesUpdateResult.ERR_LAYER_TYPE_UNSUPPORTED + "/" + layer.getType()));
-                    }
-                    return hasParser;
-                })
-                .collect(groupingBy(layer -> ServiceConnectInfo.fromLayer(layer)));
-
-        for (ServiceConnectInfo utv : layersByUTV.keySet()) {
-            List<OskariLayer> layersFromOneService = layersByUTV.get(utv);
-            Map<String, LayerCapabilities> serviceCaps;
-            try {
-                if (getParser(utv.getType()).isPreferSingleLayer()) {
-                    // WFS-layers are faster to update per layer since they make additional requests per featuretype
-                    serviceCaps = new HashMap<>(layersFromOneService.size());
-                    for (OskariLayer layer : layersFromOneService) {
-                        String name = layer.getName();
-                        serviceCaps.put(name, getLayerFromService(utv, name));
-                    }
-                } else {
-                    serviceCaps = getLayersFromService(utv);
-                }
-            } catch (IOException | ServiceException e) {
-                layersFromOneService.stream().forEach(layer -> {
-                    if (e instanceof IOException) {
-                        results.add(CapabilitiesUpdateResult.err(layer, CapabilitiesUpdateResult.ERR_FAILED_TO_FETCH_CAPABILITIES + "/" + utv.getUrl()));
-                    } else {
-                        results.add(CapabilitiesUpdateResult.err(layer, CapabilitiesUpdateResult.ERR_FAILED_TO_PARSE_CAPABILITIES + "/" + e.getMessage()));
-                    }
-                });
-                continue;
-            }
+        return new CapabilitiesUpdater(systemCRSs).update(layers);
+    }
 
-            layersFromOneService.stream().forEach(layer -> {
-                LayerCapabilities capsForSingleLayer = serviceCaps.get(layer.getName());
-                if (capsForSingleLayer == null) {
-                    LOG.warn("Error finding layer with name:", layer.getName(), "from Capabilities for service, url:", utv.getUrl(),
-                            "type:", utv.getType(), "version:", utv.getVersion());
-                    results.add(CapabilitiesUpdateResult.err(layer, CapabilitiesUpdateResult.ERR_LAYER_NOT_FOUND_IN_CAPABILITIES+ "/" + layer.getName() + " from " + utv.getUrl()));
-                    return;
-                }
-                layer.setCapabilities(toJSON(capsForSingleLayer, systemCRSs));
-                layer.setCapabilitiesLastUpdated(new Date());
-                results.add(CapabilitiesUpdateResult.ok(layer));
-            });
+    /**
+     * Lets the parsers record the capabilities documents checked by updateCapabilities(List, Set) so the next update
+     * can skip unchanged services. Call after the updated layers have been saved. Services that had layers with
+     * errors are not recorded so they are parsed again on the next update.
+     * @param layers layers given to updateCapabilities(List, Set)
+     * @param results results of the update
+     */
+    public static void capabilitiesSaved(List<OskariLayer> layers, List<CapabilitiesUpdateResult> results) {
+        Set<String> failed = results.stream()
+                .filter(res -> res.getErrorMessage() != null)
+                .map(CapabilitiesUpdateResult::getLayerId)
+                .collect(Collectors.toSet());
+        Map<ServiceConnectInfo, Boolean> services = new HashMap<>();
+        for (OskariLayer layer : layers) {
+            boolean ok = !failed.contains("" + layer.getId());
+            services.merge(ServiceConnectInfo.fromLayer(layer), ok, Boolean::logicalAnd);
         }
-        return results;
+        services.forEach((service, ok) -> {
+            CapabilitiesParser parser = getParser(service.getType());
+            if (ok && parser != null) {
+                parser.capabilitiesSaved(service);
+            }
+        });
     }
 
     /**
@@ -195,6 +186,25 @@ public class CapabilitiesService {
         }
     }
 
+    /**
+     * Returns the capabilities of the layer (oskari_maplayer.capabilities) as a LayerCapabilities object based on layer type.
+     * The JSON is deserialized once per capabilities JSON and the result is kept with the layer
+     * (and cached with it by OskariLayerService) so this can be used on every request instead of fromJSON().
+     * The returned object is shared and must be treated as read-only.
+     * @param layer
+     * @param <T>
+     * @return parsed capabilities or null if layer is null
+     */
+    public static <T extends LayerCapabilities> T getLayerCapabilities(OskariLayer layer) {
+        if (layer == null) {
+            return null;
+        }
+        String type = layer.getType();
+        LayerCapabilities caps = layer.getParsedCapabilities(LayerCapabilities.class,
+                json -> json == null ? null : fromJSON(json.toString(), type));
+        return (T) caps;
+    }
+
     /**
      * Returns the raw capabilities document for the layer.
      * @param layer
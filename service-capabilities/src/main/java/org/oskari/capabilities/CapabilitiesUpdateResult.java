@@ -8,21 +8,31 @@ public class CapabilitiesUpdateResult {
     protected static final String ERR_FAILED_TO_FETCH_CAPABILITIES = "Failed to get Capabilities data";
     protected static final String ERR_LAYER_NOT_FOUND_IN_CAPABILITIES = "Could not find layer from Capabilities";
     protected static final String ERR_FAILED_TO_PARSE_CAPABILITIES = "Failed to parse Capabilities";
+    protected static final String ERR_SERVICE_TIMEOUT = "Timeout updating Capabilities";
 
     private final String layerId;
     private final String errorMessage;
+    private final boolean changed;
 
-    private CapabilitiesUpdateResult(OskariLayer layer, String errorMessage) {
+    private CapabilitiesUpdateResult(OskariLayer layer, String errorMessage, boolean changed) {
         this.layerId = Integer.toString(layer.getId());
         this.errorMessage = errorMessage;
+        this.changed = changed;
     }
 
     public static CapabilitiesUpdateResult ok(OskariLayer layer) {
-        return new CapabilitiesUpdateResult(layer, null);
+        return new CapabilitiesUpdateResult(layer, null, true);
+    }
+
+    /**
+     * The capabilities document of the service hasn't changed since the previous update so the layer was not parsed.
+     */
+    public static CapabilitiesUpdateResult unchanged(OskariLayer layer) {
+        return new CapabilitiesUpdateResult(layer, null, false);
     }
 
     public static CapabilitiesUpdateResult err(OskariLayer layer, String errorMessage) {
-        return new CapabilitiesUpdateResult(layer, errorMessage);
+        return new CapabilitiesUpdateResult(layer, errorMessage, false);
     }
 
     public String getLayerId() {
@@ -33,4 +43,11 @@ public class CapabilitiesUpdateResult {
         return errorMessage;
     }
 
+    /**
+     * @return true if the capabilities of the layer were updated, false on error or if the capabilities were unchanged
+     */
+    public boolean isChanged() {
+        return changed;
+    }
+
 }
\ No newline at end of file
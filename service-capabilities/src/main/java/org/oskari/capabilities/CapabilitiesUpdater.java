@@ -0,0 +1,327 @@
+package org.oskari.capabilities;
+
+import fi.nls.oskari.domain.map.OskariLayer;
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.service.ServiceException;
+import fi.nls.oskari.util.PropertyUtil;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Updates capabilities for a collection of layers. Services are processed concurrently:
+ * <pre>
+ * # max number of concurrent requests
+ * capabilities.update.threads=8
+ * # max number of concurrent requests to a single host
+ * capabilities.update.maxPerHost=2
+ * # max seconds to spend on a single service counted from its first request, layers not updated by then fail
+ * # with timeout even if the request is still running
+ * capabilities.update.serviceTimeout=300
+ * </pre>
+ * Services that support it are first checked with a conditional GET and layers of unchanged services are reported
+ * with CapabilitiesUpdateResult.unchanged() without parsing the document again. Layers without any capabilities are
+ * always parsed. The check is skipped when the system CRSs have changed since the previous update as they affect
+ * the capabilities JSON.
+ */
+class CapabilitiesUpdater {
+
+    private static final Logger LOG = LogFactory.getLogger(CapabilitiesUpdater.class);
+
+    private static final int THREADS = PropertyUtil.getOptional("capabilities.update.threads", 8);
+    private static final int MAX_PER_HOST = PropertyUtil.getOptional("capabilities.update.maxPerHost", 2);
+
+    private static volatile Set<String> previousSystemCRSs;
+
+    private final Set<String> systemCRSs;
+    private final boolean conditional;
+    private final long serviceTimeoutMs = PropertyUtil.getOptional("capabilities.update.serviceTimeout", 300) * 1000L;
+
+    CapabilitiesUpdater(Set<String> systemCRSs) {
+        this.systemCRSs = systemCRSs;
+        this.conditional = systemCRSs != null && systemCRSs.equals(previousSystemCRSs);
+    }
+
+    List<CapabilitiesUpdateResult> update(List<OskariLayer> layers) {
+        List<CapabilitiesUpdateResult> results = new ArrayList<>(layers.size());
+        // services are started in the order of the layers
+        Map<ServiceConnectInfo, List<OskariLayer>> layersByService = new LinkedHashMap<>();
+        for (OskariLayer layer : layers) {
+            if (CapabilitiesService.getParser(layer.getType()) == null) {
+                results.add(CapabilitiesUpdateResult.err(layer, CapabilitiesUpdateResult.ERR_LAYER_TYPE_UNSUPPORTED + "/" + layer.getType()));
+                continue;
+            }
+            layersByService.computeIfAbsent(ServiceConnectInfo.fromLayer(layer), k -> new ArrayList<>()).add(layer);
+        }
+        if (layersByService.isEmpty()) {
+            return results;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(THREADS, layers.size())));
+        try {
+            Map<String, HostQueue> hosts = new HashMap<>();
+            List<CompletableFuture<List<CapabilitiesUpdateResult>>> services = layersByService.entrySet().stream()
+                    .map(e -> {
+                        HostQueue host = hosts.computeIfAbsent(getHost(e.getKey().getUrl()), k -> new HostQueue(executor));
+                        return updateService(e.getKey(), e.getValue(), host);
+                    })
+                    .collect(Collectors.toList());
+            services.forEach(service -> results.addAll(service.join()));
+        } finally {
+            // requests that timed out are left to finish on their own
+            executor.shutdown();
+        }
+        previousSystemCRSs = systemCRSs;
+        return results;
+    }
+
+    private CompletableFuture<List<CapabilitiesUpdateResult>> updateService(ServiceConnectInfo service, List<OskariLayer> layers, HostQueue host) {
+        CapabilitiesParser parser = CapabilitiesService.getParser(service.getType());
+        // starts when the first request to the service starts so waiting for other services of the host doesn't count
+        AtomicLong deadline = new AtomicLong();
+        return host.submit(() -> isModified(parser, service), deadline)
+                .handle((modified, e) -> {
+                    if (isTimeout(e)) {
+                        return new ServiceUpdate(getTimeouts(service, layers), Collections.emptyList());
+                    }
+                    if (e != null) {
+                        // errors are reported when the layers are updated
+                        LOG.debug("Checking capabilities failed for:", service.getUrl(), "-", getCause(e).getMessage());
+                        return new ServiceUpdate(Collections.emptyList(), layers);
+                    }
+                    return checkModified(service, layers, modified);
+                })
+                .thenCompose(update -> {
+                    if (update.layers.isEmpty()) {
+                        return CompletableFuture.completedFuture(update.results);
+                    }
+                    List<CompletableFuture<List<CapabilitiesUpdateResult>>> tasks;
+                    if (parser.isPreferSingleLayer()) {
+                        // WFS-layers are faster to update per layer since they make additional requests per featuretype
+                        tasks = update.layers.stream()
+                                .map(layer -> updateSingle(service, layer, host, deadline))
+                                .collect(Collectors.toList());
+                    } else {
+                        tasks = Collections.singletonList(updateAll(service, update.layers, host, deadline));
+                    }
+                    return CompletableFuture.allOf(tasks.toArray(new CompletableFuture[0]))
+                            .thenApply(done -> {
+                                List<CapabilitiesUpdateResult> results = new ArrayList<>(update.results);
+                                tasks.forEach(task -> results.addAll(task.join()));
+                                return results;
+                            });
+                })
+                .exceptionally(e -> {
+                    LOG.warn(e, "Unexpected error updating capabilities for:", service.getUrl());
+                    return layers.stream()
+                            .map(layer -> CapabilitiesUpdateResult.err(layer, CapabilitiesUpdateResult.ERR_FAILED_TO_FETCH_CAPABILITIES + "/" + service.getUrl()))
+                            .collect(Collectors.toList());
+                });
+    }
+
+    private boolean isModified(CapabilitiesParser parser, ServiceConnectInfo service) {
+        try {
+            // checked even when the result can't be used to record the validators for the next update
+            return parser.isCapabilitiesModified(service) || !conditional;
+        } catch (IOException | ServiceException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    /**
+     * Reports layers of unchanged services as unchanged
+     */
+    private ServiceUpdate checkModified(ServiceConnectInfo service, List<OskariLayer> layers, boolean modified) {
+        if (modified) {
+            return new ServiceUpdate(Collections.emptyList(), layers);
+        }
+        LOG.debug("Capabilities not modified:", service.getUrl());
+        List<CapabilitiesUpdateResult> results = new ArrayList<>();
+        List<OskariLayer> toUpdate = new ArrayList<>();
+        for (OskariLayer layer : layers) {
+            if (layer.getCapabilities() == null || layer.getCapabilities().length() == 0) {
+                toUpdate.add(layer);
+                continue;
+            }
+            layer.setCapabilitiesLastUpdated(new Date());
+            results.add(CapabilitiesUpdateResult.unchanged(layer));
+        }
+        return new ServiceUpdate(results, toUpdate);
+    }
+
+    private CompletableFuture<List<CapabilitiesUpdateResult>> updateSingle(ServiceConnectInfo service, OskariLayer layer,
+                                                                           HostQueue host, AtomicLong deadline) {
+        // the layer is only modified when the capabilities arrive in time
+        return host.submit(() -> {
+            try {
+                return CapabilitiesService.getLayerFromService(service, layer.getName());
+            } catch (IOException | ServiceException e) {
+                throw new CompletionException(e);
+            }
+        }, deadline).handle((caps, e) -> {
+            if (isTimeout(e)) {
+                return getTimeouts(service, Collections.singletonList(layer));
+            }
+            if (e != null) {
+                return Collections.singletonList(getError(service, layer, getCause(e)));
+            }
+            return Collections.singletonList(setCapabilities(service, layer, caps));
+        });
+    }
+
+    private CompletableFuture<List<CapabilitiesUpdateResult>> updateAll(ServiceConnectInfo service, List<OskariLayer> layers,
+                                                                        HostQueue host, AtomicLong deadline) {
+        Set<String> layerNames = layers.stream().map(OskariLayer::getName).collect(Collectors.toSet());
+        return host.submit(() -> {
+            try {
+                return CapabilitiesService.getLayersFromService(service, layerNames);
+            } catch (IOException | ServiceException e) {
+                throw new CompletionException(e);
+            }
+        }, deadline).handle((serviceCaps, e) -> {
+            if (isTimeout(e)) {
+                return getTimeouts(service, layers);
+            }
+            return layers.stream()
+                    .map(layer -> e != null
+                            ? getError(service, layer, getCause(e))
+                            : setCapabilities(service, layer, serviceCaps.get(layer.getName())))
+                    .collect(Collectors.toList());
+        });
+    }
+
+    private CapabilitiesUpdateResult setCapabilities(ServiceConnectInfo service, OskariLayer layer, LayerCapabilities caps) {
+        if (caps == null) {
+            LOG.warn("Error finding layer with name:", layer.getName(), "from Capabilities for service, url:", service.getUrl(),
+                    "type:", service.getType(), "version:", service.getVersion());
+            return CapabilitiesUpdateResult.err(layer, CapabilitiesUpdateResult.ERR_LAYER_NOT_FOUND_IN_CAPABILITIES + "/" + layer.getName() + " from " + service.getUrl());
+        }
+        layer.setCapabilities(CapabilitiesService.toJSON(caps, systemCRSs));
+        layer.setCapabilitiesLastUpdated(new Date());
+        return CapabilitiesUpdateResult.ok(layer);
+    }
+
+    private static CapabilitiesUpdateResult getError(ServiceConnectInfo service, OskariLayer layer, Throwable e) {
+        if (e instanceof IOException) {
+            return CapabilitiesUpdateResult.err(layer, CapabilitiesUpdateResult.ERR_FAILED_TO_FETCH_CAPABILITIES + "/" + service.getUrl());
+        }
+        if (e instanceof ServiceException) {
+            return CapabilitiesUpdateResult.err(layer, CapabilitiesUpdateResult.ERR_FAILED_TO_PARSE_CAPABILITIES + "/" + e.getMessage());
+        }
+        // unexpected errors are logged by updateService()
+        throw new CompletionException(e);
+    }
+
+    private static List<CapabilitiesUpdateResult> getTimeouts(ServiceConnectInfo service, List<OskariLayer> layers) {
+        LOG.info("Timeout updating capabilities for:", service.getUrl());
+        return layers.stream()
+                .map(layer -> CapabilitiesUpdateResult.err(layer, CapabilitiesUpdateResult.ERR_SERVICE_TIMEOUT + "/" + service.getUrl()))
+                .collect(Collectors.toList());
+    }
+
+    private static boolean isTimeout(Throwable e) {
+        return e != null && getCause(e) instanceof TimeoutException;
+    }
+
+    private static Throwable getCause(Throwable e) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    }
+
+    protected static String getHost(String url) {
+        try {
+            String host = URI.create(url.trim()).getHost();
+            return host == null ? url : host.toLowerCase();
+        } catch (IllegalArgumentException e) {
+            return url;
+        }
+    }
+
+    private static class ServiceUpdate {
+        private final List<CapabilitiesUpdateResult> results;
+        private final List<OskariLayer> layers;
+
+        private ServiceUpdate(List<CapabilitiesUpdateResult> results, List<OskariLayer> layers) {
+            this.results = results;
+            this.layers = layers;
+        }
+    }
+
+    /**
+     * Runs the requests to a single host, at most capabilities.update.maxPerHost at a time. Requests over the limit
+     * are queued instead of taking a thread from the pool so a slow host doesn't hold up requests to other hosts.
+     */
+    private class HostQueue {
+        private final ExecutorService executor;
+        private final Queue<Runnable> queued = new ArrayDeque<>();
+        private int running;
+
+        private HostQueue(ExecutorService executor) {
+            this.executor = executor;
+        }
+
+        /**
+         * The returned future fails with TimeoutException once the service deadline passes, even when the request
+         * is still running. The deadline of the service is set when its first request starts.
+         */
+        <T> CompletableFuture<T> submit(Supplier<T> task, AtomicLong deadline) {
+            CompletableFuture<T> result = new CompletableFuture<>();
+            Runnable run = () -> {
+                try {
+                    long now = System.currentTimeMillis();
+                    deadline.compareAndSet(0, now + serviceTimeoutMs);
+                    long remaining = deadline.get() - now;
+                    if (remaining <= 0) {
+                        result.completeExceptionally(new TimeoutException());
+                        return;
+                    }
+                    result.orTimeout(remaining, TimeUnit.MILLISECONDS);
+                    result.complete(task.get());
+                } catch (Throwable e) {
+                    result.completeExceptionally(e);
+                } finally {
+                    next();
+                }
+            };
+            synchronized (this) {
+                if (running >= MAX_PER_HOST) {
+                    queued.add(run);
+                    return result;
+                }
+                running++;
+            }
+            executor.execute(run);
+            return result;
+        }
+
+        private void next() {
+            Runnable run;
+            synchronized (this) {
+                run = queued.poll();
+                if (run == null) {
+                    running--;
+                    return;
+                }
+            }
+            executor.execute(run);
+        }
+    }
+}
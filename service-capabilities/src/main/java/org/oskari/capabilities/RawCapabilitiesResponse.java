@@ -1,13 +1,22 @@
 package org.oskari.capabilities;
 
+import fi.nls.oskari.service.ServiceRuntimeException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.Serializable;
 
 public class RawCapabilitiesResponse implements Serializable {
 
     private final String url;
     private byte[] response;
+    // response read from the service while it's parsed, see setResponse(InputStream, String)
+    private transient InputStream stream;
     private String encoding;
     private String contentType;
+    private String etag;
+    private String lastModified;
 
     public RawCapabilitiesResponse(String url) {
         this.url = url;
@@ -22,10 +31,34 @@ public class RawCapabilitiesResponse implements Serializable {
         return encoding;
     }
 
+    /**
+     * For a streamed response this reads the rest of the stream to memory. Use getInputStream() for parsing.
+     * @return the whole document
+     */
     public byte[] getResponse() {
+        if (response == null && stream != null) {
+            try {
+                response = stream.readAllBytes();
+                stream = null;
+            } catch (IOException e) {
+                throw new ServiceRuntimeException("Couldn't read capabilities from " + url, e);
+            }
+        }
         return response;
     }
 
+    /**
+     * @return the document as a stream. For a streamed response the stream can only be read once.
+     */
+    public InputStream getInputStream() {
+        if (stream != null) {
+            InputStream in = stream;
+            stream = null;
+            return in;
+        }
+        return response == null ? null : new ByteArrayInputStream(response);
+    }
+
     public String getContentType() {
         return contentType;
     }
@@ -34,8 +67,35 @@ public class RawCapabilitiesResponse implements Serializable {
         this.contentType = contentType;
     }
 
+    public String getEtag() {
+        return etag;
+    }
+
+    public void setEtag(String etag) {
+        this.etag = etag;
+    }
+
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    public void setLastModified(String lastModified) {
+        this.lastModified = lastModified;
+    }
+
     public void setResponse(byte[] resp, String encoding) {
         this.response = resp;
+        this.stream = null;
+        this.encoding = encoding;
+    }
+
+    /**
+     * Response that is parsed while it's read from the service instead of reading the whole document to memory first.
+     * The stream is owned and closed by the caller.
+     */
+    public void setResponse(InputStream stream, String encoding) {
+        this.response = null;
+        this.stream = stream;
         this.encoding = encoding;
     }
 
@@ -10,11 +10,17 @@ import org.oskari.xml.XmlHelper;
 import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
 
 public class CapabilitiesValidator {
     private static final Logger LOG = LogFactory.getLogger(CapabilitiesValidator.class);
+    // enough to find the encoding declaration from the XML prolog
+    private static final int PROLOG_MAX_BYTES = 256;
 
     public static String validateXmlResponse(RawCapabilitiesResponse response)
             throws ServiceException {
@@ -53,6 +59,67 @@ public class CapabilitiesValidator {
         }
     }
 
+    /**
+     * Returns a reader for parsing the response as a stream instead of a String. The character encoding is resolved
+     * like in validateXmlResponse(): XML prolog is favored over the Content-Type header and UTF-8 is used by default.
+     * @param response capabilities response
+     * @return reader positioned at the start of the document
+     */
+    public static XMLStreamReader getXMLStreamReader(RawCapabilitiesResponse response) throws ServiceException {
+        return getXMLStreamReader(response.getInputStream(), response.getEncoding());
+    }
+
+    /**
+     * @param in document, might be read directly from the service
+     * @param encoding from the Content-Type header, used if the XML prolog doesn't declare an encoding
+     * @return reader positioned at the start of the document
+     */
+    public static XMLStreamReader getXMLStreamReader(InputStream in, String encoding) throws ServiceException {
+        try {
+            BufferedInputStream data = new BufferedInputStream(in);
+            // some services respond with whitespace before the prolog which is not allowed
+            skipWhitespace(data);
+            XMLInputFactory xif = XmlHelper.newXMLInputFactory();
+            if (encoding == null || hasEncodingDeclaration(data)) {
+                return xif.createXMLStreamReader(data);
+            }
+            return xif.createXMLStreamReader(data, encoding.toUpperCase());
+        } catch (XMLStreamException | IOException e) {
+            throw new ServiceException("Failed to parse XML from response", e);
+        }
+    }
+
+    private static void skipWhitespace(BufferedInputStream in) throws IOException {
+        while (true) {
+            in.mark(1);
+            int b = in.read();
+            if (b == -1 || !Character.isWhitespace(b)) {
+                in.reset();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Peeks at the start of the document without consuming it
+     * @return true if the document starts with a BOM or with a prolog that declares the encoding
+     */
+    private static boolean hasEncodingDeclaration(BufferedInputStream in) throws IOException {
+        in.mark(PROLOG_MAX_BYTES);
+        byte[] start = in.readNBytes(PROLOG_MAX_BYTES);
+        in.reset();
+        if (start.length >= 2 && ((start[0] & 0xFF) == 0xFE || (start[0] & 0xFF) == 0xFF || (start[0] & 0xFF) == 0xEF)) {
+            // byte order mark, let the parser detect the encoding
+            return true;
+        }
+        String prolog = new String(start, StandardCharsets.ISO_8859_1);
+        if (!prolog.startsWith("<?xml")) {
+            return false;
+        }
+        int end = prolog.indexOf("?>");
+        return end != -1 && prolog.substring(0, end).contains("encoding");
+    }
+
     private static XMLStreamReader getXMLStreamReader(byte[] data) throws XMLStreamException{
         XMLInputFactory xif = XMLInputFactory.newInstance();
         xif.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
@@ -7,9 +7,12 @@ import org.oskari.capabilities.LayerCapabilities;
 import org.oskari.capabilities.RawCapabilitiesResponse;
 import org.oskari.capabilities.ServiceConnectInfo;
 
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 public abstract class OGCCapabilitiesParser extends CapabilitiesParser {
 
@@ -38,17 +41,43 @@ public abstract class OGCCapabilitiesParser extends CapabilitiesParser {
     }
 
     public Map<String, LayerCapabilities> getLayersFromService(ServiceConnectInfo src) throws IOException, ServiceException {
+        return getLayersFromService(src, null);
+    }
+
+    public Map<String, LayerCapabilities> getLayersFromService(ServiceConnectInfo src, Set<String> layerNames) throws IOException, ServiceException {
 
         String capabilitiesUrl = contructCapabilitiesUrl(src.getUrl(), src.getVersion());
-        RawCapabilitiesResponse response = fetchCapabilities(capabilitiesUrl, src.getUser(), src.getPass(), getExpectedContentType(src.getVersion()));
-        String validResponse = validateResponse(response, src.getVersion());
-        Map<String, LayerCapabilities> layers = parseLayers(validResponse, src.getVersion(), src);
-        layers.values().stream().forEach(l -> {
-            l.setUrl(response.getUrl());
-            // parser name == layer type
-            l.setType(getName());
+        return parseCapabilities(capabilitiesUrl, src.getUser(), src.getPass(), getExpectedContentType(src.getVersion()), response -> {
+            Map<String, LayerCapabilities> layers = parseLayers(response, src, layerNames);
+            layers.values().stream().forEach(l -> {
+                l.setUrl(response.getUrl());
+                // parser name == layer type
+                l.setType(getName());
+            });
+            return layers;
         });
-        return layers;
+    }
+
+    public boolean isCapabilitiesModified(ServiceConnectInfo src) throws IOException, ServiceException {
+        if (!isConditionalUpdateSupported(src.getVersion())) {
+            return true;
+        }
+        String capabilitiesUrl = contructCapabilitiesUrl(src.getUrl(), src.getVersion());
+        return fetchIfModified(capabilitiesUrl, src.getUser(), src.getPass(), getExpectedContentType(src.getVersion()));
+    }
+
+    public void capabilitiesSaved(ServiceConnectInfo src) {
+        if (!isConditionalUpdateSupported(src.getVersion())) {
+            return;
+        }
+        validatorsSaved(contructCapabilitiesUrl(src.getUrl(), src.getVersion()), src.getUser());
+    }
+
+    /**
+     * Capabilities of the layers can only be skipped when they are parsed from a single document
+     */
+    protected boolean isConditionalUpdateSupported(String version) {
+        return true;
     }
 
     protected abstract Map<String, LayerCapabilities> parseLayers(String capabilities) throws ServiceException;
@@ -63,6 +92,35 @@ public abstract class OGCCapabilitiesParser extends CapabilitiesParser {
         return parseLayers(capabilities, version);
     }
 
+    /**
+     * Parses layers from the response. By default the response is converted to a String for parseLayers(). Parsers
+     * that can stream the document override this to avoid having the whole document in memory as a String and DOM.
+     * The response might be read from the service while it's parsed (see RawCapabilitiesResponse.getInputStream()).
+     * @param layerNames names of the layers to parse, null for all layers
+     */
+    protected Map<String, LayerCapabilities> parseLayers(RawCapabilitiesResponse response, ServiceConnectInfo src, Set<String> layerNames) throws ServiceException {
+        String validResponse = validateResponse(response, src.getVersion());
+        return parseLayers(validResponse, src.getVersion(), src);
+    }
+
+    protected Map<String, LayerCapabilities> parseStream(RawCapabilitiesResponse response, StreamParser parser) throws ServiceException {
+        XMLStreamReader reader = CapabilitiesValidator.getXMLStreamReader(response);
+        try {
+            return parser.parse(reader);
+        } catch (Exception e) {
+            throw new ServiceException("Unable to parse layers for " + getType() + " capabilities", e);
+        } finally {
+            try {
+                reader.close();
+            } catch (XMLStreamException ignored) {}
+        }
+    }
+
+    @FunctionalInterface
+    protected interface StreamParser {
+        Map<String, LayerCapabilities> parse(XMLStreamReader reader) throws Exception;
+    }
+
     public String contructCapabilitiesUrl(String url, String version) {
         String urlLC = url.toLowerCase();
 
@@ -51,6 +51,11 @@ public class WFSCapabilitiesParser extends OGCCapabilitiesParser {
         return getExpectedContentType();
     }
 
+    // layer capabilities include DescribeFeatureType/collection responses that can change without GetCapabilities changing
+    protected boolean isConditionalUpdateSupported(String version) {
+        return false;
+    }
+
     public Map<String, LayerCapabilities> getLayersFromService(ServiceConnectInfo src) throws IOException, ServiceException {
         if (OGC_API_VERSION.equals(src.getVersion())) {
             try {
@@ -79,13 +84,16 @@ public class WFSCapabilitiesParser extends OGCCapabilitiesParser {
             return collection;
         }
         String capabilitiesUrl = contructCapabilitiesUrl(src.getUrl(), src.getVersion());
-        RawCapabilitiesResponse response = fetchCapabilities(capabilitiesUrl, src.getUser(), src.getPass(), getExpectedContentType(src.getVersion()));
-        String validResponse = validateResponse(response, src.getVersion());
-        LayerCapabilities singleLayer = parseSingleLayer(validResponse, src, featureType);
-        singleLayer.setUrl(response.getUrl());
-        // parser name == layer type
-        singleLayer.setType(getName());
-        return singleLayer;
+        return parseCapabilities(capabilitiesUrl, src.getUser(), src.getPass(), getExpectedContentType(src.getVersion()), response -> {
+            LayerCapabilities singleLayer = parseLayers(response, src, Collections.singleton(featureType)).get(featureType);
+            if (singleLayer == null) {
+                throw new ServiceException("Unable to parse layers for WFS capabilities: Layer not found");
+            }
+            singleLayer.setUrl(response.getUrl());
+            // parser name == layer type
+            singleLayer.setType(getName());
+            return singleLayer;
+        });
     }
 
     public Map<String, LayerCapabilities> parseLayers(String xml) throws ServiceException {
@@ -105,6 +113,18 @@ public class WFSCapabilitiesParser extends OGCCapabilitiesParser {
             throw new ServiceException("Unable to parse layers for WFS capabilities", e);
         }
     }
+    protected Map<String, LayerCapabilities> parseLayers(RawCapabilitiesResponse response, ServiceConnectInfo src, Set<String> featureTypes) throws ServiceException {
+        if (OGC_API_VERSION.equals(src.getVersion())) {
+            return super.parseLayers(response, src, featureTypes);
+        }
+        return parseStream(response, reader -> {
+            List<LayerCapabilitiesWFS> caps = WFSCapsParser.parseCapabilities(reader, featureTypes);
+            // enhance with describe feature type data
+            caps.forEach(c -> enhanceCapabilitiesData(c, src));
+            return listToMap(caps);
+        });
+    }
+
     public Map<String, LayerCapabilities> parseLayers(String response, String version, ServiceConnectInfo src) throws ServiceException {
         try {
             List<LayerCapabilitiesWFS> caps;
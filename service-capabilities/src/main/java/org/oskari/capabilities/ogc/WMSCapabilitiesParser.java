@@ -4,11 +4,14 @@ import fi.nls.oskari.annotation.Oskari;
 import fi.nls.oskari.domain.map.OskariLayer;
 import fi.nls.oskari.service.ServiceException;
 import org.oskari.capabilities.LayerCapabilities;
+import org.oskari.capabilities.RawCapabilitiesResponse;
+import org.oskari.capabilities.ServiceConnectInfo;
 import org.oskari.capabilities.ogc.wms.WMSCapsParser;
 
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 @Oskari(OskariLayer.TYPE_WMS)
 public class WMSCapabilitiesParser extends OGCCapabilitiesParser {
@@ -20,15 +23,22 @@ public class WMSCapabilitiesParser extends OGCCapabilitiesParser {
 
     public Map<String, LayerCapabilities> parseLayers(String xml) throws ServiceException {
         try {
-            List<LayerCapabilitiesWMS> layers = WMSCapsParser.parseCapabilities(xml);
-            Map<String, LayerCapabilities> value = new HashMap<>();
-            addLayers(value, layers, null);
-            return value;
+            return toMap(WMSCapsParser.parseCapabilities(xml));
         } catch (Exception e) {
             throw new ServiceException("Unable to parse layers for WMS capabilities", e);
         }
     }
 
+    protected Map<String, LayerCapabilities> parseLayers(RawCapabilitiesResponse response, ServiceConnectInfo src, Set<String> layerNames) throws ServiceException {
+        return parseStream(response, reader -> toMap(WMSCapsParser.parseCapabilities(reader, layerNames)));
+    }
+
+    private Map<String, LayerCapabilities> toMap(List<LayerCapabilitiesWMS> layers) {
+        Map<String, LayerCapabilities> value = new HashMap<>();
+        addLayers(value, layers, null);
+        return value;
+    }
+
     private void addLayers(Map<String, LayerCapabilities> value, List<LayerCapabilitiesWMS> layers, String parent) {
         if (layers == null) {
             return;
@@ -113,7 +113,6 @@ public class OGCAPIFeaturesService {
         Map<String, String> headers = new HashMap<>();
         headers.put("Accept", "application/json");
         HttpURLConnection conn = IOHelper.getConnection(url, user, pass, null, headers);
-        conn = IOHelper.followRedirect(conn, user, pass, null, headers, 3);
         int sc = conn.getResponseCode();
         if (sc == 200) {
             try (InputStream in = conn.getInputStream()) {
@@ -9,7 +9,6 @@ import java.net.HttpURLConnection;
 public class DescribeFeatureTypeProvider {
     public String getDescribeContent(String url, String user, String pass) throws IOException {
         HttpURLConnection con = IOHelper.getConnection(url, user, pass);
-        con = IOHelper.followRedirect(con, user, pass, 5);
         int sc = con.getResponseCode();
         if (sc != HttpURLConnection.HTTP_OK) {
             String msg = "Unexpected status code: " + sc  + " from: " + url;
@@ -6,6 +6,8 @@ import org.oskari.xml.XmlHelper;
 import org.w3c.dom.Element;
 
 import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -26,7 +28,80 @@ public class WFSCapsParser {
         if (!"WFS_Capabilities".equals(rootEl)) {
             throw new IllegalArgumentException(XmlHelper.generateUnexpectedElementMessage(doc));
         }
-        Element opsMetadata = XmlHelper.getFirstChild(doc, "OperationsMetadata");
+        Set<String> outputFormats = parseOutputFormats(XmlHelper.getFirstChild(doc, "OperationsMetadata"));
+        Element featureTypeList = XmlHelper.getFirstChild(doc, "FeatureTypeList");
+        String version = XmlHelper.getAttributeValue(doc, "version");
+        return parseLayers(featureTypeList, version, outputFormats);
+    }
+
+    /**
+     * Parses the document as a stream so the whole document is never in memory. Feature types are read one at a time.
+     * @param xml capabilities document
+     * @param featureTypes names of the feature types to parse or null for all. Parsing stops when all of them are found.
+     */
+    public static List<LayerCapabilitiesWFS> parseCapabilities(InputStream xml, Set<String> featureTypes)
+            throws IllegalArgumentException, XMLStreamException {
+        XMLStreamReader reader = XmlHelper.newXMLInputFactory().createXMLStreamReader(xml);
+        try {
+            return parseCapabilities(reader, featureTypes);
+        } finally {
+            reader.close();
+        }
+    }
+
+    public static List<LayerCapabilitiesWFS> parseCapabilities(XMLStreamReader reader, Set<String> featureTypes)
+            throws IllegalArgumentException, XMLStreamException {
+        if (!XmlHelper.nextChildElement(reader)) {
+            throw new XMLStreamException("Failed to parse XML");
+        }
+        Element root = XmlHelper.readStartElement(reader);
+        if (!"WFS_Capabilities".equals(XmlHelper.getLocalName(root))) {
+            throw new IllegalArgumentException("Unexpected XML element: '" + XmlHelper.getLocalName(root) + "'");
+        }
+        String version = XmlHelper.getAttributeValue(root, "version");
+        Set<String> remaining = featureTypes == null ? null : new HashSet<>(featureTypes);
+        Set<String> outputFormats = null;
+        List<LayerCapabilitiesWFS> layers = new ArrayList<>();
+        while (XmlHelper.nextChildElement(reader)) {
+            String name = reader.getLocalName();
+            if ("OperationsMetadata".equals(name)) {
+                outputFormats = parseOutputFormats(XmlHelper.readElement(reader));
+            } else if ("FeatureTypeList".equals(name)) {
+                if (outputFormats == null) {
+                    throw new IllegalArgumentException("No OperationsMetadata element");
+                }
+                readFeatureTypes(reader, version, outputFormats, remaining, layers);
+                if (remaining != null && remaining.isEmpty()) {
+                    break;
+                }
+            } else {
+                XmlHelper.skipElement(reader);
+            }
+        }
+        if (outputFormats == null) {
+            throw new IllegalArgumentException("No OperationsMetadata element");
+        }
+        return layers;
+    }
+
+    private static void readFeatureTypes(XMLStreamReader reader, String version, Set<String> outputFormats,
+                                         Set<String> remaining, List<LayerCapabilitiesWFS> layers) throws XMLStreamException {
+        while (XmlHelper.nextChildElement(reader)) {
+            if (!"FeatureType".equals(reader.getLocalName())) {
+                XmlHelper.skipElement(reader);
+                continue;
+            }
+            Element featureType = XmlHelper.readElement(reader);
+            if (remaining == null || remaining.remove(XmlHelper.getChildValue(featureType, "Name"))) {
+                layers.add(parseLayer(featureType, version, outputFormats));
+            }
+            if (remaining != null && remaining.isEmpty()) {
+                return;
+            }
+        }
+    }
+
+    private static Set<String> parseOutputFormats(Element opsMetadata) {
         if (opsMetadata == null) {
             throw new IllegalArgumentException("No OperationsMetadata element");
         }
@@ -47,14 +122,10 @@ public class WFSCapsParser {
             // 1.1.0 has values directly inside outputFormatsParam
             allowedValues = outputFormatsParam;
         }
-        Set<String> outputFormats = XmlHelper.getChildElements(allowedValues, "Value")
+        return XmlHelper.getChildElements(allowedValues, "Value")
                 .map(Element::getTextContent)
                 .sorted()
                 .collect(Collectors.toCollection(LinkedHashSet::new));
-
-        Element featureTypeList = XmlHelper.getFirstChild(doc, "FeatureTypeList");
-        String version = XmlHelper.getAttributeValue(doc, "version");
-        return parseLayers(featureTypeList, version, outputFormats);
     }
 
 
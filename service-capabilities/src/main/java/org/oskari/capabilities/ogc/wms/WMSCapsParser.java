@@ -7,6 +7,8 @@ import org.oskari.xml.XmlHelper;
 import org.w3c.dom.Element;
 
 import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -21,6 +23,35 @@ public class WMSCapsParser {
         return parseCapabilities(doc);
     }
 
+    /**
+     * Parses the document as a stream so the whole document is never in memory. Only 1.3.0 documents are streamed,
+     * 1.1.1 documents are read as DOM.
+     * @param xml capabilities document
+     * @param layerNames names of the layers to parse or null for all layers. Other layers are only kept when they
+     *                   are parents of the requested ones and parsing stops when all the requested layers are found.
+     * @return top level layers
+     */
+    public static List<LayerCapabilitiesWMS> parseCapabilities(InputStream xml, Set<String> layerNames)
+            throws IllegalArgumentException, XMLStreamException {
+        XMLStreamReader reader = XmlHelper.newXMLInputFactory().createXMLStreamReader(xml);
+        try {
+            return parseCapabilities(reader, layerNames);
+        } finally {
+            reader.close();
+        }
+    }
+
+    public static List<LayerCapabilitiesWMS> parseCapabilities(XMLStreamReader reader, Set<String> layerNames)
+            throws IllegalArgumentException, XMLStreamException {
+        if (!XmlHelper.nextChildElement(reader)) {
+            throw new XMLStreamException("Failed to parse XML");
+        }
+        if (WMSCapsParser1_3_0.ROOT_EL.equals(reader.getLocalName())) {
+            return WMSCapsParser1_3_0.parseCapabilities(reader, layerNames);
+        }
+        return parseCapabilities(XmlHelper.readElement(reader));
+    }
+
     public static List<LayerCapabilitiesWMS> parseCapabilities(Element doc)
             throws IllegalArgumentException, XMLStreamException {
         String rootEl = XmlHelper.getLocalName(doc);
@@ -9,6 +9,10 @@ import org.oskari.xml.XmlHelper;
 import org.w3c.dom.Element;
 
 import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -37,6 +41,90 @@ public class WMSCapsParser1_3_0 extends WMSCapsParser {
         return parseLayers(capability, getInfoformats(request));
     }
 
+    /**
+     * @param reader positioned on the root element
+     * @see WMSCapsParser#parseCapabilities(InputStream, Set)
+     */
+    public static List<LayerCapabilitiesWMS> parseCapabilities(XMLStreamReader reader, Set<String> layerNames)
+            throws IllegalArgumentException, XMLStreamException {
+        while (XmlHelper.nextChildElement(reader)) {
+            if ("Capability".equals(reader.getLocalName())) {
+                return parseCapability(reader, layerNames == null ? null : new HashSet<>(layerNames));
+            }
+            XmlHelper.skipElement(reader);
+        }
+        throw new IllegalArgumentException("No Capability element");
+    }
+
+    private static List<LayerCapabilitiesWMS> parseCapability(XMLStreamReader reader, Set<String> remaining)
+            throws XMLStreamException {
+        // Request should be listed before layers, but the same Set is shared by all queryable layers anyway
+        Set<String> infoformats = new HashSet<>();
+        boolean hasRequest = false;
+        List<LayerCapabilitiesWMS> layers = new ArrayList<>();
+        while (XmlHelper.nextChildElement(reader)) {
+            String name = reader.getLocalName();
+            if ("Request".equals(name)) {
+                Element request = XmlHelper.readElement(reader);
+                if (XmlHelper.getFirstChild(request, "GetMap") == null) {
+                    throw new IllegalArgumentException("No GetMap element");
+                }
+                infoformats.addAll(getInfoformats(request));
+                hasRequest = true;
+            } else if ("Layer".equals(name)) {
+                LayerCapabilitiesWMS layer = readLayer(reader, infoformats, remaining);
+                if (layer != null) {
+                    layers.add(layer);
+                }
+                if (isAllFound(remaining)) {
+                    break;
+                }
+            } else {
+                XmlHelper.skipElement(reader);
+            }
+        }
+        if (!hasRequest && !isAllFound(remaining)) {
+            throw new IllegalArgumentException("No Request element");
+        }
+        return layers;
+    }
+
+    /**
+     * Reads the properties of the layer into a DOM element without the child layers so only the layers currently
+     * being read are kept in memory as DOM.
+     * @return null if the layer or any of its children is not in remaining
+     */
+    private static LayerCapabilitiesWMS readLayer(XMLStreamReader reader, Set<String> infoformats, Set<String> remaining)
+            throws XMLStreamException {
+        Element layer = XmlHelper.readStartElement(reader);
+        List<LayerCapabilitiesWMS> children = new ArrayList<>();
+        while (XmlHelper.nextChildElement(reader)) {
+            if (!"Layer".equals(reader.getLocalName())) {
+                XmlHelper.appendElement(reader, layer);
+                continue;
+            }
+            LayerCapabilitiesWMS child = readLayer(reader, infoformats, remaining);
+            if (child != null) {
+                children.add(child);
+            }
+            if (isAllFound(remaining)) {
+                // properties are listed before child layers so the layer is complete enough
+                break;
+            }
+        }
+        LayerCapabilitiesWMS value = parseLayer(layer, infoformats);
+        value.setLayers(children);
+        if (remaining == null) {
+            return value;
+        }
+        boolean requested = value.getName() != null && remaining.remove(value.getName());
+        return requested || !children.isEmpty() ? value : null;
+    }
+
+    private static boolean isAllFound(Set<String> remaining) {
+        return remaining != null && remaining.isEmpty();
+    }
+
     private static List<LayerCapabilitiesWMS> parseLayers(Element parent, Set<String> infoformats) {
         return XmlHelper.getChildElements(parent, "Layer")
                 .map(e -> parseLayer(e, infoformats))
@@ -9,6 +9,8 @@ import org.oskari.xml.XmlHelper;
 import org.w3c.dom.Element;
 
 import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -38,6 +40,68 @@ public class WMTSCapabilitiesParserHelper {
         return new WMTSCapabilities(tileMatrixSets, layers);
     }
 
+    /**
+     * Parses the document as a stream so the whole document is never in memory. Layers are read one at a time and
+     * kept in a compact form until the TileMatrixSets they refer to have been read.
+     * @param xml capabilities document
+     * @param layerNames identifiers of the layers to parse or null for all layers. Parsing stops when all the
+     *                   requested layers and the TileMatrixSets they refer to are found.
+     */
+    public static WMTSCapabilities parseCapabilities(InputStream xml, Set<String> layerNames)
+            throws IllegalArgumentException, XMLStreamException {
+        XMLStreamReader reader = XmlHelper.newXMLInputFactory().createXMLStreamReader(xml);
+        try {
+            return parseCapabilities(reader, layerNames);
+        } finally {
+            reader.close();
+        }
+    }
+
+    public static WMTSCapabilities parseCapabilities(XMLStreamReader reader, Set<String> layerNames)
+            throws IllegalArgumentException, XMLStreamException {
+        if (!XmlHelper.nextChildElement(reader)) {
+            throw new XMLStreamException("Failed to parse XML");
+        }
+        String rootEl = reader.getLocalName();
+        while (XmlHelper.nextChildElement(reader)) {
+            if ("Contents".equals(reader.getLocalName())) {
+                return parseContents(reader, layerNames == null ? null : new HashSet<>(layerNames));
+            }
+            XmlHelper.skipElement(reader);
+        }
+        throw new IllegalArgumentException("Unexpected XML element: '" + rootEl + "' without Contents");
+    }
+
+    private static WMTSCapabilities parseContents(XMLStreamReader reader, Set<String> remaining)
+            throws XMLStreamException {
+        Map<String, TileMatrixSet> tileMatrixSets = new HashMap<>();
+        List<PendingLayer> pending = new ArrayList<>();
+        while (XmlHelper.nextChildElement(reader)) {
+            String name = reader.getLocalName();
+            if ("Layer".equals(name) && (remaining == null || !remaining.isEmpty())) {
+                PendingLayer layer = readLayer(XmlHelper.readElement(reader));
+                if (remaining == null || remaining.remove(layer.identifier)) {
+                    pending.add(layer);
+                }
+            } else if ("TileMatrixSet".equals(name)) {
+                TileMatrixSet tms = parseTileMatrixSet(XmlHelper.readElement(reader));
+                tileMatrixSets.put(tms.getId(), tms);
+            } else {
+                XmlHelper.skipElement(reader);
+            }
+            if (remaining != null && remaining.isEmpty() && pending.stream()
+                    .allMatch(layer -> layer.links.stream().allMatch(link -> tileMatrixSets.containsKey(link.tileMatrixSet)))) {
+                break;
+            }
+        }
+        Map<String, WMTSCapabilitiesLayer> layers = new HashMap<>();
+        pending.forEach(p -> {
+            WMTSCapabilitiesLayer l = p.resolve(tileMatrixSets);
+            layers.put(l.getId(), l);
+        });
+        return new WMTSCapabilities(tileMatrixSets, layers);
+    }
+
     private static Map<String, TileMatrixSet> parseTileMatrixSets(Element contents)
             throws IllegalArgumentException {
         Map<String, TileMatrixSet> tileMatrixSets = new HashMap<>();
@@ -114,21 +178,25 @@ public class WMTSCapabilitiesParserHelper {
 
     private static WMTSCapabilitiesLayer parseLayer(Element layer,
             Map<String, TileMatrixSet> tileMatrixSets) {
-        String identifier = XmlHelper.getChildValue(layer, "Identifier");
-        String title = XmlHelper.getChildValue(layer, "Title");
-        List<LayerStyle> styles = parseStyles(layer);
-        String defaultStyle = styles.stream()
+        return readLayer(layer).resolve(tileMatrixSets);
+    }
+
+    private static PendingLayer readLayer(Element layer) {
+        PendingLayer value = new PendingLayer();
+        value.identifier = XmlHelper.getChildValue(layer, "Identifier");
+        value.title = XmlHelper.getChildValue(layer, "Title");
+        value.styles = parseStyles(layer);
+        value.defaultStyle = value.styles.stream()
                 .filter(LayerStyle::isDefault)
                 .map(LayerStyle::getName)
                 .findFirst()
                 .orElse(null);
         //String defaultStyle = parseDefaultStyle(layer);
-        Set<String> formats = getTexts(layer, "Format");
-        Set<String> infoFormats = getTexts(layer, "InfoFormat");
-        List<ResourceUrl> resourceURLs = parseResourceURLs(layer);
-        List<TileMatrixLink> links = parseLinks(layer, tileMatrixSets);
-        return new WMTSCapabilitiesLayer(identifier, title, styles, defaultStyle,
-                formats, infoFormats, resourceURLs, links);
+        value.formats = getTexts(layer, "Format");
+        value.infoFormats = getTexts(layer, "InfoFormat");
+        value.resourceURLs = parseResourceURLs(layer);
+        value.links = readLinks(layer);
+        return value;
     }
 
     private static List<LayerStyle> parseStyles(Element layer) {
@@ -164,52 +232,66 @@ public class WMTSCapabilitiesParserHelper {
         return resourceURLs;
     }
 
-    private static List<TileMatrixLink> parseLinks(Element capabilitiesLayer,
-            Map<String, TileMatrixSet> tileMatrixSets) {
+    private static List<LinkRef> readLinks(Element capabilitiesLayer) {
+        return XmlHelper.getChildElements(capabilitiesLayer, "TileMatrixSetLink")
+                .map(e -> {
+                    LinkRef link = new LinkRef();
+                    link.tileMatrixSet = XmlHelper.getChildValue(e, "TileMatrixSet");
+                    link.limits = readLimits(XmlHelper.getFirstChild(e, "TileMatrixSetLimits"));
+                    return link;
+                })
+                .collect(Collectors.toList());
+    }
 
-        List<TileMatrixLink> links =  XmlHelper.getChildElements(capabilitiesLayer, "TileMatrixSetLink")
+    private static List<LimitRef> readLimits(Element eTMSLimits) {
+        // <TileMatrixSetLimits> might not exist
+        if (eTMSLimits == null) {
+            return null;
+        }
+        return XmlHelper.getChildElements(eTMSLimits, "TileMatrixLimits")
                 .map(e -> {
-                    String ref = XmlHelper.getChildValue(e, "TileMatrixSet");
-                    TileMatrixSet tms = tileMatrixSets.get(ref);
+                    LimitRef limit = new LimitRef();
+                    limit.tileMatrix = XmlHelper.getChildValue(e, "TileMatrix");
+                    limit.minTileRow = Integer.parseInt(XmlHelper.getChildValue(e, "MinTileRow"));
+                    limit.maxTileRow = Integer.parseInt(XmlHelper.getChildValue(e, "MaxTileRow"));
+                    limit.minTileCol = Integer.parseInt(XmlHelper.getChildValue(e, "MinTileCol"));
+                    limit.maxTileCol = Integer.parseInt(XmlHelper.getChildValue(e, "MaxTileCol"));
+                    return limit;
+                })
+                .collect(Collectors.toList());
+    }
+
+    private static List<TileMatrixLink> resolveLinks(List<LinkRef> refs,
+            Map<String, TileMatrixSet> tileMatrixSets) {
+        return refs.stream()
+                .map(ref -> {
+                    TileMatrixSet tms = tileMatrixSets.get(ref.tileMatrixSet);
                     if (tms == null) {
-                        LOG.warn("Referred TileMatrixSet", ref, "does not appear in this GetCapabilities response");
+                        LOG.warn("Referred TileMatrixSet", ref.tileMatrixSet, "does not appear in this GetCapabilities response");
                         return null;
                     }
-                    Element eTMSLimits = XmlHelper.getFirstChild(e, "TileMatrixSetLimits");
-                    List<TileMatrixLimits> tileMatrixSetLimits = parseLimits(eTMSLimits, tms);
-                    return new TileMatrixLink(tms, tileMatrixSetLimits);
-
+                    return new TileMatrixLink(tms, resolveLimits(ref.limits, tms));
                 })
                 .filter(link -> link != null)
                 .collect(Collectors.toList());
-
-        return links;
     }
 
-    private static List<TileMatrixLimits> parseLimits(Element eTMSLimits, TileMatrixSet tms)
+    private static List<TileMatrixLimits> resolveLimits(List<LimitRef> refs, TileMatrixSet tms)
             throws IllegalArgumentException {
-        // <TileMatrixSetLimits> might not exist
-        if (eTMSLimits == null) {
+        if (refs == null) {
             return null;
         }
-
-        List<TileMatrixLimits> limits =  XmlHelper.getChildElements(eTMSLimits, "TileMatrixLimits")
-                .map(e -> {
-                    String ref = XmlHelper.getChildValue(e, "TileMatrix");
-                    TileMatrix tm = findTileMatrix(tms, ref);
+        return refs.stream()
+                .map(ref -> {
+                    TileMatrix tm = findTileMatrix(tms, ref.tileMatrix);
                     if (tm == null) {
-                        LOG.warn("Referred TileMatrix", ref, "does not appear in specified TileMatrixSet", tms.getId());
+                        LOG.warn("Referred TileMatrix", ref.tileMatrix, "does not appear in specified TileMatrixSet", tms.getId());
                         return null;
                     }
-                    int minTileRow = Integer.parseInt(XmlHelper.getChildValue(e, "MinTileRow"));
-                    int maxTileRow = Integer.parseInt(XmlHelper.getChildValue(e, "MaxTileRow"));
-                    int minTileCol = Integer.parseInt(XmlHelper.getChildValue(e, "MinTileCol"));
-                    int maxTileCol = Integer.parseInt(XmlHelper.getChildValue(e, "MaxTileCol"));
-                    return new TileMatrixLimits(tm, minTileRow, maxTileRow, minTileCol, maxTileCol);
+                    return new TileMatrixLimits(tm, ref.minTileRow, ref.maxTileRow, ref.minTileCol, ref.maxTileCol);
                 })
                 .filter(limit -> limit != null)
                 .collect(Collectors.toList());
-        return limits;
     }
 
     private static TileMatrix findTileMatrix(TileMatrixSet tms, String ref) {
@@ -253,4 +335,33 @@ public class WMTSCapabilitiesParserHelper {
         return null;
     }
 
+    // Layer without resolved references to TileMatrixSets as they are listed after the layers
+    private static class PendingLayer {
+        private String identifier;
+        private String title;
+        private List<LayerStyle> styles;
+        private String defaultStyle;
+        private Set<String> formats;
+        private Set<String> infoFormats;
+        private List<ResourceUrl> resourceURLs;
+        private List<LinkRef> links;
+
+        private WMTSCapabilitiesLayer resolve(Map<String, TileMatrixSet> tileMatrixSets) {
+            return new WMTSCapabilitiesLayer(identifier, title, styles, defaultStyle,
+                    formats, infoFormats, resourceURLs, resolveLinks(links, tileMatrixSets));
+        }
+    }
+
+    private static class LinkRef {
+        private String tileMatrixSet;
+        private List<LimitRef> limits;
+    }
+
+    private static class LimitRef {
+        private String tileMatrix;
+        private int minTileRow;
+        private int maxTileRow;
+        private int minTileCol;
+        private int maxTileCol;
+    }
 }
@@ -0,0 +1,92 @@
+package org.oskari.capabilities;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CapabilitiesParserTest {
+
+    private static final byte[] DOCUMENT = "<Capabilities><Layer/></Capabilities>".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void testDocumentIsCopiedWhenReadCompletely() throws Exception {
+        try (CapabilitiesParser.CachingInputStream in = new CapabilitiesParser.CachingInputStream(
+                new ByteArrayInputStream(DOCUMENT), 1024)) {
+            in.readNBytes(10);
+            Assertions.assertNull(in.getDocument(), "Partially read document should not be cached");
+            in.transferTo(OutputStream.nullOutputStream());
+            Assertions.assertArrayEquals(DOCUMENT, in.getDocument());
+        }
+    }
+
+    @Test
+    public void testLargeDocumentIsNotCopied() throws Exception {
+        try (CapabilitiesParser.CachingInputStream in = new CapabilitiesParser.CachingInputStream(
+                new ByteArrayInputStream(DOCUMENT), DOCUMENT.length - 1)) {
+            Assertions.assertArrayEquals(DOCUMENT, in.readAllBytes(), "Data should be passed through as is");
+            Assertions.assertNull(in.getDocument());
+        }
+    }
+
+    @Test
+    public void testLayersOfServiceAreParsedFromOneRequest() throws Exception {
+        StringBuilder xml = new StringBuilder("<Capabilities>");
+        for (int i = 0; i < 1000; i++) {
+            xml.append("<Layer name=\"layer").append(i).append("\"/>");
+        }
+        byte[] document = xml.append("</Capabilities>").toString().getBytes(StandardCharsets.UTF_8);
+        AtomicInteger requests = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/wfs", exchange -> {
+            requests.incrementAndGet();
+            exchange.getResponseHeaders().add("Content-Type", "text/xml");
+            exchange.sendResponseHeaders(200, document.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(document);
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        String url = "http://localhost:" + server.getAddress().getPort() + "/wfs";
+
+        CapabilitiesParser parser = new CapabilitiesParser() {
+            @Override
+            public Map<String, LayerCapabilities> getLayersFromService(ServiceConnectInfo src) {
+                return null;
+            }
+        };
+        int layers = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(layers);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < layers; i++) {
+                results.add(executor.submit(() -> parser.parseCapabilities(url, null, null, null, response -> {
+                    // stops early like the WFS parser when the feature type has been found
+                    try (InputStream in = response.getInputStream()) {
+                        return new String(in.readNBytes(14), StandardCharsets.UTF_8);
+                    }
+                })));
+            }
+            for (Future<String> result : results) {
+                Assertions.assertEquals("<Capabilities>", result.get());
+            }
+            Assertions.assertEquals(1, requests.get(), "Layers of the same service should share the request");
+        } finally {
+            executor.shutdown();
+            server.stop(0);
+        }
+    }
+}
@@ -2,6 +2,7 @@ package org.oskari.capabilities;
 
 import fi.nls.oskari.domain.map.OskariLayer;
 import fi.nls.test.util.ResourceHelper;
+import org.json.JSONObject;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.oskari.capabilities.ogc.LayerCapabilitiesWFS;
@@ -82,4 +83,21 @@ public class CapabilitiesServiceTest {
         Assertions.assertNotNull(url, "Should have tile url");
         Assertions.assertEquals("https://julkinen.traficom.fi/rasteripalvelu/wmts/rest/Traficom:Merikarttasarja B erikoiskartat/{style}/{TileMatrixSet}/{TileMatrix}/{TileRow}/{TileCol}?format=image/png", url.getTemplate());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testLayerCapabilitiesParsedOncePerVersion()  {
+        OskariLayer layer = new OskariLayer();
+        layer.setType(OskariLayer.TYPE_WMTS);
+        Assertions.assertTrue(CapabilitiesService.<LayerCapabilitiesWMTS>getLayerCapabilities(layer).getTileMatrixLinks().isEmpty());
+
+        layer.setCapabilities(new JSONObject(ResourceHelper.readStringResource("Capabilities_WMTS.json", this)));
+        LayerCapabilitiesWMTS caps = CapabilitiesService.getLayerCapabilities(layer);
+        Assertions.assertEquals(15, caps.getTileMatrixLinks().size());
+        Assertions.assertSame(caps, CapabilitiesService.getLayerCapabilities(layer), "Should reuse parsed capabilities");
+
+        layer.setCapabilities(new JSONObject(ResourceHelper.readStringResource("ogc/WMTSCapabilitiesParserTest-Vayla-expected.json", this)));
+        LayerCapabilitiesWMTS updated = CapabilitiesService.getLayerCapabilities(layer);
+        Assertions.assertNotSame(caps, updated, "New capabilities should be parsed again");
+        Assertions.assertEquals(3, updated.getTileMatrixLinks().size());
+    }
+}
@@ -0,0 +1,243 @@
+package org.oskari.capabilities;
+
+import fi.nls.oskari.domain.map.OskariLayer;
+import fi.nls.oskari.service.OskariComponentManager;
+import org.json.JSONObject;
+import fi.nls.oskari.util.PropertyUtil;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+public class CapabilitiesUpdaterTest {
+
+    private static final String TYPE = "updatertestlayer";
+    private static final TestParser PARSER = new TestParser();
+
+    private static class TestParser extends CapabilitiesParser {
+        private final AtomicInteger running = new AtomicInteger();
+        private final AtomicInteger maxRunning = new AtomicInteger();
+        private final AtomicInteger requests = new AtomicInteger();
+        private volatile boolean modified = true;
+        // replaces the default delay of the request when set
+        private volatile Consumer<ServiceConnectInfo> onRequest;
+        private volatile Consumer<ServiceConnectInfo> onCheck;
+        private final Set<String> saved = ConcurrentHashMap.newKeySet();
+
+        @Override
+        public String getName() {
+            return TYPE;
+        }
+
+        @Override
+        public boolean isCapabilitiesModified(ServiceConnectInfo src) {
+            if (onCheck != null) {
+                onCheck.accept(src);
+            }
+            return modified;
+        }
+
+        @Override
+        public Map<String, LayerCapabilities> getLayersFromService(ServiceConnectInfo src) {
+            requests.incrementAndGet();
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                if (onRequest != null) {
+                    onRequest.accept(src);
+                } else {
+                    Thread.sleep(50);
+                }
+            } catch (InterruptedException ignored) {
+            } finally {
+                running.decrementAndGet();
+            }
+            Map<String, LayerCapabilities> layers = new HashMap<>();
+            layers.put("layer", new LayerCapabilities("layer", src.getUrl()));
+            return layers;
+        }
+
+        @Override
+        public void capabilitiesSaved(ServiceConnectInfo src) {
+            saved.add(src.getUrl());
+        }
+    }
+
+    @BeforeAll
+    public static void setUp() {
+        OskariComponentManager.addComponent(PARSER);
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        OskariComponentManager.removeComponentsOfType(TestParser.class);
+    }
+
+    @AfterEach
+    public void reset() {
+        PARSER.onRequest = null;
+        PARSER.onCheck = null;
+        PARSER.saved.clear();
+        PropertyUtil.clearProperties();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private OskariLayer getLayer(int id, String type, String url, String name) {
+        OskariLayer layer = new OskariLayer();
+        layer.setId(id);
+        layer.setType(type);
+        layer.setUrl(url);
+        layer.setName(name);
+        layer.setVersion("1.0.0");
+        return layer;
+    }
+
+    @Test
+    public void testUpdateConcurrently() {
+        List<OskariLayer> layers = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            layers.add(getLayer(i, TYPE, "https://example.com/service" + i, "layer"));
+        }
+        layers.add(getLayer(10, TYPE, "https://example.com/service0", "missing"));
+        layers.add(getLayer(11, "unknown", "https://example.com/other", "layer"));
+
+        PARSER.maxRunning.set(0);
+        PARSER.requests.set(0);
+        List<CapabilitiesUpdateResult> results = CapabilitiesService.updateCapabilities(layers, Collections.singleton("EPSG:3067"));
+        Assertions.assertEquals(layers.size(), results.size());
+        Assertions.assertEquals(6, PARSER.requests.get(), "Capabilities should be fetched once per service");
+        Assertions.assertTrue(PARSER.maxRunning.get() <= 2, "Should respect the per host limit");
+
+        Map<String, CapabilitiesUpdateResult> byId = new HashMap<>();
+        results.forEach(r -> byId.put(r.getLayerId(), r));
+        Assertions.assertNull(byId.get("0").getErrorMessage());
+        Assertions.assertTrue(byId.get("0").isChanged());
+        Assertions.assertEquals("https://example.com/service0", layers.get(0).getCapabilities().optString("title"));
+        Assertions.assertTrue(byId.get("10").getErrorMessage().startsWith(CapabilitiesUpdateResult.ERR_LAYER_NOT_FOUND_IN_CAPABILITIES));
+        Assertions.assertTrue(byId.get("11").getErrorMessage().startsWith(CapabilitiesUpdateResult.ERR_LAYER_TYPE_UNSUPPORTED));
+    }
+
+    @Test
+    public void testUnchangedServiceIsSkipped() {
+        Set<String> crs = Collections.singleton("EPSG:3857");
+        OskariLayer layer = getLayer(1, TYPE, "https://example.org/unchanged", "layer");
+        OskariLayer noCaps = getLayer(2, TYPE, "https://example.org/unchanged", "layer");
+
+        // first update with these CRSs parses the document
+        PARSER.modified = false;
+        PARSER.requests.set(0);
+        CapabilitiesService.updateCapabilities(Collections.singletonList(layer), crs);
+        Assertions.assertEquals(1, PARSER.requests.get());
+        Assertions.assertTrue(layer.getCapabilities().length() > 0);
+
+        List<OskariLayer> layers = new ArrayList<>();
+        layers.add(layer);
+        layers.add(noCaps);
+        noCaps.setCapabilities(new JSONObject());
+        List<CapabilitiesUpdateResult> results = CapabilitiesService.updateCapabilities(layers, crs);
+        PARSER.modified = true;
+        Assertions.assertEquals(2, PARSER.requests.get(), "Layer without capabilities should be parsed");
+        Map<String, CapabilitiesUpdateResult> byId = new HashMap<>();
+        results.forEach(r -> byId.put(r.getLayerId(), r));
+        Assertions.assertNull(byId.get("1").getErrorMessage());
+        Assertions.assertFalse(byId.get("1").isChanged(), "Unchanged document should not be parsed");
+        Assertions.assertTrue(byId.get("2").isChanged());
+    }
+
+    @Test
+    public void testSlowHostDoesNotBlockOtherHosts() {
+        // more services on the slow host than there are threads, the other host is updated last
+        List<OskariLayer> layers = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            layers.add(getLayer(i, TYPE, "https://slow.example.com/service" + i, "layer"));
+        }
+        layers.add(getLayer(20, TYPE, "https://fast.example.com/service", "layer"));
+
+        CountDownLatch fastStarted = new CountDownLatch(1);
+        AtomicInteger waitedTooLong = new AtomicInteger();
+        PARSER.onCheck = src -> {
+            if (src.getUrl().contains("fast")) {
+                fastStarted.countDown();
+                return;
+            }
+            try {
+                if (!fastStarted.await(1, TimeUnit.SECONDS)) {
+                    waitedTooLong.incrementAndGet();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        List<CapabilitiesUpdateResult> results = CapabilitiesService.updateCapabilities(layers, Collections.singleton("EPSG:3067"));
+        Assertions.assertEquals(layers.size(), results.size());
+        Assertions.assertEquals(0, waitedTooLong.get(), "Request to another host should not wait for the slow host");
+        results.forEach(r -> Assertions.assertNull(r.getErrorMessage()));
+    }
+
+    @Test
+    public void testRunningRequestTimesOut() throws Exception {
+        PropertyUtil.addProperty("capabilities.update.serviceTimeout", "1");
+        OskariLayer slow = getLayer(1, TYPE, "https://example.net/slow", "layer");
+        OskariLayer fast = getLayer(2, TYPE, "https://example.net/fast", "layer");
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch slowDone = new CountDownLatch(1);
+        PARSER.onRequest = src -> {
+            if (src.getUrl().contains("slow")) {
+                await(release);
+                slowDone.countDown();
+            }
+        };
+        List<CapabilitiesUpdateResult> results;
+        try {
+            results = CapabilitiesService.updateCapabilities(Arrays.asList(slow, fast), Collections.singleton("EPSG:3067"));
+        } finally {
+            release.countDown();
+        }
+        Map<String, CapabilitiesUpdateResult> byId = new HashMap<>();
+        results.forEach(r -> byId.put(r.getLayerId(), r));
+        Assertions.assertTrue(byId.get("1").getErrorMessage().startsWith(CapabilitiesUpdateResult.ERR_SERVICE_TIMEOUT));
+        Assertions.assertNull(byId.get("2").getErrorMessage());
+
+        // the request finishing later doesn't modify the layer
+        await(slowDone);
+        Assertions.assertEquals(0, slow.getCapabilities().length());
+    }
+
+    @Test
+    public void testOnlyServicesWithoutErrorsAreSaved() {
+        List<OskariLayer> layers = new ArrayList<>();
+        layers.add(getLayer(1, TYPE, "https://example.com/ok", "layer"));
+        layers.add(getLayer(2, TYPE, "https://example.com/partial", "layer"));
+        layers.add(getLayer(3, TYPE, "https://example.com/partial", "missing"));
+        List<CapabilitiesUpdateResult> results = CapabilitiesService.updateCapabilities(layers, Collections.singleton("EPSG:3067"));
+
+        CapabilitiesService.capabilitiesSaved(layers, results);
+        Assertions.assertEquals(Collections.singleton("https://example.com/ok"), PARSER.saved);
+    }
+
+    @Test
+    public void testGetHost() {
+        Assertions.assertEquals("example.com", CapabilitiesUpdater.getHost("https://Example.com/wms?"));
+        Assertions.assertEquals("not a url", CapabilitiesUpdater.getHost("not a url"));
+    }
+}
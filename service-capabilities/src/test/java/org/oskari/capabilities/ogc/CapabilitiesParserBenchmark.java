@@ -0,0 +1,132 @@
+package org.oskari.capabilities.ogc;
+
+import fi.nls.oskari.domain.map.OskariLayer;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.oskari.capabilities.LayerCapabilities;
+import org.oskari.capabilities.RawCapabilitiesResponse;
+import org.oskari.capabilities.ServiceConnectInfo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Compares parsing a large WMTS capabilities document as DOM (String -> DOM -> layers) to parsing it as a stream.
+ * The document is generated by repeating the layers of the Vayla fixture that has lots of TileMatrixLimits:
+ * copies=100 is roughly 80MB with 4400 layers and 190 000 TileMatrixLimits.
+ *
+ * Not part of the test suite. The main method prints approximate peak heap usage for a single parse and then runs
+ * the benchmarks with the GC profiler (gc.alloc.rate.norm is the allocated bytes per parse). Run from the IDE or with:
+ * <pre>
+ * mvn -pl service-capabilities test-compile exec:java -Dexec.mainClass=org.oskari.capabilities.ogc.CapabilitiesParserBenchmark -Dexec.classpathScope=test
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgs = { "-Xmx4g" })
+public class CapabilitiesParserBenchmark {
+
+    private static final String FIXTURE = "WMTSCapabilitiesParserTest-Vayla-input.xml";
+    private static final String REQUESTED_LAYER = "Traficom:Merikarttasarja A public";
+    private static final ServiceConnectInfo SRC = new ServiceConnectInfo("https://mydomain.org", OskariLayer.TYPE_WMTS, "1.0.0");
+
+    @Param({ "10", "100" })
+    public int copies;
+
+    private RawCapabilitiesResponse response;
+    private final WMTSCapabilitiesParser parser = new WMTSCapabilitiesParser();
+
+    @Setup
+    public void setup() throws IOException {
+        response = createResponse(copies);
+    }
+
+    @Benchmark
+    public Map<String, LayerCapabilities> dom() throws Exception {
+        return parser.parseLayers(CapabilitiesValidator.validateXmlResponse(response));
+    }
+
+    @Benchmark
+    public Map<String, LayerCapabilities> stream() throws Exception {
+        return parser.parseLayers(response, SRC, null);
+    }
+
+    @Benchmark
+    public Map<String, LayerCapabilities> streamSingleLayer() throws Exception {
+        return parser.parseLayers(response, SRC, Collections.singleton(REQUESTED_LAYER));
+    }
+
+    static RawCapabilitiesResponse createResponse(int copies) throws IOException {
+        String xml = new String(StreamingTestHelper.readResponse(FIXTURE, new CapabilitiesParserBenchmark()).getResponse(),
+                StandardCharsets.UTF_8);
+        int start = xml.indexOf("<Layer>", xml.indexOf("<Contents>"));
+        int end = xml.lastIndexOf("</Layer>") + "</Layer>".length();
+        String layers = xml.substring(start, end);
+        ByteArrayOutputStream doc = new ByteArrayOutputStream(xml.length() * copies);
+        doc.write(xml.substring(0, end).getBytes(StandardCharsets.UTF_8));
+        for (int i = 1; i < copies; i++) {
+            doc.write(layers.replace("<ows:Identifier>", "<ows:Identifier>copy" + i + "_").getBytes(StandardCharsets.UTF_8));
+        }
+        doc.write(xml.substring(end).getBytes(StandardCharsets.UTF_8));
+        RawCapabilitiesResponse response = new RawCapabilitiesResponse(SRC.getUrl());
+        response.setResponse(doc.toByteArray(), "UTF-8");
+        return response;
+    }
+
+    /**
+     * Sum of the peak usages of heap memory pools during the parse. Pools peak at different times so this is an
+     * upper bound, but good enough for comparing the approaches.
+     */
+    private static long measurePeakHeap(ParseTask task) throws Exception {
+        List<MemoryPoolMXBean> pools = ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP)
+                .collect(Collectors.toList());
+        System.gc();
+        long before = pools.stream().mapToLong(pool -> pool.getUsage().getUsed()).sum();
+        pools.forEach(MemoryPoolMXBean::resetPeakUsage);
+        Map<String, LayerCapabilities> layers = task.parse();
+        long peak = pools.stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum();
+        System.out.println("  layers: " + layers.size());
+        return peak - before;
+    }
+
+    @FunctionalInterface
+    private interface ParseTask {
+        Map<String, LayerCapabilities> parse() throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        CapabilitiesParserBenchmark benchmark = new CapabilitiesParserBenchmark();
+        benchmark.copies = 100;
+        benchmark.setup();
+        System.out.println("Document size (MB): " + benchmark.response.getResponse().length / (1024 * 1024));
+        List<String> modes = List.of("dom", "stream", "streamSingleLayer");
+        for (String mode : modes) {
+            ParseTask task = "dom".equals(mode) ? benchmark::dom : "stream".equals(mode) ? benchmark::stream : benchmark::streamSingleLayer;
+            // warm up once so class loading doesn't show up in the numbers
+            task.parse();
+            System.out.println(mode + " peak heap (MB): " + measurePeakHeap(task) / (1024 * 1024));
+        }
+
+        Options opt = new OptionsBuilder()
+                .include(CapabilitiesParserBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(opt).run();
+    }
+}
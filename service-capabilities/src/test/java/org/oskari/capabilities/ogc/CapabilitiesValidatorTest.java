@@ -0,0 +1,40 @@
+package org.oskari.capabilities.ogc;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.oskari.xml.XmlHelper;
+
+import javax.xml.stream.XMLStreamReader;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+public class CapabilitiesValidatorTest {
+
+    private static String readRootText(byte[] xml, String encoding) throws Exception {
+        XMLStreamReader reader = CapabilitiesValidator.getXMLStreamReader(new ByteArrayInputStream(xml), encoding);
+        try {
+            Assertions.assertTrue(XmlHelper.nextChildElement(reader));
+            return reader.getElementText();
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testLeadingWhitespaceIsSkipped() throws Exception {
+        byte[] xml = "\n  <?xml version=\"1.0\" encoding=\"UTF-8\"?><root>ä</root>".getBytes(StandardCharsets.UTF_8);
+        Assertions.assertEquals("ä", readRootText(xml, null));
+    }
+
+    @Test
+    public void testPrologEncodingIsFavored() throws Exception {
+        byte[] xml = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><root>ä</root>".getBytes(StandardCharsets.ISO_8859_1);
+        Assertions.assertEquals("ä", readRootText(xml, "utf-8"));
+    }
+
+    @Test
+    public void testContentTypeEncodingIsUsedWithoutDeclaration() throws Exception {
+        byte[] xml = "<root>ä</root>".getBytes(StandardCharsets.ISO_8859_1);
+        Assertions.assertEquals("ä", readRootText(xml, "iso-8859-1"));
+    }
+}
@@ -0,0 +1,39 @@
+package org.oskari.capabilities.ogc;
+
+import fi.nls.oskari.util.JSONHelper;
+import org.junit.jupiter.api.Assertions;
+import org.oskari.capabilities.CapabilitiesService;
+import org.oskari.capabilities.LayerCapabilities;
+import org.oskari.capabilities.RawCapabilitiesResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Helpers for comparing layers parsed as a stream to the ones parsed as DOM
+ */
+class StreamingTestHelper {
+
+    static RawCapabilitiesResponse readResponse(String resource, Object loader) throws IOException {
+        try (InputStream in = loader.getClass().getResourceAsStream(resource)) {
+            Assertions.assertNotNull(in, "Resource should exist: " + resource);
+            RawCapabilitiesResponse response = new RawCapabilitiesResponse("https://mydomain.org");
+            response.setResponse(in.readAllBytes(), "UTF-8");
+            return response;
+        }
+    }
+
+    static void assertSameLayers(Map<String, LayerCapabilities> expected, Map<String, LayerCapabilities> actual,
+                                 Set<String> systemCRS, String msg) {
+        Assertions.assertEquals(expected.keySet(), actual.keySet(), "Should find the same layers: " + msg);
+        expected.forEach((name, layer) -> assertSameLayer(layer, actual.get(name), systemCRS, msg));
+    }
+
+    static void assertSameLayer(LayerCapabilities expected, LayerCapabilities actual, Set<String> systemCRS, String msg) {
+        Assertions.assertNotNull(actual, "Should find layer " + expected.getName() + ": " + msg);
+        Assertions.assertTrue(JSONHelper.isEqual(CapabilitiesService.toJSON(expected, systemCRS),
+                CapabilitiesService.toJSON(actual, systemCRS)), "JSON should match for " + expected.getName() + ": " + msg);
+    }
+}
@@ -14,6 +14,7 @@ import org.oskari.capabilities.ogc.api.OGCAPIFeatureItemsDescriber;
 import org.oskari.capabilities.ogc.wfs.DescribeFeatureTypeProvider;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
@@ -103,6 +104,22 @@ public class WFSCapabilitiesParserTest {
         Assertions.assertTrue(JSONHelper.isEqual(json, expectedJSON), "JSON should match");
     }
 
+
+    @Test
+    public void parseStreamed() throws Exception {
+        for (String version : new String[] { "1.1.0", "2.0.0" }) {
+            String resource = "WFSCapabilitiesParserTest-statfi-" + version.replace('.', '_') + "-input.xml";
+            Map<String, LayerCapabilities> expected = getParser().parseLayers(ResourceHelper.readStringResource(resource, this), version, getConnectInfo(version));
+            Map<String, LayerCapabilities> streamed = getParser().parseLayers(StreamingTestHelper.readResponse(resource, this), getConnectInfo(version), null);
+            StreamingTestHelper.assertSameLayers(expected, streamed, SYSTEM_CRS, version);
+
+            String name = "tilastointialueet:avi4500k";
+            Map<String, LayerCapabilities> single = getParser().parseLayers(StreamingTestHelper.readResponse(resource, this), getConnectInfo(version), Collections.singleton(name));
+            Assertions.assertEquals(1, single.size(), "Should only parse the requested feature type");
+            StreamingTestHelper.assertSameLayer(expected.get(name), single.get(name), SYSTEM_CRS, version);
+        }
+    }
+
     class DescribeFeatureTypeProviderMock extends DescribeFeatureTypeProvider {
         private String content;
 
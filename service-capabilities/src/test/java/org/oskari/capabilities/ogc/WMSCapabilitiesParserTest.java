@@ -1,5 +1,6 @@
 package org.oskari.capabilities.ogc;
 
+import fi.nls.oskari.domain.map.OskariLayer;
 import fi.nls.oskari.util.JSONHelper;
 import fi.nls.test.util.ResourceHelper;
 import org.json.JSONObject;
@@ -8,6 +9,7 @@ import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.oskari.capabilities.CapabilitiesService;
 import org.oskari.capabilities.LayerCapabilities;
+import org.oskari.capabilities.ServiceConnectInfo;
 import org.oskari.capabilities.ogc.wms.WMSCapsParser1_1_1;
 import org.oskari.capabilities.ogc.wms.WMSCapsParser1_3_0;
 
@@ -198,4 +200,34 @@ public class WMSCapabilitiesParserTest {
         // System.out.println(json);
         Assertions.assertTrue(JSONHelper.isEqual(json, JSONHelper.createJSONObject(expected)), "JSON should match");
     }
-}
\ No newline at end of file
+
+    @Test
+    public void parseStreamed() throws Exception {
+        ServiceConnectInfo src = new ServiceConnectInfo("https://mydomain.org", OskariLayer.TYPE_WMS, null);
+        String[] inputs = { "cp_1_3_0", "chloro_1_3_0", "dummy_1_3_0", "lipas_1_3_0", "nba_1_3_0",
+                "weather-wms-t-1.3.0", "capabilities-with-duplicated-layername", "cp_1_1_1", "lmi_1_1_1" };
+        for (String input : inputs) {
+            String resource = "WMSCapabilitiesParserTest-" + input + "-input.xml";
+            Map<String, LayerCapabilities> expected = parser.parseLayers(ResourceHelper.readStringResource(resource, this));
+            Map<String, LayerCapabilities> streamed = parser.parseLayers(StreamingTestHelper.readResponse(resource, this), src, null);
+            StreamingTestHelper.assertSameLayers(expected, streamed, SYSTEM_CRS, input);
+        }
+    }
+
+    @Test
+    public void parseStreamedWithLayerNames() throws Exception {
+        ServiceConnectInfo src = new ServiceConnectInfo("https://mydomain.org", OskariLayer.TYPE_WMS, null);
+        String resource = "WMSCapabilitiesParserTest-lipas_1_3_0-input.xml";
+        Map<String, LayerCapabilities> all = parser.parseLayers(ResourceHelper.readStringResource(resource, this));
+        String name = "lipas_1500_jaaurheilualueet_ja_luonnonjaat";
+
+        Map<String, LayerCapabilities> layers = parser.parseLayers(StreamingTestHelper.readResponse(resource, this), src, Collections.singleton(name));
+        Assertions.assertTrue(layers.size() < all.size(), "Should skip layers that were not requested");
+        StreamingTestHelper.assertSameLayer(all.get(name), layers.get(name), SYSTEM_CRS, name);
+        Assertions.assertEquals(((LayerCapabilitiesWMS) all.get(name)).getParent(), ((LayerCapabilitiesWMS) layers.get(name)).getParent(),
+                "Parent should be kept");
+
+        layers = parser.parseLayers(StreamingTestHelper.readResponse(resource, this), src, Collections.singleton("missing"));
+        Assertions.assertNull(layers.get("missing"));
+    }
+}
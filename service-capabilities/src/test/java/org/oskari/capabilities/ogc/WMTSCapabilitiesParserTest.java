@@ -9,7 +9,9 @@ import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.oskari.capabilities.CapabilitiesService;
 import org.oskari.capabilities.LayerCapabilities;
+import org.oskari.capabilities.ServiceConnectInfo;
 
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
@@ -162,5 +164,29 @@ public class WMTSCapabilitiesParserTest {
         Assertions.assertTrue(JSONHelper.isEqual(json, JSONHelper.createJSONObject(expected)), "JSON should match");
     }
 
+    @Test
+    public void parseStreamed() throws Exception {
+        ServiceConnectInfo src = new ServiceConnectInfo("https://mydomain.org", OskariLayer.TYPE_WMTS, null);
+        WMTSCapabilitiesParser parser = new WMTSCapabilitiesParser();
+        String[] inputs = { "dummy", "nasa", "asdi", "Vayla", "LMI", "NLS", "tampere", "spain" };
+        for (String input : inputs) {
+            String resource = "WMTSCapabilitiesParserTest-" + input + "-input.xml";
+            Map<String, LayerCapabilities> expected = parser.parseLayers(ResourceHelper.readStringResource(resource, this));
+            Map<String, LayerCapabilities> streamed = parser.parseLayers(StreamingTestHelper.readResponse(resource, this), src, null);
+            StreamingTestHelper.assertSameLayers(expected, streamed, SYSTEM_CRS, input);
+        }
+    }
 
-}
\ No newline at end of file
+    @Test
+    public void parseStreamedWithLayerNames() throws Exception {
+        ServiceConnectInfo src = new ServiceConnectInfo("https://mydomain.org", OskariLayer.TYPE_WMTS, null);
+        WMTSCapabilitiesParser parser = new WMTSCapabilitiesParser();
+        String resource = "WMTSCapabilitiesParserTest-nasa-input.xml";
+        Map<String, LayerCapabilities> all = parser.parseLayers(ResourceHelper.readStringResource(resource, this));
+        Set<String> names = new HashSet<>(Arrays.asList("BlueMarble_NextGeneration", "missing"));
+
+        Map<String, LayerCapabilities> layers = parser.parseLayers(StreamingTestHelper.readResponse(resource, this), src, names);
+        Assertions.assertEquals(1, layers.size(), "Should only parse the requested layers");
+        StreamingTestHelper.assertSameLayer(all.get("BlueMarble_NextGeneration"), layers.get("BlueMarble_NextGeneration"), SYSTEM_CRS, resource);
+    }
+}
@@ -0,0 +1,85 @@
+package fi.nls.oskari.util;
+
+import fi.nls.oskari.cache.TileStore;
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Convenience methods for writing gzipped Mapbox vector tiles to the response.
+ */
+public class TileResponseHelper {
+
+    public static final String MVT_CONTENT_TYPE = "application/vnd.mapbox-vector-tile";
+
+    private static final Logger LOG = LogFactory.getLogger(TileResponseHelper.class);
+
+    /**
+     * Adds the headers for a gzipped vector tile. Uses setHeader() so calling this again (f.ex. when a stored tile
+     * couldn't be read and the tile is created instead) doesn't repeat the headers.
+     */
+    public static void addMVTHeaders(HttpServletResponse response) {
+        response.setHeader("Access-Control-Allow-Origin", "*");
+        response.setHeader("Content-Encoding", "gzip");
+    }
+
+    /**
+     * Writes a gzipped vector tile from the store directly to the response if it's available.
+     * The response is only modified when the tile is found. If reading the tile fails before the response is
+     * committed the buffer is cleared (headers set by filters are kept) and false is returned so the caller can
+     * create the tile instead.
+     * Tiles stored as files are transferred with FileChannel.transferTo() so the tile isn't read to a heap buffer
+     * first, other tiles are copied from the stream.
+     * @return true if the response was written, false if the tile needs to be created
+     */
+    public static boolean writeStoredMVT(TileStore store, String layerId, String tileKey, HttpServletResponse response) {
+        try (InputStream tile = store.open(layerId, tileKey)) {
+            if (tile == null) {
+                return false;
+            }
+            addMVTHeaders(response);
+            response.setStatus(200);
+            response.setContentType(MVT_CONTENT_TYPE);
+            OutputStream out = response.getOutputStream();
+            transfer(tile, out);
+            out.close();
+            return true;
+        } catch (IOException e) {
+            LOG.info("Couldn't write stored tile:", e.getMessage());
+            LOG.debug(e);
+            if (response.isCommitted()) {
+                // part of the tile has been sent, nothing else can be written
+                return true;
+            }
+            response.resetBuffer();
+            return false;
+        }
+    }
+
+    private static void transfer(InputStream tile, OutputStream out) throws IOException {
+        if (!(tile instanceof FileInputStream)) {
+            tile.transferTo(out);
+            return;
+        }
+        FileChannel file = ((FileInputStream) tile).getChannel();
+        WritableByteChannel target = Channels.newChannel(out);
+        long position = file.position();
+        long size = file.size();
+        while (position < size) {
+            long transferred = file.transferTo(position, size - position, target);
+            if (transferred <= 0) {
+                throw new EOFException("Tile file ended before expected size " + size);
+            }
+            position += transferred;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package fi.nls.oskari.util;
+
+import fi.nls.oskari.cache.FileSystemTileStore;
+import fi.nls.oskari.cache.MemoryTileStore;
+import fi.nls.oskari.cache.TileStore;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletResponse;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class TileResponseHelperTest {
+
+    private static final String TILE_KEY = "EPSG:3067/8/1/2";
+
+    @TempDir
+    Path tmp;
+
+    private static HttpServletResponse mockResponse(ByteArrayOutputStream out) throws IOException {
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        doReturn(new ServletOutputStream() {
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+            }
+
+            @Override
+            public void write(int b) {
+                out.write(b);
+            }
+        }).when(response).getOutputStream();
+        return response;
+    }
+
+    private static byte[] createTile() {
+        // larger than the buffers used for copying
+        byte[] tile = new byte[100_000];
+        for (int i = 0; i < tile.length; i++) {
+            tile[i] = (byte) i;
+        }
+        return tile;
+    }
+
+    private static void assertWritten(TileStore store, byte[] tile) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HttpServletResponse response = mockResponse(out);
+        Assertions.assertTrue(TileResponseHelper.writeStoredMVT(store, "1", TILE_KEY, response));
+        Assertions.assertArrayEquals(tile, out.toByteArray());
+        verify(response).setContentType(TileResponseHelper.MVT_CONTENT_TYPE);
+        verify(response).setHeader("Content-Encoding", "gzip");
+    }
+
+    @Test
+    public void testFileTileIsWritten() throws Exception {
+        FileSystemTileStore store = new FileSystemTileStore(tmp, 1_000_000);
+        store.init();
+        byte[] tile = createTile();
+        store.put("1", TILE_KEY, tile, 60_000L);
+        assertWritten(store, tile);
+    }
+
+    @Test
+    public void testMemoryTileIsWritten() throws Exception {
+        MemoryTileStore store = new MemoryTileStore();
+        byte[] tile = createTile();
+        store.put("1", TILE_KEY, tile, 60_000L);
+        assertWritten(store, tile);
+    }
+
+    @Test
+    public void testMissingTileIsNotWritten() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HttpServletResponse response = mockResponse(out);
+        Assertions.assertFalse(TileResponseHelper.writeStoredMVT(new MemoryTileStore(), "1", TILE_KEY, response));
+        verify(response, never()).getOutputStream();
+    }
+}
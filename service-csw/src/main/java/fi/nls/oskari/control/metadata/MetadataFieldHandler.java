@@ -125,7 +125,7 @@ public class MetadataFieldHandler {
     private static List<String> getTags(String url) {
         DataInputStream dis = null;
         try {
-            final HttpURLConnection con = IOHelper.followRedirect(IOHelper.getConnection(url), 5);
+            final HttpURLConnection con = IOHelper.getConnection(url);
             dis = new DataInputStream(IOHelper.debugResponse(con.getInputStream()));
             return parseTags(dis);
         } catch (Exception e) {
@@ -136,8 +136,7 @@ public class CSWService {
     protected Node invokeCswGetRecordById(final URL url)
             throws IOException {
 
-        HttpURLConnection con = IOHelper.followRedirect(
-                IOHelper.getConnection(url.toString()), 5);
+        HttpURLConnection con = IOHelper.getConnection(url.toString());
         if (con.getResponseCode() != HttpURLConnection.HTTP_OK) {
             throw new IOException("Couldn't connect to service. Got response code " + con.getResponseCode());
         }
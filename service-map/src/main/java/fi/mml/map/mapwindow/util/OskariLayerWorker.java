@@ -130,13 +130,10 @@ public class OskariLayerWorker {
         long start = System.currentTimeMillis();
         for (OskariLayer layer : filtered) {
             try {
-                final JSONObject layerJson = FORMATTER.getJSON(layer, lang, isSecure, crs);
+                final JSONObject layerJson = getLayerJSON(layer, lang, isSecure, crs);
                 if (layerJson == null) {
                     continue;
                 }
-                // FIXME: formats isn't used by the frontend, but some capabilities parsing uses the layer JSON stuff
-                //  so forcing removal for it here until we can refactor it's usage from internal server code
-                layerJson.remove("formats");
                 final String permissionKey = getPermissionKey(layer);
                 JSONObject permissions = getPermissions(user, permissionKey, permissionSet);
                 JSONHelper.putValue(layerJson, "permissions", permissions);
@@ -154,6 +151,26 @@ public class OskariLayerWorker {
         return result;
     }
 
+    /**
+     * JSON for a single layer without the user specific permissions.
+     *
+     * @param layer    layer to render
+     * @param lang     Language
+     * @param isSecure true to modify urls for easier proxy forwarding/false to keep as is
+     * @param crs      projection for coverage
+     * @return JSON for the layer or null if the layer can't be rendered
+     */
+    public static JSONObject getLayerJSON(final OskariLayer layer, final String lang, final boolean isSecure, final String crs) {
+        final JSONObject layerJson = FORMATTER.getJSON(layer, lang, isSecure, crs);
+        if (layerJson == null) {
+            return null;
+        }
+        // FIXME: formats isn't used by the frontend, but some capabilities parsing uses the layer JSON stuff
+        //  so forcing removal for it here until we can refactor it's usage from internal server code
+        layerJson.remove("formats");
+        return layerJson;
+    }
+
     public static String getPermissionKey(OskariLayer layer) {
         return Integer.toString(layer.getId());
     }
@@ -189,12 +206,21 @@ public class OskariLayerWorker {
      * @param permissionSet        Wrapper containing resources that can be used to check user permissions
      */
     public static JSONObject getPermissions(final User user, final String layerPermissionKey, final PermissionSet permissionSet) {
-        final JSONObject permission = new JSONObject();
         Optional<Resource> res = permissionSet.get(ResourceType.maplayer, layerPermissionKey);
         if (!res.isPresent()) {
-            return permission;
+            return new JSONObject();
         }
-        Resource resource = res.get();
+        return getPermissions(user, res.get());
+    }
+
+    /**
+     * Create permission information for JSON
+     *
+     * @param user     Current user
+     * @param resource Layer permissions
+     */
+    public static JSONObject getPermissions(final User user, final Resource resource) {
+        final JSONObject permission = new JSONObject();
         if (resource.hasPermission(user, PermissionType.PUBLISH)) {
             JSONHelper.putValue(permission, PermissionType.PUBLISH.getJsonKey(), PUBLICATION_PERMISSION_OK);
         }
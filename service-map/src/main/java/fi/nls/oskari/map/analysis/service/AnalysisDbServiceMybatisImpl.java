@@ -8,6 +8,7 @@ import fi.nls.oskari.domain.map.analysis.Analysis;
 import fi.nls.oskari.domain.map.analysis.AnalysisData;
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.map.geometry.FeatureTypeCache;
 import fi.nls.oskari.map.geometry.WKTHelper;
 import fi.nls.oskari.mybatis.MyBatisHelper;
 import fi.nls.oskari.service.ServiceException;
@@ -23,8 +24,8 @@ import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.io.WKBReader;
 import org.geotools.api.feature.simple.SimpleFeature;
-import org.geotools.api.feature.simple.SimpleFeatureType;
 import org.geotools.api.referencing.crs.CoordinateReferenceSystem;
 
 import javax.sql.DataSource;
@@ -36,7 +37,6 @@ import java.util.Map;
 
 import static fi.nls.oskari.map.geometry.ProjectionHelper.getSRID;
 import static fi.nls.oskari.map.geometry.WKTHelper.GEOM_ATTRIBUTE;
-import static fi.nls.oskari.map.geometry.WKTHelper.parseWKT;
 
 @Oskari
 public class AnalysisDbServiceMybatisImpl extends AnalysisDbService {
@@ -45,6 +45,7 @@ public class AnalysisDbServiceMybatisImpl extends AnalysisDbService {
 
     private static final Logger log = LogFactory.getLogger(AnalysisDbServiceMybatisImpl.class);
     private final Cache<Analysis> cache;
+    private final FeatureTypeCache featureTypes = new FeatureTypeCache(this::getFeatureTypeBuilder);
 
     private SqlSessionFactory factory = null;
 
@@ -256,38 +257,28 @@ public class AnalysisDbServiceMybatisImpl extends AnalysisDbService {
             final AnalysisMapper mapper = session.getMapper(AnalysisMapper.class);
             String nativeSrsName = PropertyUtil.get("oskari.native.srs", "EPSG:3857");
             int nativeSrid = getSRID(nativeSrsName);
-            List<AnalysisData> features = mapper.findAllByBBOX(layerId, bbox.getMinX(), bbox.getMinY(), bbox.getMaxX(), bbox.getMaxY(), nativeSrid);
-            return this.toSimpleFeatureCollection(features);
-        } catch (Exception e) {
-            log.warn(e, "Exception when trying to get features by bounding box ", bbox.getMinX(), bbox.getMinY(), bbox.getMaxX(), bbox.getMaxY());
-            throw new ServiceException(e.getMessage());
-        }
-    }
-
-    private SimpleFeatureCollection toSimpleFeatureCollection(List<AnalysisData> features) throws ServiceException {
-        try {
-            if (features == null || features.isEmpty()) {
-                return new EmptyFeatureCollection(null);
-            }
-
             DefaultFeatureCollection collection = new DefaultFeatureCollection();
-            for (AnalysisData feature: features) {
-                if (feature.getWkt() != null) {
-                    collection.add(toSimpleFeature(feature));
-                }
+            // geometries are read as WKB and rows are handled one by one instead of collecting them to a list first
+            WKBReader reader = new WKBReader();
+            mapper.findAllByBBOX(layerId, bbox.getMinX(), bbox.getMinY(), bbox.getMaxX(), bbox.getMaxY(), nativeSrid,
+                    context -> {
+                        Geometry geom = WKTHelper.parseWKB(context.getResultObject().getWkb(), reader);
+                        if (geom != null) {
+                            collection.add(toSimpleFeature(context.getResultObject(), geom));
+                        }
+                    });
+            if (collection.isEmpty()) {
+                return new EmptyFeatureCollection(null);
             }
-
             return collection;
         } catch (Exception e) {
-            throw new ServiceException("Failed to create SimpleFeatureCollection");
+            log.warn(e, "Exception when trying to get features by bounding box ", bbox.getMinX(), bbox.getMinY(), bbox.getMaxX(), bbox.getMaxY());
+            throw new ServiceException(e.getMessage());
         }
     }
 
-    private SimpleFeature toSimpleFeature(AnalysisData feature) {
-        Geometry geom = parseWKT(feature.getWkt());
-        SimpleFeatureTypeBuilder featureTypeBuilder = getFeatureTypeBuilder(geom);
-        SimpleFeatureType simpleFeatureType = featureTypeBuilder.buildFeatureType();
-        SimpleFeatureBuilder featureBuilder = new SimpleFeatureBuilder(simpleFeatureType);
+    private SimpleFeature toSimpleFeature(AnalysisData feature, Geometry geom) {
+        SimpleFeatureBuilder featureBuilder = new SimpleFeatureBuilder(featureTypes.get(geom));
         featureBuilder.set(GEOM_ATTRIBUTE, geom);
 
         featureBuilder.set("id", feature.getId());
@@ -2,9 +2,11 @@ package fi.nls.oskari.map.analysis.service;
 
 import fi.nls.oskari.domain.map.analysis.Analysis;
 import fi.nls.oskari.domain.map.analysis.AnalysisData;
+import org.apache.ibatis.annotations.Options;
 import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.ResultMap;
 import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.session.ResultHandler;
 
 import java.util.HashMap;
 import java.util.List;
@@ -22,6 +24,7 @@ public interface AnalysisMapper {
 
 
     @ResultMap("AnalysisDataResult")
+    @Options(fetchSize = 1000)
     @Select("SELECT " +
             " id, " +
             " analysis_id, " +
@@ -47,7 +50,7 @@ public interface AnalysisMapper {
             " d4, " +
             " created, " +
             " updated, " +
-            " ST_ASTEXT(geometry) as wkt, " +
+            " ST_ASBINARY(geometry) as wkb, " +
             " ST_SRID(geometry) as srid " +
             " FROM analysis_data " +
             " WHERE "+
@@ -56,10 +59,11 @@ public interface AnalysisMapper {
             " ST_INTERSECTS(" +
             "   ST_MAKEENVELOPE(#{minX}, #{minY}, #{maxX}, #{maxY}, #{srid}), " +
         "       geometry)")
-    List<AnalysisData> findAllByBBOX(@Param("analysisId") int analysisId,
-                                     @Param("minX") double minX,
-                                     @Param("minY") double minY,
-                                     @Param("maxX") double maxX,
-                                     @Param("maxY") double maxY,
-                                     @Param("srid") int srid);
+    void findAllByBBOX(@Param("analysisId") int analysisId,
+                       @Param("minX") double minX,
+                       @Param("minY") double minY,
+                       @Param("maxX") double maxX,
+                       @Param("maxY") double maxY,
+                       @Param("srid") int srid,
+                       ResultHandler<AnalysisData> handler);
 }
@@ -29,6 +29,7 @@ public class GFIRequestParams {
     private String currentStyle;
     private String srsName;
     private JSONObject additionalParams;
+    private int readTimeout;
 
     private static final String WMS_GFI_FEATURE_COUNT = PropertyUtil.get("wms.gfi.feature.count", "50");
     private static final Map<String, String> WMS_GFI_BASE_PARAMS = new HashMap<String, String>() {{
@@ -142,6 +143,17 @@ public class GFIRequestParams {
         this.additionalParams = params;
     }
 
+    /**
+     * @return read timeout in milliseconds for the GetFeatureInfo call, 0 to use the default
+     */
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    public void setReadTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
     public String getGFIUrl() {
         return IOHelper.constructUrl(getBaseQueryURL(), getQueryMap());
     }
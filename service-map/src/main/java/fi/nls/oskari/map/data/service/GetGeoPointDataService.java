@@ -1,5 +1,7 @@
 package fi.nls.oskari.map.data.service;
 
+import fi.nls.oskari.cache.Cache;
+import fi.nls.oskari.cache.CacheManager;
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
 import fi.nls.oskari.map.data.domain.GFIRequestParams;
@@ -14,7 +16,9 @@ import org.jsoup.safety.Safelist;
 import org.oskari.util.HtmlDoc;
 import org.w3c.dom.Element;
 
+import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
@@ -46,9 +50,17 @@ public class GetGeoPointDataService {
 
     private static final String CONFIG_KEY_FOR_SANITIZE = "gfi";
 
+    // compiled GFI XSLTs per layer, size can be configured with oskari.cache.limit.fi.nls.oskari.map.data.service.GetGeoPointDataService.xslt
+    private static final String CACHE_NAME_XSLT = GetGeoPointDataService.class.getName() + ".xslt";
+    private static final Cache<CompiledXslt> XSLT_CACHE = CacheManager.getCache(CACHE_NAME_XSLT, () -> {
+        Cache<CompiledXslt> cache = new Cache<>();
+        cache.setLimit(200);
+        return cache;
+    });
+
     public JSONObject getWMSFeatureInfo(final GFIRequestParams params) {
 
-        final String gfiResponse = makeGFIcall(params.getGFIUrl(), params.getLayer().getUsername(), params.getLayer().getPassword());
+        final String gfiResponse = makeGFIcall(params.getGFIUrl(), params.getLayer().getUsername(), params.getLayer().getPassword(), params.getReadTimeout());
         if (gfiResponse == null || gfiResponse.trim().isEmpty()) {
             return null;
         }
@@ -60,7 +72,7 @@ public class GetGeoPointDataService {
         final String xslt = params.getLayer().getGfiXslt();
         JSONObject respObj = null;
         if (xslt != null && !xslt.isEmpty()) {
-            final String transformedResult = transformResponse(xslt, gfiResponse);
+            final String transformedResult = transformResponse(Integer.toString(params.getLayer().getId()), xslt, gfiResponse);
             respObj = JSONHelper.createJSONObject(transformedResult);
             if(respObj != null) {
                 JSONHelper.putValue(response, PRESENTATION_TYPE, PRESENTATION_TYPE_JSON);
@@ -93,7 +105,7 @@ public class GetGeoPointDataService {
 
     public JSONObject getRESTFeatureInfo(final GFIRestQueryParams params) {
 
-        final String gfiResponse = makeGFIcall(params.getGFIUrl(), params.getLayer().getUsername(), params.getLayer().getPassword());
+        final String gfiResponse = makeGFIcall(params.getGFIUrl(), params.getLayer().getUsername(), params.getLayer().getPassword(), params.getReadTimeout());
         if (gfiResponse == null || gfiResponse.trim().isEmpty()) {
             return null;
         }
@@ -132,12 +144,15 @@ public class GetGeoPointDataService {
         return response;
     }
 
-    private String makeGFIcall(final String url, final String user, final String pw) {
+    private String makeGFIcall(final String url, final String user, final String pw, final int readTimeout) {
 
         try {
             log.debug("Calling GFI url:", url);
             HttpURLConnection conn = IOHelper.getConnection(url, user, pw);
             IOHelper.addIdentifierHeaders(conn);
+            if (readTimeout > 0) {
+                conn.setReadTimeout(readTimeout);
+            }
             if (conn.getResponseCode() == HttpURLConnection.HTTP_NOT_FOUND) {
                 log.debug("Nothing found on:", url);
                 return null;
@@ -153,19 +168,29 @@ public class GetGeoPointDataService {
     }
 
     protected String transformResponse(final String xslt, final String response) {
+        return transformResponse(null, xslt, response);
+    }
+
+    /**
+     * Transforms the response with the XSLT
+     * @param layerId compiled XSLT is cached with this key, null to compile the XSLT just for this call
+     * @param xslt
+     * @param response
+     * @return transformed response or sanitized response if the transform fails
+     */
+    protected String transformResponse(final String layerId, final String xslt, final String response) {
         if (xslt == null || xslt.trim().isEmpty()) {
             // if xslt not defined, return response as is
             return Jsoup.clean(response, Safelist.relaxed());
         }
 
-        try (InputStream responseStream = new ByteArrayInputStream(response.getBytes(StandardCharsets.UTF_8));
-             InputStream xsltInStream = new ByteArrayInputStream(xslt.getBytes(StandardCharsets.UTF_8))) {
+        try (InputStream responseStream = new ByteArrayInputStream(response.getBytes(StandardCharsets.UTF_8))) {
             // Use StreamSource so the params implementing classes are what the transformer expects
             // Otherwise we might get an error like this:
             //   class com.sun.org.apache.xerces.internal.dom.DeferredElementImpl cannot be cast to class org.w3c.dom.Document
             String transformedResponse = getFormattedJSONString(
                     new StreamSource(responseStream),
-                    new StreamSource(xsltInStream));
+                    getTemplates(layerId, xslt));
             if (!transformedResponse.isEmpty()) {
                 return transformedResponse;
             }
@@ -178,9 +203,35 @@ public class GetGeoPointDataService {
         return Jsoup.clean(response, Safelist.relaxed());
     }
 
+    /**
+     * Returns the compiled XSLT for the layer. The XSLT is compiled again if the layer's XSLT has changed.
+     * Templates are thread-safe so the same instance is shared by concurrent requests.
+     */
+    protected static Templates getTemplates(final String layerId, final String xslt) throws TransformerConfigurationException {
+        if (layerId == null) {
+            return compile(xslt);
+        }
+        final CompiledXslt cached = XSLT_CACHE.get(layerId);
+        if (cached != null && cached.xslt.equals(xslt)) {
+            return cached.templates;
+        }
+        final Templates templates = compile(xslt);
+        XSLT_CACHE.put(layerId, new CompiledXslt(xslt, templates));
+        return templates;
+    }
+
+    private static Templates compile(final String xslt) throws TransformerConfigurationException {
+        final TransformerFactory transformerFactory = XmlHelper.newTransformerFactory();
+        return transformerFactory.newTemplates(new StreamSource(new ByteArrayInputStream(xslt.getBytes(StandardCharsets.UTF_8))));
+    }
+
     public static String getFormattedJSONString(StreamSource docSource, StreamSource styleSource) throws TransformerException {
         final TransformerFactory transformerFactory = XmlHelper.newTransformerFactory();
-        final Transformer transformer = transformerFactory.newTransformer(styleSource);
+        return getFormattedJSONString(docSource, transformerFactory.newTemplates(styleSource));
+    }
+
+    public static String getFormattedJSONString(StreamSource docSource, Templates templates) throws TransformerException {
+        final Transformer transformer = templates.newTransformer();
 
         final StringWriter outWriter = new StringWriter();
         final StreamResult result = new StreamResult(outWriter);
@@ -188,4 +239,14 @@ public class GetGeoPointDataService {
         final String transformedResponse = outWriter.toString();
         return transformedResponse.trim();
     }
-}
\ No newline at end of file
+
+    private static class CompiledXslt {
+        private final String xslt;
+        private final Templates templates;
+
+        private CompiledXslt(String xslt, Templates templates) {
+            this.xslt = xslt;
+            this.templates = templates;
+        }
+    }
+}
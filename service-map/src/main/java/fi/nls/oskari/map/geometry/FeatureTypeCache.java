@@ -0,0 +1,34 @@
+package fi.nls.oskari.map.geometry;
+
+import org.geotools.api.feature.simple.SimpleFeatureType;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.locationtech.jts.geom.Geometry;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Keeps one SimpleFeatureType per geometry type so features read from the database don't need
+ * a new feature type built for each feature. Feature types are immutable and can be shared between threads.
+ */
+public class FeatureTypeCache {
+
+    private static final String NO_GEOMETRY = "";
+
+    private final Map<String, SimpleFeatureType> types = new ConcurrentHashMap<>();
+    private final Function<Geometry, SimpleFeatureTypeBuilder> builder;
+
+    /**
+     * @param builder returns a feature type builder for a geometry (see WKTHelper.getFeatureTypeBuilder()),
+     *                called once per geometry type
+     */
+    public FeatureTypeCache(Function<Geometry, SimpleFeatureTypeBuilder> builder) {
+        this.builder = builder;
+    }
+
+    public SimpleFeatureType get(Geometry geometry) {
+        String key = geometry == null ? NO_GEOMETRY : geometry.getGeometryType();
+        return types.computeIfAbsent(key, __ -> builder.apply(geometry).buildFeatureType());
+    }
+}
@@ -20,10 +20,13 @@ import org.geotools.api.feature.simple.SimpleFeatureType;
 import org.geotools.api.referencing.crs.CoordinateReferenceSystem;
 import org.geotools.api.referencing.cs.AxisDirection;
 import org.geotools.api.referencing.operation.MathTransform;
+import org.geotools.api.referencing.operation.TransformException;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Helper for transformations
@@ -43,8 +46,8 @@ public class ProjectionHelper implements PointTransformer {
     public static Point transformPoint(final Point point, final String sourceSRS, final String targetSRS) {
         try {
             // use always lon coordinate 1st order
-            CoordinateReferenceSystem sourceCrs = CRS.decode(sourceSRS, true);
-            CoordinateReferenceSystem targetCrs = CRS.decode(targetSRS, true);
+            CoordinateReferenceSystem sourceCrs = TransformCache.getCRS(sourceSRS, true);
+            CoordinateReferenceSystem targetCrs = TransformCache.getCRS(targetSRS, true);
             return transformPoint(point, sourceCrs, targetCrs);
 
         } catch (Exception e) {
@@ -67,7 +70,7 @@ public class ProjectionHelper implements PointTransformer {
     public static Point transformPoint(final double lon, final double lat, final CoordinateReferenceSystem sourceCrs, final String targetSRS) {
         try {
             // use always lon coordinate 1st order
-            CoordinateReferenceSystem targetCrs = CRS.decode(targetSRS, true);
+            CoordinateReferenceSystem targetCrs = TransformCache.getCRS(targetSRS, true);
             return transformPoint(new Point(lon, lat), sourceCrs, targetCrs);
 
         } catch (Exception e) {
@@ -99,27 +102,70 @@ public class ProjectionHelper implements PointTransformer {
             // When using a CoordinateReferenceSystem that has been parsed from WKT you will often need to “relax” the accuracy
             // by setting the lenient parameter to true when searching with findMathTransform.
             boolean lenient = false;
-            MathTransform mathTransform = CRS.findMathTransform(sourceCrs, targetCrs, lenient);
-            Position2D srcDirectPosition2D = new Position2D(sourceCrs, point.getLon(), point.getLat());
-            // Just in case that sourceCrs axis order is not forced as lon 1st
-            if (isFirstAxisNorth(sourceCrs)) {
-                // reverse xy lon 1st
-                srcDirectPosition2D = new Position2D(sourceCrs, point.getLat(), point.getLon());
-            }
-            Position2D destDirectPosition2D = new Position2D(targetCrs);
-            mathTransform.transform(srcDirectPosition2D, destDirectPosition2D);
-            // Just in case that targetCrs axis order is not forced as lon 1st
-            if (isFirstAxisNorth(targetCrs)) {
-                // reverse xy lon 1st
-                return new Point(destDirectPosition2D.y, destDirectPosition2D.x);
-            }
-            return new Point(destDirectPosition2D.x, destDirectPosition2D.y);
+            MathTransform mathTransform = TransformCache.getTransform(sourceCrs, targetCrs, lenient);
+            return transformPoint(point, sourceCrs, targetCrs, mathTransform);
         } catch (Exception e) {
             log.error("Transform failed! Params: sourceSRS", sourceCrs.getName(), "targetSRS", targetCrs.getName(), "Point", point, "Msg:", e.getMessage());
         }
         return null;
     }
 
+    /**
+     * Transforms all the points with a single transform
+     * @param points in source projection ( x/lon must be always to the east and y/lat is to the north)
+     * @param sourceSRS
+     * @param targetSRS
+     * @return points in target projection in the same order ( x/lon is always to the east and y/lat is to the north),
+     *  null for points that couldn't be transformed or null if the transform couldn't be resolved
+     */
+    public static List<Point> transformPoints(final List<Point> points, final String sourceSRS, final String targetSRS) {
+        final CoordinateReferenceSystem sourceCrs;
+        final CoordinateReferenceSystem targetCrs;
+        final MathTransform mathTransform;
+        try {
+            // use always lon coordinate 1st order
+            sourceCrs = TransformCache.getCRS(sourceSRS, true);
+            targetCrs = TransformCache.getCRS(targetSRS, true);
+            mathTransform = TransformCache.getTransform(sourceCrs, targetCrs, false);
+        } catch (Exception e) {
+            log.error(e, "Transform CRS decoding failed! Params: sourceSRS", sourceSRS, "targetSRS", targetSRS);
+            return null;
+        }
+        final boolean sameCrs = sourceCrs.getName().equals(targetCrs.getName());
+        final List<Point> transformed = new ArrayList<>(points.size());
+        for (Point point : points) {
+            if (sameCrs) {
+                transformed.add(point);
+                continue;
+            }
+            try {
+                transformed.add(transformPoint(point, sourceCrs, targetCrs, mathTransform));
+            } catch (Exception e) {
+                log.error("Transform failed! Params: sourceSRS", sourceSRS, "targetSRS", targetSRS, "Point", point, "Msg:", e.getMessage());
+                transformed.add(null);
+            }
+        }
+        return transformed;
+    }
+
+    private static Point transformPoint(final Point point, final CoordinateReferenceSystem sourceCrs,
+                                        final CoordinateReferenceSystem targetCrs, final MathTransform mathTransform) throws TransformException {
+        Position2D srcDirectPosition2D = new Position2D(sourceCrs, point.getLon(), point.getLat());
+        // Just in case that sourceCrs axis order is not forced as lon 1st
+        if (isFirstAxisNorth(sourceCrs)) {
+            // reverse xy lon 1st
+            srcDirectPosition2D = new Position2D(sourceCrs, point.getLat(), point.getLon());
+        }
+        Position2D destDirectPosition2D = new Position2D(targetCrs);
+        mathTransform.transform(srcDirectPosition2D, destDirectPosition2D);
+        // Just in case that targetCrs axis order is not forced as lon 1st
+        if (isFirstAxisNorth(targetCrs)) {
+            // reverse xy lon 1st
+            return new Point(destDirectPosition2D.y, destDirectPosition2D.x);
+        }
+        return new Point(destDirectPosition2D.x, destDirectPosition2D.y);
+    }
+
     public static boolean isFirstAxisNorth(CoordinateReferenceSystem crs) {
         return crs.getCoordinateSystem().getAxis(0).getDirection().absolute() == AxisDirection.NORTH ||
                 crs.getCoordinateSystem().getAxis(0).getDirection().absolute() == AxisDirection.UP ||
@@ -191,7 +237,7 @@ public class ProjectionHelper implements PointTransformer {
             return null;
         }
         try {
-            return CRS.decode(longSyntaxEpsg(crs), true);
+            return TransformCache.getCRS(longSyntaxEpsg(crs), true);
         } catch (Exception e) {
             log.debug("EPSG geotools crs decoding failed - long crs name", e);
         }
@@ -235,9 +281,9 @@ public class ProjectionHelper implements PointTransformer {
      */
     public static JSONObject transformGeometry(JSONObject geometry, final String sourceSRS, final String targetSRS, boolean sourceLon1st, boolean targetLon1st) {
         try {
-            CoordinateReferenceSystem sourceCRS = CRS.decode(sourceSRS, sourceLon1st);
-            CoordinateReferenceSystem targetCRS = CRS.decode(targetSRS, targetLon1st);
-            MathTransform transform = CRS.findMathTransform(sourceCRS, targetCRS, true);
+            CoordinateReferenceSystem sourceCRS = TransformCache.getCRS(sourceSRS, sourceLon1st);
+            CoordinateReferenceSystem targetCRS = TransformCache.getCRS(targetSRS, targetLon1st);
+            MathTransform transform = TransformCache.getTransform(sourceCRS, targetCRS, true);
             // Bug in geotools --> it put geojson srid value as z-value into coordinates
             // Workaround remove srid in geojson
             if(geometry.has("srid")){
@@ -0,0 +1,114 @@
+package fi.nls.oskari.map.geometry;
+
+import fi.nls.oskari.cache.Cache;
+import fi.nls.oskari.cache.CacheManager;
+import org.geotools.api.referencing.FactoryException;
+import org.geotools.api.referencing.crs.CoordinateReferenceSystem;
+import org.geotools.api.referencing.operation.MathTransform;
+import org.geotools.referencing.CRS;
+
+/**
+ * Shared cache for decoded coordinate reference systems and the math transforms between them so
+ * transforming geometries doesn't decode the CRSs and search for the transform on every call.
+ *
+ * CRSs are keyed by the srs name and axis order, transforms by the source and target CRS and whether the search
+ * was lenient. The caches are bounded and can be configured with "oskari.cache.limit.fi.nls.oskari.map.geometry.TransformCache.crs"
+ * and "oskari.cache.limit.fi.nls.oskari.map.geometry.TransformCache.transform". CRSs and transforms are immutable so
+ * the cached instances can be shared between threads.
+ */
+public class TransformCache {
+
+    private static final String CACHE_NAME_CRS = TransformCache.class.getName() + ".crs";
+    private static final String CACHE_NAME_TRANSFORM = TransformCache.class.getName() + ".transform";
+    // projection definitions don't change at runtime
+    private static final long EXPIRATION_MS = 24L * 60L * 60L * 1000L;
+
+    private static final Cache<CoordinateReferenceSystem> CRS_CACHE = CacheManager.getCache(CACHE_NAME_CRS, () -> {
+        Cache<CoordinateReferenceSystem> cache = new Cache<>();
+        cache.setLimit(200);
+        cache.setExpiration(EXPIRATION_MS);
+        return cache;
+    });
+    private static final Cache<CachedTransform> TRANSFORM_CACHE = CacheManager.getCache(CACHE_NAME_TRANSFORM, () -> {
+        Cache<CachedTransform> cache = new Cache<>();
+        cache.setLimit(1000);
+        cache.setExpiration(EXPIRATION_MS);
+        return cache;
+    });
+
+    private TransformCache() {}
+
+    /**
+     * Decodes the CRS or returns it from cache
+     * @param srs f.ex. "EPSG:3067"
+     * @param lonFirst true to force x=lon y=lat axis order (see CRS.decode(String, boolean))
+     * @return decoded CRS
+     * @throws FactoryException if the srs can't be decoded
+     */
+    public static CoordinateReferenceSystem getCRS(final String srs, final boolean lonFirst) throws FactoryException {
+        final String key = srs + "|" + lonFirst;
+        CoordinateReferenceSystem crs = CRS_CACHE.get(key);
+        if (crs == null) {
+            crs = CRS.decode(srs, lonFirst);
+            CRS_CACHE.put(key, crs);
+        }
+        return crs;
+    }
+
+    /**
+     * Returns a transform between the projections. Both are decoded with the same axis order.
+     * @param sourceSRS f.ex. "EPSG:4326"
+     * @param targetSRS f.ex. "EPSG:3067"
+     * @param lonFirst true to force x=lon y=lat axis order for both (see CRS.decode(String, boolean))
+     * @param lenient see CRS.findMathTransform(CoordinateReferenceSystem, CoordinateReferenceSystem, boolean)
+     * @return transform
+     * @throws FactoryException if the srs can't be decoded or there's no transform between them
+     */
+    public static MathTransform getTransform(final String sourceSRS, final String targetSRS,
+                                             final boolean lonFirst, final boolean lenient) throws FactoryException {
+        return getTransform(getCRS(sourceSRS, lonFirst), getCRS(targetSRS, lonFirst), lenient);
+    }
+
+    /**
+     * Returns a transform between the CRSs
+     * @param sourceCRS
+     * @param targetCRS
+     * @param lenient see CRS.findMathTransform(CoordinateReferenceSystem, CoordinateReferenceSystem, boolean)
+     * @return transform
+     * @throws FactoryException if there's no transform between the CRSs
+     */
+    public static MathTransform getTransform(final CoordinateReferenceSystem sourceCRS, final CoordinateReferenceSystem targetCRS,
+                                             final boolean lenient) throws FactoryException {
+        final String key = getKey(sourceCRS) + "|" + getKey(targetCRS) + "|" + lenient;
+        CachedTransform cached = TRANSFORM_CACHE.get(key);
+        if (cached != null && cached.isFor(sourceCRS, targetCRS)) {
+            return cached.transform;
+        }
+        MathTransform transform = CRS.findMathTransform(sourceCRS, targetCRS, lenient);
+        TRANSFORM_CACHE.put(key, new CachedTransform(sourceCRS, targetCRS, transform));
+        return transform;
+    }
+
+    private static String getKey(CoordinateReferenceSystem crs) {
+        // name alone doesn't tell the axis order (CRS.decode("EPSG:4326", true) vs CRS.decode("EPSG:4326"))
+        return crs.getName().getCode() + (ProjectionHelper.isFirstAxisNorth(crs) ? ":yx" : ":xy");
+    }
+
+    private static class CachedTransform {
+        private final CoordinateReferenceSystem source;
+        private final CoordinateReferenceSystem target;
+        private final MathTransform transform;
+
+        private CachedTransform(CoordinateReferenceSystem source, CoordinateReferenceSystem target, MathTransform transform) {
+            this.source = source;
+            this.target = target;
+            this.transform = transform;
+        }
+
+        // CRSs parsed from WKT might share a name with a different definition
+        private boolean isFor(CoordinateReferenceSystem sourceCRS, CoordinateReferenceSystem targetCRS) {
+            return (source == sourceCRS || CRS.equalsIgnoreMetadata(source, sourceCRS))
+                    && (target == targetCRS || CRS.equalsIgnoreMetadata(target, targetCRS));
+        }
+    }
+}
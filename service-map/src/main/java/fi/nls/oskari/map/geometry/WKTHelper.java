@@ -4,7 +4,6 @@ import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
 import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
 import org.geotools.geometry.jts.JTS;
-import org.geotools.referencing.CRS;
 import org.locationtech.jts.geom.CoordinateSequence;
 import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.GeometryCollection;
@@ -15,12 +14,17 @@ import org.locationtech.jts.geom.MultiPoint;
 import org.locationtech.jts.geom.MultiPolygon;
 import org.locationtech.jts.geom.Point;
 import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.io.WKBReader;
 import org.locationtech.jts.io.WKTReader;
 import org.locationtech.jts.io.WKTWriter;
 import org.geotools.api.referencing.crs.CoordinateReferenceSystem;
 import org.geotools.api.referencing.operation.MathTransform;
 import org.oskari.geojson.GeoJSON;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
 
 /**
  * Simple helper methods to deal with WKT and projection transforms
@@ -66,7 +70,45 @@ public class WKTHelper {
             return null;
         }
         try {
-            MathTransform transform = CRS.findMathTransform(sourceCRS, targetCRS, true);
+            MathTransform transform = TransformCache.getTransform(sourceCRS, targetCRS, true);
+            return JTS.transform(geometry, transform);
+        } catch (Exception ex) {
+            log.error(ex, "Couldn't transform geometry to new projection");
+        }
+        return null;
+    }
+
+    /**
+     * Transforms all the geometries with a single transform
+     * @param geometries original geometries
+     * @param sourceSRS "EPSG:4326"
+     * @param targetSRS "EPSG:3067"
+     * @return projected geometries in the same order, null for geometries that couldn't be transformed
+     *  or null if the transform couldn't be resolved
+     */
+    public static List<Geometry> transformAll(final Collection<Geometry> geometries, final String sourceSRS, final String targetSRS) {
+        if (geometries == null || sourceSRS == null || targetSRS == null) {
+            return null;
+        }
+        final MathTransform transform;
+        try {
+            transform = TransformCache.getTransform(sourceSRS, targetSRS, true, true);
+        } catch (Exception ex) {
+            log.error(ex, "Couldn't find transform from", sourceSRS, "to", targetSRS);
+            return null;
+        }
+        final List<Geometry> transformed = new ArrayList<>(geometries.size());
+        for (Geometry geometry : geometries) {
+            transformed.add(transform(geometry, transform));
+        }
+        return transformed;
+    }
+
+    private static Geometry transform(final Geometry geometry, final MathTransform transform) {
+        if (geometry == null) {
+            return null;
+        }
+        try {
             return JTS.transform(geometry, transform);
         } catch (Exception ex) {
             log.error(ex, "Couldn't transform geometry to new projection");
@@ -160,9 +202,28 @@ public class WKTHelper {
         return null;
     }
 
+    /**
+     * Parses given WKB (f.ex. PostGIS ST_AsBinary()) to a Geometry object
+     *
+     * @param wkb
+     * @param reader WKBReader is not thread-safe, use one per thread (f.ex. one per query)
+     * @return geometry or null if wkb is null or can't be parsed
+     */
+    public static Geometry parseWKB(final byte[] wkb, final WKBReader reader) {
+        if (wkb == null) {
+            return null;
+        }
+        try {
+            return reader.read(wkb);
+        } catch (Exception e) {
+            log.error(e, "Couldn't parse WKB to geometry");
+        }
+        return null;
+    }
+
     public static CoordinateReferenceSystem getCRS(final String srs) {
         try {
-            return CRS.decode(srs,true);  // true --> lon always 1st
+            return TransformCache.getCRS(srs, true);  // true --> lon always 1st
         } catch (Exception e) {
             log.error(e, "CRS decoding failed");
         }
@@ -0,0 +1,68 @@
+package fi.nls.oskari.map.layer;
+
+import fi.nls.oskari.cache.Cache;
+import fi.nls.oskari.cache.CacheManager;
+import fi.nls.oskari.domain.map.OskariLayer;
+
+import java.util.Collection;
+
+/**
+ * Caches for the layer listing (GetHierarchicalMapLayerGroups action route). Kept here so the cached JSON
+ * can be flushed by code that doesn't depend on the action handlers, for example scheduled capabilities updates.
+ */
+public class LayerListCache {
+
+    public static final String CACHE_NAME = "LayerList";
+    public static final String LAYER_CACHE_NAME = CACHE_NAME + ".layers";
+    public static final String PERMISSIONS_CACHE_NAME = CACHE_NAME + ".permissions";
+    // layers * languages * projections
+    private static final int LAYER_CACHE_LIMIT = 20000;
+
+    /**
+     * @return cache for the assembled listings
+     */
+    public static <T> Cache<T> getListCache() {
+        return CacheManager.getCache(CACHE_NAME);
+    }
+
+    /**
+     * @return cache for the JSON of single layers by layer id
+     */
+    public static <T> Cache<T> getLayerCache() {
+        return CacheManager.getCache(LAYER_CACHE_NAME, () -> {
+            Cache<T> c = new Cache<>();
+            c.setLimit(LAYER_CACHE_LIMIT);
+            return c;
+        });
+    }
+
+    /**
+     * @return cache for layer permissions by set of roles
+     */
+    public static <T> Cache<T> getPermissionsCache() {
+        return CacheManager.getCache(PERMISSIONS_CACHE_NAME);
+    }
+
+    /**
+     * Removes cached JSON of the layers and the cached listings. Call when layers are modified.
+     * Layer JSON includes sublayers so the parents of sublayers are flushed as well.
+     */
+    public static void flushLayers(Collection<OskariLayer> layers) {
+        Cache<Object> layerCache = getLayerCache();
+        for (OskariLayer layer : layers) {
+            layerCache.remove(Integer.toString(layer.getId()));
+            if (layer.getParentId() != -1) {
+                layerCache.remove(Integer.toString(layer.getParentId()));
+            }
+        }
+        getListCache().flush(true);
+    }
+
+    /**
+     * Removes cached layer permissions and the cached listings. Call when layer permissions are modified.
+     */
+    public static void flushPermissions() {
+        getPermissionsCache().flush(true);
+        getListCache().flush(true);
+    }
+}
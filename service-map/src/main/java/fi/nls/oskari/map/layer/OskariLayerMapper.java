@@ -22,6 +22,8 @@ public interface OskariLayerMapper {
     @Select ("select * from oskari_maplayer where dataprovider_id = #{dataProviderId}")
     List<Map<String,Object>> findByDataProviderId(@Param("dataProviderId") final int dataProviderId);
     int update(final OskariLayer layer);
+    int updateCapabilities(final OskariLayer layer);
+    int updateCapabilitiesLastUpdated(final OskariLayer layer);
     void insert(final OskariLayer layer);
     int delete(final int layerId);
 
@@ -19,6 +19,21 @@ public abstract class OskariLayerService extends OskariComponent {
     public abstract Map<String, List<Integer>> findNamesAndIdsByUrl(final String url, final String type);
     public abstract int insert(final OskariLayer layer);
     public abstract void update(final OskariLayer layer);
+
+    /**
+     * Saves the results of a capabilities update. Implementations should write all the layers in a single transaction.
+     * @param updated layers with new capabilities, capabilities and capabilities_last_updated are saved
+     * @param unchanged layers with unchanged capabilities, only capabilities_last_updated is saved
+     */
+    public void updateCapabilities(final List<OskariLayer> updated, final List<OskariLayer> unchanged) {
+        updated.forEach(this::update);
+        unchanged.forEach(this::updateCapabilitiesLastUpdated);
+    }
+
+    /**
+     * Saves only capabilities_last_updated of the layer, used for layers with unchanged capabilities
+     */
+    public abstract void updateCapabilitiesLastUpdated(final OskariLayer layer);
     public abstract void delete(final int layerId);
 
 }
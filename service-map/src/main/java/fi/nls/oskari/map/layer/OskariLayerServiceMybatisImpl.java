@@ -6,6 +6,7 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
 import java.util.stream.Collectors;
 
@@ -15,6 +16,7 @@ import fi.nls.oskari.cache.Cache;
 import fi.nls.oskari.cache.CacheManager;
 import fi.nls.oskari.mybatis.MyBatisHelper;
 import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.ExecutorType;
 import org.apache.ibatis.session.SqlSession;
 import org.apache.ibatis.session.SqlSessionFactory;
 import org.apache.ibatis.session.SqlSessionFactoryBuilder;
@@ -27,7 +29,10 @@ import fi.nls.oskari.domain.map.OskariLayer;
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
 import fi.nls.oskari.map.layer.group.link.OskariLayerGroupLink;
+import fi.nls.oskari.map.layer.formatters.LayerJSONFormatter;
 import fi.nls.oskari.map.layer.group.link.OskariLayerGroupLinkService;
+import fi.nls.oskari.map.view.util.ViewHelper;
+import fi.nls.oskari.service.ServiceException;
 import fi.nls.oskari.util.JSONHelper;
 
 @Oskari("OskariLayerService")
@@ -37,6 +42,7 @@ public class OskariLayerServiceMybatisImpl extends OskariLayerService {
 
     private static DataProviderService dataProviderService = ServiceFactory.getDataProviderService();
     private static OskariLayerGroupLinkService linkService = ServiceFactory.getOskariLayerGroupLinkService();
+    // cached layers also keep their parsed capabilities (see CapabilitiesService.getLayerCapabilities())
     private final Cache<OskariLayer> layerCache = CacheManager.getCache(OskariLayerService.class.getName());
 
     private SqlSessionFactory factory;
@@ -97,6 +103,7 @@ public class OskariLayerServiceMybatisImpl extends OskariLayerService {
         result.setOptions(JSONHelper.createJSONObject((String) data.get("options")));
         result.setAttributes(JSONHelper.createJSONObject((String) data.get("attributes")));
         result.setCapabilities(JSONHelper.createJSONObject((String) data.get("capabilities")));
+        result.setCoverages(JSONHelper.createJSONObject((String) data.get("coverages")));
 
         // gfi configurations
         result.setGfiType((String) data.get("gfi_type"));
@@ -235,6 +242,30 @@ public class OskariLayerServiceMybatisImpl extends OskariLayerService {
         return layer;
     }
 
+    /**
+     * Coverage is precomputed for projections used by the system when layers are saved so it's not
+     * transformed every time layer JSON is built (see LayerJSONFormatter.getLayerCoverageWKT(OskariLayer, String)).
+     */
+    private void setCoverages(List<OskariLayer> layers) {
+        if (layers.isEmpty()) {
+            return;
+        }
+        final Set<String> crss;
+        try {
+            crss = ViewHelper.getSystemCRSs(ServiceFactory.getViewService());
+        } catch (ServiceException e) {
+            LOG.warn(e, "Couldn't get system projections, coverage is not precomputed");
+            return;
+        }
+        for (OskariLayer layer : layers) {
+            try {
+                LayerJSONFormatter.setLayerCoverages(layer, crss);
+            } catch (Exception e) {
+                LOG.info(e, "Couldn't precompute coverage for layer:", layer.getId());
+            }
+        }
+    }
+
     private void flushFromCache(int id) {
         layerCache.remove(Integer.toString(id));
     }
@@ -373,6 +404,7 @@ public class OskariLayerServiceMybatisImpl extends OskariLayerService {
         LOG.debug("update layer");
         final SqlSession session = factory.openSession();
         try {
+            setCoverages(Collections.singletonList(layer));
             final OskariLayerMapper mapper = session.getMapper(OskariLayerMapper.class);
             mapper.update(layer);
             flushFromCache(layer.getId());
@@ -384,10 +416,46 @@ public class OskariLayerServiceMybatisImpl extends OskariLayerService {
         }
     }
 
+    @Override
+    public void updateCapabilitiesLastUpdated(final OskariLayer layer) {
+        final SqlSession session = factory.openSession();
+        try {
+            final OskariLayerMapper mapper = session.getMapper(OskariLayerMapper.class);
+            mapper.updateCapabilitiesLastUpdated(layer);
+            flushFromCache(layer.getId());
+            session.commit();
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to update capabilities_last_updated", e);
+        } finally {
+            session.close();
+        }
+    }
+
+    @Override
+    public void updateCapabilities(final List<OskariLayer> updated, final List<OskariLayer> unchanged) {
+        if (updated.isEmpty() && unchanged.isEmpty()) {
+            return;
+        }
+        LOG.debug("update capabilities for", updated.size(), "layers, unchanged:", unchanged.size());
+        setCoverages(updated);
+        // batch executor sends the statements in a single round-trip on commit
+        try (SqlSession session = factory.openSession(ExecutorType.BATCH)) {
+            final OskariLayerMapper mapper = session.getMapper(OskariLayerMapper.class);
+            updated.forEach(mapper::updateCapabilities);
+            unchanged.forEach(mapper::updateCapabilitiesLastUpdated);
+            session.commit();
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to update capabilities", e);
+        }
+        updated.forEach(layer -> flushFromCache(layer.getId()));
+        unchanged.forEach(layer -> flushFromCache(layer.getId()));
+    }
+
     public synchronized int insert(final OskariLayer layer) {
         LOG.debug("insert new layer");
         final SqlSession session = factory.openSession();
         try {
+            setCoverages(Collections.singletonList(layer));
             final OskariLayerMapper mapper = session.getMapper(OskariLayerMapper.class);
             mapper.insert(layer);
             session.commit();
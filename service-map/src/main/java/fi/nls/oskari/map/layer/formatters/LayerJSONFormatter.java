@@ -16,6 +16,9 @@ import org.oskari.capabilities.MetadataHelper;
 import org.oskari.capabilities.ogc.LayerCapabilitiesOGC;
 import org.oskari.utils.common.Sets;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
 
 import static fi.nls.oskari.service.capabilities.CapabilitiesConstants.*;
@@ -36,6 +39,8 @@ public class LayerJSONFormatter {
     public static final String KEY_GLOBAL_LEGEND = "legendImage";
     public static final String KEY_TYPE = "type";
     public static final String KEY_DATA_PROVIDER_ID = "dataproviderId";
+    // precomputed coverage WKTs (OskariLayer.getCoverages()): { "source": [SHA-256 of WGS84 WKT], "EPSG:3067": "POLYGON(...)" }
+    private static final String KEY_COVERAGE_SOURCE = "source";
     protected static final String KEY_ID = "id";
     protected static final String KEY_NAME = "layerName"; // FIXME: name
     protected static final String KEY_LOCALIZED_NAME = "name"; // FIXME: title
@@ -318,6 +323,57 @@ public class LayerJSONFormatter {
         return Sets.intersection(systemCRSs, capabilitiesCRSs);
     }
 
+    /**
+     * Returns the coverage of the layer in the map projection. Uses the coverage precomputed with setLayerCoverages()
+     * if it's available and was computed from the current WGS84 coverage of the layer, otherwise transforms it.
+     * @param layer
+     * @param mapSRS
+     * @return coverage WKT in mapSRS or null if layer has no coverage or it couldn't be transformed
+     */
+    public static String getLayerCoverageWKT(final OskariLayer layer, final String mapSRS) {
+        final String wktWGS84 = layer.getGeometry();
+        if (wktWGS84 == null || wktWGS84.isEmpty() || mapSRS == null || mapSRS.isEmpty()) {
+            return null;
+        }
+        JSONObject coverages = layer.getCoverages();
+        if (coverages != null
+                && coverages.has(mapSRS)
+                && getCoverageSource(wktWGS84).equals(coverages.optString(KEY_COVERAGE_SOURCE))) {
+            // an empty value means the transform failed when the coverage was precomputed
+            return coverages.optString(mapSRS, null);
+        }
+        return getLayerCoverageWKT(wktWGS84, mapSRS);
+    }
+
+    /**
+     * Precomputes the coverage of the layer for the given projections so they are saved with the layer and
+     * don't need to be transformed when layer JSON is built.
+     * Only modifies the object. Saving the modified layer to database is not done by this method.
+     * @param layer
+     * @param crss projections used by the system (see ViewHelper.getSystemCRSs())
+     */
+    public static void setLayerCoverages(final OskariLayer layer, final Set<String> crss) {
+        final String wktWGS84 = layer.getGeometry();
+        JSONObject coverages = new JSONObject();
+        if (wktWGS84 != null && !wktWGS84.isEmpty() && crss != null && !crss.isEmpty()) {
+            JSONHelper.putValue(coverages, KEY_COVERAGE_SOURCE, getCoverageSource(wktWGS84));
+            for (String crs : crss) {
+                String wkt = getLayerCoverageWKT(wktWGS84, crs);
+                JSONHelper.putValue(coverages, crs, wkt == null ? "" : wkt);
+            }
+        }
+        layer.setCoverages(coverages);
+    }
+
+    private static String getCoverageSource(final String wktWGS84) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(md.digest(wktWGS84.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     // value will be not added if transform failed, that's ok since client can't handle it if it's in unknown projection
     public static String getLayerCoverageWKT(final String wktWGS84, final String mapSRS) {
         if(wktWGS84 == null || wktWGS84.isEmpty() || mapSRS == null || mapSRS.isEmpty()) {
@@ -5,10 +5,13 @@ import fi.nls.oskari.util.JSONHelper;
 import org.json.JSONObject;
 import org.junit.jupiter.api.Test;
 
+import javax.xml.transform.Templates;
 import java.io.IOException;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
@@ -54,6 +57,16 @@ public class GetGeoPointDataServiceTest {
         assertTrue(JSONHelper.isEqual(JSONHelper.createJSONObject(expected), json), "Should match expected");
     }
 
+    @Test
+    public void testTemplatesCachedPerLayer() throws Exception {
+        final String xslt = IOHelper.readString(this.getClass().getResourceAsStream("iceland.xsl"));
+        final String changed = IOHelper.readString(this.getClass().getResourceAsStream("luonto_gfi.xsl"));
+        Templates first = GetGeoPointDataService.getTemplates("gfi-cache-test", xslt);
+        assertSame(first, GetGeoPointDataService.getTemplates("gfi-cache-test", xslt), "Should use compiled XSLT from cache");
+        assertNotSame(first, GetGeoPointDataService.getTemplates("gfi-cache-test", changed), "Changed XSLT should be compiled again");
+        assertNotSame(first, GetGeoPointDataService.getTemplates(null, xslt), "Should not cache without layer id");
+    }
+
     /*
     @Test
     public void testResponseCleaning()
@@ -7,7 +7,9 @@ import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.geotools.api.referencing.crs.CoordinateReferenceSystem;
 
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -66,6 +68,19 @@ public class ProjectionHelperTest {
         */
     }
 
+    @Test
+    public void testTransformPoints() throws Exception {
+        Point p1 = new Point(25.017104, 60.113924);
+        Point p2 = new Point(23.7603118, 61.4980214);
+        List<Point> transformed = ProjectionHelper.transformPoints(Arrays.asList(p1, p2), EPSG_4258, EPSG_3067);
+        Assertions.assertEquals(2, transformed.size());
+        Assertions.assertEquals(389790.212234411, transformed.get(0).getLon(), 1e-9, "lon");
+        Assertions.assertEquals(6665752.471279182, transformed.get(0).getLat(), 1e-9, "lat");
+        Point single = ProjectionHelper.transformPoint(p2, EPSG_4258, EPSG_3067);
+        Assertions.assertEquals(single.getLon(), transformed.get(1).getLon(), 0.0, "lon");
+        Assertions.assertEquals(single.getLat(), transformed.get(1).getLat(), 0.0, "lat");
+    }
+
     @Test
     public void testTransformPointEPSG_4326NoTransform() throws Exception {
         double lat = 61.4980214;
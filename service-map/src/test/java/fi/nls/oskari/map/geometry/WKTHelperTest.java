@@ -3,9 +3,14 @@ package fi.nls.oskari.map.geometry;
 import org.junit.jupiter.api.Assertions;
 import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.io.WKBReader;
+import org.locationtech.jts.io.WKBWriter;
 import org.junit.jupiter.api.Test;
 import org.geotools.api.referencing.crs.CoordinateReferenceSystem;
 
+import java.util.Arrays;
+import java.util.List;
+
 public class WKTHelperTest {
 
     final String PROJ_INVALID = "asdf & qwerty";
@@ -37,6 +42,15 @@ public class WKTHelperTest {
         Assertions.assertTrue(polygon != null, "Got polygon from " + WKT_POLYGON);
     }
 
+    @Test
+    public void testParseWKB() throws Exception {
+        Geometry polygon = WKTHelper.parseWKT(WKT_POLYGON);
+        WKBReader reader = new WKBReader();
+        Assertions.assertEquals(polygon, WKTHelper.parseWKB(new WKBWriter().write(polygon), reader));
+        Assertions.assertNull(WKTHelper.parseWKB(null, reader));
+        Assertions.assertNull(WKTHelper.parseWKB(new byte[] { 1, 2, 3 }, reader));
+    }
+
     @Test
     public void testTransform() throws Exception {
         Geometry point = WKTHelper.parseWKT("POINT (24.938466 60.170014)");
@@ -46,6 +60,18 @@ public class WKTHelperTest {
         Assertions.assertEquals(385615.37435276626, transformed.getCoordinate().x, 1e-9);
     }
 
+    @Test
+    public void testTransformAll() throws Exception {
+        Geometry point = WKTHelper.parseWKT("POINT (24.938466 60.170014)");
+        List<Geometry> transformed = WKTHelper.transformAll(Arrays.asList(point, null, point), WKTHelper.PROJ_EPSG_4326, WKTHelper.PROJ_EPSG_3067);
+        Assertions.assertEquals(3, transformed.size());
+        Assertions.assertNull(transformed.get(1), "Null geometry should stay null");
+        Assertions.assertEquals(WKTHelper.transform(point, WKTHelper.PROJ_EPSG_4326, WKTHelper.PROJ_EPSG_3067), transformed.get(0));
+        Assertions.assertEquals(transformed.get(0), transformed.get(2));
+
+        Assertions.assertNull(WKTHelper.transformAll(Arrays.asList(point), PROJ_INVALID, WKTHelper.PROJ_EPSG_3067));
+    }
+
     @Test
     public void testCoverageTransform() throws Exception {
         String wkt = "POLYGON ((19.08317359 59.45414258, 19.08317359 70.09229553, 31.58672881 70.09229553, 31.58672881 59.45414258, 19.08317359 59.45414258))";
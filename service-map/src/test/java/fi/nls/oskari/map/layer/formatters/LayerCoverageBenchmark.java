@@ -0,0 +1,91 @@
+package fi.nls.oskari.map.layer.formatters;
+
+import fi.nls.oskari.domain.map.OskariLayer;
+import fi.nls.oskari.util.JSONHelper;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares generating layer listing with coverages for 3000 layers when the WGS84 coverage is transformed to the map
+ * projection for each layer (before) to serving the coverage precomputed when the layer was saved (after).
+ *
+ * Not part of the test suite. Run from the IDE or with:
+ * <pre>
+ * mvn -pl service-map test-compile exec:java -Dexec.mainClass=fi.nls.oskari.map.layer.formatters.LayerCoverageBenchmark -Dexec.classpathScope=test
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class LayerCoverageBenchmark {
+
+    private static final String MAP_SRS = "EPSG:3067";
+
+    @Param({ "3000" })
+    public int layerCount;
+
+    private final List<OskariLayer> layers = new ArrayList<>();
+
+    @Setup
+    public void setup() {
+        for (int i = 0; i < layerCount; i++) {
+            OskariLayer layer = new OskariLayer();
+            layer.setId(i);
+            layer.setType(OskariLayer.TYPE_WMS);
+            layer.setName("layer_" + i);
+            // slightly different coverage for each layer around Finland
+            double offset = (i % 100) / 100d;
+            double minX = 19 + offset;
+            double minY = 59 + offset;
+            layer.setGeometry(String.format(Locale.ROOT, "POLYGON ((%1$f %2$f, %3$f %2$f, %3$f %4$f, %1$f %4$f, %1$f %2$f))",
+                    minX, minY, minX + 12, minY + 11));
+            LayerJSONFormatter.setLayerCoverages(layer, Collections.singleton(MAP_SRS));
+            layers.add(layer);
+        }
+    }
+
+    @Benchmark
+    public JSONArray transformed() {
+        JSONArray list = new JSONArray();
+        for (OskariLayer layer : layers) {
+            list.put(toJSON(layer, LayerJSONFormatter.getLayerCoverageWKT(layer.getGeometry(), MAP_SRS)));
+        }
+        return list;
+    }
+
+    @Benchmark
+    public JSONArray precomputed() {
+        JSONArray list = new JSONArray();
+        for (OskariLayer layer : layers) {
+            list.put(toJSON(layer, LayerJSONFormatter.getLayerCoverageWKT(layer, MAP_SRS)));
+        }
+        return list;
+    }
+
+    private static JSONObject toJSON(OskariLayer layer, String coverage) {
+        JSONObject json = JSONHelper.createJSONObject("id", layer.getId());
+        JSONHelper.putValue(json, "layerName", layer.getName());
+        JSONHelper.putValue(json, "coverage", coverage);
+        return json;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options opt = new OptionsBuilder()
+                .include(LayerCoverageBenchmark.class.getSimpleName())
+                .build();
+        new Runner(opt).run();
+    }
+}
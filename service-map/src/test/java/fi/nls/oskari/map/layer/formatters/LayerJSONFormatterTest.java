@@ -12,6 +12,8 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 
+import java.util.Collections;
+
 public class LayerJSONFormatterTest {
     private final static LayerJSONFormatter FORMATTER = new LayerJSONFormatter();
     private final static String LANG = "en";
@@ -113,4 +115,34 @@ public class LayerJSONFormatterTest {
         layer.setLegendImage(GLOBAL_LEGEND);
         Assertions.assertEquals(GLOBAL_LEGEND, layer.getLegendImage());
     }
+
+    @Test
+    public void precomputedCoverage() {
+        OskariLayer layer = new OskariLayer();
+        layer.setGeometry("POLYGON ((20 60, 30 60, 30 70, 20 70, 20 60))");
+        String expected = LayerJSONFormatter.getLayerCoverageWKT(layer.getGeometry(), "EPSG:3067");
+        Assertions.assertNotNull(expected);
+
+        LayerJSONFormatter.setLayerCoverages(layer, Collections.singleton("EPSG:3067"));
+        JSONObject coverages = layer.getCoverages();
+        Assertions.assertEquals(expected, coverages.optString("EPSG:3067"), "Coverage should be stored for system projection");
+        Assertions.assertEquals(0, layer.getCapabilities().length(), "Capabilities should not be modified");
+        Assertions.assertEquals(expected, LayerJSONFormatter.getLayerCoverageWKT(layer, "EPSG:3067"));
+
+        // stored value is served as is
+        JSONHelper.putValue(coverages, "EPSG:3067", "POLYGON ((0 0, 1 0, 1 1, 0 0))");
+        Assertions.assertEquals("POLYGON ((0 0, 1 0, 1 1, 0 0))", LayerJSONFormatter.getLayerCoverageWKT(layer, "EPSG:3067"));
+        // projections that were not precomputed are transformed
+        Assertions.assertEquals(LayerJSONFormatter.getLayerCoverageWKT(layer.getGeometry(), "EPSG:3857"),
+                LayerJSONFormatter.getLayerCoverageWKT(layer, "EPSG:3857"));
+        // stored values are not used when the coverage has changed
+        layer.setGeometry("POLYGON ((21 61, 29 61, 29 69, 21 69, 21 61))");
+        Assertions.assertEquals(LayerJSONFormatter.getLayerCoverageWKT(layer.getGeometry(), "EPSG:3067"),
+                LayerJSONFormatter.getLayerCoverageWKT(layer, "EPSG:3067"));
+
+        // coverages are cleared when the layer has no coverage
+        layer.setGeometry(null);
+        LayerJSONFormatter.setLayerCoverages(layer, Collections.singleton("EPSG:3067"));
+        Assertions.assertEquals(0, layer.getCoverages().length());
+    }
 }
@@ -5,6 +5,7 @@ import fi.nls.oskari.log.Logger;
 import fi.nls.oskari.util.PropertyUtil;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
@@ -14,6 +15,15 @@ public class WFSTileGridProperties {
     private static final Logger LOG = LogFactory.getLogger(WFSTileGridProperties.class);
     private static final String WFS_MVT_PROPERTY_NAMESPACE = "oskari.wfs.mvt";
 
+    // tile grids used when there's no tile grid configured in properties for the srs
+    public static final Map<String, WFSTileGrid> KNOWN_TILE_GRIDS;
+    static {
+        Map<String, WFSTileGrid> grids = new HashMap<>();
+        grids.put("EPSG:3067", new WFSTileGrid(new double[] { -548576, 6291456, -548576 + (8192*256), 6291456 + (8192*256) }, 15));
+        grids.put("EPSG:3857", new WFSTileGrid(new double[] { -20037508.3427892, -20037508.3427892, 20037508.3427892, 20037508.3427892 }, 18));
+        KNOWN_TILE_GRIDS = Collections.unmodifiableMap(grids);
+    }
+
     private Map<String, WFSTileGrid> tileGridMap;
 
     public WFSTileGridProperties () {
@@ -48,6 +58,15 @@ public class WFSTileGridProperties {
         return tileGridMap.get(srs.toUpperCase());
     }
 
+    /**
+     * @param srs
+     * @return tile grid configured in properties for the srs, one of KNOWN_TILE_GRIDS or null if there's none
+     */
+    public WFSTileGrid getTileGridOrDefault(String srs) {
+        WFSTileGrid grid = getTileGrid(srs);
+        return grid != null ? grid : KNOWN_TILE_GRIDS.get(srs.toUpperCase());
+    }
+
     public Map<String, WFSTileGrid> getTileGridMap() {
         return tileGridMap;
     }
@@ -8,6 +8,7 @@ import org.apache.ibatis.annotations.Options;
 import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.ResultMap;
 import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.session.ResultHandler;
 import org.apache.ibatis.annotations.Update;
 
 import java.util.List;
@@ -75,6 +76,7 @@ public interface MyPlaceMapper {
     List<MyPlace> findAllByPlaceIdIn(@Param("ids") long[] ids);
 
     @ResultMap("MyPlacesResult")
+    @Options(fetchSize = 1000)
     @Select("SELECT " +
             " id, " +
             " uuid, " +
@@ -86,7 +88,7 @@ public interface MyPlaceMapper {
             " place_desc, " +
             " link, " +
             " image_url, " +
-            " ST_ASTEXT(geometry) as wkt, " +
+            " ST_ASBINARY(geometry) as wkb, " +
             " ST_SRID(geometry) as srid " +
             " FROM my_places " +
             " WHERE "+
@@ -95,12 +97,13 @@ public interface MyPlaceMapper {
             " ST_INTERSECTS(" +
             "   ST_MAKEENVELOPE(#{minX}, #{minY}, #{maxX}, #{maxY}, #{srid}), " +
         "       geometry)")
-    List<MyPlace> findAllByBBOX(@Param("categoryId") int categoryId,
-                                @Param("minX") double minX,
-                                @Param("minY") double minY,
-                                @Param("maxX") double maxX,
-                                @Param("maxY") double maxY,
-                                @Param("srid") int srid);
+    void findAllByBBOX(@Param("categoryId") int categoryId,
+                       @Param("minX") double minX,
+                       @Param("minY") double minY,
+                       @Param("maxX") double maxX,
+                       @Param("maxY") double maxY,
+                       @Param("srid") int srid,
+                       ResultHandler<MyPlace> handler);
     MyPlace findPlace(long id);
     MyPlaceCategory find(long categoryId);
     @Update("update categories set " +
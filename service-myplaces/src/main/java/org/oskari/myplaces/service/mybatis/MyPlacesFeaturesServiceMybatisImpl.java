@@ -7,6 +7,8 @@ import fi.nls.oskari.domain.map.MyPlace;
 import fi.nls.oskari.domain.map.MyPlaceCategory;
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.map.geometry.FeatureTypeCache;
+import fi.nls.oskari.map.geometry.TransformCache;
 import fi.nls.oskari.map.geometry.WKTHelper;
 import fi.nls.oskari.mybatis.MyBatisHelper;
 import fi.nls.oskari.myplaces.MyPlaceMapper;
@@ -24,13 +26,12 @@ import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
 import org.geotools.geometry.jts.JTS;
 import org.geotools.geometry.jts.ReferencedEnvelope;
-import org.geotools.referencing.CRS;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.io.WKBReader;
 import org.geotools.api.feature.simple.SimpleFeature;
-import org.geotools.api.feature.simple.SimpleFeatureType;
 import org.geotools.api.referencing.crs.CoordinateReferenceSystem;
 import org.geotools.api.referencing.operation.MathTransform;
 import org.oskari.geojson.GeoJSON;
@@ -38,7 +39,9 @@ import org.oskari.geojson.GeoJSONWriter;
 
 import javax.sql.DataSource;
 import java.time.OffsetDateTime;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 import static fi.nls.oskari.map.geometry.ProjectionHelper.getSRID;
@@ -50,6 +53,7 @@ public class MyPlacesFeaturesServiceMybatisImpl implements MyPlacesFeaturesServi
             MyPlacesFeaturesServiceMybatisImpl.class);
 
     private static final GeoJSONWriter geojsonWriter = new GeoJSONWriter();
+    private final FeatureTypeCache featureTypes = new FeatureTypeCache(this::getFeatureTypeBuilder);
     private SqlSessionFactory factory = null;
 
     public MyPlacesFeaturesServiceMybatisImpl() {
@@ -121,38 +125,28 @@ public class MyPlacesFeaturesServiceMybatisImpl implements MyPlacesFeaturesServi
             final MyPlaceMapper mapper = session.getMapper(MyPlaceMapper.class);
             String nativeSrsName = PropertyUtil.get("oskari.native.srs", "EPSG:3857");
             int nativeSrid = getSRID(nativeSrsName);
-            List<MyPlace> places = mapper.findAllByBBOX(categoryId, bbox.getMinX(), bbox.getMinY(), bbox.getMaxX(), bbox.getMaxY(), nativeSrid);
-            return this.toSimpleFeatureCollection(places);
-        } catch (Exception e) {
-            LOG.warn(e, "Exception when trying to get features by bounding box ", bbox.getMinX(), bbox.getMinY(), bbox.getMaxX(), bbox.getMaxY());
-            throw new ServiceException(e.getMessage());
-        }
-    }
-
-    private SimpleFeatureCollection toSimpleFeatureCollection(List<MyPlace> features) throws ServiceException {
-        try {
-            if (features == null || features.isEmpty()) {
-                return new EmptyFeatureCollection(null);
-            }
-
             DefaultFeatureCollection collection = new DefaultFeatureCollection();
-            for (MyPlace feature: features) {
-                if (feature.getWkt() != null) {
-                    collection.add(toSimpleFeature(feature));
-                }
+            // geometries are read as WKB and rows are handled one by one instead of collecting them to a list first
+            WKBReader reader = new WKBReader();
+            mapper.findAllByBBOX(categoryId, bbox.getMinX(), bbox.getMinY(), bbox.getMaxX(), bbox.getMaxY(), nativeSrid,
+                    context -> {
+                        Geometry geom = WKTHelper.parseWKB(context.getResultObject().getWkb(), reader);
+                        if (geom != null) {
+                            collection.add(toSimpleFeature(context.getResultObject(), geom));
+                        }
+                    });
+            if (collection.isEmpty()) {
+                return new EmptyFeatureCollection(null);
             }
-
             return collection;
         } catch (Exception e) {
-            throw new ServiceException("Failed to create SimpleFeatureCollection");
+            LOG.warn(e, "Exception when trying to get features by bounding box ", bbox.getMinX(), bbox.getMinY(), bbox.getMaxX(), bbox.getMaxY());
+            throw new ServiceException(e.getMessage());
         }
     }
 
-    private SimpleFeature toSimpleFeature(MyPlace feature) {
-        Geometry geom = parseWKT(feature.getWkt());
-        SimpleFeatureTypeBuilder featureTypeBuilder = getFeatureTypeBuilder(geom);
-        SimpleFeatureType simpleFeatureType = featureTypeBuilder.buildFeatureType();
-        SimpleFeatureBuilder featureBuilder = new SimpleFeatureBuilder(simpleFeatureType);
+    private SimpleFeature toSimpleFeature(MyPlace feature, Geometry geom) {
+        SimpleFeatureBuilder featureBuilder = new SimpleFeatureBuilder(featureTypes.get(geom));
         featureBuilder.set(GEOM_ATTRIBUTE, geom);
 
         featureBuilder.set("id", feature.getId());
@@ -246,13 +240,10 @@ public class MyPlacesFeaturesServiceMybatisImpl implements MyPlacesFeaturesServi
 
     private Geometry transformGeometry(Geometry geometry, String sourceSRSName, String targetSRSName) {
         try {
-            CoordinateReferenceSystem targetCRS, sourceCRS;
             MathTransform transform;
 
             try {
-                targetCRS = CRS.decode(targetSRSName);
-                sourceCRS = CRS.decode(sourceSRSName);
-                transform = CRS.findMathTransform(sourceCRS, targetCRS);
+                transform = TransformCache.getTransform(sourceSRSName, targetSRSName, false, false);
             } catch (Exception e) {
                 throw new ActionParamsException("Invalid " + ActionConstants.PARAM_SRS);
             }
@@ -275,7 +266,18 @@ public class MyPlacesFeaturesServiceMybatisImpl implements MyPlacesFeaturesServi
             json.put(GeoJSON.TYPE, GeoJSON.FEATURE_COLLECTION);
             json.put("crs", geojsonWriter.writeCRSObject(targetSRSName));
 
-            JSONArray features = new JSONArray(places.stream().map(place -> this.toGeoJSONFeature(place, targetSRSName)).collect(Collectors.toList()));
+            JSONArray features = new JSONArray();
+            // places are transformed in batches sharing the source projection to resolve the transform once
+            Map<Integer, List<MyPlace>> placesBySRID = places.stream()
+                    .collect(Collectors.groupingBy(MyPlace::getDatabaseSRID, LinkedHashMap::new, Collectors.toList()));
+            for (Map.Entry<Integer, List<MyPlace>> entry : placesBySRID.entrySet()) {
+                List<MyPlace> batch = entry.getValue();
+                List<Geometry> geometries = batch.stream().map(place -> parseWKT(place.getWkt())).collect(Collectors.toList());
+                List<Geometry> transformed = WKTHelper.transformAll(geometries, "EPSG:" + entry.getKey(), targetSRSName);
+                for (int i = 0; i < batch.size(); i++) {
+                    features.put(this.toGeoJSONFeature(batch.get(i), transformed == null ? null : transformed.get(i)));
+                }
+            }
             json.put(GeoJSON.FEATURES, features);
 
         } catch(JSONException ex) {
@@ -285,7 +287,7 @@ public class MyPlacesFeaturesServiceMybatisImpl implements MyPlacesFeaturesServi
         return json;
      }
 
-     private JSONObject toGeoJSONFeature(MyPlace place, String targetSRSName) {
+     private JSONObject toGeoJSONFeature(MyPlace place, Geometry transformed) {
         JSONObject feature = new JSONObject();
         JSONObject properties = new JSONObject();
         try {
@@ -293,8 +295,6 @@ public class MyPlacesFeaturesServiceMybatisImpl implements MyPlacesFeaturesServi
             feature.put("geometry_name", GeoJSON.GEOMETRY);
             feature.put(GeoJSON.TYPE, GeoJSON.FEATURE);
 
-            String sourceSRSName = "EPSG:" + place.getDatabaseSRID();
-            Geometry transformed = WKTHelper.transform(parseWKT(place.getWkt()), sourceSRSName, targetSRSName);
             JSONObject geoJsonGeometry = geojsonWriter.writeGeometry(transformed);
             feature.put(GeoJSON.GEOMETRY, geoJsonGeometry);
 
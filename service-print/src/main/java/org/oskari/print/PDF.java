@@ -234,6 +234,11 @@ public class PDF {
         }
     }
 
+    /**
+     * Draws the vector layer to a PDF page and rasterizes it. PNG prints draw vector layers directly with Java2D
+     * (see PNG.drawVectorLayer()), this is kept for comparing the output in PNGVectorLayerBenchmark.
+     */
+    @Deprecated
     protected static BufferedImage getVectorLayerImage (PrintLayer layer, Future<SimpleFeatureCollection> ffc, double [] bbox, int w, int h )
             throws IOException {
         float mapWidth = pixelsToPoints(w);
@@ -778,23 +783,27 @@ public class PDF {
     }
 
     private static  List <PrintVectorRule> getRules (PDDocument doc, PDResources resources, PrintLayer layer, String geomName) throws IOException {
+        JSONObject oskariStyle = layer.getOskariStyle();
+        return getRules(geomName,
+                StyleUtil.getPolygonStyle(oskariStyle, resources),
+                StyleUtil.getLineStyle(oskariStyle),
+                StyleUtil.getPointStyle(oskariStyle, doc));
+    }
+
+    /**
+     * @return rules selecting the style by geometry type, polygons are drawn first and points last
+     */
+    protected static List <PrintVectorRule> getRules (String geomName,
+            PDPrintStyle polygonStyle, PDPrintStyle lineStyle, PDPrintStyle pointStyle) {
         Function pointFunc = ff.function("in2", ff.function("geometryType", ff.property(geomName)), ff.literal("Point"), ff.literal("MultiPoint"));
         Function lineFunc = ff.function("in2", ff.function("geometryType", ff.property(geomName)), ff.literal("LineString"), ff.literal("MultiLineString"));
         Function polygonFunc = ff.function("in2", ff.function("geometryType", ff.property(geomName)), ff.literal("Polygon"), ff.literal("MultiPolygon"));
         Expression _true = ff.literal(true);
 
-        JSONObject oskariStyle = layer.getOskariStyle();
-
         List <PrintVectorRule> rules = new ArrayList<>();
-        rules.add(new PrintVectorRule(
-                ff.equals(polygonFunc, _true),
-                StyleUtil.getPolygonStyle(oskariStyle, resources)));
-        rules.add(new PrintVectorRule(
-                ff.equals(lineFunc, _true),
-                StyleUtil.getLineStyle(oskariStyle)));
-        rules.add(new PrintVectorRule(
-                ff.equals(pointFunc, _true),
-                StyleUtil.getPointStyle(oskariStyle, doc)));
+        rules.add(new PrintVectorRule(ff.equals(polygonFunc, _true), polygonStyle));
+        rules.add(new PrintVectorRule(ff.equals(lineFunc, _true), lineStyle));
+        rules.add(new PrintVectorRule(ff.equals(pointFunc, _true), pointStyle));
 
         return rules;
     }
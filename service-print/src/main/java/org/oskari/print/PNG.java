@@ -3,22 +3,48 @@ package org.oskari.print;
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
 import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Font;
 import java.awt.Graphics2D;
 import java.awt.RenderingHints;
+import java.awt.geom.Path2D;
 import java.awt.image.BufferedImage;
+import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Future;
 
+import org.geotools.api.feature.simple.SimpleFeature;
 import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.json.JSONObject;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryCollection;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.MultiLineString;
+import org.locationtech.jts.geom.MultiPoint;
+import org.locationtech.jts.geom.MultiPolygon;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.Polygon;
 import org.oskari.print.loader.PrintLoader;
+import org.oskari.print.request.PDPrintStyle;
 import org.oskari.print.request.PrintLayer;
 import org.oskari.print.request.PrintRequest;
+import org.oskari.print.request.PrintVectorRule;
+import org.oskari.print.util.StyleUtil;
+import org.oskari.print.util.Units;
 
 public class PNG {
 
     private static final Logger LOG = LogFactory.getLogger(PNG.class);
 
+    // Vector styles are defined in PDF points, PNG is rendered with OGC pixel size
+    private static final float PX_PER_PT = (float) (Units.OGC_DPI / Units.PDF_DPI);
+    private static final Font LABEL_FONT = new Font(Font.SANS_SERIF, Font.BOLD,
+            Math.round(PDPrintStyle.FONT_SIZE * PX_PER_PT));
+
     /**
      * This method should be called via PrintService
      */
@@ -41,21 +67,18 @@ public class PNG {
                 PrintLayer layer = layers.get(i);
                 int zIndex = layer.getZIndex();
                 Future<BufferedImage> image = images.get(zIndex);
-                BufferedImage bi = null;
-                float alpha = 1f;
                 if (image == null) {
-                    // try vectorlayer, opacity handled in vector styles
                     Future<SimpleFeatureCollection> futureFc = featureCollections.get(zIndex);
-                    bi = PDF.getVectorLayerImage(layer, futureFc, bbox, width, height);
-                } else {
-                    bi = image.get();
-                    alpha = getAlpha(layer.getOpacity());
+                    if (futureFc != null) {
+                        drawVectorLayer(g2d, layer, futureFc.get(), bbox, width, height);
+                    }
+                    continue;
                 }
-
+                BufferedImage bi = image.get();
                 if (bi == null) {
                     continue;
                 }
-                g2d.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, alpha));
+                g2d.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, getAlpha(layer.getOpacity())));
                 g2d.drawImage(bi, 0, 0, null);
             }
             BufferedImage bi = PDF.getMarkersImage(request.getMarkers(), bbox, width, height);
@@ -82,6 +105,207 @@ public class PNG {
         return opacity == 100 ? 1.0f : 0.01f * opacity;
     }
 
+    /**
+     * Draws the features directly on the canvas with the same styles as vector layers are drawn on PDF prints
+     * @param bbox extent of the canvas in map units
+     */
+    protected static void drawVectorLayer(Graphics2D canvas, PrintLayer layer, SimpleFeatureCollection fc,
+            double[] bbox, int width, int height) throws IOException {
+        if (fc == null || fc.isEmpty()) {
+            return;
+        }
+        JSONObject oskariStyle = layer.getOskariStyle();
+        String geomName = fc.getSchema().getGeometryDescriptor().getLocalName();
+        List<PrintVectorRule> rules = PDF.getRules(geomName,
+                StyleUtil.getRasterPolygonStyle(oskariStyle, PX_PER_PT),
+                StyleUtil.getLineStyle(oskariStyle),
+                StyleUtil.getRasterPointStyle(oskariStyle, PX_PER_PT));
+        PixelTransform transform = new PixelTransform(bbox, width, height);
+
+        Graphics2D g = (Graphics2D) canvas.create();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            g.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+            g.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER,
+                    layer.getOpacity() < 100 ? 0.01f * layer.getOpacity() : 1f));
+            for (PrintVectorRule rule : rules) {
+                SimpleFeatureCollection subFc = fc.subCollection(rule.getFilter());
+                if (subFc.isEmpty()) continue;
+                PDPrintStyle style = rule.getStyle();
+                g.setStroke(style.getStroke(PX_PER_PT));
+                try (SimpleFeatureIterator it = subFc.features()) {
+                    while (it.hasNext()) {
+                        drawFeature(g, transform, it.next(), style);
+                    }
+                }
+            }
+        } finally {
+            g.dispose();
+        }
+    }
+
+    private static void drawFeature(Graphics2D g, PixelTransform transform, SimpleFeature f, PDPrintStyle style) {
+        Geometry geom = (Geometry) f.getDefaultGeometry();
+        if (geom == null) {
+            return;
+        }
+        draw(g, transform, geom, style);
+        if (!style.hasLabels()) {
+            return;
+        }
+        // take first property with content
+        String label = style.getLabelProperty().stream()
+                .map(it -> f.getAttribute(it))
+                .filter(it -> it != null)
+                .map(it -> it.toString())
+                .filter(it -> !it.isEmpty())
+                .findFirst()
+                .orElse("");
+        if (!label.isEmpty()) {
+            drawLabel(g, transform, geom, style.getLabelAlign(), label);
+        }
+    }
+
+    private static void draw(Graphics2D g, PixelTransform transform, Geometry geom, PDPrintStyle style) {
+        if (geom instanceof Point) {
+            drawIcon(g, transform, geom.getCoordinate(), style);
+        } else if (geom instanceof LineString) {
+            Path2D path = new Path2D.Double();
+            add(path, transform, ((LineString) geom).getCoordinateSequence(), false);
+            drawLine(g, path, style);
+        } else if (geom instanceof Polygon) {
+            Path2D path = new Path2D.Double(Path2D.WIND_EVEN_ODD);
+            add(path, transform, (Polygon) geom);
+            drawPolygon(g, path, style);
+        } else if (geom instanceof MultiPoint) {
+            for (int i = 0; i < geom.getNumGeometries(); i++) {
+                drawIcon(g, transform, geom.getGeometryN(i).getCoordinate(), style);
+            }
+        } else if (geom instanceof MultiLineString) {
+            Path2D path = new Path2D.Double();
+            for (int i = 0; i < geom.getNumGeometries(); i++) {
+                add(path, transform, ((LineString) geom.getGeometryN(i)).getCoordinateSequence(), false);
+            }
+            drawLine(g, path, style);
+        } else if (geom instanceof MultiPolygon) {
+            Path2D path = new Path2D.Double(Path2D.WIND_EVEN_ODD);
+            for (int i = 0; i < geom.getNumGeometries(); i++) {
+                add(path, transform, (Polygon) geom.getGeometryN(i));
+            }
+            drawPolygon(g, path, style);
+        } else if (geom instanceof GeometryCollection) {
+            for (int i = 0; i < geom.getNumGeometries(); i++) {
+                draw(g, transform, geom.getGeometryN(i), style);
+            }
+        }
+    }
+
+    private static void drawLine(Graphics2D g, Path2D path, PDPrintStyle style) {
+        // PDF strokes with black by default
+        Color color = style.getAwtStrokeColor();
+        g.setPaint(color != null ? color : Color.BLACK);
+        g.draw(path);
+    }
+
+    private static void drawPolygon(Graphics2D g, Path2D path, PDPrintStyle style) {
+        if (style.getAwtFill() != null) {
+            g.setPaint(style.getAwtFill());
+            g.fill(path);
+        }
+        if (style.getAwtStrokeColor() != null) {
+            g.setPaint(style.getAwtStrokeColor());
+            g.draw(path);
+        }
+    }
+
+    private static void drawIcon(Graphics2D g, PixelTransform transform, Coordinate c, PDPrintStyle style) {
+        BufferedImage icon = style.getIconImage();
+        if (icon == null) {
+            return;
+        }
+        double x = transform.x(c.x) - style.getIconAnchorX();
+        double y = transform.y(c.y) - style.getIconAnchorY();
+        g.drawImage(icon, (int) Math.round(x), (int) Math.round(y), null);
+    }
+
+    private static void drawLabel(Graphics2D g, PixelTransform transform, Geometry geom,
+            PDPrintStyle.LabelAlign align, String label) {
+        if (geom instanceof MultiPoint || geom instanceof MultiPolygon) {
+            for (int i = 0; i < geom.getNumGeometries(); i++) {
+                drawLabelAt(g, transform, geom.getGeometryN(i).getCentroid().getCoordinate(), align, label);
+            }
+        } else if (geom instanceof LineString) {
+            drawLabelAt(g, transform, getLineCentroid((LineString) geom), align, label);
+        } else if (geom instanceof MultiLineString) {
+            for (int i = 0; i < geom.getNumGeometries(); i++) {
+                drawLabelAt(g, transform, getLineCentroid((LineString) geom.getGeometryN(i)), align, label);
+            }
+        }
+    }
+
+    private static Coordinate getLineCentroid(LineString line) {
+        return line.getCoordinateN(line.getNumPoints() / 2);
+    }
+
+    private static void drawLabelAt(Graphics2D g, PixelTransform transform, Coordinate c,
+            PDPrintStyle.LabelAlign align, String label) {
+        // label offsets are in PDF points with y growing upwards
+        float x = (float) transform.x(c.x) + align.getLabelX(label) * PX_PER_PT;
+        float y = (float) transform.y(c.y) - align.getLabelY() * PX_PER_PT;
+        g.setPaint(Color.BLACK);
+        g.setFont(LABEL_FONT);
+        g.drawString(label, x, y);
+    }
+
+    private static void add(Path2D path, PixelTransform transform, Polygon polygon) {
+        add(path, transform, polygon.getExteriorRing().getCoordinateSequence(), true);
+        for (int i = 0; i < polygon.getNumInteriorRing(); i++) {
+            add(path, transform, polygon.getInteriorRingN(i).getCoordinateSequence(), true);
+        }
+    }
+
+    private static void add(Path2D path, PixelTransform transform, CoordinateSequence csq, boolean closePath) {
+        for (int i = 0; i < csq.size(); i++) {
+            double x = transform.x(csq.getX(i));
+            double y = transform.y(csq.getY(i));
+            if (i == 0) {
+                path.moveTo(x, y);
+            } else {
+                path.lineTo(x, y);
+            }
+        }
+        if (closePath) {
+            path.closePath();
+        }
+    }
+
+    /**
+     * Map units to pixels, y axis flipped. Coordinates are transformed while building the paths instead
+     * of copying each geometry with a JTS AffineTransformation.
+     */
+    private static class PixelTransform {
+        private final double minX;
+        private final double maxY;
+        private final double sx;
+        private final double sy;
+
+        private PixelTransform(double[] bbox, int width, int height) {
+            this.minX = bbox[0];
+            this.maxY = bbox[3];
+            this.sx = width / Math.abs(bbox[2] - bbox[0]);
+            this.sy = height / Math.abs(bbox[3] - bbox[1]);
+        }
+
+        private double x(double x) {
+            return (x - minX) * sx;
+        }
+
+        private double y(double y) {
+            return (maxY - y) * sy;
+        }
+    }
+
     public static BufferedImage scale(BufferedImage bi, int targetWidth, int targetHeight, Object interpolation) {
         if (targetWidth <= 0
                 || targetWidth == bi.getWidth()
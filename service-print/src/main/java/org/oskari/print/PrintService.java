@@ -4,9 +4,13 @@ import fi.nls.oskari.service.ServiceException;
 
 import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.imageio.ImageIO;
 
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.oskari.print.loader.PrintLoader;
+import org.oskari.print.request.PrintFormat;
 import org.oskari.print.request.PrintRequest;
 import org.oskari.service.wfs.client.OskariFeatureClient;
 import org.oskari.service.wfs.client.OskariWFSClient;
@@ -44,4 +48,24 @@ public class PrintService {
         PDF.getPDF(this, request, doc);
     }
 
+    /**
+     * Renders the print in the format of the request (PDF or PNG) and writes it to the stream
+     */
+    public void print(PrintRequest request, OutputStream out)
+            throws IOException, ServiceException {
+        switch (request.getFormat()) {
+        case PDF:
+            try (PDDocument doc = new PDDocument()) {
+                getPDF(request, doc);
+                doc.save(out);
+            }
+            break;
+        case PNG:
+            ImageIO.write(getPNG(request), PrintFormat.PNG.fileExtension, out);
+            break;
+        default:
+            throw new ServiceException("Unsupported print format: " + request.getFormat());
+        }
+    }
+
 }
@@ -0,0 +1,90 @@
+package org.oskari.print.job;
+
+import org.oskari.print.request.PrintFormat;
+
+/**
+ * Print rendered in the background by PrintJobQueue
+ */
+public class PrintJob {
+
+    public enum Status {
+        QUEUED, RUNNING, DONE, FAILED
+    }
+
+    private final String id;
+    private final String key;
+    private final String owner;
+    private final PrintFormat format;
+    private final long created;
+    private volatile Status status = Status.QUEUED;
+    private volatile String error;
+    private volatile long finished;
+
+    PrintJob(String id, String key, String owner, PrintFormat format) {
+        this.id = id;
+        this.key = key;
+        this.owner = owner;
+        this.format = format;
+        this.created = System.currentTimeMillis();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return identifies identical requests of the same owner
+     */
+    String getKey() {
+        return key;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public PrintFormat getFormat() {
+        return format;
+    }
+
+    public long getCreated() {
+        return created;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * @return error message for failed job
+     */
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * @return time the job was done or failed, 0 if it's still in progress
+     */
+    public long getFinished() {
+        return finished;
+    }
+
+    public boolean isFinished() {
+        return status == Status.DONE || status == Status.FAILED;
+    }
+
+    void running() {
+        status = Status.RUNNING;
+    }
+
+    void done() {
+        finished = System.currentTimeMillis();
+        status = Status.DONE;
+    }
+
+    void failed(String message) {
+        error = message;
+        finished = System.currentTimeMillis();
+        status = Status.FAILED;
+    }
+}
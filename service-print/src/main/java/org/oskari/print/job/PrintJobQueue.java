@@ -0,0 +1,292 @@
+package org.oskari.print.job;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.oskari.print.PrintService;
+import org.oskari.print.request.PrintLayer;
+import org.oskari.print.request.PrintRequest;
+import org.oskari.print.request.PrintTile;
+
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.service.ServiceException;
+import fi.nls.oskari.service.ServiceRuntimeException;
+import fi.nls.oskari.util.PropertyUtil;
+
+/**
+ * Renders prints in the background. A submitted request gets a PrintJob which can be polled for status and
+ * the result can be read once the job is done. Results are written to files on local disk and removed after
+ * the configured time to live.
+ *
+ * The pool rendering the prints is separate from the bulkhead PrintLoader uses for loading the layers
+ * (oskari.print.job.pool.*): each print loads several layers so the number of prints rendered at the same
+ * time should be smaller. If an identical request of the same user is already queued or running its job is
+ * returned instead of rendering the print again.
+ *
+ * <pre>
+ * oskari.print.async.threads=2
+ * oskari.print.async.queue=20
+ * # defaults to [java.io.tmpdir]/oskari-print
+ * oskari.print.async.dir=/var/cache/oskari/print
+ * # seconds
+ * oskari.print.async.ttl=600
+ * </pre>
+ * The jobs are kept in memory of the node that rendered them (and the results on its local disk) so polling
+ * a job through a load balancer requires sticky sessions, otherwise a node that doesn't have the job
+ * answers that it doesn't exist.
+ *
+ * Only files named like the results of the jobs ([job id].pdf, .png or .tmp) are removed from the directory.
+ */
+public class PrintJobQueue {
+
+    private static final Logger LOG = LogFactory.getLogger(PrintJobQueue.class);
+
+    private static final String PROPERTY_PREFIX = "oskari.print.async.";
+    private static final int DEFAULT_THREADS = 2;
+    private static final int DEFAULT_QUEUE = 20;
+    private static final long DEFAULT_TTL = TimeUnit.MINUTES.toMillis(10);
+    private static final String TEMP_SUFFIX = ".tmp";
+    // the error is shown to the user so details are only logged
+    private static final String ERR_PRINT_FAILED = "Print failed";
+    private static final String ERR_QUEUE_FULL = "Print queue is full, try again later";
+    // [job id (UUID)].[format extension or tmp]
+    private static final Pattern JOB_FILE = Pattern.compile(
+            "([0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12})\\.(pdf|png|tmp)");
+
+    private final PrintService service;
+    private final Path dir;
+    private final long ttlMs;
+    private final ThreadPoolExecutor executor;
+    private final ScheduledExecutorService cleaner;
+    private final ConcurrentMap<String, PrintJob> jobs = new ConcurrentHashMap<>();
+    // queued and running jobs by PrintJob.getKey()
+    private final ConcurrentMap<String, PrintJob> inProgress = new ConcurrentHashMap<>();
+
+    public PrintJobQueue(PrintService service) {
+        this(service,
+                Paths.get(PropertyUtil.get(PROPERTY_PREFIX + "dir",
+                        new File(System.getProperty("java.io.tmpdir"), "oskari-print").getPath())),
+                PropertyUtil.getOptional(PROPERTY_PREFIX + "threads", DEFAULT_THREADS),
+                PropertyUtil.getOptional(PROPERTY_PREFIX + "queue", DEFAULT_QUEUE),
+                PropertyUtil.getOptional(PROPERTY_PREFIX + "ttl", DEFAULT_TTL / 1000L) * 1000L);
+    }
+
+    PrintJobQueue(PrintService service, Path dir, int threads, int queueSize, long ttlMs) {
+        this.service = service;
+        this.dir = dir;
+        this.ttlMs = ttlMs;
+        try {
+            Files.createDirectories(dir);
+        } catch (IOException e) {
+            throw new ServiceRuntimeException("Couldn't create directory for prints: " + dir, e);
+        }
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), r -> {
+                    Thread t = new Thread(r, "print-job-" + threadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        this.cleaner = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "print-job-cleaner");
+            t.setDaemon(true);
+            return t;
+        });
+        long interval = Math.max(ttlMs / 2, 1000L);
+        cleaner.scheduleWithFixedDelay(this::removeExpired, 0L, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queues the request for rendering
+     * @param request print to render
+     * @param owner identifies the user, only the owner is allowed to access the job
+     * @return new job or the job of an identical request that is still queued or running
+     * @throws ServiceException if the queue is full
+     */
+    public PrintJob submit(PrintRequest request, String owner) throws ServiceException {
+        final String key = owner + ":" + getRequestKey(request);
+        final PrintJob created = new PrintJob(UUID.randomUUID().toString(), key, owner, request.getFormat());
+        // register before others can find the job through inProgress so it can be polled right away
+        jobs.put(created.getId(), created);
+        final PrintJob job = inProgress.putIfAbsent(key, created);
+        if (job != null) {
+            jobs.remove(created.getId());
+            return job;
+        }
+        try {
+            executor.execute(() -> run(created, request));
+        } catch (RejectedExecutionException e) {
+            // identical requests might have been given this job already, fail it so they don't wait for it.
+            // It's removed with the other expired jobs
+            created.failed(ERR_QUEUE_FULL);
+            inProgress.remove(key, created);
+            throw new ServiceException(ERR_QUEUE_FULL);
+        }
+        return created;
+    }
+
+    /**
+     * @return the job or null if there's no such job or its result has expired
+     */
+    public PrintJob getJob(String id) {
+        if (id == null) {
+            return null;
+        }
+        PrintJob job = jobs.get(id);
+        if (job == null || isExpired(job, System.currentTimeMillis())) {
+            return null;
+        }
+        return job;
+    }
+
+    /**
+     * Writes the result of a done job
+     * @throws IOException if the result file can't be read (f.ex. it was removed after the job expired)
+     */
+    public void writeResult(PrintJob job, OutputStream out) throws IOException {
+        if (job.getStatus() != PrintJob.Status.DONE) {
+            throw new IllegalStateException("Print job is not done");
+        }
+        Files.copy(getResultPath(job), out);
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+        cleaner.shutdownNow();
+    }
+
+    private void run(PrintJob job, PrintRequest request) {
+        job.running();
+        final Path result = getResultPath(job);
+        final Path tmp = dir.resolve(job.getId() + TEMP_SUFFIX);
+        try {
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+                service.print(request, out);
+            }
+            Files.move(tmp, result, StandardCopyOption.REPLACE_EXISTING);
+            job.done();
+        } catch (Exception e) {
+            LOG.warn(e, "Print job", job.getId(), "failed");
+            job.failed(ERR_PRINT_FAILED);
+            delete(tmp);
+        } finally {
+            inProgress.remove(job.getKey(), job);
+        }
+    }
+
+    void removeExpired() {
+        final long now = System.currentTimeMillis();
+        jobs.values().removeIf(job -> {
+            if (!isExpired(job, now)) {
+                return false;
+            }
+            delete(getResultPath(job));
+            return true;
+        });
+        // files left over f.ex. from before a restart
+        File[] files = dir.toFile().listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            Matcher m = JOB_FILE.matcher(file.getName());
+            if (!m.matches()) {
+                // not ours, the directory might be shared
+                continue;
+            }
+            String id = m.group(1);
+            if (!jobs.containsKey(id) && file.lastModified() + ttlMs < now) {
+                delete(file.toPath());
+            }
+        }
+    }
+
+    private boolean isExpired(PrintJob job, long now) {
+        return job.isFinished() && job.getFinished() + ttlMs < now;
+    }
+
+    private Path getResultPath(PrintJob job) {
+        return dir.resolve(job.getId() + "." + job.getFormat().fileExtension);
+    }
+
+    private static void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOG.warn("Couldn't remove print file:", file, "-", e.getMessage());
+        }
+    }
+
+    /**
+     * @return hash of everything that affects the rendered print
+     */
+    static String getRequestKey(PrintRequest request) {
+        StringBuilder sb = new StringBuilder()
+                .append(request.getFormat()).append('|')
+                .append(request.getSrsName()).append('|')
+                .append(request.getPrintoutSrsName()).append('|')
+                .append(request.getEast()).append('|')
+                .append(request.getNorth()).append('|')
+                .append(request.getResolution()).append('|')
+                .append(request.getWidth()).append('|')
+                .append(request.getHeight()).append('|')
+                .append(request.getTargetWidth()).append('|')
+                .append(request.getTargetHeight()).append('|')
+                .append(request.isShowLogo()).append('|')
+                .append(request.isShowScale()).append('|')
+                .append(request.isShowDate()).append('|')
+                .append(request.isShowTimeSeriesTime()).append('|')
+                .append(request.getTitle()).append('|')
+                .append(request.getScaleText()).append('|')
+                .append(request.getMarkers()).append('|')
+                .append(request.getTime()).append('|')
+                .append(request.getFormattedTime()).append('|')
+                .append(request.getTimeseriesLabel()).append('|')
+                .append(request.getCoordinateInfo()).append('|')
+                .append(request.getLang());
+        if (request.getLayers() != null) {
+            for (PrintLayer layer : request.getLayers()) {
+                sb.append("|layer:")
+                        .append(layer.getLayerId()).append('|')
+                        .append(layer.getOpacity()).append('|')
+                        .append(layer.getStyle()).append('|')
+                        .append(layer.getCustomStyle());
+                if (layer.getTiles() != null) {
+                    for (PrintTile tile : layer.getTiles()) {
+                        sb.append("|tile:").append(tile.getURL()).append(Arrays.toString(tile.getBbox()));
+                    }
+                }
+            }
+        }
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(md.digest(sb.toString().getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new ServiceRuntimeException("SHA-256 not available", e);
+        }
+    }
+}
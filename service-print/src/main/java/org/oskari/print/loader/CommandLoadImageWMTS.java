@@ -170,11 +170,8 @@ public class CommandLoadImageWMTS {
 
     private static LayerCapabilitiesWMTS getLayerCapabilities(PrintLayer layer) throws IllegalArgumentException {
         OskariLayer oskariLayer = layer.getOskariLayer();
-        if (oskariLayer != null) {
-            JSONObject capabilies = layer.getOskariLayer().getCapabilities();
-            if (capabilies != null) {
-                return CapabilitiesService.fromJSON(layer.getOskariLayer().getCapabilities().toString(), OskariLayer.TYPE_WMTS);
-            }
+        if (oskariLayer != null && oskariLayer.getCapabilities() != null) {
+            return CapabilitiesService.getLayerCapabilities(oskariLayer);
         }
         throw new IllegalArgumentException("Could not find layer from Capabilities");
     }
@@ -1,6 +1,10 @@
 package org.oskari.print.request;
 
+import java.awt.BasicStroke;
 import java.awt.Color;
+import java.awt.Paint;
+import java.awt.Stroke;
+import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.util.List;
 import java.util.function.Function;
@@ -31,6 +35,12 @@ public class PDPrintStyle {
     private PDFormXObject icon;
     private List<String> labelProperty;
     private LabelAlign labelAlign;
+    // Java2D equivalents for drawing directly on raster images
+    private Color awtStrokeColor;
+    private Paint awtFill;
+    private BufferedImage iconImage;
+    private float iconAnchorX;
+    private float iconAnchorY;
 
     public PDPrintStyle () {
         lineWidth = 1f;
@@ -52,6 +62,23 @@ public class PDPrintStyle {
         }
     }
 
+    /**
+     * @param scale pixels per PDF point
+     * @return the line style as Java2D stroke
+     */
+    public Stroke getStroke(float scale) {
+        float width = lineWidth * scale;
+        float[] dash = linePattern.f.apply(lineWidth);
+        if (dash.length == 0) {
+            return new BasicStroke(width, lineCap.awt, lineJoin.awt);
+        }
+        float[] scaled = new float[dash.length];
+        for (int i = 0; i < dash.length; i++) {
+            scaled[i] = dash[i] * scale;
+        }
+        return new BasicStroke(width, lineCap.awt, lineJoin.awt, 10f, scaled, 0f);
+    }
+
     public void setLineWidth(float lineWidth) {
         this.lineWidth = lineWidth;
     }
@@ -74,6 +101,11 @@ public class PDPrintStyle {
 
     public void setStrokeColor(Color strokeColor) {
         setStrokeColor(toRGBColor(strokeColor));
+        this.awtStrokeColor = strokeColor;
+    }
+
+    public Color getAwtStrokeColor() {
+        return awtStrokeColor;
     }
 
     public void setFillColor(PDColor fillColor) {
@@ -82,6 +114,18 @@ public class PDPrintStyle {
 
     public void setFillColor(Color color) {
         setFillColor(toRGBColor(color));
+        this.awtFill = color;
+    }
+
+    /**
+     * Sets fill for Java2D only, f.ex. a TexturePaint for fill patterns
+     */
+    public void setAwtFill(Paint fill) {
+        this.awtFill = fill;
+    }
+
+    public Paint getAwtFill() {
+        return awtFill;
     }
 
     public PDFormXObject getIcon() {
@@ -92,6 +136,29 @@ public class PDPrintStyle {
         this.icon = icon;
     }
 
+    public BufferedImage getIconImage() {
+        return iconImage;
+    }
+
+    /**
+     * @param iconImage icon rendered for Java2D
+     * @param anchorX pixel of the image placed on the point
+     * @param anchorY pixel of the image placed on the point
+     */
+    public void setIconImage(BufferedImage iconImage, float anchorX, float anchorY) {
+        this.iconImage = iconImage;
+        this.iconAnchorX = anchorX;
+        this.iconAnchorY = anchorY;
+    }
+
+    public float getIconAnchorX() {
+        return iconAnchorX;
+    }
+
+    public float getIconAnchorY() {
+        return iconAnchorY;
+    }
+
     public List<String> getLabelProperty() {
         return labelProperty;
     }
@@ -113,7 +180,7 @@ public class PDPrintStyle {
     }
 
     public boolean hasFillColor() {
-        return fillColor != null;
+        return fillColor != null || awtFill != null;
     }
 
     public boolean hasLabels () {
@@ -180,14 +247,16 @@ public class PDPrintStyle {
 
     public enum LineCap {
 
-        butt(0),
-        round(1),
-        square(2);
+        butt(0, BasicStroke.CAP_BUTT),
+        round(1, BasicStroke.CAP_ROUND),
+        square(2, BasicStroke.CAP_SQUARE);
 
         public final int code;
+        public final int awt;
 
-        private LineCap(int code) {
+        private LineCap(int code, int awt) {
             this.code = code;
+            this.awt = awt;
         }
 
         public static LineCap get(String key) {
@@ -201,15 +270,17 @@ public class PDPrintStyle {
 
     public enum LineJoin {
 
-        mitre(0),
-        miter(0),
-        round(1),
-        bevel(2);
+        mitre(0, BasicStroke.JOIN_MITER),
+        miter(0, BasicStroke.JOIN_MITER),
+        round(1, BasicStroke.JOIN_ROUND),
+        bevel(2, BasicStroke.JOIN_BEVEL);
 
         public final int code;
+        public final int awt;
 
-        private LineJoin(int code) {
+        private LineJoin(int code, int awt) {
             this.code = code;
+            this.awt = awt;
         }
 
         public static LineJoin get(String key) {
@@ -1,17 +1,27 @@
 package org.oskari.print.util;
 
+import java.awt.BasicStroke;
 import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.TexturePaint;
 import java.awt.geom.AffineTransform;
+import java.awt.geom.Line2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.batik.transcoder.TranscoderException;
 import org.apache.batik.transcoder.TranscoderInput;
 import org.apache.batik.transcoder.TranscoderOutput;
+import org.apache.batik.transcoder.image.ImageTranscoder;
 import org.apache.fop.svg.PDFTranscoder;
 import org.apache.pdfbox.cos.COSName;
 import org.apache.pdfbox.Loader;
@@ -44,6 +54,7 @@ public class StyleUtil {
     private static final String ICON_STROKE_COLOR = "#000000";
     private static final float ICON_SIZE = 32f;
     private static final double ICON_OFFSET = ICON_SIZE/2.0;
+    private static final int PATTERN_SIZE = 64;
 
     public static final Map<String, PDPrintStyle.LabelAlign> LABEL_ALIGN_MAP = new HashMap<String, PDPrintStyle.LabelAlign>() {{
         put("markers", new PDPrintStyle.LabelAlign("left", 12f, 8f));
@@ -78,6 +89,48 @@ public class StyleUtil {
         return style;
     }
 
+    /**
+     * Styles for drawing directly on raster images with Java2D. Fill patterns and icons are created as
+     * Java2D objects instead of PDF resources.
+     * @param scale pixels per PDF point
+     */
+    public static PDPrintStyle getRasterPolygonStyle (JSONObject oskariStyle, float scale) {
+        JSONObject stroke = oskariStyle.optJSONObject("stroke");
+        if (stroke != null) {
+            stroke = stroke.optJSONObject("area");
+        }
+
+        PDPrintStyle style = new PDPrintStyle();
+        setStrokeStyle(style, stroke);
+        Color color = getFillColor(oskariStyle);
+        int pattern = getFillPattern(oskariStyle);
+        if (color != null && pattern >= 0) {
+            style.setAwtFill(createFillTexture(pattern, color, scale));
+        } else if (color != null) {
+            style.setFillColor(color);
+        }
+        setLabelStyle(style, oskariStyle);
+        return style;
+    }
+
+    /**
+     * @see #getRasterPolygonStyle(JSONObject, float)
+     */
+    public static PDPrintStyle getRasterPointStyle (JSONObject oskariStyle, float scale) throws IOException {
+        PDPrintStyle style = new PDPrintStyle();
+        JSONObject image = oskariStyle.optJSONObject("image");
+        JSONObject fill = image != null ? image.optJSONObject("fill") : null;
+        String color = fill != null ? JSONHelper.optString(fill, "color") : null;
+        if (color != null) {
+            style.setFillColor(ColorUtil.parseColor(color));
+            int shape = image.optInt("shape", 5); // External icons not supported
+            int size = image.optInt("size", 3);
+            setIconImage(style, shape, color, size, scale);
+        }
+        setLabelStyle(style, oskariStyle);
+        return style;
+    }
+
     private static void setStrokeStyle(PDPrintStyle style, JSONObject stroke) {
         if (stroke == null) {
             return;
@@ -106,24 +159,33 @@ public class StyleUtil {
     }
 
     private static void setFillStyle(PDPrintStyle style, JSONObject oskariStyle, PDResources resources) throws IOException {
-        JSONObject fill = oskariStyle.optJSONObject("fill");
-        if (fill == null) {
-            return;
-        }
-
-        Color color = ColorUtil.parseColor(JSONHelper.optString(fill, "color"));
+        Color color = getFillColor(oskariStyle);
         if (color == null) {
             return;
         }
-        JSONObject fillArea = fill.optJSONObject("area");
-        int pattern = fillArea != null ? fillArea.optInt("pattern", -1) : -1;
-        if (pattern >= 0 && pattern <= 3) {
+        int pattern = getFillPattern(oskariStyle);
+        if (pattern >= 0) {
             style.setFillColor(createFillPattern(resources, pattern, color));
         } else {
             style.setFillColor(color);
         }
     }
 
+    private static Color getFillColor(JSONObject oskariStyle) {
+        JSONObject fill = oskariStyle.optJSONObject("fill");
+        return fill != null ? ColorUtil.parseColor(JSONHelper.optString(fill, "color")) : null;
+    }
+
+    /**
+     * @return supported fill pattern (0-3) or -1 for solid fill
+     */
+    private static int getFillPattern(JSONObject oskariStyle) {
+        JSONObject fill = oskariStyle.optJSONObject("fill");
+        JSONObject fillArea = fill != null ? fill.optJSONObject("area") : null;
+        int pattern = fillArea != null ? fillArea.optInt("pattern", -1) : -1;
+        return pattern >= 0 && pattern <= 3 ? pattern : -1;
+    }
+
     private static void setImageStyle(PDPrintStyle style, JSONObject oskariStyle, PDDocument doc) throws IOException {
         JSONObject image = oskariStyle.optJSONObject("image");
         if (image == null) {
@@ -175,11 +237,53 @@ public class StyleUtil {
         return JSONHelper.getJSONObject(svgMarkers, index);
     }
 
-    private static PDFormXObject createIcon (PDDocument doc, JSONObject marker, String fillColor, int size) throws JSONException, IOException, TranscoderException {
-        String markerData = JSONHelper.getString(marker, "data")
+    private static void setIconImage(PDPrintStyle style, int shape, String fillColor, int size, float scale) throws IOException {
+        try {
+            JSONObject marker = getMarker(shape);
+            String markerData = getMarkerSVG(marker, fillColor);
+            double iconScale = getIconScale(size);
+            // anchor is given from the bottom-left corner of the icon in PDF points
+            double x = marker.optDouble("offsetX", ICON_OFFSET) * iconScale * scale;
+            double y = marker.optDouble("offsetY", ICON_OFFSET) * iconScale * scale;
+            float height = (float) (ICON_SIZE * iconScale * scale);
+
+            BufferedImageTranscoder transcoder = new BufferedImageTranscoder();
+            transcoder.addTranscodingHint(ImageTranscoder.KEY_HEIGHT, height);
+            transcoder.transcode(new TranscoderInput(new ByteArrayInputStream(markerData.getBytes())), new TranscoderOutput());
+            BufferedImage img = transcoder.image;
+            style.setIconImage(img, (float) x, (float) (img.getHeight() - y));
+        } catch (Exception e) {
+            throw new IOException ("Failed to create marker icon: " + shape);
+        }
+    }
+
+    private static String getMarkerSVG(JSONObject marker, String fillColor) throws JSONException {
+        return JSONHelper.getString(marker, "data")
                 .replace(PLACEHOLDER_FILL, fillColor)
                 .replace(PLACEHOLDER_STROKE, ICON_STROKE_COLOR);
-        double scale = size < 1 || size > 5 ? 1 : 0.6 +  size /10.0;
+    }
+
+    private static double getIconScale(int size) {
+        return size < 1 || size > 5 ? 1 : 0.6 +  size /10.0;
+    }
+
+    private static class BufferedImageTranscoder extends ImageTranscoder {
+        private BufferedImage image;
+
+        @Override
+        public BufferedImage createImage(int width, int height) {
+            return new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        }
+
+        @Override
+        public void writeImage(BufferedImage img, TranscoderOutput output) {
+            this.image = img;
+        }
+    }
+
+    private static PDFormXObject createIcon (PDDocument doc, JSONObject marker, String fillColor, int size) throws JSONException, IOException, TranscoderException {
+        String markerData = getMarkerSVG(marker, fillColor);
+        double scale = getIconScale(size);
         double x =  marker.optDouble("offsetX", ICON_OFFSET) * scale;
         double y = marker.optDouble("offsetY", ICON_OFFSET) * scale;
 
@@ -205,36 +309,71 @@ public class StyleUtil {
     private static PDColor createFillPattern(PDResources resources, int fillPattern, Color fillColor) throws IOException {
         PDPattern pattern = new PDPattern(null, PDDeviceRGB.INSTANCE);
         PDTilingPattern tilingPattern = new PDTilingPattern();
-        int size = 64;
+        int size = PATTERN_SIZE;
         tilingPattern.setBBox(new PDRectangle(size,size));
         tilingPattern.setPaintType(PDTilingPattern.PAINT_COLORED);
         tilingPattern.setTilingType(PDTilingPattern.TILING_CONSTANT_SPACING);
         tilingPattern.setXStep(size);
         tilingPattern.setYStep(size);
         COSName patternName = resources.add(tilingPattern);
-        // frontend has thin 2 thick 4
-        float lineWidth = fillPattern == 0 || fillPattern == 2 ? 1.5f : 3f;
-        boolean isHorizontal = fillPattern == 2 || fillPattern == 3;
-        float whiteSpace = isHorizontal ? lineWidth + 1.5f : lineWidth * 2 + 1.5f;
-        float bandWidth = lineWidth + whiteSpace;
-        float transition = size / (float) Math.floor(size / bandWidth);
         try (PDPatternContentStream pcs = new PDPatternContentStream(tilingPattern))
         {
             pcs.setStrokingColor(fillColor);
-            pcs.setLineWidth(lineWidth);
+            pcs.setLineWidth(getPatternLineWidth(fillPattern));
             pcs.setLineCapStyle(LineCap.square.code);
-            float limit = isHorizontal ? size : size * 2;
-            for (float t = transition / 2 ; t < limit; t += transition) {
-                if (isHorizontal)  {
-                    pcs.moveTo(0, t);
-                    pcs.lineTo(size, t );
-                } else {
-                    pcs.moveTo(0, size - t);
-                    pcs.lineTo(t, size);
-                }
+            for (Line2D line : getPatternLines(fillPattern, size)) {
+                pcs.moveTo((float) line.getX1(), (float) line.getY1());
+                pcs.lineTo((float) line.getX2(), (float) line.getY2());
                 pcs.stroke();
             }
         }
         return new PDColor(patternName, pattern);
     }
+
+    /**
+     * Same pattern as createFillPattern() as a Java2D paint
+     * @param scale pixels per PDF point
+     */
+    private static TexturePaint createFillTexture(int fillPattern, Color fillColor, float scale) {
+        int size = Math.max(1, Math.round(PATTERN_SIZE * scale));
+        BufferedImage tile = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = tile.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            // pattern lines are in PDF space where y grows upwards
+            g.translate(0, size);
+            g.scale(size / (double) PATTERN_SIZE, -size / (double) PATTERN_SIZE);
+            g.setColor(fillColor);
+            g.setStroke(new BasicStroke(getPatternLineWidth(fillPattern), LineCap.square.awt, BasicStroke.JOIN_MITER));
+            for (Line2D line : getPatternLines(fillPattern, PATTERN_SIZE)) {
+                g.draw(line);
+            }
+        } finally {
+            g.dispose();
+        }
+        return new TexturePaint(tile, new Rectangle2D.Double(0, 0, size, size));
+    }
+
+    private static float getPatternLineWidth(int fillPattern) {
+        // frontend has thin 2 thick 4
+        return fillPattern == 0 || fillPattern == 2 ? 1.5f : 3f;
+    }
+
+    private static List<Line2D> getPatternLines(int fillPattern, int size) {
+        float lineWidth = getPatternLineWidth(fillPattern);
+        boolean isHorizontal = fillPattern == 2 || fillPattern == 3;
+        float whiteSpace = isHorizontal ? lineWidth + 1.5f : lineWidth * 2 + 1.5f;
+        float bandWidth = lineWidth + whiteSpace;
+        float transition = size / (float) Math.floor(size / bandWidth);
+        float limit = isHorizontal ? size : size * 2;
+        List<Line2D> lines = new ArrayList<>();
+        for (float t = transition / 2 ; t < limit; t += transition) {
+            if (isHorizontal)  {
+                lines.add(new Line2D.Float(0, t, size, t));
+            } else {
+                lines.add(new Line2D.Float(0, size - t, t, size));
+            }
+        }
+        return lines;
+    }
 }
@@ -0,0 +1,100 @@
+package org.oskari.print;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import org.geotools.api.feature.simple.SimpleFeatureType;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.feature.DefaultFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.io.WKTReader;
+import org.oskari.print.request.PrintLayer;
+
+public class PNGTest {
+
+    private static final double[] BBOX = { 0, 0, 100, 100 };
+
+    private static SimpleFeatureCollection getFeatures(String... wkts) throws Exception {
+        SimpleFeatureTypeBuilder typeBuilder = new SimpleFeatureTypeBuilder();
+        typeBuilder.setName("test");
+        typeBuilder.add("geometry", Geometry.class);
+        SimpleFeatureType type = typeBuilder.buildFeatureType();
+
+        DefaultFeatureCollection fc = new DefaultFeatureCollection();
+        SimpleFeatureBuilder builder = new SimpleFeatureBuilder(type);
+        WKTReader reader = new WKTReader();
+        for (int i = 0; i < wkts.length; i++) {
+            builder.set("geometry", reader.read(wkts[i]));
+            fc.add(builder.buildFeature("f" + i));
+        }
+        return fc;
+    }
+
+    private static BufferedImage draw(String style, int opacity, String... wkts) throws Exception {
+        PrintLayer layer = new PrintLayer(0);
+        layer.setOpacity(opacity);
+        layer.setCustomStyle(new JSONObject(style));
+        BufferedImage canvas = new BufferedImage(100, 100, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = canvas.createGraphics();
+        try {
+            PNG.drawVectorLayer(g, layer, getFeatures(wkts), BBOX, 100, 100);
+        } finally {
+            g.dispose();
+        }
+        return canvas;
+    }
+
+    @Test
+    public void testPolygonFillIsDrawnWithYAxisFlipped() throws Exception {
+        // polygon on the upper half of the map -> upper half of the image
+        BufferedImage img = draw("{\"fill\":{\"color\":\"#ff0000\"}}", 100,
+                "POLYGON ((0 50, 100 50, 100 100, 0 100, 0 50))");
+        Assertions.assertEquals(0xFFFF0000, img.getRGB(50, 25));
+        Assertions.assertEquals(0, img.getRGB(50, 75));
+    }
+
+    @Test
+    public void testHoleIsNotFilled() throws Exception {
+        BufferedImage img = draw("{\"fill\":{\"color\":\"#0000ff\"}}", 100,
+                "POLYGON ((0 0, 100 0, 100 100, 0 100, 0 0), (25 25, 75 25, 75 75, 25 75, 25 25))");
+        Assertions.assertEquals(0xFF0000FF, img.getRGB(10, 10));
+        Assertions.assertEquals(0, img.getRGB(50, 50));
+    }
+
+    @Test
+    public void testLayerOpacity() throws Exception {
+        BufferedImage img = draw("{\"fill\":{\"color\":\"#00ff00\"}}", 50,
+                "POLYGON ((0 0, 100 0, 100 100, 0 100, 0 0))");
+        int alpha = img.getRGB(50, 50) >>> 24;
+        Assertions.assertTrue(Math.abs(alpha - 128) <= 1, "Alpha should be half, was: " + alpha);
+    }
+
+    @Test
+    public void testLineIsStroked() throws Exception {
+        BufferedImage img = draw("{\"stroke\":{\"color\":\"#000000\",\"width\":4}}", 100,
+                "LINESTRING (0 50, 100 50)");
+        Assertions.assertEquals(0xFF000000, img.getRGB(50, 50));
+        Assertions.assertEquals(0, img.getRGB(50, 10));
+    }
+
+    @Test
+    public void testPointIcon() throws Exception {
+        BufferedImage img = draw("{\"image\":{\"shape\":2,\"size\":3,\"fill\":{\"color\":\"#ff0000\"}}}", 100,
+                "POINT (50 50)");
+        int painted = 0;
+        for (int x = 30; x < 70; x++) {
+            for (int y = 30; y < 70; y++) {
+                if ((img.getRGB(x, y) >>> 24) > 0) {
+                    painted++;
+                }
+            }
+        }
+        Assertions.assertTrue(painted > 0, "Icon should be drawn around the point");
+        Assertions.assertEquals(0, img.getRGB(5, 5));
+    }
+}
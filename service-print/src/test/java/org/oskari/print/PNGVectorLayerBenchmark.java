@@ -0,0 +1,179 @@
+package org.oskari.print;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.geotools.api.feature.simple.SimpleFeatureType;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.feature.DefaultFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.json.JSONObject;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.oskari.print.request.PrintLayer;
+
+import fi.nls.oskari.domain.map.OskariLayer;
+
+/**
+ * Compares drawing a vector layer on a PNG print by rendering it to a PDF page and rasterizing the page (before)
+ * to drawing the features directly on the canvas with Java2D (after).
+ *
+ * Time per print is the benchmark score, allocation per print is reported by the GC profiler as gc.alloc.rate.norm
+ * and the peak heap usage of each iteration is printed after the iteration.
+ *
+ * Not part of the test suite. Run from the IDE or with:
+ * <pre>
+ * mvn -pl service-print test-compile exec:java -Dexec.mainClass=org.oskari.print.PNGVectorLayerBenchmark -Dexec.classpathScope=test
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgs = { "-Xmx2g", "-Djava.awt.headless=true" })
+public class PNGVectorLayerBenchmark {
+
+    private static final int WIDTH = 1600;
+    private static final int HEIGHT = 1200;
+    private static final double[] BBOX = { 200000, 6600000, 520000, 6840000 };
+
+    private static final String STYLE = "{"
+            + "\"fill\":{\"color\":\"#e06666\",\"area\":{\"pattern\":-1}},"
+            + "\"stroke\":{\"color\":\"#3233ff\",\"width\":2,\"area\":{\"color\":\"#000000\",\"width\":1}},"
+            + "\"image\":{\"shape\":5,\"size\":3,\"fill\":{\"color\":\"#ff9900\"}}"
+            + "}";
+
+    @Param({ "polygon", "line", "point" })
+    public String geometryType;
+
+    @Param({ "2000", "5000" })
+    public int featureCount;
+
+    private PrintLayer layer;
+    private SimpleFeatureCollection fc;
+
+    @Setup
+    public void setup() {
+        OskariLayer oskariLayer = new OskariLayer();
+        oskariLayer.setName("benchmark");
+        layer = new PrintLayer(0);
+        layer.setOskariLayer(oskariLayer);
+        layer.setOpacity(80);
+        layer.setCustomStyle(new JSONObject(STYLE));
+        fc = createFeatures(geometryType, featureCount);
+    }
+
+    @Setup(Level.Iteration)
+    public void resetPeakHeap() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void printPeakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        System.out.println("\nPeak heap: " + (peak / (1024 * 1024)) + " MB");
+    }
+
+    @Benchmark
+    @SuppressWarnings("deprecation")
+    public BufferedImage pdfRasterized() throws Exception {
+        BufferedImage canvas = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = canvas.createGraphics();
+        try {
+            BufferedImage bi = PDF.getVectorLayerImage(layer, CompletableFuture.completedFuture(fc), BBOX, WIDTH, HEIGHT);
+            g.drawImage(bi, 0, 0, null);
+        } finally {
+            g.dispose();
+        }
+        return canvas;
+    }
+
+    @Benchmark
+    public BufferedImage java2D() throws Exception {
+        BufferedImage canvas = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = canvas.createGraphics();
+        try {
+            PNG.drawVectorLayer(g, layer, fc, BBOX, WIDTH, HEIGHT);
+        } finally {
+            g.dispose();
+        }
+        return canvas;
+    }
+
+    private static SimpleFeatureCollection createFeatures(String type, int count) {
+        SimpleFeatureTypeBuilder typeBuilder = new SimpleFeatureTypeBuilder();
+        typeBuilder.setName("benchmark");
+        typeBuilder.add("geometry", Geometry.class);
+        SimpleFeatureType featureType = typeBuilder.buildFeatureType();
+
+        GeometryFactory gf = new GeometryFactory();
+        SimpleFeatureBuilder builder = new SimpleFeatureBuilder(featureType);
+        DefaultFeatureCollection features = new DefaultFeatureCollection();
+        Random r = new Random(42);
+        for (int i = 0; i < count; i++) {
+            double x = BBOX[0] + r.nextDouble() * (BBOX[2] - BBOX[0]);
+            double y = BBOX[1] + r.nextDouble() * (BBOX[3] - BBOX[1]);
+            Geometry geom;
+            switch (type) {
+            case "point":
+                geom = gf.createPoint(new Coordinate(x, y));
+                break;
+            case "line":
+                geom = gf.createLineString(randomWalk(r, x, y, 20, false));
+                break;
+            default:
+                geom = gf.createPolygon(randomWalk(r, x, y, 20, true));
+            }
+            builder.set("geometry", geom);
+            features.add(builder.buildFeature("f" + i));
+        }
+        return features;
+    }
+
+    private static Coordinate[] randomWalk(Random r, double x, double y, int n, boolean closed) {
+        Coordinate[] coords = new Coordinate[closed ? n + 1 : n];
+        for (int i = 0; i < n; i++) {
+            // star shaped ring around (x, y) so polygons are valid
+            double angle = closed ? 2 * Math.PI * i / n : r.nextDouble() * 2 * Math.PI;
+            double dist = 500 + r.nextDouble() * 2000;
+            coords[i] = closed
+                    ? new Coordinate(x + Math.cos(angle) * dist, y + Math.sin(angle) * dist)
+                    : new Coordinate(x + i * 300 + Math.cos(angle) * dist / 4, y + Math.sin(angle) * dist / 4);
+        }
+        if (closed) {
+            coords[n] = new Coordinate(coords[0]);
+        }
+        return coords;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options opt = new OptionsBuilder()
+                .include(PNGVectorLayerBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(opt).run();
+    }
+}
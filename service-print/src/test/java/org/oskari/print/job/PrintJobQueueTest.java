@@ -0,0 +1,180 @@
+package org.oskari.print.job;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.oskari.print.PrintService;
+import org.oskari.print.request.PrintFormat;
+import org.oskari.print.request.PrintRequest;
+
+import fi.nls.oskari.service.ServiceException;
+
+public class PrintJobQueueTest {
+
+    @TempDir
+    Path dir;
+
+    private static class BlockingPrintService extends PrintService {
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final AtomicInteger prints = new AtomicInteger();
+
+        BlockingPrintService() {
+            super(null);
+        }
+
+        @Override
+        public void print(PrintRequest request, OutputStream out) throws IOException, ServiceException {
+            prints.incrementAndGet();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new ServiceException("Interrupted");
+            }
+            out.write(request.getTitle().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static PrintRequest getRequest(String title) {
+        PrintRequest request = new PrintRequest();
+        request.setFormat(PrintFormat.PNG);
+        request.setTitle(title);
+        request.setWidth(512);
+        request.setHeight(512);
+        return request;
+    }
+
+    private static void waitUntilFinished(PrintJob job) throws InterruptedException {
+        for (int i = 0; i < 500 && !job.isFinished(); i++) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testIdenticalRequestsShareJob() throws Exception {
+        BlockingPrintService service = new BlockingPrintService();
+        PrintJobQueue queue = new PrintJobQueue(service, dir, 1, 5, 60_000L);
+        try {
+            PrintJob first = queue.submit(getRequest("foo"), "user1");
+            PrintJob second = queue.submit(getRequest("foo"), "user1");
+            PrintJob otherUser = queue.submit(getRequest("foo"), "user2");
+            PrintJob otherRequest = queue.submit(getRequest("bar"), "user1");
+            Assertions.assertSame(first, second);
+            Assertions.assertNotEquals(first.getId(), otherUser.getId());
+            Assertions.assertNotEquals(first.getId(), otherRequest.getId());
+
+            service.release.countDown();
+            waitUntilFinished(first);
+            waitUntilFinished(otherUser);
+            waitUntilFinished(otherRequest);
+            Assertions.assertEquals(3, service.prints.get());
+
+            Assertions.assertEquals(PrintJob.Status.DONE, first.getStatus());
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            queue.writeResult(queue.getJob(first.getId()), baos);
+            Assertions.assertEquals("foo", baos.toString(StandardCharsets.UTF_8));
+
+            // finished jobs are not reused
+            Assertions.assertNotSame(first, queue.submit(getRequest("foo"), "user1"));
+        } finally {
+            queue.shutdown();
+        }
+    }
+
+    @Test
+    public void testQueueFull() throws Exception {
+        BlockingPrintService service = new BlockingPrintService();
+        PrintJobQueue queue = new PrintJobQueue(service, dir, 1, 1, 60_000L);
+        try {
+            queue.submit(getRequest("running"), "user");
+            queue.submit(getRequest("queued"), "user");
+            Assertions.assertThrows(ServiceException.class, () -> queue.submit(getRequest("rejected"), "user"));
+
+            // the rejected job isn't reused for identical requests
+            Assertions.assertThrows(ServiceException.class, () -> queue.submit(getRequest("rejected"), "user"));
+            service.release.countDown();
+            PrintJob job = queue.submit(getRequest("queued"), "user");
+            waitUntilFinished(job);
+            Assertions.assertEquals(PrintJob.Status.DONE, job.getStatus());
+        } finally {
+            service.release.countDown();
+            queue.shutdown();
+        }
+    }
+
+    @Test
+    public void testFailedJobHasGenericError() throws Exception {
+        PrintService service = new PrintService(null) {
+            @Override
+            public void print(PrintRequest request, OutputStream out) throws ServiceException {
+                throw new ServiceException("Failed to load http://internal.example.com/secret");
+            }
+        };
+        PrintJobQueue queue = new PrintJobQueue(service, dir, 1, 5, 60_000L);
+        try {
+            PrintJob job = queue.submit(getRequest("foo"), "user");
+            waitUntilFinished(job);
+            Assertions.assertEquals(PrintJob.Status.FAILED, job.getStatus());
+            Assertions.assertEquals("Print failed", job.getError());
+            Assertions.assertSame(job, queue.getJob(job.getId()));
+        } finally {
+            queue.shutdown();
+        }
+    }
+
+    @Test
+    public void testExpiredResultsAreRemoved() throws Exception {
+        BlockingPrintService service = new BlockingPrintService();
+        service.release.countDown();
+        PrintJobQueue queue = new PrintJobQueue(service, dir, 1, 5, 0L);
+        try {
+            PrintJob job = queue.submit(getRequest("foo"), "user");
+            waitUntilFinished(job);
+            Assertions.assertTrue(Files.exists(dir.resolve(job.getId() + ".png")));
+            Thread.sleep(5);
+            queue.removeExpired();
+            Assertions.assertNull(queue.getJob(job.getId()));
+            Assertions.assertFalse(Files.exists(dir.resolve(job.getId() + ".png")));
+        } finally {
+            queue.shutdown();
+        }
+    }
+
+    @Test
+    public void testOnlyJobFilesAreRemoved() throws Exception {
+        BlockingPrintService service = new BlockingPrintService();
+        PrintJobQueue queue = new PrintJobQueue(service, dir, 1, 5, 0L);
+        try {
+            Path leftover = Files.writeString(dir.resolve("0b5e7a3c-1d2f-4e6a-8b9c-0d1e2f3a4b5c.pdf"), "old");
+            Path unrelated = Files.writeString(dir.resolve("notes.txt"), "keep");
+            Path noExtension = Files.writeString(dir.resolve("README"), "keep");
+            Thread.sleep(5);
+            queue.removeExpired();
+            Assertions.assertFalse(Files.exists(leftover), "Result left over from previous run should be removed");
+            Assertions.assertTrue(Files.exists(unrelated));
+            Assertions.assertTrue(Files.exists(noExtension));
+        } finally {
+            service.release.countDown();
+            queue.shutdown();
+        }
+    }
+
+    @Test
+    public void testRequestKey() {
+        Assertions.assertEquals(PrintJobQueue.getRequestKey(getRequest("foo")),
+                PrintJobQueue.getRequestKey(getRequest("foo")));
+        PrintRequest bigger = getRequest("foo");
+        bigger.setWidth(1024);
+        Assertions.assertNotEquals(PrintJobQueue.getRequestKey(getRequest("foo")),
+                PrintJobQueue.getRequestKey(bigger));
+    }
+}
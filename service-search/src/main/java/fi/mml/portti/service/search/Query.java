@@ -3,7 +3,9 @@ package fi.mml.portti.service.search;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Query that contains both search criteria and search results.
@@ -12,6 +14,7 @@ public class Query implements Serializable {
 	private static final long serialVersionUID = 5548549778564190366L;
 	private SearchCriteria searchCriteria;
 	private List<ChannelSearchResult> channelSearchResults;
+	private Set<String> timedOutChannels = new LinkedHashSet<>();
 	
 	public Query() {
 		channelSearchResults = new ArrayList<ChannelSearchResult>();
@@ -31,6 +34,21 @@ public class Query implements Serializable {
 	    return channelSearchResults;
 	}
 
+	/**
+	 * Marks a channel that didn't respond in time. The results of the query are partial if any channel timed out.
+	 */
+	public void addTimedOutChannel(String channel) {
+		timedOutChannels.add(channel);
+	}
+
+	public Set<String> getTimedOutChannels() {
+		return Collections.unmodifiableSet(timedOutChannels);
+	}
+
+	public boolean isPartial() {
+		return !timedOutChannels.isEmpty();
+	}
+
 	public ChannelSearchResult findResult(String channel) {
 		for(ChannelSearchResult csr: channelSearchResults) {
 			if (csr.getChannelId().equals(channel)) {
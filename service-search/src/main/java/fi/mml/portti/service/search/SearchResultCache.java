@@ -0,0 +1,161 @@
+package fi.mml.portti.service.search;
+
+import fi.nls.oskari.cache.Cache;
+import fi.nls.oskari.cache.CacheManager;
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.search.channel.SearchAutocomplete;
+import fi.nls.oskari.search.channel.SearchableChannel;
+import fi.nls.oskari.util.PropertyUtil;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Keeps channel search results for a short time so repeated searches and autocomplete requests for
+ * the same string don't reach the backing services each time:
+ * <pre>
+ * # seconds to keep results, 0 disables the cache
+ * search.cache.ttl=60
+ * # results of a single channel can be excluded from the cache (f.ex. if results depend on the user)
+ * search.channel.[channel id].cache=false
+ * </pre>
+ * Results are keyed by channel id, locale, SRS, max results and the search string normalized to lower case
+ * with whitespace collapsed. Only plain text searches are cached: reverse geocoding and searches with additional
+ * parameters or dates always go to the channel. Failed searches are not cached.
+ *
+ * Autocomplete results of a longer search string are resolved from the cached results of a prefix
+ * if the prefix results were complete (see SearchAutocomplete.getAutocompleteLimit()).
+ *
+ * The caches are Oskari caches so in a clustered environment updates are synchronized through ClusterManager.
+ * The size of the caches can be configured with "oskari.cache.maxbytes.fi.mml.portti.service.search.SearchResultCache"
+ * and "oskari.cache.maxbytes.fi.mml.portti.service.search.SearchResultCache.autocomplete".
+ * Cached results are shared between requests and must not be modified.
+ */
+class SearchResultCache {
+
+    private static final Logger LOG = LogFactory.getLogger(SearchResultCache.class);
+
+    private static final String CACHE_NAME = SearchResultCache.class.getName();
+    private static final String AUTOCOMPLETE_CACHE_NAME = CACHE_NAME + ".autocomplete";
+    private static final long CACHE_MAX_BYTES = 16L * 1024L * 1024L;
+
+    // rough estimates for heap usage
+    private static final long STRING_OVERHEAD = 40;
+    private static final long RESULT_OVERHEAD = 100;
+    private static final long ITEM_SIZE = 600;
+
+    private final boolean enabled;
+    private final Cache<ChannelSearchResult> results;
+    private final Cache<AutocompleteResult> autocomplete;
+
+    SearchResultCache() {
+        long ttl = PropertyUtil.getOptional("search.cache.ttl", 60) * 1000L;
+        enabled = ttl > 0;
+        results = CacheManager.getCache(CACHE_NAME, () -> {
+            Cache<ChannelSearchResult> c = new Cache<>();
+            c.setExpiration(ttl);
+            c.setWeigher((key, value) -> STRING_OVERHEAD + 2L * key.length() + RESULT_OVERHEAD
+                    + ITEM_SIZE * value.getNumberOfResults(), CACHE_MAX_BYTES);
+            return c;
+        });
+        autocomplete = CacheManager.getCache(AUTOCOMPLETE_CACHE_NAME, () -> {
+            Cache<AutocompleteResult> c = new Cache<>();
+            c.setExpiration(ttl);
+            c.setWeigher((key, value) -> STRING_OVERHEAD + 2L * key.length() + value.getEstimatedBytes(), CACHE_MAX_BYTES);
+            return c;
+        });
+    }
+
+    ChannelSearchResult get(SearchableChannel channel, SearchCriteria sc) {
+        if (!isCacheable(channel, sc)) {
+            return null;
+        }
+        return results.get(getKey(channel, sc, sc.getSearchString()));
+    }
+
+    void put(SearchableChannel channel, SearchCriteria sc, ChannelSearchResult result) {
+        if (result == null || result.isQueryFailed() || !isCacheable(channel, sc)) {
+            return;
+        }
+        results.put(getKey(channel, sc, sc.getSearchString()), result);
+    }
+
+    List<String> getAutocomplete(SearchableChannel channel, SearchCriteria sc) {
+        if (!isCacheable(channel, sc)) {
+            return null;
+        }
+        String searchString = normalize(sc.getSearchString());
+        AutocompleteResult cached = autocomplete.get(getKey(channel, sc, searchString));
+        if (cached != null) {
+            return cached.suggestions;
+        }
+        // results for "helsin" are included in complete results for "hels"
+        for (int length = searchString.length() - 1; length > 0; length--) {
+            AutocompleteResult prefix = autocomplete.get(getKey(channel, sc, searchString.substring(0, length)));
+            if (prefix == null || !prefix.complete) {
+                continue;
+            }
+            LOG.debug("Autocomplete for", searchString, "resolved from cached results of", searchString.substring(0, length));
+            List<String> suggestions = ((SearchAutocomplete) channel).filterAutocomplete(prefix.suggestions, sc.getSearchString());
+            // a subset of complete results is complete as well
+            AutocompleteResult result = new AutocompleteResult(suggestions, true);
+            autocomplete.put(getKey(channel, sc, searchString), result);
+            return result.suggestions;
+        }
+        return null;
+    }
+
+    /**
+     * @return suggestions as they should be returned from the cache
+     */
+    List<String> putAutocomplete(SearchableChannel channel, SearchCriteria sc, List<String> suggestions) {
+        if (suggestions == null || !isCacheable(channel, sc)) {
+            return suggestions;
+        }
+        int limit = ((SearchAutocomplete) channel).getAutocompleteLimit();
+        AutocompleteResult result = new AutocompleteResult(suggestions, limit > 0 && suggestions.size() < limit);
+        autocomplete.put(getKey(channel, sc, sc.getSearchString()), result);
+        return result.suggestions;
+    }
+
+    private boolean isCacheable(SearchableChannel channel, SearchCriteria sc) {
+        return enabled
+                && sc.getSearchString() != null
+                && !sc.isReverseGeocode()
+                && sc.getParams().isEmpty()
+                && sc.getFromDate() == null
+                && sc.getToDate() == null
+                && PropertyUtil.getOptional("search.channel." + channel.getId() + ".cache", true);
+    }
+
+    static String getKey(SearchableChannel channel, SearchCriteria sc, String searchString) {
+        return String.join("|", channel.getId(), sc.getLocale(), sc.getSRS(),
+                Integer.toString(sc.getMaxResults()), normalize(searchString));
+    }
+
+    static String normalize(String searchString) {
+        return searchString.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    private static class AutocompleteResult {
+        private final List<String> suggestions;
+        // true if the channel returned all the matching suggestions
+        private final boolean complete;
+
+        private AutocompleteResult(List<String> suggestions, boolean complete) {
+            this.suggestions = Collections.unmodifiableList(new ArrayList<>(suggestions));
+            this.complete = complete;
+        }
+
+        private long getEstimatedBytes() {
+            long size = RESULT_OVERHEAD;
+            for (String suggestion : suggestions) {
+                size += STRING_OVERHEAD + (suggestion == null ? 0 : 2L * suggestion.length());
+            }
+            return size;
+        }
+    }
+}
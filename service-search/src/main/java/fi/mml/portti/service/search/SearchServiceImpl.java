@@ -1,6 +1,8 @@
 package fi.mml.portti.service.search;
 
+import com.codahale.metrics.MetricRegistry;
 import fi.nls.oskari.annotation.Oskari;
+import fi.nls.oskari.control.ActionControl;
 import org.oskari.user.User;
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
@@ -14,6 +16,15 @@ import org.json.JSONObject;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 @Oskari
 public class SearchServiceImpl extends SearchService implements SearchChannelChangeListener {
@@ -21,9 +32,71 @@ public class SearchServiceImpl extends SearchService implements SearchChannelCha
     /** logger */
     private static final Logger LOG = LogFactory.getLogger(SearchServiceImpl.class);
 
+    private static final String METRICS_PREFIX = "Oskari.Search";
+    private static final boolean GATHER_METRICS = PropertyUtil.getOptional("search.metrics", true);
+
     /** Available channels */
     private volatile Map<String, SearchableChannel> availableChannels = null;
 
+    // shared by all instances, created on first search
+    private static ThreadPoolExecutor executor;
+
+    private final SearchResultCache resultCache = new SearchResultCache();
+    private final int channelTimeout;
+    private final int timeout;
+
+    /**
+     * Channels are searched concurrently on a pool shared by all SearchServiceImpl instances:
+     * <pre>
+     * # max number of channel searches running at the same time
+     * search.threads=8
+     * # max number of channel searches waiting for a thread, channels that don't fit are reported as failed
+     * search.queue=100
+     * # max milliseconds to wait for a single channel, can be overridden per channel with search.channel.[channel id].timeout
+     * search.channel.timeout=5000
+     * # max milliseconds to wait for all the channels, results of channels that didn't respond by then are omitted
+     * search.timeout=10000
+     * </pre>
+     * The search doesn't wait for a channel that timed out but the channel keeps its pool thread until its request
+     * returns: cancelling interrupts the thread which doesn't stop blocking HTTP I/O. Channels should use the
+     * connection and read timeouts of IOHelper (oskari.connection.timeout and oskari.read.timeout) or their own
+     * so a service that stops responding doesn't tie up the pool.
+     */
+    public SearchServiceImpl() {
+        channelTimeout = PropertyUtil.getOptional("search.channel.timeout", 5000);
+        timeout = PropertyUtil.getOptional("search.timeout", 10000);
+    }
+
+    private static synchronized ThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            int threads = Math.max(1, PropertyUtil.getOptional("search.threads", 8));
+            int queueSize = Math.max(1, PropertyUtil.getOptional("search.queue", 100));
+            AtomicInteger threadCount = new AtomicInteger();
+            executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(queueSize), r -> {
+                        Thread t = new Thread(r, "search-" + threadCount.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    });
+        }
+        return executor;
+    }
+
+    /**
+     * Stops the channel searches in progress and the shared pool. A search made after this creates a new pool.
+     */
+    public static synchronized void shutdownExecutor() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    @Override
+    public void teardown() {
+        shutdownExecutor();
+    }
+
     /**
      * Inits channels
      */
@@ -158,11 +231,11 @@ public class SearchServiceImpl extends SearchService implements SearchChannelCha
         final Query query = new Query();
         query.setSearchCriteria(searchCriteria);
 
+        List<SearchableChannel> channels = new ArrayList<>();
         for (String channelId : searchCriteria.getChannels()) {
             if (!availableChannels.containsKey(channelId)) {
                 continue;
             }
-            long timeStart = System.currentTimeMillis();
             SearchableChannel channel = availableChannels.get(channelId);
             User user = searchCriteria.getUser();
             if(!channel.hasPermission(user)) {
@@ -181,18 +254,40 @@ public class SearchServiceImpl extends SearchService implements SearchChannelCha
                 LOG.debug(e, "Skipping ", channel.getId(), "- criteria not valid");
                 continue;
             }
+            channels.add(channel);
+        }
+
+        // only channels without cached results are searched
+        Map<String, ChannelSearchResult> results = new LinkedHashMap<>();
+        List<SearchableChannel> toSearch = new ArrayList<>();
+        for (SearchableChannel channel : channels) {
+            ChannelSearchResult cached = resultCache.get(channel, searchCriteria);
+            results.put(channel.getId(), cached);
+            if (cached == null) {
+                toSearch.add(channel);
+            } else {
+                LOG.debug("Using cached results for", channel.getId());
+            }
+        }
+        Set<String> timedOut = new HashSet<>();
+        results.putAll(searchChannels(toSearch, channel -> {
             ChannelSearchResult result = handleChannelSearch(searchCriteria, channel);
-            int numResults = -1;
-            if(result != null) {
-                LOG.debug("Result", result);
-                result.setChannelId(channel.getId());
-                query.addChannelSearchResult(result);
-                numResults = result.getNumberOfResults();
+            resultCache.put(channel, searchCriteria, result);
+            return result;
+        }, timedOut));
+        for (Map.Entry<String, ChannelSearchResult> entry : results.entrySet()) {
+            ChannelSearchResult result = entry.getValue();
+            if (result == null) {
+                // timed out or failed unexpectedly
+                result = new ChannelSearchResult();
+                result.setQueryFailed(true);
+            }
+            LOG.debug("Result", result);
+            result.setChannelId(entry.getKey());
+            query.addChannelSearchResult(result);
+            if (timedOut.contains(entry.getKey())) {
+                query.addTimedOutChannel(entry.getKey());
             }
-            long timeEnd = System.currentTimeMillis();
-            LOG.debug("Search query to", channel.getId(),
-                    "took", (timeEnd - timeStart), "ms",
-                    "- got", numResults, "results");
         }
 
         long fullQueryEndTime = System.currentTimeMillis();
@@ -209,14 +304,12 @@ public class SearchServiceImpl extends SearchService implements SearchChannelCha
 
         long fullQueryStartTime = System.currentTimeMillis();
 
-        List<String> resultList = null;
+        List<SearchableChannel> channels = new ArrayList<>();
         for (String channelId : searchCriteria.getChannels()) {
             if (!availableChannels.containsKey(channelId)) {
                 continue;
             }
 
-            long timeStart = System.currentTimeMillis();
-
             SearchableChannel channel = availableChannels.get(channelId);
             if (!(channel instanceof SearchAutocomplete)) {
                 continue;
@@ -227,20 +320,34 @@ public class SearchServiceImpl extends SearchService implements SearchChannelCha
                 LOG.debug("Skipping ", channel.getId(), "- User doesn't have permission to access");
                 continue;
             }
+            channels.add(channel);
+        }
 
-
+        // only channels without cached results are searched
+        Map<String, List<String>> results = new LinkedHashMap<>();
+        List<SearchableChannel> toSearch = new ArrayList<>();
+        for (SearchableChannel channel : channels) {
+            List<String> cached = resultCache.getAutocomplete(channel, searchCriteria);
+            results.put(channel.getId(), cached);
+            if (cached == null) {
+                toSearch.add(channel);
+            }
+        }
+        results.putAll(searchChannels(toSearch, channel -> {
             try {
-                 resultList = ((SearchAutocomplete) channel).doSearchAutocomplete(searchCriteria.getSearchString());
+                List<String> suggestions = ((SearchAutocomplete) channel).doSearchAutocomplete(searchCriteria.getSearchString());
+                return resultCache.putAutocomplete(channel, searchCriteria, suggestions);
             } catch (Exception e) {
                 LOG.error(e, "Search query to", channel.getId(), "failed! Searchstring was '", searchCriteria.getSearchString(), "'");
-                resultList = new ArrayList<String>();
+                return new ArrayList<>();
             }
+        }, new HashSet<>()));
 
+        // the last channel with autocomplete determines the result
+        List<String> resultList = null;
+        for (List<String> result : results.values()) {
+            resultList = result == null ? new ArrayList<>() : result;
             LOG.debug("Result", resultList);
-
-            long timeEnd = System.currentTimeMillis();
-            LOG.debug("Search query to", channel.getId(),
-                    "took", (timeEnd - timeStart), "ms");
         }
 
         long fullQueryEndTime = System.currentTimeMillis();
@@ -252,6 +359,75 @@ public class SearchServiceImpl extends SearchService implements SearchChannelCha
         return jsonObject;
     }
 
+    /**
+     * Runs the search on the channels concurrently. Waits for each channel until its timeout
+     * (search.channel.[channel id].timeout, defaults to search.channel.timeout) or the overall deadline
+     * for the search (search.timeout) is reached. Latency of each channel is recorded in
+     * the Oskari.Search.[channel id] histogram.
+     *
+     * @param channels channels to search
+     * @param search the search to run for a channel
+     * @param timedOut ids of channels that didn't respond in time are added here
+     * @return results by channel id in the same order as the channels, null for channels that timed out or failed
+     */
+    private <T> Map<String, T> searchChannels(List<SearchableChannel> channels, Function<SearchableChannel, T> search,
+                                              Set<String> timedOut) {
+        final long start = System.currentTimeMillis();
+        final long deadline = start + timeout;
+        final MetricRegistry metrics = ActionControl.getMetrics();
+        final ThreadPoolExecutor pool = getExecutor();
+        Map<String, Future<T>> futures = new LinkedHashMap<>();
+        for (SearchableChannel channel : channels) {
+            try {
+                futures.put(channel.getId(), pool.submit(() -> {
+                    long timeStart = System.currentTimeMillis();
+                    T result = search.apply(channel);
+                    long took = System.currentTimeMillis() - timeStart;
+                    if (GATHER_METRICS) {
+                        metrics.histogram(METRICS_PREFIX + "." + channel.getId()).update(took);
+                    }
+                    LOG.debug("Search query to", channel.getId(), "took", took, "ms");
+                    return result;
+                }));
+            } catch (RejectedExecutionException e) {
+                LOG.warn("Search queue is full, skipping search to", channel.getId());
+                futures.put(channel.getId(), null);
+            }
+        }
+        Map<String, T> results = new LinkedHashMap<>();
+        for (Map.Entry<String, Future<T>> entry : futures.entrySet()) {
+            String channelId = entry.getKey();
+            Future<T> future = entry.getValue();
+            if (future == null) {
+                results.put(channelId, null);
+                continue;
+            }
+            long channelDeadline = Math.min(start + getChannelTimeout(channelId), deadline);
+            T result = null;
+            try {
+                result = future.get(Math.max(0, channelDeadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                future.cancel(true);
+                timedOut.add(channelId);
+                LOG.warn("Search query to", channelId, "timed out after", (System.currentTimeMillis() - start), "ms");
+                if (GATHER_METRICS) {
+                    metrics.meter(METRICS_PREFIX + "." + channelId + ".timeout").mark();
+                }
+            } catch (InterruptedException e) {
+                future.cancel(true);
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                LOG.error(e.getCause(), "Search query to", channelId, "failed");
+            }
+            results.put(channelId, result);
+        }
+        return results;
+    }
+
+    private long getChannelTimeout(String channelId) {
+        return PropertyUtil.getOptional("search.channel." + channelId + ".timeout", channelTimeout);
+    }
+
     /**
      * Handles actual channel search and catches exceptions
      *
@@ -1,7 +1,34 @@
 package fi.nls.oskari.search.channel;
 
 import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
 
 public interface SearchAutocomplete {
     List<String> doSearchAutocomplete(String searchString);
-}
\ No newline at end of file
+
+    /**
+     * Max number of suggestions the channel returns. When a search returns less suggestions than this
+     * the results are considered complete and autocomplete for a longer search string starting with
+     * the same characters can be resolved from the cached results with filterAutocomplete().
+     * @return max number of suggestions or -1 if unknown (results are never considered complete)
+     */
+    default int getAutocompleteLimit() {
+        return -1;
+    }
+
+    /**
+     * Picks the suggestions matching the search string from complete results of a shorter search string.
+     * Defaults to case-insensitive "contains" matching, override if the channel matches differently.
+     * @param suggestions complete results for a prefix of the search string
+     * @param searchString
+     * @return suggestions matching the search string
+     */
+    default List<String> filterAutocomplete(List<String> suggestions, String searchString) {
+        String search = searchString.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+        return suggestions.stream()
+                .filter(suggestion -> suggestion != null
+                        && suggestion.replaceAll("\\s+", " ").toLowerCase(Locale.ROOT).contains(search))
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,112 @@
+package fi.mml.portti.service.search;
+
+import fi.nls.oskari.search.channel.SearchAutocomplete;
+import fi.nls.oskari.search.channel.SearchChannel;
+import org.json.JSONArray;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+public class SearchResultCacheTest {
+
+    private static final List<String> PLACES = Arrays.asList("Helsinki", "Helsingby", "Hellnäs", "Hanko");
+
+    private static class CountingChannel extends SearchChannel implements SearchAutocomplete {
+        private final String id;
+        private final int limit;
+        private final AtomicInteger searches = new AtomicInteger();
+
+        CountingChannel(String id, int limit) {
+            this.id = id;
+            this.limit = limit;
+        }
+
+        @Override
+        public String getName() {
+            return id;
+        }
+
+        @Override
+        public ChannelSearchResult doSearch(SearchCriteria searchCriteria) {
+            searches.incrementAndGet();
+            ChannelSearchResult result = new ChannelSearchResult();
+            SearchResultItem item = new SearchResultItem();
+            item.setTitle(searchCriteria.getSearchString());
+            item.setLat(60);
+            item.setLon(25);
+            result.addItem(item);
+            return result;
+        }
+
+        @Override
+        public List<String> doSearchAutocomplete(String searchString) {
+            searches.incrementAndGet();
+            return PLACES.stream()
+                    .filter(place -> place.toLowerCase().startsWith(searchString.toLowerCase()))
+                    .limit(limit)
+                    .collect(Collectors.toList());
+        }
+
+        @Override
+        public int getAutocompleteLimit() {
+            return limit;
+        }
+    }
+
+    private SearchCriteria getCriteria(String channelId, String search) {
+        SearchCriteria sc = new SearchCriteria();
+        sc.setSearchString(search);
+        sc.setSRS("EPSG:3067");
+        sc.addChannel(channelId);
+        return sc;
+    }
+
+    private List<Object> autocomplete(SearchServiceImpl service, String channelId, String search) {
+        JSONArray methods = service.doSearchAutocomplete(getCriteria(channelId, search)).optJSONArray("methods");
+        return methods.toList();
+    }
+
+    @Test
+    public void testSearchIsCached() {
+        SearchServiceImpl service = new SearchServiceImpl();
+        CountingChannel channel = new CountingChannel("cachedsearch", 10);
+        service.addChannel(channel.getId(), channel);
+
+        Query first = service.doSearch(getCriteria(channel.getId(), "Helsinki"));
+        Query second = service.doSearch(getCriteria(channel.getId(), "  helsinki "));
+        Assertions.assertEquals(1, channel.searches.get(), "Normalized search string should be answered from cache");
+        Assertions.assertEquals(first.findResult(channel.getId()).getNumberOfResults(), second.findResult(channel.getId()).getNumberOfResults());
+
+        SearchCriteria otherSRS = getCriteria(channel.getId(), "Helsinki");
+        otherSRS.setSRS("EPSG:3857");
+        service.doSearch(otherSRS);
+        Assertions.assertEquals(2, channel.searches.get(), "Different SRS should not use the cached results");
+    }
+
+    @Test
+    public void testAutocompleteFromCompletePrefix() {
+        SearchServiceImpl service = new SearchServiceImpl();
+        CountingChannel channel = new CountingChannel("cachedautocomplete", 10);
+        service.addChannel(channel.getId(), channel);
+
+        Assertions.assertEquals(Arrays.asList("Helsinki", "Helsingby", "Hellnäs"), autocomplete(service, channel.getId(), "hel"));
+        Assertions.assertEquals(Arrays.asList("Helsinki", "Helsingby"), autocomplete(service, channel.getId(), "hels"));
+        Assertions.assertEquals(Arrays.asList("Helsinki"), autocomplete(service, channel.getId(), "Helsink"));
+        Assertions.assertEquals(1, channel.searches.get(), "Longer search strings should be resolved from complete prefix results");
+    }
+
+    @Test
+    public void testAutocompleteFromIncompletePrefix() {
+        SearchServiceImpl service = new SearchServiceImpl();
+        CountingChannel channel = new CountingChannel("truncatedautocomplete", 2);
+        service.addChannel(channel.getId(), channel);
+
+        Assertions.assertEquals(Arrays.asList("Helsinki", "Helsingby"), autocomplete(service, channel.getId(), "hel"));
+        Assertions.assertEquals(Arrays.asList("Hellnäs"), autocomplete(service, channel.getId(), "hell"));
+        Assertions.assertEquals(2, channel.searches.get(), "Truncated prefix results should not be used");
+    }
+}
@@ -0,0 +1,109 @@
+package fi.mml.portti.service.search;
+
+import fi.nls.oskari.search.channel.SearchChannel;
+import fi.nls.oskari.util.PropertyUtil;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+public class SearchServiceImplTest {
+
+    private static class SlowChannel extends SearchChannel {
+        private final String id;
+        private final long delay;
+
+        SlowChannel(String id, long delay) {
+            this.id = id;
+            this.delay = delay;
+        }
+
+        @Override
+        public String getName() {
+            return id;
+        }
+
+        @Override
+        public ChannelSearchResult doSearch(SearchCriteria searchCriteria) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException ignored) {
+            }
+            ChannelSearchResult result = new ChannelSearchResult();
+            SearchResultItem item = new SearchResultItem();
+            item.setTitle(id);
+            item.setLat(60);
+            item.setLon(25);
+            result.addItem(item);
+            return result;
+        }
+    }
+
+    @BeforeAll
+    public static void setUp() throws Exception {
+        PropertyUtil.addProperty("search.channel.timeout", "1000", true);
+        PropertyUtil.addProperty("search.channel.slow.timeout", "300", true);
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        SearchServiceImpl.shutdownExecutor();
+        PropertyUtil.clearProperties();
+    }
+
+    @Test
+    public void testChannelsAreSearchedConcurrently() {
+        SearchServiceImpl service = new SearchServiceImpl();
+        service.addChannel("first", new SlowChannel("first", 200));
+        service.addChannel("second", new SlowChannel("second", 200));
+        service.addChannel("slow", new SlowChannel("slow", 2000));
+
+        SearchCriteria sc = new SearchCriteria();
+        sc.setSearchString("search");
+        sc.addChannel("first");
+        sc.addChannel("second");
+        sc.addChannel("slow");
+
+        long start = System.currentTimeMillis();
+        Query query = service.doSearch(sc);
+        long took = System.currentTimeMillis() - start;
+
+        Assertions.assertTrue(took < 1000, "Channels should be searched concurrently and slow channel should time out, took: " + took);
+        Assertions.assertEquals(3, query.getResults().size());
+        Assertions.assertEquals(1, query.findResult("first").getNumberOfResults());
+        Assertions.assertEquals(1, query.findResult("second").getNumberOfResults());
+        Assertions.assertTrue(query.findResult("slow").isQueryFailed());
+        Assertions.assertTrue(query.isPartial());
+        Assertions.assertTrue(query.getTimedOutChannels().contains("slow"));
+        Assertions.assertFalse(query.getTimedOutChannels().contains("first"));
+    }
+
+    @Test
+    public void testChannelIsFailedWhenQueueIsFull() throws Exception {
+        SearchServiceImpl.shutdownExecutor();
+        PropertyUtil.addProperty("search.threads", "1", true);
+        PropertyUtil.addProperty("search.queue", "1", true);
+        try {
+            SearchServiceImpl service = new SearchServiceImpl();
+            service.addChannel("running", new SlowChannel("running", 100));
+            service.addChannel("queued", new SlowChannel("queued", 100));
+            service.addChannel("rejected", new SlowChannel("rejected", 100));
+
+            SearchCriteria sc = new SearchCriteria();
+            sc.setSearchString("search");
+            sc.addChannel("running");
+            sc.addChannel("queued");
+            sc.addChannel("rejected");
+
+            Query query = service.doSearch(sc);
+            Assertions.assertEquals(1, query.findResult("running").getNumberOfResults());
+            Assertions.assertEquals(1, query.findResult("queued").getNumberOfResults());
+            Assertions.assertTrue(query.findResult("rejected").isQueryFailed());
+            Assertions.assertFalse(query.getTimedOutChannels().contains("rejected"));
+        } finally {
+            SearchServiceImpl.shutdownExecutor();
+            PropertyUtil.addProperty("search.threads", "8", true);
+            PropertyUtil.addProperty("search.queue", "100", true);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package fi.nls.oskari.control.statistics;
+
+import fi.nls.oskari.control.statistics.db.RegionSet;
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.service.ServiceException;
+import org.geotools.api.feature.simple.SimpleFeature;
+import org.geotools.api.feature.simple.SimpleFeatureType;
+import org.geotools.api.geometry.MismatchedDimensionException;
+import org.geotools.api.referencing.FactoryException;
+import org.geotools.api.referencing.operation.TransformException;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.feature.DefaultFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.locationtech.jts.coverage.CoverageSimplifier;
+import org.locationtech.jts.coverage.CoverageValidator;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.Polygonal;
+import org.locationtech.jts.simplify.TopologyPreservingSimplifier;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Geometries of a region set in one projection. Regions of a region set share their borders so the geometries
+ * are simplified as a polygonal coverage: each shared border is simplified once and the neighbouring regions
+ * keep matching edges without gaps or overlaps (see org.locationtech.jts.coverage.CoverageSimplifier).
+ */
+public class RegionCoverage {
+
+    private static final Logger LOG = LogFactory.getLogger(RegionCoverage.class);
+    private static final String GEOMETRY_ATTRIBUTE = "geometry";
+
+    private final String[] ids;
+    private final String[] names;
+    private final Geometry[] geometries;
+    private final SimpleFeatureType featureType;
+    // validated once on first simplification
+    private volatile Boolean validCoverage;
+
+    protected RegionCoverage(List<String> ids, List<String> names, List<Geometry> geometries) {
+        this.ids = ids.toArray(new String[0]);
+        this.names = names.toArray(new String[0]);
+        this.geometries = geometries.toArray(new Geometry[0]);
+
+        SimpleFeatureTypeBuilder builder = new SimpleFeatureTypeBuilder();
+        builder.setName("regions");
+        builder.add(GEOMETRY_ATTRIBUTE, Geometry.class);
+        builder.add(Region.KEY_CODE, String.class);
+        builder.add(Region.KEY_NAME, String.class);
+        this.featureType = builder.buildFeatureType();
+    }
+
+    /**
+     * Reads the regions of the region set. Regions without id or name and duplicates are skipped like with
+     * RegionSetHelper.getRegions().
+     * @param regionset
+     * @param requestedSRS projection for the geometries
+     * @return regions of the region set
+     */
+    public static RegionCoverage create(RegionSet regionset, String requestedSRS)
+            throws FactoryException, MismatchedDimensionException, TransformException, ServiceException, IOException {
+        SimpleFeatureCollection fc = RegionSetHelper.getFeatureCollection(regionset, requestedSRS);
+        final String idProperty = regionset.getIdProperty();
+        final String nameProperty = regionset.getNameProperty();
+
+        final Set<String> seenIds = new HashSet<>();
+        final List<String> ids = new ArrayList<>();
+        final List<String> names = new ArrayList<>();
+        final List<Geometry> geometries = new ArrayList<>();
+        try (SimpleFeatureIterator it = fc.features()) {
+            while (it.hasNext()) {
+                final SimpleFeature feature = it.next();
+                final Object id = feature.getAttribute(idProperty);
+                final Object name = feature.getAttribute(nameProperty);
+                final Object geometry = feature.getDefaultGeometry();
+                if (id == null || name == null || !(geometry instanceof Polygonal)) {
+                    continue;
+                }
+                if (!seenIds.add(id.toString())) {
+                    continue;
+                }
+                ids.add(id.toString());
+                names.add(name.toString());
+                geometries.add((Geometry) geometry);
+            }
+        }
+        if (ids.isEmpty()) {
+            throw new ServiceException("Empty result, check configuration for region id-property=" +
+                    idProperty + " and name-property=" + nameProperty);
+        }
+        return new RegionCoverage(ids, names, geometries);
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * Simplifies the regions as a coverage. If the geometries don't form a valid coverage (f.ex. overlapping
+     * regions on source data, checked with CoverageValidator) each region is simplified separately instead.
+     * @param tolerance distance tolerance in map units, f.ex. a pixel on the zoom level the regions are shown
+     * @return regions as features with Region.KEY_CODE and Region.KEY_NAME attributes
+     */
+    public SimpleFeatureCollection simplify(double tolerance) {
+        return toFeatures(getSimplifiedGeometries(tolerance));
+    }
+
+    protected Geometry[] getSimplifiedGeometries(double tolerance) {
+        if (tolerance <= 0) {
+            return geometries;
+        }
+        // CoverageSimplifier doesn't check the input and can return broken geometries for an invalid coverage
+        if (!isValidCoverage()) {
+            return simplifyEach(tolerance);
+        }
+        try {
+            return CoverageSimplifier.simplify(geometries, tolerance);
+        } catch (Exception e) {
+            LOG.info("Couldn't simplify regions as coverage:", e.getMessage(), "- simplifying each region separately");
+            return simplifyEach(tolerance);
+        }
+    }
+
+    protected boolean isValidCoverage() {
+        if (validCoverage == null) {
+            boolean valid = CoverageValidator.isValid(geometries);
+            if (!valid) {
+                LOG.info("Regions don't form a valid coverage (overlaps or mismatching borders)",
+                        "- simplifying each region separately");
+            }
+            validCoverage = valid;
+        }
+        return validCoverage;
+    }
+
+    private Geometry[] simplifyEach(double tolerance) {
+        Geometry[] simplified = new Geometry[geometries.length];
+        for (int i = 0; i < geometries.length; i++) {
+            simplified[i] = TopologyPreservingSimplifier.simplify(geometries[i], tolerance);
+        }
+        return simplified;
+    }
+
+    private SimpleFeatureCollection toFeatures(Geometry[] simplified) {
+        DefaultFeatureCollection fc = new DefaultFeatureCollection();
+        SimpleFeatureBuilder builder = new SimpleFeatureBuilder(featureType);
+        for (int i = 0; i < ids.length; i++) {
+            Geometry geom = simplified[i];
+            if (geom == null || geom.isEmpty()) {
+                // region collapsed on simplification
+                continue;
+            }
+            builder.set(GEOMETRY_ATTRIBUTE, geom);
+            builder.set(Region.KEY_CODE, ids[i]);
+            builder.set(Region.KEY_NAME, names[i]);
+            fc.add(builder.buildFeature(ids[i]));
+        }
+        return fc;
+    }
+}
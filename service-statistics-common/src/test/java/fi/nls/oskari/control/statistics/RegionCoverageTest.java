@@ -0,0 +1,63 @@
+package fi.nls.oskari.control.statistics;
+
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.io.WKTReader;
+import org.locationtech.jts.simplify.TopologyPreservingSimplifier;
+
+import java.util.Arrays;
+
+public class RegionCoverageTest {
+
+    // two regions sharing a jagged border on x=10
+    private static final String LEFT = "POLYGON ((0 0, 10 0, 10.1 2, 9.9 4, 10.1 6, 9.9 8, 10 10, 0 10, 0 0))";
+    private static final String RIGHT = "POLYGON ((10 0, 20 0, 20 10, 10 10, 9.9 8, 10.1 6, 9.9 4, 10.1 2, 10 0))";
+
+    // overlaps LEFT
+    private static final String OVERLAPPING = "POLYGON ((5 0, 20 0, 20 10, 5 10, 5.1 8, 4.9 6, 5.1 4, 4.9 2, 5 0))";
+
+    private RegionCoverage getCoverage() throws Exception {
+        WKTReader reader = new WKTReader();
+        return new RegionCoverage(Arrays.asList("1", "2"), Arrays.asList("Left", "Right"),
+                Arrays.asList(reader.read(LEFT), reader.read(RIGHT)));
+    }
+
+    @Test
+    public void testSharedBorderIsSimplifiedOnce() throws Exception {
+        Geometry[] simplified = getCoverage().getSimplifiedGeometries(1);
+        Geometry left = simplified[0];
+        Geometry right = simplified[1];
+        Assertions.assertTrue(left.getNumPoints() < 9, "Border should be simplified");
+        Assertions.assertEquals(0, left.intersection(right).getArea(), 1e-9, "Regions should not overlap");
+        Assertions.assertEquals(200, left.union(right).getArea(), 1e-9, "Regions should not have gaps");
+    }
+
+    @Test
+    public void testSimplifyFeatures() throws Exception {
+        RegionCoverage coverage = getCoverage();
+        Assertions.assertEquals(2, coverage.size());
+        SimpleFeatureCollection fc = coverage.simplify(1);
+        Assertions.assertEquals(2, fc.size());
+        try (SimpleFeatureIterator it = fc.features()) {
+            Assertions.assertEquals("Left", it.next().getAttribute(Region.KEY_NAME));
+        }
+    }
+
+    @Test
+    public void testInvalidCoverageIsSimplifiedPerRegion() throws Exception {
+        WKTReader reader = new WKTReader();
+        Geometry left = reader.read(LEFT);
+        Geometry overlapping = reader.read(OVERLAPPING);
+        RegionCoverage coverage = new RegionCoverage(Arrays.asList("1", "2"), Arrays.asList("Left", "Overlapping"),
+                Arrays.asList(left, overlapping));
+        Assertions.assertFalse(coverage.isValidCoverage());
+
+        Geometry[] simplified = coverage.getSimplifiedGeometries(1);
+        Assertions.assertTrue(TopologyPreservingSimplifier.simplify(left, 1).equalsExact(simplified[0]));
+        Assertions.assertTrue(TopologyPreservingSimplifier.simplify(overlapping, 1).equalsExact(simplified[1]));
+        Assertions.assertTrue(simplified[0].isValid() && simplified[1].isValid());
+    }
+}
@@ -9,6 +9,7 @@ import fi.nls.oskari.domain.map.userlayer.UserLayer;
 import fi.nls.oskari.domain.map.userlayer.UserLayerData;
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.map.geometry.FeatureTypeCache;
 import fi.nls.oskari.map.geometry.WKTHelper;
 import fi.nls.oskari.mybatis.MyBatisHelper;
 import fi.nls.oskari.service.ServiceException;
@@ -25,8 +26,8 @@ import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.io.WKBReader;
 import org.geotools.api.feature.simple.SimpleFeature;
-import org.geotools.api.feature.simple.SimpleFeatureType;
 import org.geotools.api.referencing.crs.CoordinateReferenceSystem;
 import org.oskari.geojson.GeoJSONWriter;
 
@@ -36,7 +37,6 @@ import java.util.List;
 
 import static fi.nls.oskari.map.geometry.ProjectionHelper.getSRID;
 import static fi.nls.oskari.map.geometry.WKTHelper.GEOM_ATTRIBUTE;
-import static fi.nls.oskari.map.geometry.WKTHelper.parseWKT;
 
 @Oskari
 public class UserLayerDbServiceMybatisImpl extends UserLayerDbService {
@@ -50,6 +50,7 @@ public class UserLayerDbServiceMybatisImpl extends UserLayerDbService {
     private SqlSessionFactory factory = null;
 
     private static final GeoJSONWriter geojsonWriter = new GeoJSONWriter();
+    private final FeatureTypeCache featureTypes = new FeatureTypeCache(this::getFeatureTypeBuilder);
 
     public UserLayerDbServiceMybatisImpl() {
         final DatasourceHelper helper = DatasourceHelper.getInstance();
@@ -277,39 +278,28 @@ public class UserLayerDbServiceMybatisImpl extends UserLayerDbService {
             final UserLayerMapper mapper = getMapper(session);
             String nativeSrsName = PropertyUtil.get("oskari.native.srs", "EPSG:3857");
             int nativeSrid = getSRID(nativeSrsName);
-            List<UserLayerData> features = mapper.findAllByLooseBBOX(layerId, bbox.getMinX(), bbox.getMinY(), bbox.getMaxX(), bbox.getMaxY(), nativeSrid);
-            return this.toSimpleFeatureCollection(features);
-        } catch (Exception e) {
-            log.warn(e, "Exception when trying to get features by bounding box ", bbox.getMinX(), bbox.getMinY(), bbox.getMaxX(), bbox.getMaxY());
-            throw new ServiceException(e.getMessage());
-        }
-    }
-
-    private SimpleFeatureCollection toSimpleFeatureCollection(List<UserLayerData> features) throws ServiceException {
-        try {
-            if (features == null || features.isEmpty()) {
-                return new EmptyFeatureCollection(null);
-            }
-
             DefaultFeatureCollection collection = new DefaultFeatureCollection();
-            for (UserLayerData feature: features) {
-                if (feature.getWkt() != null) {
-                    collection.add(toSimpleFeature(feature));
-                }
+            // geometries are read as WKB and rows are handled one by one instead of collecting them to a list first
+            WKBReader reader = new WKBReader();
+            mapper.findAllByLooseBBOX(layerId, bbox.getMinX(), bbox.getMinY(), bbox.getMaxX(), bbox.getMaxY(), nativeSrid,
+                    context -> {
+                        Geometry geom = WKTHelper.parseWKB(context.getResultObject().getWkb(), reader);
+                        if (geom != null) {
+                            collection.add(toSimpleFeature(context.getResultObject(), geom));
+                        }
+                    });
+            if (collection.isEmpty()) {
+                return new EmptyFeatureCollection(null);
             }
-
             return collection;
         } catch (Exception e) {
-            log.warn(e, "Failed to create SimpleFeatureCollection");
-            throw new ServiceException("Failed to create SimpleFeatureCollection");
+            log.warn(e, "Exception when trying to get features by bounding box ", bbox.getMinX(), bbox.getMinY(), bbox.getMaxX(), bbox.getMaxY());
+            throw new ServiceException(e.getMessage());
         }
     }
 
-    private SimpleFeature toSimpleFeature(UserLayerData feature) {
-        Geometry geom = parseWKT(feature.getWkt());
-        SimpleFeatureTypeBuilder featureTypeBuilder = getFeatureTypeBuilder(geom);
-        SimpleFeatureType simpleFeatureType = featureTypeBuilder.buildFeatureType();
-        SimpleFeatureBuilder featureBuilder = new SimpleFeatureBuilder(simpleFeatureType);
+    private SimpleFeature toSimpleFeature(UserLayerData feature, Geometry geom) {
+        SimpleFeatureBuilder featureBuilder = new SimpleFeatureBuilder(featureTypes.get(geom));
         featureBuilder.set(GEOM_ATTRIBUTE, geom);
         featureBuilder.set("id", feature.getId());
         featureBuilder.set("user_layer_id", feature.getUser_layer_id());
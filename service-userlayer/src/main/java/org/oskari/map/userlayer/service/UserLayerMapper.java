@@ -3,9 +3,11 @@ package org.oskari.map.userlayer.service;
 import fi.nls.oskari.domain.map.userlayer.UserLayer;
 import fi.nls.oskari.domain.map.userlayer.UserLayerData;
 import fi.nls.oskari.service.ServiceException;
+import org.apache.ibatis.annotations.Options;
 import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.ResultMap;
 import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.session.ResultHandler;
 
 import java.util.List;
 
@@ -72,16 +74,17 @@ public interface UserLayerMapper {
      * @param maxX
      * @param maxY
      * @param srid
-     * @return
+     * @param handler receives the features one by one, geometry as WKB
      */
     @ResultMap("UserLayerDataResult")
+    @Options(fetchSize = 1000)
     @Select("SELECT " +
             " id, " +
             " user_layer_id, " +
             " uuid, " +
             " feature_id, " +
             " property_json, " +
-            " ST_ASTEXT(geometry) as wkt, " +
+            " ST_ASBINARY(geometry) as wkb, " +
             " ST_SRID(geometry) as srid, " +
             " created, " +
             " updated " +
@@ -90,11 +93,12 @@ public interface UserLayerMapper {
             " user_layer_id = #{layerId} " +
             " AND " +
             " geometry && ST_MAKEENVELOPE(#{minX}, #{minY}, #{maxX}, #{maxY}, #{srid})")
-    List<UserLayerData> findAllByLooseBBOX(@Param("layerId") int layerId,
-                                      @Param("minX") double minX,
-                                      @Param("minY") double minY,
-                                      @Param("maxX") double maxX,
-                                      @Param("maxY") double maxY,
-                                      @Param("srid") int srid);
+    void findAllByLooseBBOX(@Param("layerId") int layerId,
+                            @Param("minX") double minX,
+                            @Param("minY") double minY,
+                            @Param("maxX") double maxX,
+                            @Param("maxY") double maxY,
+                            @Param("srid") int srid,
+                            ResultHandler<UserLayerData> handler);
 
 }
@@ -1,29 +1,69 @@
 package org.oskari.service.wfs.client;
 
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
+import org.geotools.api.feature.simple.SimpleFeature;
 import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.api.filter.Filter;
 import org.geotools.api.referencing.crs.CoordinateReferenceSystem;
 
 import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
 
+import fi.nls.oskari.cache.Cache;
 import fi.nls.oskari.cache.CacheManager;
 import fi.nls.oskari.cache.ComputeOnceCache;
 import fi.nls.oskari.domain.map.OskariLayer;
+import fi.nls.oskari.service.ServiceRuntimeException;
+import fi.nls.oskari.util.PropertyUtil;
 
 public class CachingOskariWFSClient extends OskariWFSClient {
 
     private static final String CACHE_NAME = CachingOskariWFSClient.class.getName();
     private static final int CACHE_SIZE_LIMIT = 10000;
     private static final long CACHE_EXPIRATION = TimeUnit.MINUTES.toMillis(5L);
+    // the amount of features varies a lot between responses so the cache is bounded by an estimated size
+    // configure with oskari.cache.maxbytes.org.oskari.service.wfs.client.CachingOskariWFSClient
+    private static final long CACHE_MAX_BYTES = 256L * 1024L * 1024L;
+    // configure with oskari.cache.maxbytes.org.oskari.service.wfs.client.CachingOskariWFSClient.index
+    private static final String INDEX_CACHE_NAME = CACHE_NAME + ".index";
+    private static final int INDEX_MAX_FEATURES = PropertyUtil.getOptional("oskari.wfs.cache.index.maxfeatures", 100000);
+    // each loaded bbox is unioned to the loaded area of the index which makes adding and querying slower
+    private static final int INDEX_MAX_AREAS = PropertyUtil.getOptional("oskari.wfs.cache.index.maxareas", 200);
+
+    // rough estimates for heap usage
+    private static final long OBJECT_OVERHEAD = 16;
+    private static final long STRING_OVERHEAD = 40;
+    private static final long FEATURE_OVERHEAD = 120;
+    private static final long GEOMETRY_OVERHEAD = 80;
+    private static final long BYTES_PER_COORDINATE = 40;
 
     // Consider using Redis for caching (how much does serialization/deserialization to GeoJSON add?)
+    // responses that can't be added to the spatial index (no bbox or truncated by max features)
     private final ComputeOnceCache<SimpleFeatureCollection> cache;
+    // features of a layer in a CRS, requests inside already loaded areas are answered from the index
+    private final Cache<FeatureIndex> indexes;
+    // requests in progress so concurrent requests for the same key are only sent once
+    private static final ConcurrentHashMap<String, CompletableFuture<SimpleFeatureCollection>> IN_PROGRESS = new ConcurrentHashMap<>();
 
     public CachingOskariWFSClient() {
-        cache = CacheManager.getCache(CACHE_NAME, () -> new ComputeOnceCache<>(CACHE_SIZE_LIMIT, CACHE_EXPIRATION));
+        cache = CacheManager.getCache(CACHE_NAME, () -> {
+            ComputeOnceCache<SimpleFeatureCollection> c = new ComputeOnceCache<>(CACHE_SIZE_LIMIT, CACHE_EXPIRATION);
+            c.setWeigher(CachingOskariWFSClient::estimateSize, CACHE_MAX_BYTES);
+            return c;
+        });
+        indexes = CacheManager.getCache(INDEX_CACHE_NAME, () -> {
+            Cache<FeatureIndex> c = new Cache<>();
+            c.setExpiration(CACHE_EXPIRATION);
+            c.setWeigher((key, index) -> STRING_OVERHEAD + 2L * key.length() + index.getEstimatedBytes(), CACHE_MAX_BYTES);
+            return c;
+        });
     }
 
     @Override
@@ -33,8 +73,124 @@ public class CachingOskariWFSClient extends OskariWFSClient {
             // Don't cache requests with a Filter
             return super.getFeatures(layer, bbox, crs, filter);
         }
+        SimpleFeatureCollection cached = getCached(layer, bbox, crs);
+        if (cached != null) {
+            return cached;
+        }
         String key = getCacheKey(layer, bbox, crs);
-        return cache.get(key, __ -> super.getFeatures(layer, bbox, crs, filter));
+        CompletableFuture<SimpleFeatureCollection> result = new CompletableFuture<>();
+        CompletableFuture<SimpleFeatureCollection> existing = IN_PROGRESS.putIfAbsent(key, result);
+        if (existing != null) {
+            return join(existing);
+        }
+        try {
+            SimpleFeatureCollection fc = super.getFeatures(layer, bbox, crs, filter);
+            store(layer, bbox, crs, fc);
+            result.complete(fc);
+            return fc;
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+            throw e;
+        } finally {
+            IN_PROGRESS.remove(key, result);
+        }
+    }
+
+    @Override
+    public CompletableFuture<SimpleFeatureCollection> getFeaturesAsync(OskariLayer layer,
+            ReferencedEnvelope bbox, CoordinateReferenceSystem crs, Filter filter) {
+        if (filter != null) {
+            // Don't cache requests with a Filter
+            return super.getFeaturesAsync(layer, bbox, crs, filter);
+        }
+        SimpleFeatureCollection cached = getCached(layer, bbox, crs);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        String key = getCacheKey(layer, bbox, crs);
+        CompletableFuture<SimpleFeatureCollection> result = new CompletableFuture<>();
+        CompletableFuture<SimpleFeatureCollection> existing = IN_PROGRESS.putIfAbsent(key, result);
+        if (existing != null) {
+            return existing;
+        }
+        super.getFeaturesAsync(layer, bbox, crs, filter).whenComplete((fc, e) -> {
+            if (e == null) {
+                store(layer, bbox, crs, fc);
+            }
+            IN_PROGRESS.remove(key, result);
+            if (e == null) {
+                result.complete(fc);
+            } else {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    private SimpleFeatureCollection getCached(OskariLayer layer, ReferencedEnvelope bbox, CoordinateReferenceSystem crs) {
+        if (bbox != null) {
+            FeatureIndex index = indexes.get(getIndexKey(layer, crs));
+            if (index != null && !isExpired(index)) {
+                SimpleFeatureCollection fc = index.query(bbox);
+                if (fc != null) {
+                    return fc;
+                }
+            }
+        }
+        return cache.get(getCacheKey(layer, bbox, crs));
+    }
+
+    private void store(OskariLayer layer, ReferencedEnvelope bbox, CoordinateReferenceSystem crs, SimpleFeatureCollection fc) {
+        // size() loads every page of a paged (OGC API Features) response so the collection can be read again
+        int size = fc == null ? 0 : fc.size();
+        if (bbox == null || fc == null || size >= getMaxFeatures(layer)) {
+            // response might not have every feature in the bbox -> can't mark the area as loaded
+            cache.put(getCacheKey(layer, bbox, crs), fc);
+            return;
+        }
+        String indexKey = getIndexKey(layer, crs);
+        FeatureIndex index = indexes.get(indexKey);
+        if (canAdd(index, fc)) {
+            index.add(bbox, fc, CachingOskariWFSClient::estimateSize);
+            // the index is local to this node, update the weight without notifying the cluster
+            indexes.updateWeight(indexKey);
+            return;
+        }
+        index = new FeatureIndex(fc.getSchema());
+        index.add(bbox, fc, CachingOskariWFSClient::estimateSize);
+        indexes.put(indexKey, index);
+    }
+
+    private static boolean canAdd(FeatureIndex index, SimpleFeatureCollection fc) {
+        if (index == null || isExpired(index)) {
+            return false;
+        }
+        if (index.size() + fc.size() > INDEX_MAX_FEATURES || index.getAreaCount() >= INDEX_MAX_AREAS) {
+            // start over instead of growing without limit
+            return false;
+        }
+        // the features in the index must share the schema, GeoJSON schema is detected per response
+        return fc.isEmpty() || Objects.equals(index.getSchema(), fc.getSchema());
+    }
+
+    private static boolean isExpired(FeatureIndex index) {
+        return System.currentTimeMillis() - index.getCreated() > CACHE_EXPIRATION;
+    }
+
+    private static SimpleFeatureCollection join(CompletableFuture<SimpleFeatureCollection> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new ServiceRuntimeException("Failed to get features", e.getCause());
+        }
+    }
+
+    private String getIndexKey(OskariLayer layer, CoordinateReferenceSystem crs) {
+        String crsStr = crs.getIdentifiers().iterator().next().toString();
+        return String.join(",", layer.getUrl(), layer.getName(), crsStr);
     }
 
     private String getCacheKey(OskariLayer layer, Envelope bbox, CoordinateReferenceSystem crs) {
@@ -45,4 +201,42 @@ public class CachingOskariWFSClient extends OskariWFSClient {
         return String.join(",", endPoint, typeName, bboxStr, crsStr);
     }
 
+    /**
+     * Estimates the heap used by the features. Doesn't need to be exact, but should scale with the
+     * amount of features, coordinates and attribute data.
+     */
+    protected static long estimateSize(String key, SimpleFeatureCollection fc) {
+        long size = STRING_OVERHEAD + 2L * key.length();
+        if (fc == null) {
+            return size;
+        }
+        try (SimpleFeatureIterator it = fc.features()) {
+            while (it.hasNext()) {
+                size += estimateSize(it.next());
+            }
+        }
+        return size;
+    }
+
+    protected static long estimateSize(SimpleFeature f) {
+        long size = FEATURE_OVERHEAD;
+        for (Object attr : f.getAttributes()) {
+            size += estimateSize(attr);
+        }
+        return size;
+    }
+
+    private static long estimateSize(Object value) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof Geometry) {
+            return GEOMETRY_OVERHEAD + BYTES_PER_COORDINATE * ((Geometry) value).getNumPoints();
+        }
+        if (value instanceof CharSequence) {
+            return STRING_OVERHEAD + 2L * ((CharSequence) value).length();
+        }
+        return OBJECT_OVERHEAD;
+    }
+
 }
@@ -0,0 +1,166 @@
+package org.oskari.service.wfs.client;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.geotools.api.feature.simple.SimpleFeature;
+import org.geotools.api.feature.simple.SimpleFeatureType;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+import org.locationtech.jts.index.quadtree.Quadtree;
+
+/**
+ * Spatial index over the features of a single layer (in a single CRS) that have been fetched from the service.
+ * Keeps track of the areas that have been fully loaded so requests inside those areas can be answered from the index
+ * instead of sending a new GetFeature request. Uses a Quadtree as features are added incrementally while the user
+ * pans the map (STRtree can't be modified after it has been queried).
+ *
+ * Features are de-duplicated by id. Ids generated by GeoTools for features without an id ("fid-" prefix) differ
+ * between responses so for those features the ones intersecting an already loaded area are skipped as the service
+ * returned them already in a previous response.
+ */
+class FeatureIndex {
+
+    private static final GeometryFactory GF = new GeometryFactory();
+    private static final String GENERATED_ID_PREFIX = "fid-";
+
+    private final SimpleFeatureType schema;
+    private final long created = System.currentTimeMillis();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Quadtree tree = new Quadtree();
+    private final Set<String> ids = new HashSet<>();
+    // features without geometry match every bbox
+    private final List<SimpleFeature> noGeometry = new ArrayList<>();
+    private Geometry coverage;
+    private PreparedGeometry preparedCoverage;
+    private int size;
+    private int areaCount;
+    private long estimatedBytes;
+
+    FeatureIndex(SimpleFeatureType schema) {
+        this.schema = schema;
+    }
+
+    SimpleFeatureType getSchema() {
+        return schema;
+    }
+
+    long getCreated() {
+        return created;
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return number of bboxes that have been added. The loaded area gets more complex with each bbox
+     */
+    int getAreaCount() {
+        lock.readLock().lock();
+        try {
+            return areaCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    long getEstimatedBytes() {
+        lock.readLock().lock();
+        try {
+            return estimatedBytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return features intersecting the bbox or null if the bbox isn't fully covered by loaded areas
+     */
+    SimpleFeatureCollection query(Envelope bbox) {
+        Geometry area = GF.toGeometry(bbox);
+        lock.readLock().lock();
+        try {
+            if (preparedCoverage == null || !preparedCoverage.covers(area)) {
+                return null;
+            }
+            List<SimpleFeature> features = new ArrayList<>(noGeometry);
+            for (Object o : tree.query(bbox)) {
+                SimpleFeature f = (SimpleFeature) o;
+                // Quadtree returns candidates, filter the same way as the BBOX request would
+                if (((Geometry) f.getDefaultGeometry()).getEnvelopeInternal().intersects(bbox)) {
+                    features.add(f);
+                }
+            }
+            return new ListFeatureCollection(schema, features);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds features that were loaded for the bbox and marks the bbox as loaded
+     * @param bbox area that was requested
+     * @param fc every feature intersecting the bbox (the response must not have been truncated by max features)
+     * @param weigher estimates the heap usage of a single feature
+     */
+    void add(Envelope bbox, SimpleFeatureCollection fc, FeatureWeigher weigher) {
+        lock.writeLock().lock();
+        try {
+            try (SimpleFeatureIterator it = fc.features()) {
+                while (it.hasNext()) {
+                    SimpleFeature f = it.next();
+                    if (isLoaded(f)) {
+                        continue;
+                    }
+                    Object geom = f.getDefaultGeometry();
+                    if (geom instanceof Geometry) {
+                        tree.insert(((Geometry) geom).getEnvelopeInternal(), f);
+                    } else {
+                        noGeometry.add(f);
+                    }
+                    size++;
+                    estimatedBytes += weigher.weigh(f);
+                }
+            }
+            Geometry area = GF.toGeometry(bbox);
+            coverage = coverage == null ? area : coverage.union(area);
+            preparedCoverage = PreparedGeometryFactory.prepare(coverage);
+            areaCount++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private boolean isLoaded(SimpleFeature f) {
+        String id = f.getID();
+        if (id != null && !id.startsWith(GENERATED_ID_PREFIX)) {
+            return !ids.add(id);
+        }
+        if (preparedCoverage == null) {
+            return false;
+        }
+        Object geom = f.getDefaultGeometry();
+        // features without geometry have been returned with every previous response
+        return !(geom instanceof Geometry) || preparedCoverage.intersects((Geometry) geom);
+    }
+
+    interface FeatureWeigher {
+        long weigh(SimpleFeature f);
+    }
+}
@@ -16,6 +16,7 @@ import org.oskari.service.wfs3.CoordinateTransformer;
 
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 public class OskariFeatureClient {
     public static final Logger LOG = LogFactory.getLogger(OskariFeatureClient.class);
@@ -48,23 +49,60 @@ public class OskariFeatureClient {
         CoordinateReferenceSystem nativeCRS = getNativeCRS();
         boolean needsTransform = !CRS.equalsIgnoreMetadata(nativeCRS, targetCRS);
 
-        // Request features in nativeCRS (of the installation)
-        // Most likely supported by all WFS layers
-        ReferencedEnvelope requestBbox = bbox;
-        if (needsTransform) {
-            try {
-                requestBbox = bbox.transform(nativeCRS, true);
-            } catch (Exception e) {
-                throw new ServiceRuntimeException(ERR_REPOJECTION_FAIL, e);
-            }
+        ReferencedEnvelope requestBbox = getRequestBbox(bbox, nativeCRS, needsTransform);
+        SimpleFeatureCollection features = getFeaturesNoTransform(id, layer, requestBbox, nativeCRS, processor);
+
+        if (!needsTransform) {
+            return features;
         }
+        return transform(features, nativeCRS, targetCRS);
+    }
 
-        SimpleFeatureCollection features = getFeaturesNoTransform(id, layer, requestBbox, nativeCRS, processor);
+    /**
+     * Non-blocking version of getFeatures(). WFS requests are sent through the loaders bulkhead,
+     * user content is read synchronously from the database.
+     * @return future that completes exceptionally if the features couldn't be retrieved
+     */
+    public CompletableFuture<SimpleFeatureCollection> getFeaturesAsync(String id, OskariLayer layer, ReferencedEnvelope bbox,
+            CoordinateReferenceSystem targetCRS, Optional<UserLayerService> processor) {
+        CompletableFuture<SimpleFeatureCollection> features;
+        CoordinateReferenceSystem nativeCRS;
+        boolean needsTransform;
+        try {
+            nativeCRS = getNativeCRS();
+            needsTransform = !CRS.equalsIgnoreMetadata(nativeCRS, targetCRS);
+            ReferencedEnvelope requestBbox = getRequestBbox(bbox, nativeCRS, needsTransform);
+            if (processor.isPresent()) {
+                features = CompletableFuture.completedFuture(getFeaturesNoTransform(id, layer, requestBbox, nativeCRS, processor));
+            } else {
+                Filter filter = wfsClient.getWFSFilter(id, layer, requestBbox, processor);
+                features = wfsClient.getFeaturesAsync(layer, requestBbox, nativeCRS, filter);
+            }
+        } catch (ServiceRuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
 
         if (!needsTransform) {
             return features;
         }
+        return features.thenApply(fc -> transform(fc, nativeCRS, targetCRS));
+    }
+
+    private ReferencedEnvelope getRequestBbox(ReferencedEnvelope bbox, CoordinateReferenceSystem nativeCRS, boolean needsTransform) {
+        // Request features in nativeCRS (of the installation)
+        // Most likely supported by all WFS layers
+        if (!needsTransform) {
+            return bbox;
+        }
+        try {
+            return bbox.transform(nativeCRS, true);
+        } catch (Exception e) {
+            throw new ServiceRuntimeException(ERR_REPOJECTION_FAIL, e);
+        }
+    }
 
+    private SimpleFeatureCollection transform(SimpleFeatureCollection features,
+            CoordinateReferenceSystem nativeCRS, CoordinateReferenceSystem targetCRS) {
         // Transform features to targetCRS
         try {
             CoordinateTransformer transformer = new CoordinateTransformer(nativeCRS, targetCRS);
@@ -38,7 +38,8 @@ public class OskariWFS110Client {
         Map<String, String> query = getQueryParams(typeName, bbox, crs, maxFeatures, filter);
         // attach any extra params added for layer (for example properties=[prop name we are interested in])
         query.putAll(JSONHelper.getObjectAsMap(layer.getParams()));
-        return OskariWFSClient.getFeatures(endPoint, user, pass, query, crs, tryGeoJSON, OSKARI_GML);
+        String formatKey = OskariWFSFormatRegistry.getKey(layer);
+        return OskariWFSClient.getFeatures(formatKey, endPoint, user, pass, query, crs, tryGeoJSON, OSKARI_GML);
     }
 
     protected static Map<String, String> getQueryParams(String typeName, ReferencedEnvelope bbox,
@@ -1,34 +1,31 @@
 package org.oskari.service.wfs.client;
 
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
-
 import fi.nls.oskari.domain.map.OskariLayer;
 import fi.nls.oskari.domain.map.wfs.WFSLayerAttributes;
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
 import fi.nls.oskari.util.IOHelper;
 import fi.nls.oskari.util.JSONHelper;
+import fi.nls.oskari.util.PropertyUtil;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.json.JSONObject;
-import org.geotools.api.feature.simple.SimpleFeatureType;
+import org.oskari.capabilities.CapabilitiesService;
+import org.oskari.capabilities.LayerCapabilities;
+import org.oskari.capabilities.ogc.LayerCapabilitiesOGC;
 import org.geotools.api.filter.Filter;
 import org.geotools.api.referencing.crs.CoordinateReferenceSystem;
 
 import fi.nls.oskari.service.ServiceRuntimeException;
-import org.oskari.geojson.GeoJSONReader2;
-import org.oskari.geojson.GeoJSONSchemaDetector;
+import org.oskari.geojson.GeoJSONStreamReader;
 import org.oskari.service.user.UserLayerService;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.HttpURLConnection;
-import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 import static fi.nls.oskari.service.capabilities.CapabilitiesConstants.KEY_FEATURE_OUTPUT_FORMATS;
 import static fi.nls.oskari.service.capabilities.CapabilitiesConstants.KEY_FORMATS;
@@ -38,12 +35,12 @@ public class OskariWFSClient {
 
     private static final Logger LOG = LogFactory.getLogger(OskariWFSClient.class);
     private static final String EXC_HANDLING_OUTPUTFORMAT = "outputformat";
-    private static final TypeReference<HashMap<String, Object>> TYPE_REF = new TypeReference<HashMap<String, Object>>() {};
-    private static final ObjectMapper OM = new ObjectMapper();
-    private static final int MAX_REDIRECTS = 5;
     private static final String PROPERTY_FORCE_GML = "forceGML";
     private static final String JSON_OUTPUT_FORMAT = "application/json";
     private static final int DEFAULT_MAX_FEATURES = 10000;
+    private static final int STREAM_BUFFER_SIZE = 8192;
+    private static final int GEOJSON_SCHEMA_SAMPLE_SIZE = PropertyUtil.getOptional("oskari.wfs.geojson.schemaSample",
+            GeoJSONStreamReader.DEFAULT_SCHEMA_SAMPLE_SIZE);
     protected static final String KEY_FILTER = "filter";
 
     private final OskariWFSLoader loader = new OskariWFSLoader();
@@ -53,6 +50,14 @@ public class OskariWFSClient {
         return loader.getFeatures(layer, bbox, crs, filter);
     }
 
+    /**
+     * Non-blocking version of getFeatures() for making multiple requests concurrently
+     */
+    public CompletableFuture<SimpleFeatureCollection> getFeaturesAsync(OskariLayer layer,
+            ReferencedEnvelope bbox, CoordinateReferenceSystem crs, Filter filter) {
+        return loader.getFeaturesAsync(layer, bbox, crs, filter);
+    }
+
     // Common methods for WFS 1.1.0 and 2.0.0 clients
     protected static String getBBOX(ReferencedEnvelope bbox) {
         if (bbox == null) {
@@ -73,71 +78,115 @@ public class OskariWFSClient {
     protected static SimpleFeatureCollection getFeatures(String endPoint,
             String user, String pass, Map<String, String> query,
             CoordinateReferenceSystem crs, boolean tryGeoJSON, OskariGMLDecoder gmlDecoder) {
-        String url; // for debugging
+        return getFeatures(null, endPoint, user, pass, query, crs, tryGeoJSON, gmlDecoder);
+    }
 
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        byte[] response;
-        Map<String, String> responseHeaders;
+    /**
+     * @param formatKey key for remembering the negotiated output format (see OskariWFSFormatRegistry), can be null
+     */
+    protected static SimpleFeatureCollection getFeatures(String formatKey, String endPoint,
+            String user, String pass, Map<String, String> query,
+            CoordinateReferenceSystem crs, boolean tryGeoJSON, OskariGMLDecoder gmlDecoder) {
         SimpleFeatureCollection fc;
 
-        if (tryGeoJSON) {
+        boolean requestJSON = tryGeoJSON && !OskariWFSFormatRegistry.isGMLOnly(formatKey);
+        if (requestJSON) {
             // First try GeoJSON
-            query.put("OUTPUTFORMAT", "application/json");
-            url = IOHelper.constructUrl(endPoint, query);
-            responseHeaders = OskariWFSClient.readResponseTo(endPoint, user, pass, query, baos);
-            response = baos.toByteArray();
-            if (response.length == 0) {
-                throw new ServiceRuntimeException("Empty response from " + url);
-            }
-            // TODO: Select parsing algorithm based on response headers (Content-Type)
-            fc = parseGeoJSON(response, crs, url);
-            if (fc != null) {
-                return fc;
-            }
-            // Try to parse the same response as GML
-            fc = parseGML(response, crs, url, user, pass, gmlDecoder);
+            query.put("OUTPUTFORMAT", JSON_OUTPUT_FORMAT);
+            fc = readFeatures(formatKey, endPoint, user, pass, query, crs, gmlDecoder);
             if (fc != null) {
-                LOG.info("Requested JSON but got GML. Possibly misconfigured service for", url);
                 return fc;
             }
-            // Okay I guess it wasn't a GML FeatureCollection either - move on
-            LOG.warn("Requested JSON but didn't get a parseable result. Making a new request for GML. Possibly misconfigured service for", url);
+            LOG.warn("Requested JSON but didn't get a parseable result. Making a new request for GML. Possibly misconfigured service for",
+                    IOHelper.constructUrl(endPoint, query));
         }
 
         // Fallback to to requesting GML
         query.remove("OUTPUTFORMAT");
-        url = IOHelper.constructUrl(endPoint, query);
-        baos.reset();
-        responseHeaders = OskariWFSClient.readResponseTo(endPoint, user, pass, query, baos);
-        response = baos.toByteArray();
-        if (response.length == 0) {
-            throw new ServiceRuntimeException("Empty response from " + url);
-        }
-        fc = parseGML(response, crs, url, user, pass, gmlDecoder);
+        fc = readFeatures(formatKey, endPoint, user, pass, query, crs, gmlDecoder);
         if (fc != null) {
+            if (requestJSON) {
+                // only remember the format if GML works, otherwise the request itself was probably the problem
+                OskariWFSFormatRegistry.fallbackToGML(formatKey, "Unparseable response for JSON request");
+            }
             return fc;
         }
 
         throw new ServiceRuntimeException("Failed to get features");
     }
 
-    private static Map<String, String> readResponseTo(String endPoint,
-            String user, String pass, Map<String, String> query, OutputStream out) {
+    /**
+     * Decodes the features straight from the response stream without buffering the whole response.
+     * The parser is selected based on the Content-Type of the response as the service might respond with GML
+     * even if JSON was requested. If the Content-Type doesn't tell the format the first non-whitespace
+     * character of the response is used instead.
+     * @return parsed features or null if the response couldn't be parsed
+     */
+    private static SimpleFeatureCollection readFeatures(String formatKey, String endPoint,
+            String user, String pass, Map<String, String> query,
+            CoordinateReferenceSystem crs, OskariGMLDecoder gmlDecoder) {
+        String url = IOHelper.constructUrl(endPoint, query); // for debugging
         try {
             HttpURLConnection conn = getConnection(endPoint, user, pass, query);
-            Map<String, String> responseHeaders = new HashMap<>();
-            conn.getHeaderFields().forEach((k, v) -> responseHeaders.put(k, v.get(0)));
-            IOHelper.readBytesTo(conn, out);
-            return responseHeaders;
+            try (InputStream in = new BufferedInputStream(IOHelper.getResponseStream(conn), STREAM_BUFFER_SIZE)) {
+                int first = peekFirstNonWhitespace(in);
+                if (first == -1) {
+                    throw new ServiceRuntimeException("Empty response from " + url);
+                }
+                if (!isJSON(conn.getContentType(), first)) {
+                    SimpleFeatureCollection fc = parseGML(in, url, user, pass, gmlDecoder);
+                    if (fc != null && query.containsKey("OUTPUTFORMAT")) {
+                        LOG.info("Requested JSON but got GML. Possibly misconfigured service for", url);
+                        OskariWFSFormatRegistry.fallbackToGML(formatKey, "Got GML for JSON request");
+                    }
+                    return fc;
+                }
+                return parseGeoJSON(in, crs, url);
+            }
         } catch (IOException e) {
             throw new ServiceRuntimeException("Unable to read response", e);
         }
     }
 
+    /**
+     * @param contentType Content-Type of the response
+     * @param first first non-whitespace byte of the response, used if the content type is missing or unknown
+     * @return true if the response should be parsed as JSON, false for XML
+     */
+    protected static boolean isJSON(String contentType, int first) {
+        if (contentType != null) {
+            String type = contentType.toLowerCase(Locale.ROOT);
+            if (type.contains("json")) {
+                return true;
+            }
+            if (type.contains("xml") || type.contains("gml")) {
+                return false;
+            }
+        }
+        return first != '<';
+    }
+
+    /**
+     * Skips whitespace (and possible UTF-8 BOM) from the beginning of the stream
+     * @return the first non-whitespace byte that is left unread in the stream or -1 if stream is empty
+     */
+    protected static int peekFirstNonWhitespace(InputStream in) throws IOException {
+        while (true) {
+            in.mark(1);
+            int b = in.read();
+            if (b == -1) {
+                return -1;
+            }
+            if (!Character.isWhitespace(b) && b != 0xEF && b != 0xBB && b != 0xBF) {
+                in.reset();
+                return b;
+            }
+        }
+    }
+
     private static HttpURLConnection getConnection(String endPoint,
                                                      String user, String pass, Map<String, String> query) throws IOException {
         HttpURLConnection conn = IOHelper.getConnection(endPoint, user, pass, query);
-        conn = IOHelper.followRedirect(conn, user, pass, query, MAX_REDIRECTS);
         int sc = conn.getResponseCode();
         if (sc != 200) {
             throw new ServiceRuntimeException("Unexpected status code " + sc, Integer.toString(sc));
@@ -145,26 +194,21 @@ public class OskariWFSClient {
         return conn;
     }
 
-    private static SimpleFeatureCollection parseGeoJSON(byte[] response, CoordinateReferenceSystem crs, String url) {
+    private static SimpleFeatureCollection parseGeoJSON(InputStream in, CoordinateReferenceSystem crs, String url) {
         try {
-            InputStream in = new ByteArrayInputStream(response);
-            Map<String, Object> geojson = OM.readValue(in, TYPE_REF);
             boolean ignoreGeometryProperties = true;
-            SimpleFeatureType schema = GeoJSONSchemaDetector.getSchema(geojson, crs, ignoreGeometryProperties);
-            return GeoJSONReader2.toFeatureCollection(geojson, schema);
+            return GeoJSONStreamReader.read(in, crs, ignoreGeometryProperties, GEOJSON_SCHEMA_SAMPLE_SIZE);
         } catch (Exception e) {
             LOG.info(e, "Unable to parse GeoJSON from", url);
-            LOG.debug("Response from", url, "was:\n", new String(response, StandardCharsets.UTF_8));
             return null;
         }
     }
 
-    private static SimpleFeatureCollection parseGML(byte[] response, CoordinateReferenceSystem crs, String url, String user, String pass, OskariGMLDecoder gmlDecoder) {
+    private static SimpleFeatureCollection parseGML(InputStream in, String url, String user, String pass, OskariGMLDecoder gmlDecoder) {
         try {
-            return gmlDecoder.decodeFeatureCollection(new ByteArrayInputStream(response), user, pass);
+            return gmlDecoder.decodeFeatureCollection(in, user, pass);
         } catch (Exception e) {
             LOG.info(e, "Unable to parse GML from", url);
-            LOG.debug("Response from", url, "was:\n", new String(response, StandardCharsets.UTF_8));
             return null;
         }
     }
@@ -181,7 +225,11 @@ public class OskariWFSClient {
             return formats.contains(JSON_OUTPUT_FORMAT);
         }
         if (capa.has(KEY_FORMATS)) {
-            // new capabilities
+            // new capabilities, parsed once per capabilities update instead of going through the JSON on each request
+            LayerCapabilities caps = CapabilitiesService.getLayerCapabilities(layer);
+            if (caps instanceof LayerCapabilitiesOGC) {
+                return ((LayerCapabilitiesOGC) caps).getFormats().contains(JSON_OUTPUT_FORMAT);
+            }
             List<String> formats = JSONHelper.getArrayAsList(JSONHelper.getJSONArray(capa, KEY_FORMATS));
             return formats.contains(JSON_OUTPUT_FORMAT);
         }
@@ -0,0 +1,124 @@
+package org.oskari.service.wfs.client;
+
+import fi.nls.oskari.cache.Cache;
+import fi.nls.oskari.cache.CacheManager;
+import fi.nls.oskari.domain.map.OskariLayer;
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.util.PropertyUtil;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers the output format negotiated with WFS layers. When a layer has been requested as JSON but the service
+ * responds with GML (or something that can't be parsed as JSON) the layer is marked as GML only. The following
+ * requests skip asking for JSON so each request is a single round-trip. The information expires after
+ * oskari.wfs.format.ttl seconds (default one day) so a fixed service will be asked for JSON again.
+ *
+ * Fallbacks are counted per layer so admins can spot misconfigured services. The counts are kept for the same
+ * time as the formats and for max 1000 layers (oskari.cache.limit.[class name].fallbacks).
+ */
+public class OskariWFSFormatRegistry {
+
+    private static final Logger LOG = LogFactory.getLogger(OskariWFSFormatRegistry.class);
+
+    public static final String FORMAT_GML = "GML";
+    private static final String CACHE_NAME = OskariWFSFormatRegistry.class.getName();
+    private static final String FALLBACK_CACHE_NAME = CACHE_NAME + ".fallbacks";
+    private static final int FALLBACK_LIMIT = 1000;
+    private static final long EXPIRATION_MS = TimeUnit.SECONDS.toMillis(
+            PropertyUtil.getOptional("oskari.wfs.format.ttl", 24 * 60 * 60));
+
+    private OskariWFSFormatRegistry() {}
+
+    private static Cache<String> getCache() {
+        return CacheManager.getCache(CACHE_NAME, () -> {
+            Cache<String> cache = new Cache<>();
+            cache.setExpiration(EXPIRATION_MS);
+            return cache;
+        });
+    }
+
+    private static Cache<AtomicLong> getFallbackCache() {
+        return CacheManager.getCache(FALLBACK_CACHE_NAME, () -> {
+            Cache<AtomicLong> cache = new Cache<>();
+            cache.setLimit(FALLBACK_LIMIT);
+            cache.setExpiration(EXPIRATION_MS);
+            return cache;
+        });
+    }
+
+    /**
+     * @return key used to identify the layer or null if the layer doesn't have enough information to identify it
+     */
+    public static String getKey(OskariLayer layer) {
+        if (layer == null) {
+            return null;
+        }
+        if (layer.getId() > 0) {
+            return Integer.toString(layer.getId());
+        }
+        if (layer.getUrl() == null) {
+            return null;
+        }
+        return layer.getUrl() + '|' + layer.getName();
+    }
+
+    /**
+     * @return true if the layer has been found to respond with GML even when JSON is requested
+     */
+    public static boolean isGMLOnly(String key) {
+        return key != null && FORMAT_GML.equals(getCache().get(key));
+    }
+
+    /**
+     * Marks the layer as GML only and counts the fallback
+     */
+    public static void fallbackToGML(String key, String reason) {
+        if (key == null) {
+            return;
+        }
+        long count = getFallbackCounter(key).incrementAndGet();
+        LOG.warn("Layer:", key, "-", reason, "- using GML for the layer from now on. Fallback count for the layer:", count);
+        getCache().put(key, FORMAT_GML);
+    }
+
+    // fallbacks are rare so there's no need for anything fancier than a lock
+    private static synchronized AtomicLong getFallbackCounter(String key) {
+        Cache<AtomicLong> cache = getFallbackCache();
+        AtomicLong counter = cache.get(key);
+        if (counter == null) {
+            counter = new AtomicLong();
+            cache.put(key, counter);
+        }
+        return counter;
+    }
+
+    /**
+     * Forgets the negotiated format and the fallback count for a layer. Called when the layer has been modified
+     * so the changes take effect.
+     */
+    public static void reset(int layerId) {
+        String key = Integer.toString(layerId);
+        getCache().remove(key);
+        getFallbackCache().remove(key);
+    }
+
+    /**
+     * @return number of format fallbacks keyed by layer
+     */
+    public static Map<String, Long> getFallbackCounts() {
+        Cache<AtomicLong> cache = getFallbackCache();
+        Map<String, Long> counts = new TreeMap<>();
+        for (String key : cache.getKeys()) {
+            AtomicLong count = cache.get(key);
+            if (count != null) {
+                counts.put(key, count.get());
+            }
+        }
+        return counts;
+    }
+}
@@ -21,6 +21,8 @@ import io.github.resilience4j.timelimiter.TimeLimiterConfig;
 import io.github.resilience4j.timelimiter.TimeLimiterRegistry;
 
 import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeoutException;
@@ -76,23 +78,54 @@ public class OskariWFSLoader {
 
     public SimpleFeatureCollection getFeatures(OskariLayer layer, ReferencedEnvelope bbox, CoordinateReferenceSystem crs, Filter filter) {
         try {
-            return Decorators.ofSupplier(getSupplier(layer, bbox, crs, filter))
+            return getFeaturesAsync(layer, bbox, crs, filter).join();
+        } catch (CompletionException e) {
+            throw (ServiceRuntimeException) e.getCause();
+        }
+    }
+
+    /**
+     * Same as getFeatures() but doesn't wait for the response. The request is run with the same bulkhead,
+     * time limiter and circuit breaker so concurrent requests can't exhaust the resources.
+     * @return future that completes exceptionally with a ServiceRuntimeException if the request fails
+     */
+    public CompletableFuture<SimpleFeatureCollection> getFeaturesAsync(OskariLayer layer, ReferencedEnvelope bbox, CoordinateReferenceSystem crs, Filter filter) {
+        CompletableFuture<SimpleFeatureCollection> result = new CompletableFuture<>();
+        try {
+            Decorators.ofSupplier(getSupplier(layer, bbox, crs, filter))
                 .withThreadPoolBulkhead(bulkhead)
                 .withTimeLimiter(timeLimiter, executor)
                 .withCircuitBreaker(circuitBreakerRegistry.circuitBreaker(layer.getUrl()))
-                .get().toCompletableFuture().join();
-        } catch (Exception e) { // CompletionException
-            Throwable cause = e.getCause();
-            if (cause instanceof TimeoutException) {
-                throw new ServiceRuntimeException(ERR_TIMEOUT);
-            }
-            if (cause instanceof CallNotPermittedException) {
-                throw new ServiceRuntimeException(ERR_SHORT_CIRCUIT);
-            }
-            throw new ServiceRuntimeException(ERR_FAILED_TO_RETRIEVE_FEATURES, e);
+                .get()
+                .whenComplete((fc, e) -> {
+                    if (e == null) {
+                        result.complete(fc);
+                    } else {
+                        result.completeExceptionally(toServiceException(e));
+                    }
+                });
+        } catch (Exception e) {
+            // BulkheadFullException is thrown directly if the queue is full
+            result.completeExceptionally(toServiceException(e));
+        }
+        return result;
+    }
+
+    private static ServiceRuntimeException toServiceException(Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        if (cause instanceof TimeoutException) {
+            return new ServiceRuntimeException(ERR_TIMEOUT);
+        }
+        if (cause instanceof CallNotPermittedException) {
+            return new ServiceRuntimeException(ERR_SHORT_CIRCUIT);
         }
+        return new ServiceRuntimeException(ERR_FAILED_TO_RETRIEVE_FEATURES, e);
     }
 
+    /**
+     * OGC API Features responses are returned before every page has been loaded: the first page is loaded within
+     * the bulkhead and time limit, the rest are loaded while the collection is read (see FeaturePageCollection).
+     */
     protected Supplier<SimpleFeatureCollection> getSupplier(OskariLayer layer, ReferencedEnvelope bbox, CoordinateReferenceSystem crs, Filter filter) {
         switch (layer.getVersion()) {
         case WFS_3_VERSION:
@@ -0,0 +1,90 @@
+package org.oskari.service.wfs.client;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.geotools.api.feature.simple.SimpleFeature;
+import org.geotools.api.feature.simple.SimpleFeatureType;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Point;
+
+public class FeatureIndexTest {
+
+    private static final GeometryFactory GF = new GeometryFactory();
+    private SimpleFeatureType schema;
+
+    @BeforeEach
+    public void setUp() {
+        SimpleFeatureTypeBuilder b = new SimpleFeatureTypeBuilder();
+        b.setName("test");
+        b.add("geometry", Point.class);
+        b.add("name", String.class);
+        schema = b.buildFeatureType();
+    }
+
+    private SimpleFeatureCollection features(String... idAndCoords) {
+        SimpleFeatureBuilder builder = new SimpleFeatureBuilder(schema);
+        List<SimpleFeature> list = new ArrayList<>();
+        for (String s : idAndCoords) {
+            String[] parts = s.split(" ");
+            builder.set("geometry", GF.createPoint(new Coordinate(Double.parseDouble(parts[1]), Double.parseDouble(parts[2]))));
+            builder.set("name", parts[0]);
+            list.add(builder.buildFeature(parts[0].isEmpty() ? null : parts[0]));
+        }
+        return new ListFeatureCollection(schema, list);
+    }
+
+    @Test
+    public void testQueryInsideLoadedArea() {
+        FeatureIndex index = new FeatureIndex(schema);
+        Assertions.assertNull(index.query(new Envelope(0, 10, 0, 10)), "Nothing loaded yet");
+
+        index.add(new Envelope(0, 10, 0, 10), features("a 1 1", "b 5 5", "c 9 9"), f -> 100);
+        Assertions.assertEquals(3, index.size());
+        Assertions.assertEquals(300, index.getEstimatedBytes());
+
+        SimpleFeatureCollection fc = index.query(new Envelope(4, 10, 4, 10));
+        Assertions.assertNotNull(fc);
+        Assertions.assertEquals(2, fc.size());
+        Assertions.assertNull(index.query(new Envelope(5, 15, 5, 15)), "Partially outside loaded area");
+    }
+
+    @Test
+    public void testPannedAreasAreCombined() {
+        FeatureIndex index = new FeatureIndex(schema);
+        index.add(new Envelope(0, 10, 0, 10), features("a 1 1", "b 9 9"), f -> 1);
+        // overlapping response returns b again
+        index.add(new Envelope(8, 18, 0, 10), features("b 9 9", "c 15 5"), f -> 1);
+        Assertions.assertEquals(3, index.size(), "Feature b should only be indexed once");
+
+        SimpleFeatureCollection fc = index.query(new Envelope(5, 15, 0, 10));
+        Assertions.assertNotNull(fc, "Area is covered by the two loaded areas");
+        Assertions.assertEquals(2, fc.size());
+    }
+
+    @Test
+    public void testAreaCount() {
+        FeatureIndex index = new FeatureIndex(schema);
+        Assertions.assertEquals(0, index.getAreaCount());
+        index.add(new Envelope(0, 10, 0, 10), features("a 1 1"), f -> 1);
+        index.add(new Envelope(8, 18, 0, 10), features(), f -> 1);
+        Assertions.assertEquals(2, index.getAreaCount());
+    }
+
+    @Test
+    public void testGeneratedIdsAreNotDuplicated() {
+        FeatureIndex index = new FeatureIndex(schema);
+        index.add(new Envelope(0, 10, 0, 10), features(" 9 9"), f -> 1);
+        index.add(new Envelope(8, 18, 0, 10), features(" 9 9", " 15 5"), f -> 1);
+        Assertions.assertEquals(2, index.size());
+    }
+}
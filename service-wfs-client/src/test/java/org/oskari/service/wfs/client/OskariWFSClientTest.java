@@ -9,6 +9,10 @@ import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.geotools.api.filter.Filter;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Optional;
 
 public class OskariWFSClientTest {
@@ -33,4 +37,39 @@ public class OskariWFSClientTest {
         Assertions.assertNotNull(filter, "Layer should get filter");
         Assertions.assertEquals("foo = 'bar' AND BBOX(geomName, 0.0,0.0,10.0,10.0)", CQL.toCQL(filter));
     }
+
+    @Test
+    public void parserFromContentType() {
+        Assertions.assertTrue(OskariWFSClient.isJSON("application/json; subtype=geojson", '<'));
+        Assertions.assertTrue(OskariWFSClient.isJSON("application/geo+json", '{'));
+        Assertions.assertFalse(OskariWFSClient.isJSON("text/xml; subtype=gml/3.1.1", '{'));
+        Assertions.assertFalse(OskariWFSClient.isJSON("application/gml+xml; version=3.2", '<'));
+        // content type missing or unknown -> detect from content
+        Assertions.assertTrue(OskariWFSClient.isJSON(null, '{'));
+        Assertions.assertFalse(OskariWFSClient.isJSON("text/plain", '<'));
+    }
+
+    @Test
+    public void peekFirstNonWhitespace() throws Exception {
+        InputStream in = new BufferedInputStream(new ByteArrayInputStream("\uFEFF \n <xml/>".getBytes(StandardCharsets.UTF_8)));
+        Assertions.assertEquals('<', OskariWFSClient.peekFirstNonWhitespace(in));
+        Assertions.assertEquals('<', in.read(), "Peeked byte should be left in the stream");
+        Assertions.assertEquals(-1, OskariWFSClient.peekFirstNonWhitespace(new BufferedInputStream(new ByteArrayInputStream(new byte[0]))));
+    }
+
+    @Test
+    public void formatRegistry() {
+        OskariLayer layer = new OskariLayer();
+        layer.setId(123456);
+        String key = OskariWFSFormatRegistry.getKey(layer);
+        Assertions.assertFalse(OskariWFSFormatRegistry.isGMLOnly(key));
+        OskariWFSFormatRegistry.fallbackToGML(key, "test");
+        Assertions.assertTrue(OskariWFSFormatRegistry.isGMLOnly(key));
+        Assertions.assertEquals(1L, OskariWFSFormatRegistry.getFallbackCounts().get(key));
+        OskariWFSFormatRegistry.fallbackToGML(key, "test");
+        Assertions.assertEquals(2L, OskariWFSFormatRegistry.getFallbackCounts().get(key));
+        OskariWFSFormatRegistry.reset(123456);
+        Assertions.assertFalse(OskariWFSFormatRegistry.isGMLOnly(key));
+        Assertions.assertNull(OskariWFSFormatRegistry.getFallbackCounts().get(key), "Count should be reset");
+    }
 }
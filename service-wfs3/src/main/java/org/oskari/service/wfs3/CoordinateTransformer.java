@@ -1,5 +1,6 @@
 package org.oskari.service.wfs3;
 
+import fi.nls.oskari.service.ServiceRuntimeException;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
 import org.geotools.feature.simple.SimpleFeatureBuilder;
@@ -58,6 +59,21 @@ public class CoordinateTransformer {
         }
 
         SimpleFeatureType newSchema = SimpleFeatureTypeBuilder.retype(sfc.getSchema(), to);
+        if (sfc instanceof FeaturePageCollection) {
+            // transform page by page as the features are read instead of copying the whole response
+            return ((FeaturePageCollection) sfc).mapPages(newSchema, page -> {
+                try {
+                    return transform(page, newSchema);
+                } catch (MismatchedDimensionException | TransformException e) {
+                    throw new ServiceRuntimeException("Projection transformation failed", e);
+                }
+            });
+        }
+        return transform(sfc, newSchema);
+    }
+
+    private SimpleFeatureCollection transform(SimpleFeatureCollection sfc, SimpleFeatureType newSchema)
+            throws MismatchedDimensionException, TransformException {
         List<SimpleFeature> fc = new ArrayList<>();
         try (SimpleFeatureIterator it = sfc.features()) {
             while (it.hasNext()) {
@@ -0,0 +1,287 @@
+package org.oskari.service.wfs3;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+
+import org.geotools.api.feature.FeatureVisitor;
+import org.geotools.api.feature.simple.SimpleFeature;
+import org.geotools.api.feature.simple.SimpleFeatureType;
+import org.geotools.api.filter.Filter;
+import org.geotools.api.filter.sort.SortBy;
+import org.geotools.api.util.ProgressListener;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+
+/**
+ * SimpleFeatureCollection that pulls the pages of a paged response while the features are iterated.
+ * A single pass with features() (for example encoding the features) only keeps the page being read
+ * (and the one loaded ahead by FeaturePageIterator) in memory.
+ *
+ * Operations that need every feature (size(), getBounds(), subCollection() etc) load the remaining pages and
+ * keep them so the collection can be read any number of times after that. isEmpty() only loads pages until it
+ * finds a feature. Once the features have been streamed they can't be read again and other operations throw
+ * IllegalStateException.
+ */
+public class FeaturePageCollection implements SimpleFeatureCollection {
+
+    private final Iterator<SimpleFeatureCollection> source;
+    private final AutoCloseable onClose;
+    private final SimpleFeatureType schema;
+    private final String collectionId;
+    private final int maxSize;
+
+    // pages read ahead by isEmpty(), handed out before the rest of the source
+    private final List<SimpleFeatureCollection> buffered = new ArrayList<>();
+    private PaginatedFeatureCollection materialized;
+    private boolean consumed;
+
+    public FeaturePageCollection(FeaturePageIterator pages, String collectionId) {
+        this(pages, pages, pages.getSchema(), collectionId, pages.getHardLimit());
+    }
+
+    /**
+     * @param source pages of the collection
+     * @param onClose closed when the pages are no longer needed, can be null
+     * @param maxSize max number of features to return
+     */
+    public FeaturePageCollection(Iterator<SimpleFeatureCollection> source, AutoCloseable onClose,
+            SimpleFeatureType schema, String collectionId, int maxSize) {
+        this.source = source;
+        this.onClose = onClose;
+        this.schema = schema;
+        this.collectionId = collectionId != null ? collectionId : "featureCollection";
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns a collection with each page mapped with the function as they are read. If the pages haven't been
+     * loaded yet this collection can't be used after calling this.
+     */
+    public synchronized FeaturePageCollection mapPages(SimpleFeatureType newSchema,
+            Function<SimpleFeatureCollection, SimpleFeatureCollection> mapper) {
+        if (materialized != null) {
+            Iterator<SimpleFeatureCollection> pages = materialized.getPages().iterator();
+            return new FeaturePageCollection(map(pages, mapper), null, newSchema, collectionId, maxSize);
+        }
+        return new FeaturePageCollection(map(takePages(), mapper), onClose, newSchema, collectionId, maxSize);
+    }
+
+    private static Iterator<SimpleFeatureCollection> map(Iterator<SimpleFeatureCollection> pages,
+            Function<SimpleFeatureCollection, SimpleFeatureCollection> mapper) {
+        return new Iterator<SimpleFeatureCollection>() {
+            @Override
+            public boolean hasNext() {
+                return pages.hasNext();
+            }
+
+            @Override
+            public SimpleFeatureCollection next() {
+                return mapper.apply(pages.next());
+            }
+        };
+    }
+
+    @Override
+    public SimpleFeatureType getSchema() {
+        return schema;
+    }
+
+    @Override
+    public String getID() {
+        return collectionId;
+    }
+
+    @Override
+    public synchronized boolean isEmpty() {
+        if (materialized != null) {
+            return materialized.isEmpty();
+        }
+        checkNotConsumed();
+        for (SimpleFeatureCollection page : buffered) {
+            if (!page.isEmpty()) {
+                return false;
+            }
+        }
+        while (source.hasNext()) {
+            SimpleFeatureCollection page = source.next();
+            buffered.add(page);
+            if (!page.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized SimpleFeatureIterator features() {
+        if (materialized != null) {
+            return materialized.features();
+        }
+        return new StreamingIterator(takePages());
+    }
+
+    @Override
+    public void accepts(FeatureVisitor visitor, ProgressListener progress) throws IOException {
+        getMaterialized().accepts(visitor, progress);
+    }
+
+    @Override
+    public ReferencedEnvelope getBounds() {
+        return getMaterialized().getBounds();
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return getMaterialized().contains(o);
+    }
+
+    @Override
+    public boolean containsAll(Collection<?> o) {
+        return getMaterialized().containsAll(o);
+    }
+
+    @Override
+    public int size() {
+        return getMaterialized().size();
+    }
+
+    @Override
+    public Object[] toArray() {
+        return getMaterialized().toArray();
+    }
+
+    @Override
+    public <O> O[] toArray(O[] a) {
+        return getMaterialized().toArray(a);
+    }
+
+    @Override
+    public SimpleFeatureCollection subCollection(Filter filter) {
+        return getMaterialized().subCollection(filter);
+    }
+
+    @Override
+    public SimpleFeatureCollection sort(SortBy order) {
+        return getMaterialized().sort(order);
+    }
+
+    /**
+     * Loads the remaining pages and keeps them
+     */
+    private synchronized PaginatedFeatureCollection getMaterialized() {
+        if (materialized == null) {
+            List<SimpleFeatureCollection> pages = new ArrayList<>();
+            Iterator<SimpleFeatureCollection> it = takePages();
+            try {
+                it.forEachRemaining(pages::add);
+            } finally {
+                close();
+            }
+            materialized = new PaginatedFeatureCollection(pages, schema, collectionId, maxSize);
+        }
+        return materialized;
+    }
+
+    private Iterator<SimpleFeatureCollection> takePages() {
+        checkNotConsumed();
+        consumed = true;
+        Iterator<SimpleFeatureCollection> head = new ArrayList<>(buffered).iterator();
+        buffered.clear();
+        return new Iterator<SimpleFeatureCollection>() {
+            @Override
+            public boolean hasNext() {
+                return head.hasNext() || source.hasNext();
+            }
+
+            @Override
+            public SimpleFeatureCollection next() {
+                return head.hasNext() ? head.next() : source.next();
+            }
+        };
+    }
+
+    private void checkNotConsumed() {
+        if (consumed) {
+            throw new IllegalStateException("Features of " + collectionId + " have already been read");
+        }
+    }
+
+    private void close() {
+        if (onClose == null) {
+            return;
+        }
+        try {
+            onClose.close();
+        } catch (Exception ignore) {
+            // Nothing we can do
+        }
+    }
+
+    private class StreamingIterator implements SimpleFeatureIterator {
+
+        private final Iterator<SimpleFeatureCollection> pages;
+        private SimpleFeatureIterator featureIterator;
+        private SimpleFeature next;
+        private boolean closed;
+        private int i;
+
+        private StreamingIterator(Iterator<SimpleFeatureCollection> pages) {
+            this.pages = pages;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (closed) {
+                return false;
+            }
+            if (next != null) {
+                return true;
+            }
+            while (featureIterator == null || !featureIterator.hasNext()) {
+                if (featureIterator != null) {
+                    featureIterator.close();
+                    featureIterator = null;
+                }
+                if (!pages.hasNext()) {
+                    close();
+                    return false;
+                }
+                featureIterator = pages.next().features();
+            }
+            next = featureIterator.next();
+            return true;
+        }
+
+        @Override
+        public SimpleFeature next() throws NoSuchElementException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            SimpleFeature tmp = next;
+            next = null;
+            if (++i >= maxSize) {
+                close();
+            }
+            return tmp;
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (featureIterator != null) {
+                featureIterator.close();
+            }
+            // cancels the page loaded ahead if the caller stops early
+            FeaturePageCollection.this.close();
+        }
+    }
+}
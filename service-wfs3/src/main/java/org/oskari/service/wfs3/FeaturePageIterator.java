@@ -0,0 +1,207 @@
+package org.oskari.service.wfs3;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.function.Consumer;
+
+import org.geotools.api.feature.simple.SimpleFeatureType;
+import org.geotools.api.filter.Filter;
+import org.geotools.api.geometry.MismatchedDimensionException;
+import org.geotools.api.referencing.operation.MathTransform;
+import org.geotools.api.referencing.operation.TransformException;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.oskari.geojson.GeoJSONReader2;
+
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.service.ServiceRuntimeException;
+
+/**
+ * Iterates the pages of an OGC API Features items response by following the "next" links.
+ * Pages are loaded lazily: the next page is requested in the background when the previous page is
+ * handed out so loading it overlaps with decoding and consuming the current page. At most one page is
+ * loaded ahead so memory use doesn't grow with the number of pages.
+ *
+ * If the executor hasn't started loading the next page by the time it's needed (or didn't accept it at all)
+ * the page is loaded on the calling thread instead of waiting for a free thread.
+ *
+ * Stops after the page that reaches hardLimit features. Close the iterator if it's not consumed to the end
+ * so a pending request for the next page is cancelled. Interrupting doesn't stop blocking I/O so a load
+ * that is already running is cancelled by closing its response.
+ */
+public class FeaturePageIterator implements Iterator<SimpleFeatureCollection>, AutoCloseable {
+
+    private static final Logger LOG = LogFactory.getLogger(FeaturePageIterator.class);
+
+    /**
+     * Loads and parses a page from a "next" link
+     */
+    interface PageLoader {
+        /**
+         * @param url "next" link
+         * @param opened called with the response once it's open so a cancelled load can close it
+         */
+        Map<String, Object> load(String url, Consumer<AutoCloseable> opened);
+    }
+
+    private final PageLoader loader;
+    private final Executor executor;
+    private final SimpleFeatureType schema;
+    private final MathTransform transform;
+    private final Filter postFilter;
+    private final int hardLimit;
+
+    private Map<String, Object> current;
+    private PageLoad pending;
+    private int numFeatures;
+
+    /**
+     * @param first first page as parsed GeoJSON
+     * @param loader loads and parses the page from a "next" link
+     * @param executor used to load the next page in the background
+     * @param schema feature type for all pages
+     * @param transform optional transform for the geometries
+     * @param postFilter filter for features that couldn't be filtered by the service
+     * @param hardLimit max number of features to load
+     */
+    FeaturePageIterator(Map<String, Object> first, PageLoader loader, Executor executor,
+            SimpleFeatureType schema, MathTransform transform, Filter postFilter, int hardLimit) {
+        this.current = first;
+        this.loader = loader;
+        this.executor = executor;
+        this.schema = schema;
+        this.transform = transform;
+        this.postFilter = postFilter;
+        this.hardLimit = hardLimit;
+    }
+
+    public SimpleFeatureType getSchema() {
+        return schema;
+    }
+
+    public int getHardLimit() {
+        return hardLimit;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (current == null && pending != null) {
+            PageLoad page = pending;
+            pending = null;
+            if (numFeatures >= hardLimit) {
+                // loaded speculatively before the feature count of the previous page was known
+                page.cancel();
+            } else {
+                current = page.join();
+            }
+        }
+        return current != null;
+    }
+
+    /**
+     * Starts loading the following page and decodes this one
+     */
+    @Override
+    public SimpleFeatureCollection next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Map<String, Object> page = current;
+        current = null;
+        String next = OskariWFS3Client.getLinkHref(page, "next");
+        if (next != null && numFeatures < hardLimit) {
+            pending = new PageLoad(next);
+            pending.start();
+        }
+        try {
+            SimpleFeatureCollection sfc = GeoJSONReader2.toFeatureCollection(page, schema, transform, postFilter);
+            numFeatures += sfc.size();
+            return sfc;
+        } catch (MismatchedDimensionException | TransformException e) {
+            close();
+            throw new ServiceRuntimeException("Projection transformation failed", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (pending != null) {
+            pending.cancel();
+            pending = null;
+        }
+        current = null;
+    }
+
+    /**
+     * Load of the next page. Runs on the executor or on the caller if the executor hasn't started it.
+     */
+    private class PageLoad {
+        private final String url;
+        private final FutureTask<Map<String, Object>> task;
+        private volatile AutoCloseable response;
+
+        private PageLoad(String url) {
+            this.url = url;
+            this.task = new FutureTask<>(() -> loader.load(url, this::opened));
+        }
+
+        private void start() {
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                LOG.debug("Prefetch queue is full, next page is loaded when needed:", url);
+            }
+        }
+
+        private Map<String, Object> join() {
+            // no-op if the executor has already started (or finished) the task
+            task.run();
+            try {
+                return task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ServiceRuntimeException("Interrupted while loading next page");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof ServiceRuntimeException) {
+                    throw (ServiceRuntimeException) cause;
+                }
+                throw new ServiceRuntimeException("Loading next page failed", cause);
+            }
+        }
+
+        private void cancel() {
+            task.cancel(false);
+            if (executor instanceof ThreadPoolExecutor) {
+                // don't keep a slot in the queue for a task that would do nothing
+                ((ThreadPoolExecutor) executor).remove(task);
+            }
+            closeResponse(response);
+        }
+
+        private void opened(AutoCloseable response) {
+            this.response = response;
+            if (task.isCancelled()) {
+                // cancelled while connecting
+                closeResponse(response);
+            }
+        }
+
+        private void closeResponse(AutoCloseable response) {
+            if (response == null) {
+                return;
+            }
+            try {
+                response.close();
+            } catch (Exception e) {
+                LOG.debug("Error closing cancelled page load:", url, "-", e.getMessage());
+            }
+        }
+    }
+}
@@ -1,15 +1,18 @@
 package org.oskari.service.wfs3;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.HttpURLConnection;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.net.http.HttpRequest;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import org.geotools.data.simple.SimpleFeatureCollection;
@@ -18,11 +21,8 @@ import org.geotools.referencing.CRS;
 import org.json.JSONObject;
 import org.geotools.api.feature.simple.SimpleFeatureType;
 import org.geotools.api.filter.Filter;
-import org.geotools.api.geometry.MismatchedDimensionException;
 import org.geotools.api.referencing.crs.CoordinateReferenceSystem;
 import org.geotools.api.referencing.operation.MathTransform;
-import org.geotools.api.referencing.operation.TransformException;
-import org.oskari.geojson.GeoJSONReader2;
 import org.oskari.geojson.GeoJSONSchemaDetector;
 
 import com.fasterxml.jackson.core.type.TypeReference;
@@ -34,6 +34,8 @@ import fi.nls.oskari.log.Logger;
 import fi.nls.oskari.service.ServiceRuntimeException;
 import fi.nls.oskari.util.IOHelper;
 import fi.nls.oskari.util.JSONHelper;
+import fi.nls.oskari.util.PooledHttpClient;
+import fi.nls.oskari.util.PropertyUtil;
 import org.oskari.ogcapi.OpenAPILink;
 
 import static fi.nls.oskari.util.IOHelper.CONTENT_TYPE_GEOJSON;
@@ -55,7 +57,11 @@ public class OskariWFS3Client {
     private static final int MAX_PAGE_SIZE = 10_000;
     private static final int MAX_HARD_LIMIT = 100_000;
 
-    private static final int MAX_REDIRECTS = 5;
+    // next pages are loaded in the background while the previous page is being processed,
+    // pages that don't fit in the queue are loaded by the caller when needed
+    private static final ThreadPoolExecutor PREFETCH = createPrefetchExecutor(
+            Math.max(1, PropertyUtil.getOptional("oskari.wfs3.prefetch.threads", 4)),
+            Math.max(1, PropertyUtil.getOptional("oskari.wfs3.prefetch.queue", 16)));
     private static final ObjectMapper OM = new ObjectMapper();
     private static final TypeReference<HashMap<String, Object>> TYPE_REF = new TypeReference<HashMap<String, Object>>() {};
 
@@ -76,6 +82,16 @@ public class OskariWFS3Client {
 
     private OskariWFS3Client() {}
 
+    private static ThreadPoolExecutor createPrefetchExecutor(int threads, int queueSize) {
+        AtomicInteger threadCount = new AtomicInteger();
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), r -> {
+                    Thread thread = new Thread(r, "wfs3-prefetch-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
     /**
      * @deprecated @see #getFeatures(OskariLayer, ReferencedEnvelope, CoordinateReferenceSystem, Filter)
      */
@@ -85,8 +101,23 @@ public class OskariWFS3Client {
         return getFeatures(layer, bbox, crs, null);
     }
 
+    /**
+     * Returns the features as a FeaturePageCollection. The first page is loaded before returning, the following
+     * pages are loaded while the features are iterated. Operations other than features() and isEmpty() load all
+     * the pages.
+     */
     public static SimpleFeatureCollection getFeatures(OskariLayer layer,
             ReferencedEnvelope bbox, CoordinateReferenceSystem crs, Filter filter) throws ServiceRuntimeException {
+        return new FeaturePageCollection(getFeaturePages(layer, bbox, crs, filter), "FeatureCollection");
+    }
+
+    /**
+     * Returns the features page by page. The first page is loaded before returning, following pages are loaded
+     * while the previous one is being consumed so the caller can start processing features before all the pages
+     * have been loaded. The iterator should be closed if it's not consumed to the end.
+     */
+    public static FeaturePageIterator getFeaturePages(OskariLayer layer,
+            ReferencedEnvelope bbox, CoordinateReferenceSystem crs, Filter filter) throws ServiceRuntimeException {
         String crsURI = getCrsURI(layer, crs);
         MathTransform transformCRS84ToTargetCRS = null;
         if (crsURI == null) {
@@ -121,45 +152,42 @@ public class OskariWFS3Client {
             addBboxToQuery(layer, bbox, query);
         }
 
-        Map<String, String> headers = Collections.singletonMap("Accept", CONTENT_TYPE_GEOJSON);
+        Map<String, Object> geojson = readPage(IOHelper.constructUrl(path, query), user, pass, response -> {});
+        boolean ignoreGeometryProperties = true;
+        SimpleFeatureType schema = GeoJSONSchemaDetector.getSchema(geojson, crs, ignoreGeometryProperties);
+        // Blindly follow the next links, don't use the initial queryParameters
+        return new FeaturePageIterator(geojson, (next, opened) -> readPage(next, user, pass, opened), PREFETCH,
+                schema, transformCRS84ToTargetCRS, postFilter, hardLimit);
+    }
 
+    /**
+     * Loads and parses a page of GeoJSON. Redirects are followed by the pooled client.
+     * @param opened gets the response before the body is read, closing it stops the load
+     */
+    static Map<String, Object> readPage(String url, String user, String pass,
+            Consumer<AutoCloseable> opened) throws ServiceRuntimeException {
+        HttpRequest request;
         try {
-            List<SimpleFeatureCollection> pages = new ArrayList<>();
-            int numFeatures = 0;
-
-            HttpURLConnection conn = IOHelper.getConnection(path, user, pass, query, headers);
-            conn = IOHelper.followRedirect(conn, user, pass, query, headers, MAX_REDIRECTS);
-
-            IOHelper.validateResponse(conn, CONTENT_TYPE_GEOJSON);
-            Map<String, Object> geojson = readMap(conn);
-            boolean ignoreGeometryProperties = true;
-            SimpleFeatureType schema = GeoJSONSchemaDetector.getSchema(geojson, crs, ignoreGeometryProperties);
-            SimpleFeatureCollection sfc = GeoJSONReader2.toFeatureCollection(geojson, schema, transformCRS84ToTargetCRS, postFilter);
-            numFeatures += sfc.size();
-            pages.add(sfc);
-            String next = getLinkHref(geojson, "next");
-
-            while (next != null && numFeatures < hardLimit) {
-                // Blindly follow the next link, don't use the initial queryParameters
-                conn = IOHelper.getConnection(next, user, pass, null, headers);
-                conn = IOHelper.followRedirect(conn, user, pass, null, headers, MAX_REDIRECTS);
-
-                IOHelper.validateResponse(conn, CONTENT_TYPE_GEOJSON);
-                geojson = readMap(conn);
-                sfc = GeoJSONReader2.toFeatureCollection(geojson, schema, transformCRS84ToTargetCRS, postFilter);
-                numFeatures += sfc.size();
-                pages.add(sfc);
-                next = getLinkHref(geojson, "next");
+            request = PooledHttpClient.newRequest(url, user, pass, IOHelper.getReadTimeoutMs())
+                    .header(IOHelper.HEADER_ACCEPT, CONTENT_TYPE_GEOJSON)
+                    .GET()
+                    .build();
+        } catch (IllegalArgumentException e) {
+            // "next" links are followed as is
+            throw new ServiceRuntimeException("Invalid url: " + url, e);
+        }
+        try (PooledHttpClient.Response response = PooledHttpClient.send(request)) {
+            opened.accept(response);
+            if (response.getStatusCode() != HttpURLConnection.HTTP_OK) {
+                throw new ServiceRuntimeException("Unexpected status code " + response.getStatusCode());
             }
-
-            if (pages.size() == 1) {
-                return pages.get(0);
+            String contentType = response.getHeader(IOHelper.HEADER_CONTENTTYPE);
+            if (contentType != null && !CONTENT_TYPE_GEOJSON.equals(contentType)) {
+                throw new ServiceRuntimeException("Unexpected content type " + contentType);
             }
-            return new PaginatedFeatureCollection(pages, schema, "FeatureCollection", hardLimit);
+            return OM.readValue(response.getBody(), TYPE_REF);
         } catch (IOException e) {
             throw new ServiceRuntimeException("IOException occured", e);
-        } catch (MismatchedDimensionException | TransformException e) {
-            throw new ServiceRuntimeException("Projection transformation failed", e);
         }
     }
 
@@ -216,7 +244,7 @@ public class OskariWFS3Client {
     }
 
     @SuppressWarnings("unchecked")
-    private static String getLinkHref(Map<String, Object> json, String rel) {
+    static String getLinkHref(Map<String, Object> json, String rel) {
         // Check if there's a link with rel="next"
         Object _links = json.get("links");
         if (_links != null && _links instanceof List) {
@@ -229,12 +257,6 @@ public class OskariWFS3Client {
         return null;
     }
 
-    private static Map<String, Object> readMap(HttpURLConnection conn) throws IOException {
-        try (InputStream in = conn.getInputStream()) {
-            return OM.readValue(in, TYPE_REF);
-        }
-    }
-
     private static String getCollectionsPath(String endPoint, String collectionId) {
         StringBuilder path = new StringBuilder(endPoint);
         // Remove (all) trailing / characters
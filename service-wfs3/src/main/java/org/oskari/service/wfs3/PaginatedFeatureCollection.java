@@ -32,6 +32,10 @@ public class PaginatedFeatureCollection implements SimpleFeatureCollection {
         this.maxSize = maxSize;
     }
 
+    List<SimpleFeatureCollection> getPages() {
+        return pages;
+    }
+
     @Override
     public SimpleFeatureType getSchema() {
         return schema;
@@ -44,12 +48,20 @@ public class PaginatedFeatureCollection implements SimpleFeatureCollection {
 
     @Override
     public void accepts(FeatureVisitor visitor, ProgressListener progress) throws IOException {
-        throw new UnsupportedOperationException();
+        try (SimpleFeatureIterator it = features()) {
+            while (it.hasNext()) {
+                visitor.visit(it.next());
+            }
+        }
     }
 
     @Override
     public ReferencedEnvelope getBounds() {
-        throw new UnsupportedOperationException();
+        ReferencedEnvelope bounds = new ReferencedEnvelope(schema.getCoordinateReferenceSystem());
+        for (SimpleFeatureCollection page : pages) {
+            bounds.expandToInclude(page.getBounds());
+        }
+        return bounds;
     }
 
     @Override
@@ -0,0 +1,219 @@
+package org.oskari.service.wfs3;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.geotools.api.feature.simple.SimpleFeatureType;
+import org.geotools.api.filter.Filter;
+import fi.nls.oskari.service.ServiceRuntimeException;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.oskari.geojson.GeoJSONSchemaDetector;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class FeaturePageIteratorTest {
+
+    private static final ObjectMapper OM = new ObjectMapper();
+    // runs the prefetch on the calling thread so the test is deterministic
+    private static final Executor DIRECT = Runnable::run;
+
+    private static Map<String, Object> getPage(int page, int lastPage) throws Exception {
+        StringBuilder json = new StringBuilder("{\"type\":\"FeatureCollection\",\"features\":[");
+        for (int i = 0; i < 2; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"type\":\"Feature\",\"id\":\"").append(page).append('.').append(i)
+                    .append("\",\"geometry\":{\"type\":\"Point\",\"coordinates\":[25,60]},\"properties\":{\"page\":")
+                    .append(page).append("}}");
+        }
+        json.append("],\"links\":[");
+        if (page < lastPage) {
+            json.append("{\"rel\":\"next\",\"href\":\"page").append(page + 1).append("\"}");
+        }
+        json.append("]}");
+        return OM.readValue(json.toString(), new TypeReference<HashMap<String, Object>>() {});
+    }
+
+    private static FeaturePageIterator getIterator(int lastPage, int hardLimit, AtomicInteger loaded) throws Exception {
+        return getIterator(lastPage, hardLimit, loaded, DIRECT, null);
+    }
+
+    private static FeaturePageIterator getIterator(int lastPage, int hardLimit, AtomicInteger loaded,
+            Executor executor, AutoCloseable response) throws Exception {
+        Map<String, Object> first = getPage(0, lastPage);
+        SimpleFeatureType schema = GeoJSONSchemaDetector.getSchema(first, OskariWFS3Client.getCRS84(), true);
+        FeaturePageIterator.PageLoader loader = (href, opened) -> {
+            loaded.incrementAndGet();
+            if (response != null) {
+                opened.accept(response);
+            }
+            try {
+                return getPage(Integer.parseInt(href.substring("page".length())), lastPage);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        };
+        return new FeaturePageIterator(first, loader, executor, schema, null, Filter.INCLUDE, hardLimit);
+    }
+
+    @Test
+    public void testPagesAreLoadedOneAhead() throws Exception {
+        AtomicInteger loaded = new AtomicInteger();
+        try (FeaturePageIterator it = getIterator(2, 100, loaded)) {
+            Assertions.assertEquals(0, loaded.get(), "Only the first page should be loaded before iterating");
+            SimpleFeatureCollection first = it.next();
+            Assertions.assertEquals(2, first.size());
+            Assertions.assertEquals(1, loaded.get(), "Next page should be requested when the previous one is decoded");
+            it.next();
+            Assertions.assertEquals(2, loaded.get());
+            it.next();
+            Assertions.assertFalse(it.hasNext());
+            Assertions.assertEquals(2, loaded.get());
+        }
+    }
+
+    @Test
+    public void testHardLimit() throws Exception {
+        AtomicInteger loaded = new AtomicInteger();
+        try (FeaturePageIterator it = getIterator(5, 4, loaded)) {
+            int pages = 0;
+            while (it.hasNext()) {
+                it.next();
+                pages++;
+            }
+            Assertions.assertEquals(2, pages, "Should stop after the page reaching the hard limit");
+        }
+    }
+
+    @Test
+    public void testAllFeaturesAreIterated() throws Exception {
+        AtomicInteger loaded = new AtomicInteger();
+        try (FeaturePageIterator it = getIterator(2, 100, loaded)) {
+            int features = 0;
+            while (it.hasNext()) {
+                features += it.next().size();
+            }
+            Assertions.assertEquals(6, features);
+        }
+    }
+
+    @Test
+    public void testPageNotStartedByExecutorIsLoadedByCaller() throws Exception {
+        AtomicInteger loaded = new AtomicInteger();
+        List<Runnable> queued = new ArrayList<>();
+        try (FeaturePageIterator it = getIterator(2, 100, loaded, queued::add, null)) {
+            int features = 0;
+            while (it.hasNext()) {
+                features += it.next().size();
+            }
+            Assertions.assertEquals(6, features);
+            Assertions.assertEquals(2, loaded.get());
+        }
+        // the tasks the executor never got to are no-ops by now
+        queued.forEach(Runnable::run);
+        Assertions.assertEquals(2, loaded.get());
+    }
+
+    @Test
+    public void testCloseCancelsPendingPage() throws Exception {
+        AtomicInteger loaded = new AtomicInteger();
+        List<Runnable> queued = new ArrayList<>();
+        try (FeaturePageIterator it = getIterator(2, 100, loaded, queued::add, null)) {
+            it.next();
+        }
+        queued.forEach(Runnable::run);
+        Assertions.assertEquals(0, loaded.get(), "Cancelled page should not be loaded");
+    }
+
+    @Test
+    public void testCloseClosesOpenedResponse() throws Exception {
+        AtomicInteger loaded = new AtomicInteger();
+        AtomicBoolean responseClosed = new AtomicBoolean();
+        FeaturePageIterator it = getIterator(2, 100, loaded, DIRECT, () -> responseClosed.set(true));
+        it.next();
+        Assertions.assertEquals(1, loaded.get());
+        it.close();
+        Assertions.assertTrue(responseClosed.get(), "Response of the pending page should be closed on cancel");
+    }
+
+    @Test
+    public void testCollectionLoadsPagesWhileIterating() throws Exception {
+        AtomicInteger loaded = new AtomicInteger();
+        FeaturePageCollection fc = new FeaturePageCollection(getIterator(2, 100, loaded), "test");
+        Assertions.assertFalse(fc.isEmpty());
+        Assertions.assertEquals(0, loaded.get(), "isEmpty() should only need the first page");
+        int features = 0;
+        try (SimpleFeatureIterator it = fc.features()) {
+            while (it.hasNext()) {
+                it.next();
+                features++;
+                // the page after the one being read is loaded ahead
+                Assertions.assertTrue(loaded.get() <= features / 2 + 1, "Pages should be loaded as they are needed");
+            }
+        }
+        Assertions.assertEquals(6, features);
+        Assertions.assertThrows(IllegalStateException.class, fc::size, "Streamed features can't be read again");
+    }
+
+    @Test
+    public void testCollectionClosingIteratorCancelsPendingPage() throws Exception {
+        AtomicInteger loaded = new AtomicInteger();
+        List<Runnable> queued = new ArrayList<>();
+        FeaturePageCollection fc = new FeaturePageCollection(getIterator(2, 100, loaded, queued::add, null), "test");
+        try (SimpleFeatureIterator it = fc.features()) {
+            it.next();
+        }
+        queued.forEach(Runnable::run);
+        Assertions.assertEquals(0, loaded.get(), "Cancelled page should not be loaded");
+    }
+
+    @Test
+    public void testCollectionSizeKeepsPages() throws Exception {
+        AtomicInteger loaded = new AtomicInteger();
+        FeaturePageCollection fc = new FeaturePageCollection(getIterator(2, 100, loaded), "test");
+        Assertions.assertEquals(6, fc.size());
+        Assertions.assertEquals(2, loaded.get());
+        for (int i = 0; i < 2; i++) {
+            int features = 0;
+            try (SimpleFeatureIterator it = fc.features()) {
+                while (it.hasNext()) {
+                    it.next();
+                    features++;
+                }
+            }
+            Assertions.assertEquals(6, features, "Loaded collection can be read more than once");
+        }
+        Assertions.assertEquals(2, loaded.get());
+        Assertions.assertEquals(6, fc.mapPages(fc.getSchema(), page -> page).size());
+    }
+
+    @Test
+    public void testCollectionMapPages() throws Exception {
+        AtomicInteger loaded = new AtomicInteger();
+        AtomicInteger mapped = new AtomicInteger();
+        FeaturePageCollection fc = new FeaturePageCollection(getIterator(2, 4, loaded), "test");
+        SimpleFeatureCollection result = fc.mapPages(fc.getSchema(), page -> {
+            mapped.incrementAndGet();
+            return page;
+        });
+        Assertions.assertEquals(0, mapped.get(), "Pages should be mapped when they are read");
+        Assertions.assertEquals(4, result.size());
+        Assertions.assertEquals(2, mapped.get());
+        Assertions.assertThrows(IllegalStateException.class, fc::features);
+    }
+
+    @Test
+    public void testInvalidNextLink() {
+        Assertions.assertThrows(ServiceRuntimeException.class,
+                () -> OskariWFS3Client.readPage("https://localhost/items?next=a b", null, null, response -> {}));
+    }
+}